@@ -45,7 +45,7 @@ public class GBDaoGenerator {
 
 
     public static void main(String[] args) throws Exception {
-        final Schema schema = new Schema(71, MAIN_PACKAGE + ".entities");
+        final Schema schema = new Schema(74, MAIN_PACKAGE + ".entities");
 
         Entity userAttributes = addUserAttributes(schema);
         Entity user = addUserInfo(schema, userAttributes);
@@ -136,6 +136,8 @@ public class GBDaoGenerator {
 
         addActivitySummary(schema, user, device);
         addBatteryLevel(schema, device);
+        addActivityDailyRollup(schema, device);
+        addActivitySampleBucket(schema, device);
         new DaoGenerator().generateAll(schema, "app/src/main/java");
     }
 
@@ -787,11 +789,18 @@ public class GBDaoGenerator {
                 "This class represents a sample specific to the device. Values like activity kind or\n" +
                         "intensity, are device specific. Normalized values can be retrieved through the\n" +
                         "corresponding {@link SampleProvider}.");
-        activitySample.addIntProperty("timestamp").notNull().codeBeforeGetterAndSetter(OVERRIDE).primaryKey();
+        Property timestamp = activitySample.addIntProperty("timestamp").notNull().codeBeforeGetterAndSetter(OVERRIDE).primaryKey().getProperty();
         Property deviceId = activitySample.addLongProperty("deviceId").primaryKey().notNull().codeBeforeGetterAndSetter(OVERRIDE).getProperty();
         activitySample.addToOne(device, deviceId);
         Property userId = activitySample.addLongProperty("userId").notNull().codeBeforeGetterAndSetter(OVERRIDE).getProperty();
         activitySample.addToOne(user, userId);
+
+        // The primary key starts with the timestamp, which does not help queries for a single
+        // device. Keep in sync with GadgetbridgeUpdate_73.
+        Index deviceTimestampIndex = new Index();
+        deviceTimestampIndex.addProperty(deviceId);
+        deviceTimestampIndex.addProperty(timestamp);
+        activitySample.addIndex(deviceTimestampIndex);
     }
 
     private static void addCommonTimeSampleProperties(String superClass, Entity timeSample, Entity user, Entity device) {
@@ -985,6 +994,55 @@ public class GBDaoGenerator {
         return batteryLevel;
     }
 
+    private static Entity addActivityDailyRollup(Schema schema, Entity device) {
+        Entity rollup = addEntity(schema, "ActivityDailyRollup");
+        rollup.setJavaDoc(
+                "Aggregated activity data of a single device for a 24h window starting at windowStart.\n" +
+                        "Used to avoid re-analyzing all raw samples of a day for daily totals.");
+        Property deviceId = rollup.addLongProperty("deviceId").primaryKey().notNull().getProperty();
+        rollup.addToOne(device, deviceId);
+        rollup.addIntProperty("windowStart").notNull().primaryKey();
+        rollup.addIntProperty("sampleCount").notNull();
+        rollup.addIntProperty(SAMPLE_STEPS).notNull();
+        rollup.addIntProperty("activitySeconds").notNull();
+        rollup.addIntProperty("deepSleepSeconds").notNull();
+        rollup.addIntProperty("lightSleepSeconds").notNull();
+        rollup.addIntProperty("remSleepSeconds").notNull();
+        rollup.addIntProperty("notWornSeconds").notNull();
+        rollup.addIntProperty("heartRateMin").notNull();
+        rollup.addIntProperty("heartRateAvg").notNull();
+        rollup.addIntProperty("heartRateMax").notNull();
+        return rollup;
+    }
+
+    private static Entity addActivitySampleBucket(Schema schema, Entity device) {
+        Entity bucket = addEntity(schema, "ActivitySampleBucket");
+        bucket.setJavaDoc(
+                "Aggregated activity samples of a single device, for a time bucket of the given resolution\n" +
+                        "(in seconds) starting at bucketStart. Used to draw long time spans without the raw samples.");
+        Property deviceId = bucket.addLongProperty("deviceId").primaryKey().notNull().getProperty();
+        bucket.addToOne(device, deviceId);
+        bucket.addIntProperty("resolution").notNull().primaryKey();
+        bucket.addIntProperty("bucketStart").notNull().primaryKey();
+        bucket.addIntProperty("sampleCount").notNull();
+        bucket.addIntProperty("stepsSum").notNull();
+        bucket.addIntProperty("stepsMin").notNull();
+        bucket.addIntProperty("stepsMax").notNull();
+        bucket.addFloatProperty("intensitySum").notNull();
+        bucket.addFloatProperty("intensityMin").notNull();
+        bucket.addFloatProperty("intensityMax").notNull();
+        bucket.addIntProperty("heartRateCount").notNull();
+        bucket.addIntProperty("heartRateSum").notNull();
+        bucket.addIntProperty("heartRateMin").notNull();
+        bucket.addIntProperty("heartRateMax").notNull();
+        bucket.addIntProperty("activityCount").notNull();
+        bucket.addIntProperty("lightSleepCount").notNull();
+        bucket.addIntProperty("deepSleepCount").notNull();
+        bucket.addIntProperty("remSleepCount").notNull();
+        bucket.addIntProperty("notWornCount").notNull();
+        return bucket;
+    }
+
     private static Entity addFitProActivitySample(Schema schema, Entity user, Entity device) {
         Entity activitySample = addEntity(schema, "FitProActivitySample");
         activitySample.implementsSerializable();
@@ -63,8 +63,10 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupBackfill;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.DBLockMetrics;
 import nodomain.freeyourgadget.gadgetbridge.database.DBOpenHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.PeriodicExporter;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
@@ -73,6 +75,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.BluetoothStateChangeReceiver;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.TimeChangeReceiver;
+import nodomain.freeyourgadget.gadgetbridge.externalevents.notifications.NotificationFilterIndex;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.opentracks.OpenTracksContentObserver;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceService;
@@ -120,6 +123,8 @@ public class GBApplication extends Application {
 
     private static GBApplication context;
     private static final Lock dbLock = new ReentrantLock();
+    private static final DBLockMetrics dbWriterLockMetrics = new DBLockMetrics("writer");
+    private static final DBLockMetrics dbReaderLockMetrics = new DBLockMetrics("reader");
     private static DeviceService deviceService;
     private static SharedPreferences sharedPrefs;
     private static final String PREFS_VERSION = "shared_preferences_version";
@@ -247,6 +252,10 @@ public class GBApplication extends Application {
 
         PeriodicExporter.enablePeriodicExport(context);
 
+        if (!GBEnvironment.env().isTest()) {
+            ActivityDailyRollupBackfill.startIfNeeded();
+        }
+
         if (isRunningMarshmallowOrLater()) {
             notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
             if (isRunningOreoOrLater()) {
@@ -328,12 +337,18 @@ public class GBApplication extends Application {
         } else {
             helper = new DBOpenHelper(this, DATABASE_NAME, null);
         }
+        boolean concurrentReaders = !env.isTest() && isDatabaseConcurrentAccessEnabled();
+        helper.setWriteAheadLoggingEnabled(concurrentReaders);
         SQLiteDatabase db = helper.getWritableDatabase();
         DaoMaster daoMaster = new DaoMaster(db);
         if (lockHandler == null) {
             lockHandler = new LockHandler();
         }
-        lockHandler.init(daoMaster, helper);
+        lockHandler.init(daoMaster, helper, concurrentReaders);
+    }
+
+    private static boolean isDatabaseConcurrentAccessEnabled() {
+        return prefs != null && prefs.getBoolean("database_concurrent_access", false);
     }
 
     public static Context getContext() {
@@ -374,16 +389,66 @@ public class GBApplication extends Application {
      * @see #releaseDB()
      */
     public static DBHandler acquireDB() throws GBException {
+        final long start = System.nanoTime();
         try {
             if (dbLock.tryLock(30, TimeUnit.SECONDS)) {
+                recordDBLockWait(dbWriterLockMetrics, start, true);
                 return lockHandler;
             }
         } catch (InterruptedException ex) {
             Log.i(TAG, "Interrupted while waiting for DB lock");
         }
+        recordDBLockWait(dbWriterLockMetrics, start, false);
+        throw new GBException("Unable to access the database.");
+    }
+
+    /**
+     * Returns a DBHandler instance for reading only, or throws GBException
+     * when that was not successful.
+     * If concurrent database access is enabled, the returned handler does not
+     * hold the global DB lock and has its own session, so it neither blocks nor is
+     * blocked by writers (e.g. a device sync). Otherwise, this is the same as
+     * #acquireDB().
+     * <p>
+     * Callers must close the returned instance when they are done (from the same
+     * thread that acquired it), and must not write to the database through it.
+     *
+     * @return the DBHandler for reading
+     * @throws GBException
+     * @see #acquireDB()
+     */
+    public static DBHandler acquireReadOnlyDB() throws GBException {
+        if (lockHandler == null || !lockHandler.supportsConcurrentReaders()) {
+            return acquireDB();
+        }
+        final long start = System.nanoTime();
+        try {
+            final DBHandler handler = lockHandler.acquireReader(30, TimeUnit.SECONDS);
+            recordDBLockWait(dbReaderLockMetrics, start, handler != null);
+            if (handler != null) {
+                return handler;
+            }
+        } catch (InterruptedException ex) {
+            Log.i(TAG, "Interrupted while waiting for DB read access");
+        }
         throw new GBException("Unable to access the database.");
     }
 
+    private static void recordDBLockWait(DBLockMetrics metrics, long startNanos, boolean success) {
+        final long waitNanos = System.nanoTime() - startNanos;
+        if (metrics.record(waitNanos, success)) {
+            Log.w(TAG, "Waited " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "ms for DB access in thread "
+                    + Thread.currentThread().getName() + " - " + metrics);
+        }
+    }
+
+    /**
+     * Returns the metrics about waiting for database access, for the writer and reader handlers.
+     */
+    public static DBLockMetrics[] getDBLockMetrics() {
+        return new DBLockMetrics[]{dbWriterLockMetrics, dbReaderLockMetrics};
+    }
+
     /**
      * Releases the database lock.
      *
@@ -602,12 +667,20 @@ public class GBApplication extends Application {
      * @return true on successful deletion
      */
     public static synchronized boolean deleteActivityDatabase(Context context) {
-        // TODO: flush, close, reopen db
         if (lockHandler != null) {
             lockHandler.closeDb();
         }
-        boolean result = deleteOldActivityDatabase(context);
-        result &= getContext().deleteDatabase(DATABASE_NAME);
+        boolean result;
+        try {
+            result = deleteOldActivityDatabase(context);
+            result &= getContext().deleteDatabase(DATABASE_NAME);
+        } finally {
+            // closing keeps the readers out until the database is open again
+            if (lockHandler != null) {
+                lockHandler.openDb();
+            }
+            NotificationFilterIndex.invalidate();
+        }
         return result;
     }
 
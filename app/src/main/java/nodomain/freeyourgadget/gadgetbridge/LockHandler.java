@@ -19,23 +19,38 @@ package nodomain.freeyourgadget.gadgetbridge;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.greenrobot.dao.identityscope.IdentityScopeType;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 
 /**
  * Provides low-level access to the database.
+ * <p>
+ * Besides the single writer session, it can hand out {@link ReaderHandler}s with their own
+ * sessions when concurrent readers are enabled. Readers hold a shared lifecycle lock, so that
+ * the database is never closed (e.g. for export or import) while they are using it.
  */
 public class LockHandler implements DBHandler {
 
     private DaoMaster daoMaster = null;
     private DaoSession session = null;
     private SQLiteOpenHelper helper = null;
+    private boolean concurrentReaders = false;
+    private final ReentrantReadWriteLock lifecycleLock = new ReentrantReadWriteLock();
 
     public LockHandler() {
     }
 
     public void init(DaoMaster daoMaster, DaoMaster.OpenHelper helper) {
+        init(daoMaster, helper, false);
+    }
+
+    public void init(DaoMaster daoMaster, DaoMaster.OpenHelper helper, boolean concurrentReaders) {
         if (isValid()) {
             throw new IllegalStateException("DB must be closed before initializing it again");
         }
@@ -48,10 +63,44 @@ public class LockHandler implements DBHandler {
         this.daoMaster = daoMaster;
         this.helper = helper;
 
+        this.concurrentReaders = concurrentReaders;
+
         session = daoMaster.newSession();
         if (session == null) {
             throw new RuntimeException("Unable to create database session");
         }
+
+        // the db was closed by #closeDb() and is now open again, let the readers in
+        if (lifecycleLock.isWriteLockedByCurrentThread()) {
+            lifecycleLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns true if readers get their own sessions instead of sharing the (locked) writer session.
+     */
+    public boolean supportsConcurrentReaders() {
+        return concurrentReaders;
+    }
+
+    /**
+     * Returns a handler for read access, which does not block and is not blocked by the writer.
+     * Callers must close the returned handler from the same thread.
+     *
+     * @return the reader handler, or null if the database was not available within the timeout
+     */
+    DBHandler acquireReader(long timeout, TimeUnit unit) throws InterruptedException {
+        final Lock readLock = lifecycleLock.readLock();
+        if (!readLock.tryLock(timeout, unit)) {
+            return null;
+        }
+        final DaoMaster currentDaoMaster = daoMaster;
+        if (currentDaoMaster == null) {
+            readLock.unlock();
+            throw new IllegalStateException("LockHandler is not in a valid state");
+        }
+        final DaoSession readerSession = currentDaoMaster.newSession(IdentityScopeType.None);
+        return new ReaderHandler(currentDaoMaster, readerSession, helper, readLock);
     }
 
     @Override
@@ -89,6 +138,14 @@ public class LockHandler implements DBHandler {
         if (session == null) {
             throw new IllegalStateException("session must not be null");
         }
+        // wait for all readers to finish, and keep new ones out until the db is initialized again
+        try {
+            if (!lifecycleLock.isWriteLockedByCurrentThread() && !lifecycleLock.writeLock().tryLock(30, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Unable to close the database while it is still being read");
+            }
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("Interrupted while waiting for database readers", e);
+        }
         session.clear();
         session.getDatabase().close();
         session = null;
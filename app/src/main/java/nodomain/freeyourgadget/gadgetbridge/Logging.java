@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.spi.ILoggingEvent;
@@ -33,13 +34,15 @@ import ch.qos.logback.core.rolling.RollingFileAppender;
 import ch.qos.logback.core.rolling.SizeAndTimeBasedRollingPolicy;
 import ch.qos.logback.core.util.FileSize;
 import ch.qos.logback.core.util.StatusPrinter;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 import nodomain.freeyourgadget.gadgetbridge.BuildConfig;
 
 public abstract class Logging {
     // Only used for tests
     public static final String PROP_LOGFILES_DIR = "GB_LOGFILES_DIR";
 
+    private static final char[] HEX_CHARS_LOWER = "0123456789abcdef".toCharArray();
+
     private String logDirectory;
     private FileAppender<ILoggingEvent> fileLogger;
 
@@ -53,10 +56,25 @@ public abstract class Logging {
             } else {
                 stopFileLogger();
             }
+            updateRootLevel(enable);
             getLogger().info("Gadgetbridge version: {}-{}", BuildConfig.VERSION_NAME, BuildConfig.GIT_HASH_SHORT);
         } catch (Exception ex) {
             Log.e("GBApplication", "External files dir not available, cannot log to file", ex);
             stopFileLogger();
+            updateRootLevel(false);
+        }
+    }
+
+    /**
+     * Release builds without file logging only need info and above in logcat. Raising the root
+     * level turns the debug calls on the hot paths, and their {@link Hex} arguments, into no-ops.
+     */
+    private void updateRootLevel(boolean fileLoggingEnabled) {
+        try {
+            ch.qos.logback.classic.Logger root = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+            root.setLevel(fileLoggingEnabled || BuildConfig.DEBUG ? Level.DEBUG : Level.INFO);
+        } catch (Throwable ex) {
+            Log.e("GBApplication", "Error setting the root log level", ex);
         }
     }
 
@@ -154,17 +172,27 @@ public abstract class Logging {
         if (bytes == null) {
             return "(null)";
         }
-        StringBuilder builder = new StringBuilder(bytes.length * 5);
-        for (byte b : bytes) {
-            builder.append(String.format("0x%02x", b));
-            builder.append(" ");
+        if (bytes.length == 0) {
+            return "";
+        }
+        // same as String.format("0x%02x ") for each byte, without the cost of the formatter
+        char[] chars = new char[bytes.length * 5 - 1];
+        for (int i = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            chars[i * 5] = '0';
+            chars[i * 5 + 1] = 'x';
+            chars[i * 5 + 2] = HEX_CHARS_LOWER[v >>> 4];
+            chars[i * 5 + 3] = HEX_CHARS_LOWER[v & 0x0F];
+            if (i < bytes.length - 1) {
+                chars[i * 5 + 4] = ' ';
+            }
         }
-        return builder.toString().trim();
+        return new String(chars);
     }
 
     public static void logBytes(Logger logger, byte[] value) {
         if (value != null) {
-            logger.warn("DATA: " + GB.hexdump(value, 0, value.length));
+            logger.warn("DATA: {}", Hex.capped(value));
         }
     }
 
@@ -0,0 +1,89 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.concurrent.locks.Lock;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+
+/**
+ * A database handler for readers, which does not hold the global database lock.
+ * It uses its own session without an identity scope, so entities loaded through it
+ * are never shared with the writer session. With write-ahead logging, queries run
+ * concurrently with the writer, seeing the last committed state of the database.
+ * <p>
+ * The database can not be closed or reopened through this handler.
+ */
+class ReaderHandler implements DBHandler {
+    private final DaoMaster daoMaster;
+    private final DaoSession session;
+    private final SQLiteOpenHelper helper;
+    private final Lock lifecycleReadLock;
+    private boolean closed = false;
+
+    ReaderHandler(DaoMaster daoMaster, DaoSession session, SQLiteOpenHelper helper, Lock lifecycleReadLock) {
+        this.daoMaster = daoMaster;
+        this.session = session;
+        this.helper = helper;
+        this.lifecycleReadLock = lifecycleReadLock;
+    }
+
+    @Override
+    public void closeDb() {
+        throw new UnsupportedOperationException("The database can not be closed by a reader");
+    }
+
+    @Override
+    public void openDb() {
+        throw new UnsupportedOperationException("The database can not be opened by a reader");
+    }
+
+    @Override
+    public SQLiteOpenHelper getHelper() {
+        return helper;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            throw new IllegalStateException("ReaderHandler was already closed");
+        }
+        closed = true;
+        session.clear();
+        lifecycleReadLock.unlock();
+    }
+
+    @Override
+    public SQLiteDatabase getDatabase() {
+        return daoMaster.getDatabase();
+    }
+
+    @Override
+    public DaoMaster getDaoMaster() {
+        return daoMaster;
+    }
+
+    @Override
+    public DaoSession getDaoSession() {
+        return session;
+    }
+}
@@ -185,7 +185,7 @@ public class ActivitySummaryDetail extends AbstractGBActivity {
                     activitySummariesChartFragment.setDateAndGetData(getGBDevice(currentItem.getDevice()), currentItem.getStartTime().getTime() / 1000, currentItem.getEndTime().getTime() / 1000);
                     if (get_gpx_file() != null) {
                         showCanvas();
-                        activitySummariesGpsFragment.set_data(get_gpx_file());
+                        activitySummariesGpsFragment.set_data(currentItem.getId(), get_gpx_file());
                     } else {
                         hideCanvas();
                     }
@@ -207,7 +207,7 @@ public class ActivitySummaryDetail extends AbstractGBActivity {
                     activitySummariesChartFragment.setDateAndGetData(getGBDevice(currentItem.getDevice()), currentItem.getStartTime().getTime() / 1000, currentItem.getEndTime().getTime() / 1000);
                     if (get_gpx_file() != null) {
                         showCanvas();
-                        activitySummariesGpsFragment.set_data(get_gpx_file());
+                        activitySummariesGpsFragment.set_data(currentItem.getId(), get_gpx_file());
                     } else {
                         hideCanvas();
                     }
@@ -228,7 +228,7 @@ public class ActivitySummaryDetail extends AbstractGBActivity {
             activitySummariesChartFragment.setDateAndGetData(getGBDevice(currentItem.getDevice()), currentItem.getStartTime().getTime() / 1000, currentItem.getEndTime().getTime() / 1000);
             if (get_gpx_file() != null) {
                 showCanvas();
-                activitySummariesGpsFragment.set_data(get_gpx_file());
+                activitySummariesGpsFragment.set_data(currentItem.getId(), get_gpx_file());
             } else {
                 hideCanvas();
             }
@@ -321,7 +321,7 @@ public class ActivitySummaryDetail extends AbstractGBActivity {
                                         currentItem.update();
                                         if (get_gpx_file() != null) {
                                             showCanvas();
-                                            activitySummariesGpsFragment.set_data(get_gpx_file());
+                                            activitySummariesGpsFragment.set_data(currentItem.getId(), get_gpx_file());
                                         } else {
                                             hideCanvas();
                                         }
@@ -48,6 +48,7 @@ import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.database.DBAccess;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.PeriodicExporter;
@@ -337,15 +338,9 @@ public class DataManagementActivity extends AbstractGBActivity {
                 .setPositiveButton(R.string.activity_DB_ExportButton, new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
-                        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                            exportShared();
-                            DBHelper helper = new DBHelper(DataManagementActivity.this);
-                            File dir = FileUtils.getExternalFilesDir();
-                            File destFile = helper.exportDB(dbHandler, dir);
-                            GB.toast(DataManagementActivity.this, getString(R.string.dbmanagementactivity_exported_to, destFile.getAbsolutePath()), Toast.LENGTH_LONG, GB.INFO);
-                        } catch (Exception ex) {
-                            GB.toast(DataManagementActivity.this, getString(R.string.dbmanagementactivity_error_exporting_db, ex.getMessage()), Toast.LENGTH_LONG, GB.ERROR, ex);
-                        }
+                        exportShared();
+                        // the snapshot may take a while, and may need the database lock on older Android versions
+                        new ExportTask("Export database", DataManagementActivity.this).execute();
                     }
                 })
                 .setNegativeButton(R.string.Cancel, new DialogInterface.OnClickListener() {
@@ -356,6 +351,41 @@ public class DataManagementActivity extends AbstractGBActivity {
                 .show();
     }
 
+    private class ExportTask extends DBAccess {
+        private File destFile;
+        private Exception error;
+
+        public ExportTask(String task, Context context) {
+            super(task, context);
+        }
+
+        @Override
+        protected boolean isReadOnly() {
+            return true;
+        }
+
+        @Override
+        protected void doInBackground(DBHandler dbHandler) {
+            try {
+                DBHelper helper = new DBHelper(getContext());
+                File dir = FileUtils.getExternalFilesDir();
+                destFile = helper.exportDB(dbHandler, dir);
+            } catch (Exception ex) {
+                error = ex;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Object o) {
+            super.onPostExecute(o);
+            if (error != null) {
+                GB.toast(getContext(), getString(R.string.dbmanagementactivity_error_exporting_db, error.getMessage()), Toast.LENGTH_LONG, GB.ERROR, error);
+            } else if (destFile != null) {
+                GB.toast(getContext(), getString(R.string.dbmanagementactivity_exported_to, destFile.getAbsolutePath()), Toast.LENGTH_LONG, GB.INFO);
+            }
+        }
+    }
+
     private void importDB() {
         new MaterialAlertDialogBuilder(this)
                 .setCancelable(true)
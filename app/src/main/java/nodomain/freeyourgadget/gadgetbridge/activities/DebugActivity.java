@@ -76,6 +76,7 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
+import org.json.JSONException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -101,6 +102,7 @@ import nodomain.freeyourgadget.gadgetbridge.Widget;
 import nodomain.freeyourgadget.gadgetbridge.adapter.SpinnerWithIconAdapter;
 import nodomain.freeyourgadget.gadgetbridge.adapter.SpinnerWithIconItem;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBLockMetrics;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
@@ -127,6 +129,7 @@ import nodomain.freeyourgadget.gadgetbridge.util.PendingIntentUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 import nodomain.freeyourgadget.gadgetbridge.util.StringUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.WidgetPreferenceStorage;
+import nodomain.freeyourgadget.gadgetbridge.util.metrics.MetricsRegistry;
 
 public class DebugActivity extends AbstractGBActivity {
     private static final Logger LOG = LoggerFactory.getLogger(DebugActivity.class);
@@ -702,6 +705,9 @@ public class DebugActivity extends AbstractGBActivity {
             }
         });
 
+        final Button showBleMetrics = findViewById(R.id.showBleMetrics);
+        showBleMetrics.setOnClickListener(v -> showBleMetrics());
+
         Button showStatusFitnessAppTracking = findViewById(R.id.showStatusFitnessAppTracking);
         final int delay = 2 * 1000;
 
@@ -1072,6 +1078,41 @@ public class DebugActivity extends AbstractGBActivity {
                 .show();
     }
 
+    private void showBleMetrics() {
+        final StringBuilder builder = new StringBuilder();
+        for (final MetricsRegistry registry : MetricsRegistry.getAll()) {
+            builder.append(registry).append('\n');
+        }
+        for (final DBLockMetrics lockMetrics : GBApplication.getDBLockMetrics()) {
+            builder.append("Database ").append(lockMetrics).append('\n');
+        }
+
+        new MaterialAlertDialogBuilder(DebugActivity.this)
+                .setCancelable(true)
+                .setTitle(R.string.debug_show_ble_metrics)
+                .setMessage(builder.toString())
+                .setPositiveButton(R.string.ok, (dialog, which) -> {
+                })
+                .setNeutralButton(R.string.debug_ble_metrics_copy_json, (dialog, which) -> {
+                    final String json;
+                    try {
+                        json = MetricsRegistry.dumpJson().toString(2);
+                    } catch (final JSONException e) {
+                        LOG.error("Failed to dump metrics", e);
+                        return;
+                    }
+                    final ClipboardManager clipboard = (ClipboardManager) getSystemService(Context.CLIPBOARD_SERVICE);
+                    clipboard.setPrimaryClip(ClipData.newPlainText("Bluetooth metrics", json));
+                })
+                .setNegativeButton(R.string.debug_ble_metrics_reset, (dialog, which) -> {
+                    MetricsRegistry.resetAll();
+                    for (final DBLockMetrics lockMetrics : GBApplication.getDBLockMetrics()) {
+                        lockMetrics.reset();
+                    }
+                })
+                .show();
+    }
+
     private String getWeatherInfo(final WeatherSpec weatherSpec) {
         final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.ROOT);
 
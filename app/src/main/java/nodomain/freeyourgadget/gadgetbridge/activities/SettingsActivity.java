@@ -538,6 +538,7 @@ public class SettingsActivity extends AbstractSettingsActivityV2 {
                 GBApplication.getPrefs().getPreferences()
                         .edit()
                         .putString(GBPrefs.AUTO_EXPORT_LOCATION, uri.toString())
+                        .remove(GBPrefs.AUTO_EXPORT_INCREMENTAL_STATE)
                         .apply();
                 String summary = getAutoExportLocationSummary();
                 findPreference(GBPrefs.AUTO_EXPORT_LOCATION).setSummary(summary);
@@ -45,12 +45,15 @@ import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleBlock;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
 public abstract class AbstractActivityChartFragment<D extends ChartsData> extends AbstractChartFragment<D>  {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractActivityChartFragment.class);
 
+    private static final int SLEEP_HOUR_LIMIT = 12;
+
     public boolean supportsHeartrate(GBDevice device) {
         DeviceCoordinator coordinator = device.getDeviceCoordinator();
         return coordinator != null && coordinator.supportsHeartRateMeasurement(device);
@@ -172,7 +175,20 @@ public abstract class AbstractActivityChartFragment<D extends ChartsData> extend
         return provider.getSleepSamples(tsFrom, tsTo);
     }
 
+    /**
+     * Returns all kinds of samples for the given device, as a {@link SampleBlock}.
+     * To be called from a background thread.
+     */
+    protected SampleBlock getAllSampleBlock(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
+        SampleProvider<? extends ActivitySample> provider = getProvider(db, device);
+        return SampleBlock.load(provider, tsFrom, tsTo);
+    }
+
     public DefaultChartsData<LineData> refresh(GBDevice gbDevice, List<? extends ActivitySample> samples) {
+        return refresh(gbDevice, SampleBlock.of(samples));
+    }
+
+    public DefaultChartsData<LineData> refresh(GBDevice gbDevice, SampleBlock samples) {
 //        Calendar cal = GregorianCalendar.getInstance();
 //        cal.clear();
         TimestampTranslation tsTranslation = new TimestampTranslation();
@@ -202,9 +218,8 @@ public abstract class AbstractActivityChartFragment<D extends ChartsData> extend
             HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
 
             for (int i = 0; i < numEntries; i++) {
-                ActivitySample sample = samples.get(i);
-                int type = sample.getKind();
-                int ts = tsTranslation.shorten(sample.getTimestamp());
+                int type = samples.getKind(i);
+                int ts = tsTranslation.shorten(samples.getTimestamp(i));
 
 //                System.out.println(ts);
 //                ts = i;
@@ -219,7 +234,7 @@ public abstract class AbstractActivityChartFragment<D extends ChartsData> extend
 //                    dateStringTo = dateFormat.format(date);
 //                }
 
-                float movement = sample.getIntensity();
+                float movement = samples.getIntensity(i);
 
                 float value = movement;
                 switch (type) {
@@ -284,13 +299,14 @@ public abstract class AbstractActivityChartFragment<D extends ChartsData> extend
                         }
                         activityEntries.add(createLineEntry(value, ts));
                 }
-                if (hr && sample.getKind() != ActivityKind.TYPE_NOT_WORN && heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
+                int heartRate = samples.getHeartRate(i);
+                if (hr && type != ActivityKind.TYPE_NOT_WORN && heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
                     if (lastHrSampleIndex > -1 && ts - lastHrSampleIndex > 1800*HeartRateUtils.MAX_HR_MEASUREMENTS_GAP_MINUTES) {
                         heartrateEntries.add(createLineEntry(0, lastHrSampleIndex + 1));
                         heartrateEntries.add(createLineEntry(0, ts - 1));
                     }
 
-                    heartrateEntries.add(createLineEntry(sample.getHeartRate(), ts));
+                    heartrateEntries.add(createLineEntry(heartRate, ts));
                     lastHrSampleIndex = ts;
                 }
 
@@ -423,29 +439,55 @@ public abstract class AbstractActivityChartFragment<D extends ChartsData> extend
         return samples;
     }
 
-    protected List<? extends ActivitySample> getSamplesofSleep(DBHandler db, GBDevice device) {
-        int SLEEP_HOUR_LIMIT = 12;
-
+    /**
+     * Same as {@link #getSamples(DBHandler, GBDevice)}, but reads all kinds of samples into a
+     * {@link SampleBlock}, without keeping the sample objects in memory.
+     */
+    protected SampleBlock getSampleBlock(DBHandler db, GBDevice device) {
         int tsStart = getTSStart();
-        Calendar day = GregorianCalendar.getInstance();
-        day.setTimeInMillis(tsStart * 1000L);
-        day.set(Calendar.HOUR_OF_DAY, SLEEP_HOUR_LIMIT);
-        day.set(Calendar.MINUTE, 0);
-        day.set(Calendar.SECOND, 0);
-        tsStart = toTimestamp(day.getTime());
-
         int tsEnd = getTSEnd();
-        day.setTimeInMillis(tsEnd* 1000L);
-        day.set(Calendar.HOUR_OF_DAY, SLEEP_HOUR_LIMIT);
-        day.set(Calendar.MINUTE, 0);
-        day.set(Calendar.SECOND, 0);
-        tsEnd = toTimestamp(day.getTime());
+        SampleBlock samples = getAllSampleBlock(db, device, tsStart, tsEnd);
+        ensureStartAndEndSamples(db, device, samples, tsStart, tsEnd);
+        return samples;
+    }
 
+    protected List<? extends ActivitySample> getSamplesofSleep(DBHandler db, GBDevice device) {
+        int tsStart = getSleepTSStart();
+        int tsEnd = getSleepTSEnd();
         List<ActivitySample> samples = (List<ActivitySample>) getSamples(db, device, tsStart, tsEnd);
         ensureStartAndEndSamples(samples, tsStart, tsEnd);
         return samples;
     }
 
+    /**
+     * Same as {@link #getSamplesofSleep(DBHandler, GBDevice)}, but reads all kinds of samples into
+     * a {@link SampleBlock}, without keeping the sample objects in memory.
+     */
+    protected SampleBlock getSampleBlockOfSleep(DBHandler db, GBDevice device) {
+        int tsStart = getSleepTSStart();
+        int tsEnd = getSleepTSEnd();
+        SampleBlock samples = getAllSampleBlock(db, device, tsStart, tsEnd);
+        ensureStartAndEndSamples(db, device, samples, tsStart, tsEnd);
+        return samples;
+    }
+
+    private int getSleepTSStart() {
+        return toSleepHourLimit(getTSStart());
+    }
+
+    private int getSleepTSEnd() {
+        return toSleepHourLimit(getTSEnd());
+    }
+
+    private int toSleepHourLimit(int timestamp) {
+        Calendar day = GregorianCalendar.getInstance();
+        day.setTimeInMillis(timestamp * 1000L);
+        day.set(Calendar.HOUR_OF_DAY, SLEEP_HOUR_LIMIT);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        return toTimestamp(day.getTime());
+    }
+
     protected void ensureStartAndEndSamples(List<ActivitySample> samples, int tsStart, int tsEnd) {
         if (samples == null || samples.isEmpty()) {
             return;
@@ -461,6 +503,29 @@ public abstract class AbstractActivityChartFragment<D extends ChartsData> extend
         }
     }
 
+    protected void ensureStartAndEndSamples(DBHandler db, GBDevice device, SampleBlock samples, int tsStart, int tsEnd) {
+        if (samples.isEmpty()) {
+            return;
+        }
+        SampleProvider<? extends AbstractActivitySample> provider = getProvider(db, device);
+        if (samples.getTimestamp(samples.size() - 1) < tsEnd) {
+            samples.add(createTrailingActivitySample(samples, provider, tsEnd), true);
+        }
+
+        if (samples.getTimestamp(0) > tsStart) {
+            samples.add(createTrailingActivitySample(samples, provider, tsStart), true);
+        }
+    }
+
+    private ActivitySample createTrailingActivitySample(SampleBlock samples, SampleProvider<? extends AbstractActivitySample> provider, int timestamp) {
+        TrailingActivitySample sample = new TrailingActivitySample();
+        sample.setUserId(samples.getUserId());
+        sample.setDeviceId(samples.getDeviceId());
+        sample.setProvider(provider);
+        sample.setTimestamp(timestamp);
+        return sample;
+    }
+
     private ActivitySample createTrailingActivitySample(ActivitySample referenceSample, int timestamp) {
         TrailingActivitySample sample = new TrailingActivitySample();
         if (referenceSample instanceof AbstractActivitySample) {
@@ -48,11 +48,15 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivitySampleBucketHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
@@ -145,8 +149,12 @@ public abstract class AbstractWeekChartFragment extends AbstractActivityChartFra
         long daily_balance = 0;
         TOTAL_DAYS_FOR_AVERAGE=0;
 
+        Map<Integer, ActivityAmounts> rangeAmounts = getActivityAmountsForRange(db, device, day, TOTAL_DAYS);
         for (int counter = 0; counter < TOTAL_DAYS; counter++) {
-            ActivityAmounts amounts = getActivityAmountsForDay(db, day, device);
+            ActivityAmounts amounts = rangeAmounts.get(getDayStart(day));
+            if (amounts == null) {
+                amounts = getActivityAmountsForDay(db, day, device);
+            }
             daily_balance=calculateBalance(amounts);
             if (daily_balance > 0) {
                 TOTAL_DAYS_FOR_AVERAGE++;
@@ -320,22 +328,6 @@ public abstract class AbstractWeekChartFragment extends AbstractActivityChartFra
         yAxisRight.setTextColor(CHART_TEXT_COLOR);
     }
 
-    private List<? extends ActivitySample> getSamplesOfDay(DBHandler db, Calendar day, int offsetHours, GBDevice device) {
-        int startTs;
-        int endTs;
-
-        day = (Calendar) day.clone(); // do not modify the caller's argument
-        day.set(Calendar.HOUR_OF_DAY, 0);
-        day.set(Calendar.MINUTE, 0);
-        day.set(Calendar.SECOND, 0);
-        day.add(Calendar.HOUR, offsetHours);
-
-        startTs = (int) (day.getTimeInMillis() / 1000);
-        endTs = startTs + 24 * 60 * 60 - 1;
-
-        return getSamples(db, device, startTs, endTs);
-    }
-
     @Override
     protected List<? extends ActivitySample> getSamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
         return super.getAllSamples(db, device, tsFrom, tsTo);
@@ -369,6 +361,19 @@ public abstract class AbstractWeekChartFragment extends AbstractActivityChartFra
         }
     }
 
+    /**
+     * Returns the activity amounts of several days at once, keyed by the start of the day as
+     * returned by {@link #getDayStart(Calendar)}. Days that are missing are read one by one from
+     * the daily rollups.
+     */
+    protected Map<Integer, ActivityAmounts> getActivityAmountsForRange(DBHandler db, GBDevice device, Calendar firstDay, int days) {
+        return Collections.emptyMap();
+    }
+
+    protected static int getDayStart(Calendar day) {
+        return ActivitySampleBucketHelper.getBucketStart(ActivitySampleBucketHelper.RESOLUTION_DAY, (int) (day.getTimeInMillis() / 1000));
+    }
+
     private ActivityAmounts getActivityAmountsForDay(DBHandler db, Calendar day, GBDevice device) {
 
         LimitedQueue<Integer, ActivityAmounts> activityAmountCache = null;
@@ -382,8 +387,8 @@ public abstract class AbstractWeekChartFragment extends AbstractActivityChartFra
         }
 
         if (amounts == null) {
-            ActivityAnalysis analysis = new ActivityAnalysis();
-            amounts = analysis.calculateActivityAmounts(getSamplesOfDay(db, day, mOffsetHours, device));
+            amounts = ActivityDailyRollupHelper.toActivityAmounts(
+                    ActivityDailyRollupHelper.getRollupForDay(db.getDaoSession(), device, day, mOffsetHours));
             if (activityAmountCache != null) {
                 activityAmountCache.add(key, amounts);
             }
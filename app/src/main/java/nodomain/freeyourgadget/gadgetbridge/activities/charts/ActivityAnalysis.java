@@ -23,10 +23,12 @@ import org.slf4j.LoggerFactory;
 import java.util.HashMap;
 import java.util.List;
 
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleBlock;
 
 public class ActivityAnalysis {
     public static final Logger LOG = LoggerFactory.getLogger(ActivityAnalysis.class);
@@ -37,17 +39,52 @@ public class ActivityAnalysis {
     private int maxSpeed = 0;
 
     public ActivityAmounts calculateActivityAmounts(List<? extends ActivitySample> samples) {
-        ActivityAmount deepSleep = new ActivityAmount(ActivityKind.TYPE_DEEP_SLEEP);
-        ActivityAmount lightSleep = new ActivityAmount(ActivityKind.TYPE_LIGHT_SLEEP);
-        ActivityAmount remSleep = new ActivityAmount(ActivityKind.TYPE_REM_SLEEP);
-        ActivityAmount notWorn = new ActivityAmount(ActivityKind.TYPE_NOT_WORN);
-        ActivityAmount activity = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
-
-        ActivityAmount previousAmount = null;
-        ActivitySample previousSample = null;
+        AmountsCalculator calculator = createAmountsCalculator();
         for (ActivitySample sample : samples) {
+            calculator.visit(sample);
+        }
+        return calculator.getActivityAmounts();
+    }
+
+    public ActivityAmounts calculateActivityAmounts(SampleBlock samples) {
+        AmountsCalculator calculator = createAmountsCalculator();
+        for (int i = 0; i < samples.size(); i++) {
+            calculator.add(samples.getKind(i), samples.getRawKind(i), samples.getSteps(i), samples.getTimestamp(i));
+        }
+        return calculator.getActivityAmounts();
+    }
+
+    /**
+     * Creates a visitor that calculates the activity amounts of the samples passed to it, in
+     * ascending timestamp order. It does not keep references to the samples.
+     */
+    public AmountsCalculator createAmountsCalculator() {
+        return new AmountsCalculator();
+    }
+
+    public class AmountsCalculator implements SampleVisitor<ActivitySample> {
+        private final ActivityAmount deepSleep = new ActivityAmount(ActivityKind.TYPE_DEEP_SLEEP);
+        private final ActivityAmount lightSleep = new ActivityAmount(ActivityKind.TYPE_LIGHT_SLEEP);
+        private final ActivityAmount remSleep = new ActivityAmount(ActivityKind.TYPE_REM_SLEEP);
+        private final ActivityAmount notWorn = new ActivityAmount(ActivityKind.TYPE_NOT_WORN);
+        private final ActivityAmount activity = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
+
+        private ActivityAmount previousAmount = null;
+        // only the values of the previous sample, since the sample objects may be re-used
+        private int previousTimestamp;
+        private int previousRawKind;
+
+        private AmountsCalculator() {
+        }
+
+        @Override
+        public void visit(ActivitySample sample) {
+            add(sample.getKind(), sample.getRawKind(), sample.getSteps(), sample.getTimestamp());
+        }
+
+        private void add(int kind, int rawKind, int steps, int timestamp) {
             ActivityAmount amount;
-            switch (sample.getKind()) {
+            switch (kind) {
                 case ActivityKind.TYPE_DEEP_SLEEP:
                     amount = deepSleep;
                     break;
@@ -66,14 +103,13 @@ public class ActivityAnalysis {
                     break;
             }
 
-            int steps = sample.getSteps();
             if (steps > 0) {
                 amount.addSteps(steps);
             }
 
-            if (previousSample != null) {
-                long timeDifference = sample.getTimestamp() - previousSample.getTimestamp();
-                if (previousSample.getRawKind() == sample.getRawKind()) {
+            if (previousAmount != null) {
+                long timeDifference = timestamp - previousTimestamp;
+                if (previousRawKind == rawKind) {
                     amount.addSeconds(timeDifference);
                 } else {
                     long sharedTimeDifference = (long) (timeDifference / 2.0f);
@@ -82,7 +118,7 @@ public class ActivityAnalysis {
                 }
 
                 // add time
-                if (steps > 0 && sample.getKind() == ActivityKind.TYPE_ACTIVITY) {
+                if (steps > 0 && kind == ActivityKind.TYPE_ACTIVITY) {
                     if (steps > maxSpeed) {
                         maxSpeed = steps;
                     }
@@ -98,33 +134,36 @@ public class ActivityAnalysis {
                 }
             }
 
-            amount.setStartDate(sample.getTimestamp());
-            amount.setEndDate(sample.getTimestamp());
+            amount.setStartDate(timestamp);
+            amount.setEndDate(timestamp);
 
             previousAmount = amount;
-            previousSample = sample;
+            previousTimestamp = timestamp;
+            previousRawKind = rawKind;
         }
 
-        ActivityAmounts result = new ActivityAmounts();
-        if (deepSleep.getTotalSeconds() > 0) {
-            result.addAmount(deepSleep);
-        }
-        if (lightSleep.getTotalSeconds() > 0) {
-            result.addAmount(lightSleep);
-        }
-        if (remSleep.getTotalSeconds() > 0) {
-            result.addAmount(remSleep);
-        }
-        if (activity.getTotalSeconds() > 0) {
-            result.addAmount(activity);
-        }
-        if (notWorn.getTotalSeconds() > 0) {
-            result.addAmount(notWorn);
-        }
+        public ActivityAmounts getActivityAmounts() {
+            ActivityAmounts result = new ActivityAmounts();
+            if (deepSleep.getTotalSeconds() > 0) {
+                result.addAmount(deepSleep);
+            }
+            if (lightSleep.getTotalSeconds() > 0) {
+                result.addAmount(lightSleep);
+            }
+            if (remSleep.getTotalSeconds() > 0) {
+                result.addAmount(remSleep);
+            }
+            if (activity.getTotalSeconds() > 0) {
+                result.addAmount(activity);
+            }
+            if (notWorn.getTotalSeconds() > 0) {
+                result.addAmount(notWorn);
+            }
 
-        result.calculatePercentages();
+            result.calculatePercentages();
 
-        return result;
+            return result;
+        }
     }
 
     int calculateTotalSteps(List<? extends ActivitySample> samples) {
@@ -47,6 +47,7 @@ import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySession;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleBlock;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 
 public class ActivityListingChartFragment extends AbstractActivityChartFragment<ActivityListingChartFragment.MyChartsData> {
@@ -113,8 +114,8 @@ public class ActivityListingChartFragment extends AbstractActivityChartFragment<
 
     @Override
     protected MyChartsData refreshInBackground(ChartsHost chartsHost, DBHandler db, GBDevice device) {
-        List<? extends ActivitySample> activitySamples;
-        activitySamples = getSamples(db, device);
+        SampleBlock activitySamples;
+        activitySamples = getDaySampleBlock(db, device);
         List<ActivitySession> stepSessions = null;
         ActivitySession ongoingSession = null;
         StepAnalysis stepAnalysis = new StepAnalysis();
@@ -171,15 +172,33 @@ public class ActivityListingChartFragment extends AbstractActivityChartFragment<
 
     @Override
     protected List<? extends ActivitySample> getSamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
+        tsFrom = getDayStart(tsTo);
+        tsTo = tsFrom + 24 * 60 * 60 - 1;
+        tsDateTo = tsTo;
+        return getAllSamples(db, device, tsFrom, tsTo);
+    }
+
+    /**
+     * Same as {@link #getSampleBlock(DBHandler, GBDevice)}, but limited to the selected day,
+     * like {@link #getSamples(DBHandler, GBDevice, int, int)}.
+     */
+    private SampleBlock getDaySampleBlock(DBHandler db, GBDevice device) {
+        int tsStart = getTSStart();
+        int tsEnd = getTSEnd();
+        int dayStart = getDayStart(tsEnd);
+        tsDateTo = dayStart + 24 * 60 * 60 - 1;
+        SampleBlock samples = getAllSampleBlock(db, device, dayStart, tsDateTo);
+        ensureStartAndEndSamples(db, device, samples, tsStart, tsEnd);
+        return samples;
+    }
+
+    private static int getDayStart(int tsTo) {
         Calendar day = Calendar.getInstance();
         day.setTimeInMillis(tsTo * 1000L); //we need today initially, which is the end of the time range
         day.set(Calendar.HOUR_OF_DAY, 0); //and we set time for the start and end of the same day
         day.set(Calendar.MINUTE, 0);
         day.set(Calendar.SECOND, 0);
-        tsFrom = (int) (day.getTimeInMillis() / 1000);
-        tsTo = tsFrom + 24 * 60 * 60 - 1;
-        tsDateTo = tsTo;
-        return getAllSamples(db, device, tsFrom, tsTo);
+        return (int) (day.getTimeInMillis() / 1000);
     }
 
     private void showOngoingActivitySnackbar(ActivitySession ongoingSession) {
@@ -22,6 +22,7 @@ import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleBlock;
 
 public class SleepAnalysis {
 
@@ -29,9 +30,12 @@ public class SleepAnalysis {
     public static final long MAX_WAKE_PHASE_LENGTH = 2 * 60 * 60;
 
     public List<SleepSession> calculateSleepSessions(List<? extends ActivitySample> samples) {
+        return calculateSleepSessions(SampleBlock.of(samples));
+    }
+
+    public List<SleepSession> calculateSleepSessions(SampleBlock samples) {
         List<SleepSession> result = new ArrayList<>();
 
-        ActivitySample previousSample = null;
         Date sleepStart = null;
         Date sleepEnd = null;
         long lightSleepDuration = 0;
@@ -39,11 +43,12 @@ public class SleepAnalysis {
         long remSleepDuration = 0;
         long durationSinceLastSleep = 0;
 
-        for (ActivitySample sample : samples) {
-            if (isSleep(sample)) {
+        for (int i = 0; i < samples.size(); i++) {
+            int kind = samples.getKind(i);
+            if (isSleep(kind)) {
                 if (sleepStart == null)
-                    sleepStart = getDateFromSample(sample);
-                sleepEnd = getDateFromSample(sample);
+                    sleepStart = getDateFromSample(samples, i);
+                sleepEnd = getDateFromSample(samples, i);
 
                 durationSinceLastSleep = 0;
             } else {
@@ -57,13 +62,13 @@ public class SleepAnalysis {
                 remSleepDuration = 0;
             }
 
-            if (previousSample != null) {
-                long durationSinceLastSample = sample.getTimestamp() - previousSample.getTimestamp();
-                if (sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP) {
+            if (i > 0) {
+                long durationSinceLastSample = samples.getTimestamp(i) - samples.getTimestamp(i - 1);
+                if (kind == ActivityKind.TYPE_LIGHT_SLEEP) {
                     lightSleepDuration += durationSinceLastSample;
-                } else if (sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP) {
+                } else if (kind == ActivityKind.TYPE_DEEP_SLEEP) {
                     deepSleepDuration += durationSinceLastSample;
-                } else if (sample.getKind() == ActivityKind.TYPE_REM_SLEEP) {
+                } else if (kind == ActivityKind.TYPE_REM_SLEEP) {
                     remSleepDuration += durationSinceLastSample;
                 } else {
                     durationSinceLastSleep += durationSinceLastSample;
@@ -78,8 +83,6 @@ public class SleepAnalysis {
                     }
                 }
             }
-
-            previousSample = sample;
         }
         if (lightSleepDuration + deepSleepDuration + remSleepDuration > MIN_SESSION_LENGTH) {
             result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration, remSleepDuration));
@@ -87,14 +90,14 @@ public class SleepAnalysis {
         return result;
     }
 
-    private boolean isSleep(ActivitySample sample) {
-        return sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP ||
-                sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP ||
-                sample.getKind() == ActivityKind.TYPE_REM_SLEEP;
+    private boolean isSleep(int kind) {
+        return kind == ActivityKind.TYPE_DEEP_SLEEP ||
+                kind == ActivityKind.TYPE_LIGHT_SLEEP ||
+                kind == ActivityKind.TYPE_REM_SLEEP;
     }
 
-    private Date getDateFromSample(ActivitySample sample) {
-        return new Date(sample.getTimestamp() * 1000L);
+    private Date getDateFromSample(SampleBlock samples, int index) {
+        return new Date(samples.getTimestamp(index) * 1000L);
     }
 
 
@@ -51,7 +51,6 @@ import org.slf4j.LoggerFactory;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -63,6 +62,7 @@ import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleBlock;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
@@ -95,11 +95,11 @@ public class SleepChartFragment extends AbstractActivityChartFragment<SleepChart
 
     @Override
     protected MyChartsData refreshInBackground(ChartsHost chartsHost, DBHandler db, GBDevice device) {
-        List<? extends ActivitySample> samples;
+        SampleBlock samples;
         if (CHARTS_SLEEP_RANGE_24H) {
-            samples = getSamples(db, device);
+            samples = getSampleBlock(db, device);
         } else {
-            samples = getSamplesofSleep(db, device);
+            samples = getSampleBlockOfSleep(db, device);
         }
 
         MySleepChartsData mySleepChartsData = refreshSleepAmounts(device, samples);
@@ -109,12 +109,7 @@ public class SleepChartFragment extends AbstractActivityChartFragment<SleepChart
                 long tstart = mySleepChartsData.sleepSessions.get(0).getSleepStart().getTime() / 1000;
                 long tend = mySleepChartsData.sleepSessions.get(mySleepChartsData.sleepSessions.size() - 1).getSleepEnd().getTime() / 1000;
 
-                for (Iterator<ActivitySample> iterator = (Iterator<ActivitySample>) samples.iterator(); iterator.hasNext(); ) {
-                    ActivitySample sample = iterator.next();
-                    if (sample.getTimestamp() < tstart || sample.getTimestamp() > tend) {
-                        iterator.remove();
-                    }
-                }
+                samples.retainRange((int) tstart, (int) tend);
             }
         }
         DefaultChartsData<LineData> chartsData = refresh(device, samples);
@@ -125,7 +120,7 @@ public class SleepChartFragment extends AbstractActivityChartFragment<SleepChart
 
 
 
-    private MySleepChartsData refreshSleepAmounts(GBDevice mGBDevice, List<? extends ActivitySample> samples) {
+    private MySleepChartsData refreshSleepAmounts(GBDevice mGBDevice, SampleBlock samples) {
         SleepAnalysis sleepAnalysis = new SleepAnalysis();
         List<SleepSession> sleepSessions = sleepAnalysis.calculateSleepSessions(samples);
 
@@ -228,16 +223,16 @@ public class SleepChartFragment extends AbstractActivityChartFragment<SleepChart
         }
     }
 
-    private Triple<Float, Integer, Integer> calculateHrData(List<? extends ActivitySample> samples) {
-        if (samples.toArray().length < 1) {
+    private Triple<Float, Integer, Integer> calculateHrData(SampleBlock samples) {
+        if (samples.isEmpty()) {
             return Triple.of(0f, 0, 0);
         }
 
         List<Integer> heartRateValues = new ArrayList<>();
         HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
-        for (ActivitySample sample : samples) {
-            if (sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP || sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                int heartRate = sample.getHeartRate();
+        for (int i = 0; i < samples.size(); i++) {
+            if (samples.getKind(i) == ActivityKind.TYPE_LIGHT_SLEEP || samples.getKind(i) == ActivityKind.TYPE_DEEP_SLEEP) {
+                int heartRate = samples.getHeartRate(i);
                 if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
                     heartRateValues.add(heartRate);
                 }
@@ -271,16 +266,16 @@ public class SleepChartFragment extends AbstractActivityChartFragment<SleepChart
         return result;
     }
 
-    private Triple<Float, Float, Float> calculateIntensityData(List<? extends ActivitySample> samples) {
-        if (samples.toArray().length < 1) {
+    private Triple<Float, Float, Float> calculateIntensityData(SampleBlock samples) {
+        if (samples.isEmpty()) {
             return Triple.of(0f, 0f, 0f);
         }
 
         List<Float> allIntensities = new ArrayList<>();
 
-        for (ActivitySample s : samples) {
-            if (s.getKind() == ActivityKind.TYPE_LIGHT_SLEEP || s.getKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                float intensity = s.getIntensity();
+        for (int i = 0; i < samples.size(); i++) {
+            if (samples.getKind(i) == ActivityKind.TYPE_LIGHT_SLEEP || samples.getKind(i) == ActivityKind.TYPE_DEEP_SLEEP) {
+                float intensity = samples.getIntensity(i);
                 allIntensities.add(intensity);
             }
         }
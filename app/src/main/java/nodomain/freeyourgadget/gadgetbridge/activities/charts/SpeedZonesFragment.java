@@ -42,6 +42,7 @@ import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleBlock;
 
 
 public class SpeedZonesFragment extends AbstractActivityChartFragment<ChartsData> {
@@ -51,14 +52,14 @@ public class SpeedZonesFragment extends AbstractActivityChartFragment<ChartsData
 
     @Override
     protected ChartsData refreshInBackground(ChartsHost chartsHost, DBHandler db, GBDevice device) {
-        List<? extends ActivitySample> samples = getSamples(db, device);
+        SampleBlock samples = getSampleBlock(db, device);
 
         MySpeedZonesData mySpeedZonesData = refreshStats(samples);
 
         return new MyChartsData(mySpeedZonesData);
     }
 
-    private MySpeedZonesData refreshStats(List<? extends ActivitySample> samples) {
+    private MySpeedZonesData refreshStats(SampleBlock samples) {
         ActivityAnalysis analysis = new ActivityAnalysis();
         analysis.calculateActivityAmounts(samples);
         BarData data = new BarData();
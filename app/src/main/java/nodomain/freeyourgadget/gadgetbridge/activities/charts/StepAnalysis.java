@@ -29,13 +29,22 @@ import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySession;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleBlock;
 
 public class StepAnalysis {
     protected static final Logger LOG = LoggerFactory.getLogger(StepAnalysis.class);
     private int totalDailySteps = 0;
 
     public List<ActivitySession> calculateStepSessions(List<? extends ActivitySample> samples) {
-        LOG.debug("get all samples activitysessions: " + samples.toArray().length);
+        SampleBlock block = new SampleBlock(samples.size());
+        for (ActivitySample sample : samples) {
+            block.add(sample, sample instanceof TrailingActivitySample);
+        }
+        return calculateStepSessions(block);
+    }
+
+    public List<ActivitySession> calculateStepSessions(SampleBlock samples) {
+        LOG.debug("get all samples activitysessions: " + samples.size());
         List<ActivitySession> result = new ArrayList<>();
         ActivityUser activityUser = new ActivityUser();
         final int MIN_SESSION_LENGTH = 60 * GBApplication.getPrefs().getInt("chart_list_min_session_length", 5);
@@ -46,7 +55,7 @@ public class StepAnalysis {
         final double MIN_SESSION_INTENSITY = Math.max(0, Math.min(1, MIN_STEPS_PER_MINUTE * 0.01));
         totalDailySteps = 0;
 
-        ActivitySample previousSample = null;
+        int previousIndex = -1;
         Date sessionStart = null;
         Date sessionEnd;
         int activeSteps = 0; //steps that we count
@@ -61,37 +70,39 @@ public class StepAnalysis {
         float intensityBetweenActivePeriods = 0;
         HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
 
-        for (ActivitySample sample : samples) {
-            int steps = sample.getSteps();
+        for (int i = 0; i < samples.size(); i++) {
+            int steps = samples.getSteps(i);
             if (steps > 0) {
                 totalDailySteps += steps;
             }
 
-            if (sample.getKind() != ActivityKind.TYPE_SLEEP //anything but sleep counts
-                    && !(sample instanceof TrailingActivitySample)) { //trailing samples have wrong date and make trailing activity have 0 duration
+            if (samples.getKind(i) != ActivityKind.TYPE_SLEEP //anything but sleep counts
+                    && !samples.isTrailing(i)) { //trailing samples have wrong date and make trailing activity have 0 duration
+                float intensity = samples.getIntensity(i);
+                int heartRate = samples.getHeartRate(i);
 
                 if (sessionStart == null) {
-                    sessionStart = getDateFromSample(sample);
-                    activeSteps = sample.getSteps();
-                    activeIntensity = sample.getIntensity();
+                    sessionStart = getDateFromSample(samples, i);
+                    activeSteps = steps;
+                    activeIntensity = intensity;
                     heartRateSum = new ArrayList<>();
-                    if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                        heartRateSum.add(sample.getHeartRate());
+                    if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
+                        heartRateSum.add(heartRate);
                     }
                     durationSinceLastActiveStep = 0;
                     stepsBetweenActivePeriods = 0;
                     heartRateBetweenActivePeriodsSum = new ArrayList<>();
-                    previousSample = null;
+                    previousIndex = -1;
                 }
-                if (previousSample != null) {
-                    int durationSinceLastSample = sample.getTimestamp() - previousSample.getTimestamp();
-
-                    if (sample.getSteps() > MIN_STEPS_PER_MINUTE || //either some steps
-                            (sample.getIntensity() > MIN_SESSION_INTENSITY && sample.getSteps() > 0)) { //or some intensity plus at least one step
-                        activeSteps += sample.getSteps() + stepsBetweenActivePeriods;
-                        activeIntensity += sample.getIntensity() + intensityBetweenActivePeriods;
-                        if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                            heartRateSum.add(sample.getHeartRate());
+                if (previousIndex >= 0) {
+                    int durationSinceLastSample = samples.getTimestamp(i) - samples.getTimestamp(previousIndex);
+
+                    if (steps > MIN_STEPS_PER_MINUTE || //either some steps
+                            (intensity > MIN_SESSION_INTENSITY && steps > 0)) { //or some intensity plus at least one step
+                        activeSteps += steps + stepsBetweenActivePeriods;
+                        activeIntensity += intensity + intensityBetweenActivePeriods;
+                        if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
+                            heartRateSum.add(heartRate);
                         }
                         heartRateSum.addAll(heartRateBetweenActivePeriodsSum);
                         heartRateBetweenActivePeriodsSum = new ArrayList<>();
@@ -100,23 +111,23 @@ public class StepAnalysis {
                         durationSinceLastActiveStep = 0;
 
                     } else { //short break data to remember, we will add it to the rest later, if break not too long
-                        stepsBetweenActivePeriods += sample.getSteps();
-                        if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                            heartRateBetweenActivePeriodsSum.add(sample.getHeartRate());
+                        stepsBetweenActivePeriods += steps;
+                        if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
+                            heartRateBetweenActivePeriodsSum.add(heartRate);
                         }
                         durationSinceLastActiveStep += durationSinceLastSample;
-                        intensityBetweenActivePeriods += sample.getIntensity();
+                        intensityBetweenActivePeriods += intensity;
                     }
                     if (durationSinceLastActiveStep >= MAX_IDLE_PHASE_LENGTH) { //break too long, we split here
 
-                        int current = sample.getTimestamp();
+                        int current = samples.getTimestamp(i);
                         int starting = (int) (sessionStart.getTime() / 1000);
                         int session_length = current - starting - durationSinceLastActiveStep;
 
                         if (session_length >= MIN_SESSION_LENGTH) { //valid activity session
                             int heartRateAverage = heartRateSum.toArray().length > 0 ? calculateSumOfInts(heartRateSum) / heartRateSum.toArray().length : 0;
                             float distance = (float) (activeSteps * STEP_LENGTH_M);
-                            sessionEnd = new Date((sample.getTimestamp() - durationSinceLastActiveStep) * 1000L);
+                            sessionEnd = new Date((current - durationSinceLastActiveStep) * 1000L);
                             activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
                             ActivitySession activitySession = new ActivitySession(sessionStart, sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind);
                             //activitySession.setSessionType(ActivitySession.SESSION_ONGOING);
@@ -125,20 +136,20 @@ public class StepAnalysis {
                         sessionStart = null;
                     }
                 }
-                previousSample = sample;
+                previousIndex = i;
             }
         }
         //trailing activity: make sure we show the last portion of the data as well in case no further activity is recorded yet
 
-        if (sessionStart != null && previousSample != null) {
-            int current = previousSample.getTimestamp();
+        if (sessionStart != null && previousIndex >= 0) {
+            int current = samples.getTimestamp(previousIndex);
             int starting = (int) (sessionStart.getTime() / 1000);
             int session_length = current - starting - durationSinceLastActiveStep;
 
             if (session_length >= MIN_SESSION_LENGTH) {
                 int heartRateAverage = heartRateSum.toArray().length > 0 ? calculateSumOfInts(heartRateSum) / heartRateSum.toArray().length : 0;
                 float distance = (float) (activeSteps * STEP_LENGTH_M);
-                sessionEnd = getDateFromSample(previousSample);
+                sessionEnd = getDateFromSample(samples, previousIndex);
                 activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
                 ActivitySession ongoingActivity = new ActivitySession(sessionStart, sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind);
                 ongoingActivity.setSessionType(ActivitySession.SESSION_ONGOING);
@@ -222,7 +233,7 @@ public class StepAnalysis {
         return ActivityKind.TYPE_ACTIVITY;
     }
 
-    private Date getDateFromSample(ActivitySample sample) {
-        return new Date(sample.getTimestamp() * 1000L);
+    private Date getDateFromSample(SampleBlock samples, int index) {
+        return new Date(samples.getTimestamp(index) * 1000L);
     }
 }
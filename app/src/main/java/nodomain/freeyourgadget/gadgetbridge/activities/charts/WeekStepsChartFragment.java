@@ -20,10 +20,19 @@ package nodomain.freeyourgadget.gadgetbridge.activities.charts;
 import com.github.mikephil.charting.charts.Chart;
 import com.github.mikephil.charting.formatter.ValueFormatter;
 
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivitySampleBucketHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivitySampleBucket;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
 
 public class WeekStepsChartFragment extends AbstractWeekChartFragment {
@@ -61,6 +70,29 @@ public class WeekStepsChartFragment extends AbstractWeekChartFragment {
         return new float[]{totalSteps};
     }
 
+    @Override
+    protected Map<Integer, ActivityAmounts> getActivityAmountsForRange(DBHandler db, GBDevice device, Calendar firstDay, int days) {
+        // the steps of a day are the sum of its daily sample bucket, so the whole range is a single query
+        Calendar lastDay = (Calendar) firstDay.clone();
+        lastDay.add(Calendar.DATE, days - 1);
+        int todayStart = getDayStart(Calendar.getInstance());
+
+        Map<Integer, ActivityAmounts> result = new HashMap<>();
+        for (ActivitySampleBucket bucket : ActivitySampleBucketHelper.getBuckets(db.getDaoSession(), device,
+                ActivitySampleBucketHelper.RESOLUTION_DAY, getDayStart(firstDay), getDayStart(lastDay))) {
+            if (bucket.getBucketStart() >= todayStart) {
+                // the bucket of today may lag behind the latest samples, which the pie chart shows
+                continue;
+            }
+            ActivityAmount amount = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
+            amount.addSteps(bucket.getStepsSum());
+            ActivityAmounts amounts = new ActivityAmounts();
+            amounts.addAmount(amount);
+            result.put(bucket.getBucketStart(), amounts);
+        }
+        return result;
+    }
+
     @Override
     protected long calculateBalance(ActivityAmounts activityAmounts) {
         long balance = 0;
@@ -0,0 +1,196 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+
+/**
+ * Background job that creates the {@link ActivityDailyRollupHelper daily rollups} and the
+ * {@link ActivitySampleBucketHelper sample buckets} for all the activity data that was recorded
+ * before the respective tables existed. The work is split into
+ * chunks, each holding the database lock only briefly, so that syncs and charts are not blocked.
+ * <p>
+ * It also persists the rollups that readers had to compute on the fly, see {@link #persistLater},
+ * and updates the sample buckets of samples written one by one, see {@link #updateBucketsLater}.
+ */
+public class ActivityDailyRollupBackfill implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivityDailyRollupBackfill.class);
+
+    private static final String PREF_BACKFILL_VERSION = "activity_daily_rollup_backfill_version";
+    // 1: daily rollups, 2: sample buckets
+    private static final int BACKFILL_VERSION = 2;
+    private static final int CHUNK_DAYS = 30;
+
+    private static boolean running = false;
+
+    // coalesces the bucket updates of samples arriving one by one, e.g. in realtime
+    private static final int BUCKET_UPDATE_DELAY_SECONDS = 30;
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+    private static final Set<String> pendingRollups = new HashSet<>();
+    private static final Map<String, int[]> pendingBucketUpdates = new HashMap<>();
+
+    public static synchronized void startIfNeeded() {
+        final Prefs prefs = GBApplication.getPrefs();
+        if (running || prefs.getInt(PREF_BACKFILL_VERSION, 0) >= BACKFILL_VERSION) {
+            return;
+        }
+        running = true;
+        new Thread(new ActivityDailyRollupBackfill(), "Gadgetbridge Daily Rollup Backfill").start();
+    }
+
+    /**
+     * Persists the rollup of a complete window in the background, under the writer lock. Readers
+     * must not write to the database, so they compute a missing rollup on the fly and queue it here.
+     * The rollup is computed again when persisting it, as the samples may have changed meanwhile.
+     */
+    public static void persistLater(final GBDevice device, final int windowStart) {
+        final String key = device.getAddress() + "/" + windowStart;
+        synchronized (pendingRollups) {
+            if (!pendingRollups.add(key)) {
+                return;
+            }
+        }
+
+        EXECUTOR.execute(() -> {
+            try (DBHandler db = GBApplication.acquireDB()) {
+                ActivityDailyRollupHelper.persistRollup(db.getDaoSession(), device, windowStart);
+            } catch (final Exception e) {
+                LOG.warn("Failed to persist the daily rollup of {} at {}", device, windowStart, e);
+            } finally {
+                synchronized (pendingRollups) {
+                    pendingRollups.remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Updates the {@link ActivitySampleBucketHelper sample buckets} of the given time range a little
+     * later, under the writer lock. Re-computing the buckets for every single sample would be far
+     * more expensive than writing the sample, so the ranges of a device are merged until then.
+     * Samples written in batches through {@link SampleProvider#addGBActivitySamples} update the
+     * buckets right away instead.
+     */
+    public static void updateBucketsLater(final GBDevice device, final int timestampFrom, final int timestampTo) {
+        final String key = device.getAddress();
+        synchronized (pendingBucketUpdates) {
+            final int[] range = pendingBucketUpdates.get(key);
+            if (range != null) {
+                range[0] = Math.min(range[0], timestampFrom);
+                range[1] = Math.max(range[1], timestampTo);
+                return;
+            }
+            pendingBucketUpdates.put(key, new int[]{timestampFrom, timestampTo});
+        }
+
+        EXECUTOR.schedule(() -> {
+            final int[] range;
+            synchronized (pendingBucketUpdates) {
+                range = pendingBucketUpdates.remove(key);
+            }
+            try (DBHandler db = GBApplication.acquireDB()) {
+                final DaoSession session = db.getDaoSession();
+                final Device dbDevice = DBHelper.findDevice(device, session);
+                final SampleProvider<? extends ActivitySample> provider = device.getDeviceCoordinator().getSampleProvider(device, session);
+                if (dbDevice != null && provider != null) {
+                    ActivitySampleBucketHelper.update(session, dbDevice.getId(), provider, range[0], range[1]);
+                }
+            } catch (final Exception e) {
+                LOG.warn("Failed to update the sample buckets of {} from {} to {}", device, range[0], range[1], e);
+            }
+        }, BUCKET_UPDATE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void run() {
+        try {
+            final List<GBDevice> devices = new ArrayList<>(GBApplication.app().getDeviceManager().getDevices());
+            for (final GBDevice device : devices) {
+                backfill(device);
+            }
+            GBApplication.getPrefs().getPreferences().edit().putInt(PREF_BACKFILL_VERSION, BACKFILL_VERSION).apply();
+            LOG.info("Daily rollup backfill finished for {} devices", devices.size());
+        } catch (final Exception e) {
+            LOG.error("Daily rollup backfill failed, will retry on next start", e);
+        } finally {
+            synchronized (ActivityDailyRollupBackfill.class) {
+                running = false;
+            }
+        }
+    }
+
+    private void backfill(final GBDevice device) throws Exception {
+        final DeviceCoordinator coordinator = device.getDeviceCoordinator();
+        if (!coordinator.supportsActivityDataFetching() && !coordinator.supportsActivityTracking()) {
+            return;
+        }
+
+        int from;
+        int to;
+        try (DBHandler db = GBApplication.acquireDB()) {
+            final SampleProvider<? extends ActivitySample> provider = coordinator.getSampleProvider(device, db.getDaoSession());
+            if (provider == null) {
+                return;
+            }
+            final ActivitySample first = provider.getFirstActivitySample();
+            final ActivitySample last = provider.getLatestActivitySample();
+            if (first == null || last == null) {
+                return;
+            }
+            from = first.getTimestamp();
+            to = last.getTimestamp();
+        }
+
+        LOG.debug("Backfilling daily rollups and sample buckets for {} from {} to {}", device, from, to);
+
+        final int chunkSeconds = CHUNK_DAYS * ActivityDailyRollupHelper.WINDOW_SECONDS;
+        for (int chunkStart = from; chunkStart <= to; chunkStart += chunkSeconds) {
+            final int chunkEnd = Math.min(chunkStart + chunkSeconds - 1, to);
+            try (DBHandler db = GBApplication.acquireDB()) {
+                final DaoSession session = db.getDaoSession();
+                ActivityDailyRollupHelper.backfill(session, device, chunkStart, chunkEnd);
+
+                final Device dbDevice = DBHelper.findDevice(device, session);
+                final SampleProvider<? extends ActivitySample> provider = coordinator.getSampleProvider(device, session);
+                if (dbDevice != null && provider != null) {
+                    ActivitySampleBucketHelper.update(session, dbDevice.getId(), provider, chunkStart, chunkEnd);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Calendar;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivityDailyRollup;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivityDailyRollupDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Maintains the {@link ActivityDailyRollup} table, which holds the result of analyzing all samples
+ * of a device within a 24h window. Consumers that only need daily totals (widgets, week charts,
+ * step streaks) can read a single row per day instead of all the raw samples of that day.
+ * <p/>
+ * Rows are created by {@link #backfill(DaoSession, GBDevice, int, int)}, or in the background after a
+ * reader computed a missing one on the fly, and are invalidated whenever samples within their window
+ * are added. Windows that have not ended yet are never persisted, since more samples are still
+ * expected.
+ */
+public class ActivityDailyRollupHelper {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivityDailyRollupHelper.class);
+
+    public static final int WINDOW_SECONDS = 24 * 60 * 60;
+
+    /**
+     * Returns the rollup for the 24h window starting at the given timestamp, computing it from the
+     * raw samples if it was not persisted yet.
+     * <p>
+     * This never writes to the database, so it may be used with a reader from
+     * GBApplication#acquireReadOnlyDB(). A missing rollup of a complete window is queued to be
+     * persisted in the background instead, see {@link ActivityDailyRollupBackfill#persistLater}.
+     *
+     * @return the rollup, or null if the device does not provide samples or is not in the database
+     */
+    @Nullable
+    public static ActivityDailyRollup getRollup(@NonNull DaoSession session, @NonNull GBDevice gbDevice, int windowStart) {
+        final Device dbDevice = DBHelper.findDevice(gbDevice, session);
+        if (dbDevice == null) {
+            return null;
+        }
+
+        final ActivityDailyRollupDao dao = session.getActivityDailyRollupDao();
+        final List<ActivityDailyRollup> existing = dao.queryBuilder().where(
+                ActivityDailyRollupDao.Properties.DeviceId.eq(dbDevice.getId()),
+                ActivityDailyRollupDao.Properties.WindowStart.eq(windowStart)
+        ).limit(1).build().list();
+        if (!existing.isEmpty()) {
+            return existing.get(0);
+        }
+
+        final ActivityDailyRollup rollup = computeRollup(session, gbDevice, dbDevice.getId(), windowStart);
+        if (rollup != null && isComplete(windowStart)) {
+            ActivityDailyRollupBackfill.persistLater(gbDevice, windowStart);
+        }
+        return rollup;
+    }
+
+    /**
+     * Computes and persists the rollup of the given window, unless it is not complete yet or was
+     * persisted already.
+     * <p>
+     * Must only be called with the session of GBApplication#acquireDB(): holding the writer lock
+     * guarantees that no samples are added (and the rollup invalidated) between computing and
+     * persisting it.
+     *
+     * @return whether a rollup was created
+     */
+    public static boolean persistRollup(@NonNull DaoSession session, @NonNull GBDevice gbDevice, int windowStart) {
+        final Device dbDevice = DBHelper.findDevice(gbDevice, session);
+        if (dbDevice == null || !isComplete(windowStart)) {
+            return false;
+        }
+
+        final ActivityDailyRollupDao dao = session.getActivityDailyRollupDao();
+        final long count = dao.queryBuilder().where(
+                ActivityDailyRollupDao.Properties.DeviceId.eq(dbDevice.getId()),
+                ActivityDailyRollupDao.Properties.WindowStart.eq(windowStart)
+        ).count();
+        if (count > 0) {
+            return false;
+        }
+
+        final ActivityDailyRollup rollup = computeRollup(session, gbDevice, dbDevice.getId(), windowStart);
+        if (rollup == null) {
+            return false;
+        }
+        dao.insertOrReplace(rollup);
+        dao.detach(rollup);
+        return true;
+    }
+
+    /**
+     * Convenience method returning the rollup of the day of the given calendar, shifted by
+     * offsetHours (e.g. -12 for sleep, which is accounted from noon to noon).
+     */
+    @Nullable
+    public static ActivityDailyRollup getRollupForDay(@NonNull DaoSession session, @NonNull GBDevice gbDevice, Calendar day, int offsetHours) {
+        return getRollup(session, gbDevice, getWindowStart(day, offsetHours));
+    }
+
+    public static int getWindowStart(Calendar day, int offsetHours) {
+        day = (Calendar) day.clone(); // do not modify the caller's argument
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.add(Calendar.HOUR, offsetHours);
+        return (int) (day.getTimeInMillis() / 1000);
+    }
+
+    /**
+     * Deletes all persisted rollups of the given device whose window overlaps the given time range.
+     * Must be called whenever samples within that range are added, changed or deleted, including
+     * samples of other tables that the sample provider overlays on the activity samples (e.g.
+     * sleep stages), and samples written straight through a DAO instead of the sample provider.
+     */
+    public static void invalidate(@NonNull DaoSession session, long deviceId, int timestampFrom, int timestampTo) {
+        session.getActivityDailyRollupDao().queryBuilder().where(
+                ActivityDailyRollupDao.Properties.DeviceId.eq(deviceId),
+                ActivityDailyRollupDao.Properties.WindowStart.gt(timestampFrom - WINDOW_SECONDS),
+                ActivityDailyRollupDao.Properties.WindowStart.le(timestampTo)
+        ).buildDelete().executeDeleteWithoutDetachingEntities();
+        session.getActivityDailyRollupDao().detachAll();
+    }
+
+    public static void invalidate(@NonNull DaoSession session, @NonNull GBDevice gbDevice, int timestampFrom, int timestampTo) {
+        final Device dbDevice = DBHelper.findDevice(gbDevice, session);
+        if (dbDevice != null) {
+            invalidate(session, dbDevice.getId(), timestampFrom, timestampTo);
+        }
+    }
+
+    public static void deleteAll(@NonNull DaoSession session, long deviceId) {
+        session.getActivityDailyRollupDao().queryBuilder()
+                .where(ActivityDailyRollupDao.Properties.DeviceId.eq(deviceId))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+    }
+
+    /**
+     * Computes and persists the rollups for all complete days between the two timestamps,
+     * for both the day (midnight) and the sleep (noon) windows, skipping existing ones.
+     * Like {@link #persistRollup(DaoSession, GBDevice, int)}, this requires the writer session.
+     *
+     * @return the number of rollups that were created
+     */
+    public static int backfill(@NonNull DaoSession session, @NonNull GBDevice gbDevice, int timestampFrom, int timestampTo) {
+        final Device dbDevice = DBHelper.findDevice(gbDevice, session);
+        if (dbDevice == null) {
+            return 0;
+        }
+
+        final Calendar day = Calendar.getInstance();
+        day.setTimeInMillis(timestampFrom * 1000L);
+
+        int created = 0;
+        while (getWindowStart(day, 0) <= timestampTo) {
+            for (final int offsetHours : new int[]{0, -12}) {
+                if (persistRollup(session, gbDevice, getWindowStart(day, offsetHours))) {
+                    created++;
+                }
+            }
+            day.add(Calendar.DATE, 1);
+        }
+
+        LOG.debug("Backfilled {} daily rollups for {}", created, gbDevice);
+        return created;
+    }
+
+    /**
+     * Re-creates the analysis result as computed by {@link ActivityAnalysis} from a rollup.
+     * Start and end dates of the amounts are not available.
+     */
+    @NonNull
+    public static ActivityAmounts toActivityAmounts(@Nullable ActivityDailyRollup rollup) {
+        final ActivityAmounts result = new ActivityAmounts();
+        if (rollup == null) {
+            return result;
+        }
+
+        addAmount(result, ActivityKind.TYPE_DEEP_SLEEP, rollup.getDeepSleepSeconds(), 0);
+        addAmount(result, ActivityKind.TYPE_LIGHT_SLEEP, rollup.getLightSleepSeconds(), 0);
+        addAmount(result, ActivityKind.TYPE_REM_SLEEP, rollup.getRemSleepSeconds(), 0);
+        // the steps of all kinds are accounted to the activity, only the totals are needed
+        addAmount(result, ActivityKind.TYPE_ACTIVITY, rollup.getActivitySeconds(), rollup.getSteps());
+        addAmount(result, ActivityKind.TYPE_NOT_WORN, rollup.getNotWornSeconds(), 0);
+
+        result.calculatePercentages();
+        return result;
+    }
+
+    private static void addAmount(ActivityAmounts amounts, int kind, long seconds, long steps) {
+        if (seconds <= 0 && steps <= 0) {
+            return;
+        }
+        final ActivityAmount amount = new ActivityAmount(kind);
+        amount.addSeconds(seconds);
+        amount.addSteps(steps);
+        amounts.addAmount(amount);
+    }
+
+    private static boolean isComplete(int windowStart) {
+        final long nowSeconds = System.currentTimeMillis() / 1000;
+        return windowStart + WINDOW_SECONDS <= nowSeconds;
+    }
+
+    @Nullable
+    private static ActivityDailyRollup computeRollup(DaoSession session, GBDevice gbDevice, long deviceId, int windowStart) {
+        final DeviceCoordinator coordinator = gbDevice.getDeviceCoordinator();
+        final SampleProvider<? extends ActivitySample> provider = coordinator.getSampleProvider(gbDevice, session);
+        if (provider == null) {
+            return null;
+        }
+
+        final RollupCalculator calculator = new RollupCalculator(deviceId, windowStart);
+        provider.forEachSample(windowStart, windowStart + WINDOW_SECONDS - 1, calculator);
+        return calculator.getRollup();
+    }
+
+    @NonNull
+    static ActivityDailyRollup createRollup(List<? extends ActivitySample> samples, long deviceId, int windowStart) {
+        final RollupCalculator calculator = new RollupCalculator(deviceId, windowStart);
+        for (final ActivitySample sample : samples) {
+            calculator.visit(sample);
+        }
+        return calculator.getRollup();
+    }
+
+    /**
+     * Calculates a rollup from the samples of its window, without keeping references to them.
+     */
+    private static class RollupCalculator implements SampleVisitor<ActivitySample> {
+        private final long deviceId;
+        private final int windowStart;
+        private final ActivityAnalysis.AmountsCalculator amountsCalculator = new ActivityAnalysis().createAmountsCalculator();
+        private final HeartRateUtils heartRateUtils = HeartRateUtils.getInstance();
+
+        private int sampleCount = 0;
+        private int hrMin = 0;
+        private int hrMax = 0;
+        private long hrSum = 0;
+        private int hrCount = 0;
+
+        RollupCalculator(long deviceId, int windowStart) {
+            this.deviceId = deviceId;
+            this.windowStart = windowStart;
+        }
+
+        @Override
+        public void visit(ActivitySample sample) {
+            sampleCount++;
+            amountsCalculator.visit(sample);
+
+            final int hr = sample.getHeartRate();
+            if (!heartRateUtils.isValidHeartRateValue(hr)) {
+                return;
+            }
+            if (hrCount == 0 || hr < hrMin) {
+                hrMin = hr;
+            }
+            if (hr > hrMax) {
+                hrMax = hr;
+            }
+            hrSum += hr;
+            hrCount++;
+        }
+
+        ActivityDailyRollup getRollup() {
+            final ActivityDailyRollup rollup = new ActivityDailyRollup();
+            rollup.setDeviceId(deviceId);
+            rollup.setWindowStart(windowStart);
+            rollup.setSampleCount(sampleCount);
+
+            long steps = 0;
+            for (final ActivityAmount amount : amountsCalculator.getActivityAmounts().getAmounts()) {
+                steps += amount.getTotalSteps();
+                final int seconds = (int) amount.getTotalSeconds();
+                switch (amount.getActivityKind()) {
+                    case ActivityKind.TYPE_DEEP_SLEEP:
+                        rollup.setDeepSleepSeconds(seconds);
+                        break;
+                    case ActivityKind.TYPE_LIGHT_SLEEP:
+                        rollup.setLightSleepSeconds(seconds);
+                        break;
+                    case ActivityKind.TYPE_REM_SLEEP:
+                        rollup.setRemSleepSeconds(seconds);
+                        break;
+                    case ActivityKind.TYPE_NOT_WORN:
+                        rollup.setNotWornSeconds(seconds);
+                        break;
+                    case ActivityKind.TYPE_ACTIVITY:
+                        rollup.setActivitySeconds(seconds);
+                        break;
+                }
+            }
+            rollup.setSteps((int) steps);
+
+            rollup.setHeartRateMin(hrMin);
+            rollup.setHeartRateMax(hrMax);
+            rollup.setHeartRateAvg(hrCount > 0 ? (int) (hrSum / hrCount) : 0);
+
+            return rollup;
+        }
+    }
+}
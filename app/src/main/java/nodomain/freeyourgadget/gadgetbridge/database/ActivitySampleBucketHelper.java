@@ -0,0 +1,391 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivitySampleBucket;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivitySampleBucketDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Maintains the {@link ActivitySampleBucket} table, a pyramid of pre-aggregated samples in
+ * 5 minute, hourly and daily buckets. Charts spanning months or years can request a bounded
+ * number of buckets instead of loading all the raw samples of the time span.
+ * <p/>
+ * The buckets are updated whenever samples are added through a sample provider: the 5 minute
+ * buckets overlapping the new samples are re-computed from the samples, and the hourly and daily
+ * buckets from the buckets of the level below, so the cost only depends on the inserted range.
+ * Single samples only schedule the update, see {@link ActivityDailyRollupBackfill#updateBucketsLater}.
+ * Hourly and daily buckets are aligned to the local time of the phone.
+ */
+public class ActivitySampleBucketHelper {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivitySampleBucketHelper.class);
+
+    public static final int RESOLUTION_5_MINUTES = 5 * 60;
+    public static final int RESOLUTION_HOUR = 60 * 60;
+    public static final int RESOLUTION_DAY = 24 * 60 * 60;
+
+    private static final int[] RESOLUTIONS = {RESOLUTION_5_MINUTES, RESOLUTION_HOUR, RESOLUTION_DAY};
+
+    /**
+     * Returns the buckets of the given resolution, with a start between the two timestamps,
+     * ordered by their start.
+     */
+    @NonNull
+    public static List<ActivitySampleBucket> getBuckets(@NonNull DaoSession session, @NonNull GBDevice gbDevice, int resolution, int timestampFrom, int timestampTo) {
+        final Device dbDevice = DBHelper.findDevice(gbDevice, session);
+        if (dbDevice == null) {
+            return Collections.emptyList();
+        }
+        return getBuckets(session.getActivitySampleBucketDao(), dbDevice.getId(), resolution, timestampFrom, timestampTo);
+    }
+
+    /**
+     * Returns the buckets of the finest resolution that does not result in more than maxBuckets
+     * buckets between the two timestamps.
+     */
+    @NonNull
+    public static List<ActivitySampleBucket> getBuckets(@NonNull DaoSession session, @NonNull GBDevice gbDevice, int timestampFrom, int timestampTo, int maxBuckets) {
+        return getBuckets(session, gbDevice, getResolution(timestampFrom, timestampTo, maxBuckets), timestampFrom, timestampTo);
+    }
+
+    public static int getResolution(int timestampFrom, int timestampTo, int maxBuckets) {
+        final long span = (long) timestampTo - timestampFrom;
+        for (final int resolution : RESOLUTIONS) {
+            if (span / resolution < maxBuckets) {
+                return resolution;
+            }
+        }
+        return RESOLUTION_DAY;
+    }
+
+    /**
+     * Returns the start of the bucket of the given resolution containing the timestamp.
+     */
+    public static int getBucketStart(int resolution, int timestamp) {
+        switch (resolution) {
+            case RESOLUTION_5_MINUTES:
+                // all time zone offsets are a multiple of 5 minutes
+                return timestamp - floorMod(timestamp, RESOLUTION_5_MINUTES);
+            case RESOLUTION_HOUR:
+                // only the offset within the hour matters, which does not change on DST switches
+                final int offset = TimeZone.getDefault().getOffset(timestamp * 1000L) / 1000 % RESOLUTION_HOUR;
+                return timestamp - floorMod(timestamp + offset, RESOLUTION_HOUR);
+            case RESOLUTION_DAY:
+                final Calendar day = Calendar.getInstance();
+                day.setTimeInMillis(timestamp * 1000L);
+                day.set(Calendar.HOUR_OF_DAY, 0);
+                day.set(Calendar.MINUTE, 0);
+                day.set(Calendar.SECOND, 0);
+                day.set(Calendar.MILLISECOND, 0);
+                return (int) (day.getTimeInMillis() / 1000);
+            default:
+                throw new IllegalArgumentException("Unknown bucket resolution " + resolution);
+        }
+    }
+
+    private static int floorMod(int x, int y) {
+        // Math.floorMod requires API 24
+        return ((x % y) + y) % y;
+    }
+
+    /**
+     * Returns the start of the bucket following the one starting at bucketStart. Daily buckets
+     * are not always 24h long, due to DST switches.
+     */
+    public static int getNextBucketStart(int resolution, int bucketStart) {
+        if (resolution == RESOLUTION_DAY) {
+            final Calendar day = Calendar.getInstance();
+            day.setTimeInMillis(bucketStart * 1000L);
+            day.add(Calendar.DATE, 1);
+            return (int) (day.getTimeInMillis() / 1000);
+        }
+        return bucketStart + resolution;
+    }
+
+    /**
+     * Re-computes all buckets overlapping the given time range. Must be called whenever samples
+     * within that range are added, changed or deleted.
+     */
+    public static void update(@NonNull final DaoSession session, final long deviceId, @NonNull final SampleProvider<?> provider, final int timestampFrom, final int timestampTo) {
+        session.runInTx(new Runnable() {
+            @Override
+            public void run() {
+                final ActivitySampleBucketDao dao = session.getActivitySampleBucketDao();
+                final int count = updateFromSamples(dao, deviceId, provider, timestampFrom, timestampTo);
+                for (int i = 1; i < RESOLUTIONS.length; i++) {
+                    updateFromBuckets(dao, deviceId, RESOLUTIONS[i - 1], RESOLUTIONS[i], timestampFrom, timestampTo);
+                }
+                dao.detachAll();
+                LOG.trace("Updated {} sample buckets from {} to {}", count, timestampFrom, timestampTo);
+            }
+        });
+    }
+
+    public static void deleteAll(@NonNull DaoSession session, long deviceId) {
+        session.getActivitySampleBucketDao().queryBuilder()
+                .where(ActivitySampleBucketDao.Properties.DeviceId.eq(deviceId))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+    }
+
+    private static List<ActivitySampleBucket> getBuckets(ActivitySampleBucketDao dao, long deviceId, int resolution, int timestampFrom, int timestampTo) {
+        return dao.queryBuilder().where(
+                ActivitySampleBucketDao.Properties.DeviceId.eq(deviceId),
+                ActivitySampleBucketDao.Properties.Resolution.eq(resolution),
+                ActivitySampleBucketDao.Properties.BucketStart.ge(timestampFrom),
+                ActivitySampleBucketDao.Properties.BucketStart.le(timestampTo)
+        ).orderAsc(ActivitySampleBucketDao.Properties.BucketStart).build().list();
+    }
+
+    private static void deleteBuckets(ActivitySampleBucketDao dao, long deviceId, int resolution, int firstBucketStart, int lastBucketStart) {
+        dao.queryBuilder().where(
+                ActivitySampleBucketDao.Properties.DeviceId.eq(deviceId),
+                ActivitySampleBucketDao.Properties.Resolution.eq(resolution),
+                ActivitySampleBucketDao.Properties.BucketStart.ge(firstBucketStart),
+                ActivitySampleBucketDao.Properties.BucketStart.le(lastBucketStart)
+        ).buildDelete().executeDeleteWithoutDetachingEntities();
+    }
+
+    private static int updateFromSamples(ActivitySampleBucketDao dao, long deviceId, SampleProvider<?> provider, int timestampFrom, int timestampTo) {
+        final int firstBucketStart = getBucketStart(RESOLUTION_5_MINUTES, timestampFrom);
+        final int lastBucketStart = getBucketStart(RESOLUTION_5_MINUTES, timestampTo);
+
+        final SampleBucketCollector collector = new SampleBucketCollector(deviceId);
+        provider.forEachSample(firstBucketStart, lastBucketStart + RESOLUTION_5_MINUTES - 1, collector);
+        final List<ActivitySampleBucket> buckets = collector.getBuckets();
+
+        deleteBuckets(dao, deviceId, RESOLUTION_5_MINUTES, firstBucketStart, lastBucketStart);
+        dao.insertInTx(buckets);
+        return buckets.size();
+    }
+
+    private static void updateFromBuckets(ActivitySampleBucketDao dao, long deviceId, int sourceResolution, int resolution, int timestampFrom, int timestampTo) {
+        final int firstBucketStart = getBucketStart(resolution, timestampFrom);
+        final int lastBucketStart = getBucketStart(resolution, timestampTo);
+        final int end = getNextBucketStart(resolution, lastBucketStart) - 1;
+
+        final List<ActivitySampleBucket> buckets = new ArrayList<>();
+        BucketAccumulator accumulator = null;
+        for (final ActivitySampleBucket source : getBuckets(dao, deviceId, sourceResolution, firstBucketStart, end)) {
+            final int bucketStart = getBucketStart(resolution, source.getBucketStart());
+            if (accumulator == null || accumulator.bucketStart != bucketStart) {
+                if (accumulator != null) {
+                    buckets.add(accumulator.toBucket(deviceId, resolution));
+                }
+                accumulator = new BucketAccumulator(bucketStart);
+            }
+            accumulator.add(source);
+        }
+        if (accumulator != null) {
+            buckets.add(accumulator.toBucket(deviceId, resolution));
+        }
+
+        deleteBuckets(dao, deviceId, resolution, firstBucketStart, lastBucketStart);
+        dao.insertInTx(buckets);
+    }
+
+    public static float getStepsAvg(ActivitySampleBucket bucket) {
+        return bucket.getSampleCount() > 0 ? (float) bucket.getStepsSum() / bucket.getSampleCount() : 0;
+    }
+
+    public static float getIntensityAvg(ActivitySampleBucket bucket) {
+        return bucket.getSampleCount() > 0 ? bucket.getIntensitySum() / bucket.getSampleCount() : 0;
+    }
+
+    public static int getHeartRateAvg(ActivitySampleBucket bucket) {
+        return bucket.getHeartRateCount() > 0 ? bucket.getHeartRateSum() / bucket.getHeartRateCount() : 0;
+    }
+
+    /**
+     * Collects the samples passed to it into 5 minute buckets, without keeping references to them.
+     * The samples must be visited in ascending timestamp order.
+     */
+    private static class SampleBucketCollector implements SampleVisitor<ActivitySample> {
+        private final long deviceId;
+        private final List<ActivitySampleBucket> buckets = new ArrayList<>();
+        private BucketAccumulator accumulator;
+
+        SampleBucketCollector(long deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        @Override
+        public void visit(ActivitySample sample) {
+            final int bucketStart = getBucketStart(RESOLUTION_5_MINUTES, sample.getTimestamp());
+            if (accumulator == null || accumulator.bucketStart != bucketStart) {
+                if (accumulator != null) {
+                    buckets.add(accumulator.toBucket(deviceId, RESOLUTION_5_MINUTES));
+                }
+                accumulator = new BucketAccumulator(bucketStart);
+            }
+            accumulator.add(sample);
+        }
+
+        List<ActivitySampleBucket> getBuckets() {
+            if (accumulator != null) {
+                buckets.add(accumulator.toBucket(deviceId, RESOLUTION_5_MINUTES));
+                accumulator = null;
+            }
+            return buckets;
+        }
+    }
+
+    /**
+     * Aggregates either samples, or the buckets of a finer resolution. Unmeasured steps and
+     * intensities count as 0, invalid heart rates are ignored.
+     */
+    static class BucketAccumulator {
+        final int bucketStart;
+        private final HeartRateUtils heartRateUtils = HeartRateUtils.getInstance();
+
+        private int sampleCount = 0;
+        private int stepsSum = 0;
+        private int stepsMin = 0;
+        private int stepsMax = 0;
+        private float intensitySum = 0;
+        private float intensityMin = 0;
+        private float intensityMax = 0;
+        private int heartRateCount = 0;
+        private int heartRateSum = 0;
+        private int heartRateMin = 0;
+        private int heartRateMax = 0;
+        private int activityCount = 0;
+        private int lightSleepCount = 0;
+        private int deepSleepCount = 0;
+        private int remSleepCount = 0;
+        private int notWornCount = 0;
+
+        BucketAccumulator(int bucketStart) {
+            this.bucketStart = bucketStart;
+        }
+
+        void add(ActivitySample sample) {
+            final int steps = Math.max(sample.getSteps(), 0);
+            final float intensity = Math.max(sample.getIntensity(), 0);
+            addValues(1, steps, steps, steps, intensity, intensity, intensity);
+
+            final int heartRate = sample.getHeartRate();
+            if (heartRateUtils.isValidHeartRateValue(heartRate)) {
+                addHeartRate(1, heartRate, heartRate, heartRate);
+            }
+
+            switch (sample.getKind()) {
+                case ActivityKind.TYPE_LIGHT_SLEEP:
+                    lightSleepCount++;
+                    break;
+                case ActivityKind.TYPE_DEEP_SLEEP:
+                    deepSleepCount++;
+                    break;
+                case ActivityKind.TYPE_REM_SLEEP:
+                    remSleepCount++;
+                    break;
+                case ActivityKind.TYPE_NOT_WORN:
+                    notWornCount++;
+                    break;
+                default:
+                    activityCount++;
+                    break;
+            }
+        }
+
+        void add(ActivitySampleBucket bucket) {
+            if (bucket.getSampleCount() > 0) {
+                addValues(bucket.getSampleCount(),
+                        bucket.getStepsSum(), bucket.getStepsMin(), bucket.getStepsMax(),
+                        bucket.getIntensitySum(), bucket.getIntensityMin(), bucket.getIntensityMax());
+            }
+            if (bucket.getHeartRateCount() > 0) {
+                addHeartRate(bucket.getHeartRateCount(), bucket.getHeartRateSum(), bucket.getHeartRateMin(), bucket.getHeartRateMax());
+            }
+            activityCount += bucket.getActivityCount();
+            lightSleepCount += bucket.getLightSleepCount();
+            deepSleepCount += bucket.getDeepSleepCount();
+            remSleepCount += bucket.getRemSleepCount();
+            notWornCount += bucket.getNotWornCount();
+        }
+
+        private void addValues(int count, int steps, int minSteps, int maxSteps, float intensity, float minIntensity, float maxIntensity) {
+            if (sampleCount == 0) {
+                stepsMin = minSteps;
+                stepsMax = maxSteps;
+                intensityMin = minIntensity;
+                intensityMax = maxIntensity;
+            } else {
+                stepsMin = Math.min(stepsMin, minSteps);
+                stepsMax = Math.max(stepsMax, maxSteps);
+                intensityMin = Math.min(intensityMin, minIntensity);
+                intensityMax = Math.max(intensityMax, maxIntensity);
+            }
+            sampleCount += count;
+            stepsSum += steps;
+            intensitySum += intensity;
+        }
+
+        private void addHeartRate(int count, int sum, int min, int max) {
+            if (heartRateCount == 0) {
+                heartRateMin = min;
+                heartRateMax = max;
+            } else {
+                heartRateMin = Math.min(heartRateMin, min);
+                heartRateMax = Math.max(heartRateMax, max);
+            }
+            heartRateCount += count;
+            heartRateSum += sum;
+        }
+
+        ActivitySampleBucket toBucket(long deviceId, int resolution) {
+            final ActivitySampleBucket bucket = new ActivitySampleBucket();
+            bucket.setDeviceId(deviceId);
+            bucket.setResolution(resolution);
+            bucket.setBucketStart(bucketStart);
+            bucket.setSampleCount(sampleCount);
+            bucket.setStepsSum(stepsSum);
+            bucket.setStepsMin(stepsMin);
+            bucket.setStepsMax(stepsMax);
+            bucket.setIntensitySum(intensitySum);
+            bucket.setIntensityMin(intensityMin);
+            bucket.setIntensityMax(intensityMax);
+            bucket.setHeartRateCount(heartRateCount);
+            bucket.setHeartRateSum(heartRateSum);
+            bucket.setHeartRateMin(heartRateMin);
+            bucket.setHeartRateMax(heartRateMax);
+            bucket.setActivityCount(activityCount);
+            bucket.setLightSleepCount(lightSleepCount);
+            bucket.setDeepSleepCount(deepSleepCount);
+            bucket.setRemSleepCount(remSleepCount);
+            bucket.setNotWornCount(notWornCount);
+            return bucket;
+        }
+    }
+}
@@ -38,6 +38,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 
 import de.greenrobot.dao.Property;
@@ -67,6 +68,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.UserAttributes;
 import nodomain.freeyourgadget.gadgetbridge.entities.UserDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.WorldClock;
 import nodomain.freeyourgadget.gadgetbridge.entities.WorldClockDao;
+import nodomain.freeyourgadget.gadgetbridge.externalevents.notifications.NotificationFilterIndex;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
 import nodomain.freeyourgadget.gadgetbridge.model.ValidByDate;
@@ -111,35 +113,40 @@ public class DBHelper {
         return path;
     }
 
+    /**
+     * Exports a snapshot of the database into the given directory. The database stays open,
+     * see {@link DBSnapshotExporter}.
+     */
     public File exportDB(DBHandler dbHandler, File toDir) throws IllegalStateException, IOException {
-        String dbPath = getClosedDBPath(dbHandler);
-        try {
-            File sourceFile = new File(dbPath);
-            File destFile = new File(toDir, sourceFile.getName());
-            if (destFile.exists()) {
-                File backup = new File(toDir, destFile.getName() + "_" + getDate());
-                destFile.renameTo(backup);
-            } else if (!toDir.exists()) {
-                if (!toDir.mkdirs()) {
-                    throw new IOException("Unable to create directory: " + toDir.getAbsolutePath());
-                }
+        File sourceFile = new File(dbHandler.getDatabase().getPath());
+        File destFile = new File(toDir, sourceFile.getName());
+        if (destFile.exists()) {
+            File backup = new File(toDir, destFile.getName() + "_" + getDate());
+            destFile.renameTo(backup);
+        } else if (!toDir.exists()) {
+            if (!toDir.mkdirs()) {
+                throw new IOException("Unable to create directory: " + toDir.getAbsolutePath());
             }
-
-            FileUtils.copyFile(sourceFile, destFile);
-            return destFile;
-        } finally {
-            dbHandler.openDb();
         }
+
+        new DBSnapshotExporter(context).export(dbHandler, destFile);
+        return destFile;
     }
 
+    /**
+     * Exports a snapshot of the database into the given stream. The database stays open,
+     * see {@link DBSnapshotExporter}.
+     */
     public void exportDB(DBHandler dbHandler, OutputStream dest) throws IOException {
-        String dbPath = getClosedDBPath(dbHandler);
-        try {
-            File source = new File(dbPath);
-            FileUtils.copyFileToStream(source, dest);
-        } finally {
-            dbHandler.openDb();
-        }
+        new DBSnapshotExporter(context).export(dbHandler, dest);
+    }
+
+    /**
+     * Exports only the tables that changed since the export that returned previousState,
+     * see {@link DBSnapshotExporter#exportIncremental(DBHandler, OutputStream, Map)}.
+     */
+    public Map<String, String> exportDBIncremental(DBHandler dbHandler, OutputStream dest, Map<String, String> previousState) throws IOException {
+        return new DBSnapshotExporter(context).exportIncremental(dbHandler, dest, previousState);
     }
 
     private String getDate() {
@@ -147,12 +154,16 @@ public class DBHelper {
     }
 
     public void importDB(DBHandler dbHandler, File fromFile) throws IllegalStateException, IOException {
+        if (DBSnapshotExporter.isPartialExport(fromFile)) {
+            throw new IOException("Unable to import an incremental export, it does not contain all tables: " + fromFile);
+        }
         String dbPath = getClosedDBPath(dbHandler);
         try {
             File toFile = new File(dbPath);
             FileUtils.copyFile(fromFile, toFile);
         } finally {
             dbHandler.openDb();
+            NotificationFilterIndex.invalidate();
         }
     }
 
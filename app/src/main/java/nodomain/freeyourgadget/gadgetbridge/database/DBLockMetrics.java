@@ -0,0 +1,123 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of how long callers had to wait for database access. Must not log, since it is
+ * used by GBApplication before logging is set up.
+ */
+public class DBLockMetrics {
+    /**
+     * Waits longer than this are considered contended.
+     */
+    public static final long CONTENDED_THRESHOLD_MILLIS = 100;
+
+    private final String name;
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong contended = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public DBLockMetrics(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a single attempt to acquire the database.
+     *
+     * @return true if the wait was contended
+     */
+    public boolean record(final long waitNanos, final boolean success) {
+        if (success) {
+            acquired.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+        totalWaitNanos.addAndGet(waitNanos);
+
+        long max;
+        do {
+            max = maxWaitNanos.get();
+        } while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos));
+
+        if (TimeUnit.NANOSECONDS.toMillis(waitNanos) >= CONTENDED_THRESHOLD_MILLIS) {
+            contended.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getAcquiredCount() {
+        return acquired.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getContendedCount() {
+        return contended.get();
+    }
+
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    public long getAverageWaitMillis() {
+        final long attempts = acquired.get() + failed.get();
+        return attempts > 0 ? getTotalWaitMillis() / attempts : 0;
+    }
+
+    public void reset() {
+        acquired.set(0);
+        failed.set(0);
+        contended.set(0);
+        totalWaitNanos.set(0);
+        maxWaitNanos.set(0);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(
+                Locale.ROOT,
+                "%s: acquired=%d, failed=%d, contended=%d, avgWait=%dms, maxWait=%dms, totalWait=%dms",
+                name,
+                getAcquiredCount(),
+                getFailedCount(),
+                getContendedCount(),
+                getAverageWaitMillis(),
+                getMaxWaitMillis(),
+                getTotalWaitMillis()
+        );
+    }
+}
@@ -0,0 +1,290 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+/**
+ * Creates consistent snapshots of the open database, without closing it. The snapshot is written
+ * to a temporary file first, and then copied to the export destination.
+ * <p/>
+ * On Android 11 and newer, the snapshot is created with {@code VACUUM INTO} on a separate
+ * read-only connection, which does not block writers when write-ahead logging is enabled.
+ * On older versions (SQLite < 3.27), the tables are copied into an attached database while
+ * holding the database lock, so that no writes happen during the copy. Exports must therefore
+ * not be started on the main thread.
+ * <p/>
+ * Incremental exports only contain the data of the tables that changed since the previous
+ * export, as determined by their row count and highest rowid. The schema of all tables is
+ * always included, and the tables whose data was exported are listed in
+ * {@link #INCREMENTAL_TABLE}. Such a snapshot can not replace the database on its own, see
+ * {@link #isPartialExport(File)}.
+ */
+public class DBSnapshotExporter {
+    private static final Logger LOG = LoggerFactory.getLogger(DBSnapshotExporter.class);
+
+    public static final String INCREMENTAL_TABLE = "GB_INCREMENTAL_EXPORT";
+    private static final String SNAPSHOT_SCHEMA = "snapshot";
+
+    private final Context context;
+
+    public DBSnapshotExporter(final Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Writes a full snapshot of the database to the given stream.
+     */
+    public void export(final DBHandler dbHandler, final OutputStream dest) throws IOException {
+        final File snapshot = createSnapshot(dbHandler, null, null);
+        try {
+            FileUtils.copyFileToStream(snapshot, dest);
+        } finally {
+            deleteSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * Writes a full snapshot of the database to the given file, which must not exist yet.
+     */
+    public void export(final DBHandler dbHandler, final File destFile) throws IOException {
+        final File snapshot = createSnapshot(dbHandler, null, null);
+        try {
+            FileUtils.copyFile(snapshot, destFile);
+        } finally {
+            deleteSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * Writes a snapshot with only the data of the tables that changed since the export that
+     * returned previousState. Pass an empty map to export the data of all tables.
+     *
+     * @return the state to pass to the next incremental export
+     */
+    @NonNull
+    public Map<String, String> exportIncremental(final DBHandler dbHandler, final OutputStream dest, final Map<String, String> previousState) throws IOException {
+        final Map<String, String> newState = new HashMap<>();
+        final File snapshot = createSnapshot(dbHandler, previousState, newState);
+        try {
+            FileUtils.copyFileToStream(snapshot, dest);
+        } finally {
+            deleteSnapshot(snapshot);
+        }
+        return newState;
+    }
+
+    /**
+     * @return true if the file is an incremental export that lacks the data of some tables, so
+     * that it must not be imported in place of the database
+     */
+    public static boolean isPartialExport(final File file) throws IOException {
+        try (SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY)) {
+            final Set<String> tables = new HashSet<>();
+            try (Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name NOT LIKE 'sqlite_%'", null)) {
+                while (cursor.moveToNext()) {
+                    tables.add(cursor.getString(0));
+                }
+            }
+            if (!tables.remove(INCREMENTAL_TABLE)) {
+                return false;
+            }
+            try (Cursor cursor = db.rawQuery("SELECT TABLE_NAME FROM " + INCREMENTAL_TABLE, null)) {
+                while (cursor.moveToNext()) {
+                    tables.remove(cursor.getString(0));
+                }
+            }
+            return !tables.isEmpty();
+        } catch (final Exception e) {
+            throw new IOException("Unable to read " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private File createSnapshot(final DBHandler dbHandler,
+                                @Nullable final Map<String, String> previousState,
+                                @Nullable final Map<String, String> newState) throws IOException {
+        final SQLiteDatabase db = dbHandler.getDatabase();
+        final String dbPath = db.getPath();
+        final File snapshot = File.createTempFile("gadgetbridge-export", ".db", context.getCacheDir());
+        // VACUUM INTO and ATTACH want to create the file themselves
+        if (!snapshot.delete()) {
+            throw new IOException("Unable to prepare snapshot file " + snapshot);
+        }
+
+        final long start = System.currentTimeMillis();
+        try {
+            if (previousState == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                vacuumInto(dbPath, snapshot);
+            } else {
+                // make sure nobody writes while the tables are being copied
+                try (DBHandler ignored = GBApplication.acquireDB()) {
+                    copyTables(dbPath, db.isWriteAheadLoggingEnabled(), snapshot, previousState, newState);
+                }
+            }
+        } catch (final IOException e) {
+            deleteSnapshot(snapshot);
+            throw e;
+        } catch (final Exception e) {
+            deleteSnapshot(snapshot);
+            throw new IOException("Unable to create database snapshot: " + e.getMessage(), e);
+        }
+
+        LOG.info("Created database snapshot of {} bytes in {}ms", snapshot.length(), System.currentTimeMillis() - start);
+        return snapshot;
+    }
+
+    private void vacuumInto(final String dbPath, final File snapshot) {
+        try (SQLiteDatabase source = SQLiteDatabase.openDatabase(dbPath, null, SQLiteDatabase.OPEN_READONLY)) {
+            source.execSQL("VACUUM INTO ?", new Object[]{snapshot.getAbsolutePath()});
+        }
+    }
+
+    private void copyTables(final String dbPath,
+                            final boolean writeAheadLogging,
+                            final File snapshot,
+                            @Nullable final Map<String, String> previousState,
+                            @Nullable final Map<String, String> newState) {
+        // A separate connection, since attaching a database disables write-ahead logging
+        // on the connection it is attached to
+        int flags = SQLiteDatabase.OPEN_READWRITE;
+        if (writeAheadLogging) {
+            flags |= SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING;
+        }
+        try (SQLiteDatabase source = SQLiteDatabase.openDatabase(dbPath, null, flags)) {
+            source.execSQL("ATTACH DATABASE ? AS " + SNAPSHOT_SCHEMA, new Object[]{snapshot.getAbsolutePath()});
+            try {
+                final List<String> tables = new ArrayList<>();
+                final List<String> tableSql = new ArrayList<>();
+                final List<String> otherSql = new ArrayList<>();
+                try (Cursor cursor = source.rawQuery("SELECT type, name, sql FROM main.sqlite_master WHERE sql IS NOT NULL AND name NOT LIKE 'sqlite_%'", null)) {
+                    while (cursor.moveToNext()) {
+                        if ("table".equals(cursor.getString(0))) {
+                            tables.add(cursor.getString(1));
+                            tableSql.add(cursor.getString(2));
+                        } else {
+                            otherSql.add(cursor.getString(2));
+                        }
+                    }
+                }
+
+                for (final String sql : tableSql) {
+                    source.execSQL(qualify(sql));
+                }
+
+                final List<String> exportedTables = new ArrayList<>();
+                for (final String table : tables) {
+                    if (newState != null) {
+                        final String fingerprint = getFingerprint(source, table);
+                        newState.put(table, fingerprint);
+                        if (previousState != null && !fingerprint.isEmpty() && fingerprint.equals(previousState.get(table))) {
+                            continue;
+                        }
+                    }
+                    source.execSQL("INSERT INTO " + SNAPSHOT_SCHEMA + ".\"" + table + "\" SELECT * FROM main.\"" + table + "\"");
+                    exportedTables.add(table);
+                }
+
+                for (final String sql : otherSql) {
+                    source.execSQL(qualify(sql));
+                }
+
+                if (newState != null) {
+                    source.execSQL("CREATE TABLE " + SNAPSHOT_SCHEMA + "." + INCREMENTAL_TABLE + " (TABLE_NAME TEXT PRIMARY KEY, FINGERPRINT TEXT)");
+                    for (final String table : exportedTables) {
+                        source.execSQL("INSERT INTO " + SNAPSHOT_SCHEMA + "." + INCREMENTAL_TABLE + " VALUES (?, ?)", new Object[]{table, newState.get(table)});
+                    }
+                }
+
+                // the schema version is needed to import the snapshot again
+                source.execSQL("PRAGMA " + SNAPSHOT_SCHEMA + ".user_version = " + source.getVersion());
+                LOG.debug("Copied {} of {} tables into snapshot", exportedTables.size(), tables.size());
+            } finally {
+                source.execSQL("DETACH DATABASE " + SNAPSHOT_SCHEMA);
+            }
+        }
+    }
+
+    /**
+     * Returns a cheap fingerprint of a table's content, or an empty string if there is none.
+     * Changes that neither add nor remove rows (e.g. updates in place) are not detected, which
+     * is fine for the append-mostly sample tables.
+     */
+    private static String getFingerprint(final SQLiteDatabase db, final String table) {
+        try (Cursor cursor = db.rawQuery("SELECT COUNT(*), MAX(ROWID) FROM main.\"" + table + "\"", null)) {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0) + ":" + cursor.getLong(1);
+            }
+        } catch (final Exception e) {
+            // e.g. a table without rowid, always exported
+            LOG.debug("No fingerprint for table {}: {}", table, e.getMessage());
+        }
+        return "";
+    }
+
+    /**
+     * Turns a CREATE TABLE / INDEX / TRIGGER / VIEW statement of the main database into one
+     * for the snapshot database.
+     */
+    static String qualify(final String createSql) {
+        final String[] prefixes = {
+                "CREATE TABLE ",
+                "CREATE UNIQUE INDEX ",
+                "CREATE INDEX ",
+                "CREATE TRIGGER ",
+                "CREATE VIEW ",
+        };
+        for (final String prefix : prefixes) {
+            if (createSql.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return prefix + SNAPSHOT_SCHEMA + "." + createSql.substring(prefix.length());
+            }
+        }
+        throw new IllegalArgumentException("Unexpected schema statement: " + createSql);
+    }
+
+    private static void deleteSnapshot(final File snapshot) {
+        if (snapshot.exists() && !snapshot.delete()) {
+            LOG.warn("Failed to delete database snapshot {}", snapshot);
+        }
+        // ATTACH and VACUUM INTO may leave a journal behind
+        final File journal = new File(snapshot.getPath() + "-journal");
+        if (journal.exists() && !journal.delete()) {
+            LOG.warn("Failed to delete database snapshot journal {}", journal);
+        }
+    }
+}
@@ -26,10 +26,15 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.SystemClock;
 
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
@@ -101,9 +106,15 @@ public class PeriodicExporter extends BroadcastReceiver {
         }
 
         @Override
-        protected void doInBackground(DBHandler handler) {
+        protected boolean isReadOnly() {
+            // the export takes a snapshot, it does not need to close the database
+            return true;
+        }
+
+        @Override
+        protected void doInBackground(DBHandler dbHandler) {
             LOG.info("Exporting DB in a background thread");
-            try (DBHandler dbHandler = GBApplication.acquireDB()) {
+            try {
                 DBHelper helper = new DBHelper(localContext);
                 String dst = GBApplication.getPrefs().getString(GBPrefs.AUTO_EXPORT_LOCATION, null);
                 if (dst == null) {
@@ -113,7 +124,13 @@ public class PeriodicExporter extends BroadcastReceiver {
                 }
                 Uri dstUri = Uri.parse(dst);
                 try (OutputStream out = localContext.getContentResolver().openOutputStream(dstUri)) {
-                    helper.exportDB(dbHandler, out);
+                    if (GBApplication.getPrefs().getBoolean(GBPrefs.AUTO_EXPORT_INCREMENTAL, false)) {
+                        Map<String, String> state = helper.exportDBIncremental(dbHandler, out, loadIncrementalState());
+                        saveIncrementalState(state);
+                    } else {
+                        helper.exportDB(dbHandler, out);
+                        saveIncrementalState(null);
+                    }
                     GBApplication gbApp = GBApplication.app();
                     gbApp.setLastAutoExportTimestamp(System.currentTimeMillis());
                 }
@@ -128,6 +145,34 @@ public class PeriodicExporter extends BroadcastReceiver {
             }
         }
 
+        private Map<String, String> loadIncrementalState() {
+            final Map<String, String> state = new HashMap<>();
+            final String json = GBApplication.getPrefs().getString(GBPrefs.AUTO_EXPORT_INCREMENTAL_STATE, null);
+            if (json == null) {
+                return state;
+            }
+            try {
+                final JSONObject jsonObject = new JSONObject(json);
+                final Iterator<String> keys = jsonObject.keys();
+                while (keys.hasNext()) {
+                    final String table = keys.next();
+                    state.put(table, jsonObject.getString(table));
+                }
+            } catch (final JSONException e) {
+                LOG.warn("Invalid incremental export state, exporting all tables", e);
+                state.clear();
+            }
+            return state;
+        }
+
+        private void saveIncrementalState(final Map<String, String> state) {
+            final String json = state != null ? new JSONObject(state).toString() : null;
+            GBApplication.getPrefs().getPreferences()
+                    .edit()
+                    .putString(GBPrefs.AUTO_EXPORT_INCREMENTAL_STATE, json)
+                    .apply();
+        }
+
         private void broadcastSuccess(final boolean success) {
             if (!GBApplication.getPrefs().getBoolean("intent_api_broadcast_export", false)) {
                 return;
@@ -0,0 +1,111 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database.schema;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Locale;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBUpdateScript;
+import nodomain.freeyourgadget.gadgetbridge.entities.BangleJSActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.CasioGBX100ActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.CmfActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.FitProActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.HuamiExtendedActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.HuaweiActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.HybridHRActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.ID115ActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.JYouActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.LefunActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.MakibesHR3ActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.No1F1ActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleMisfitSampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleMorpheuzSampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PineTimeActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.SonySWR12SampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.TLW64ActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.VivomoveHrActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.WatchXPlusActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.Wena3ActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.WithingsSteelHRActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.XWatchActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.XiaomiActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.ZeTimeActivitySampleDao;
+
+/**
+ * Adds a (DEVICE_ID, TIMESTAMP) index to all activity sample tables, so that the range queries
+ * of the sample providers for a single device no longer need to skip over the samples of other
+ * devices. The index names match the ones generated by greenDAO.
+ */
+public class GadgetbridgeUpdate_73 implements DBUpdateScript {
+    public static final String[] ACTIVITY_SAMPLE_TABLES = {
+            BangleJSActivitySampleDao.TABLENAME,
+            CasioGBX100ActivitySampleDao.TABLENAME,
+            CmfActivitySampleDao.TABLENAME,
+            FitProActivitySampleDao.TABLENAME,
+            HPlusHealthActivitySampleDao.TABLENAME,
+            HuamiExtendedActivitySampleDao.TABLENAME,
+            HuaweiActivitySampleDao.TABLENAME,
+            HybridHRActivitySampleDao.TABLENAME,
+            ID115ActivitySampleDao.TABLENAME,
+            JYouActivitySampleDao.TABLENAME,
+            LefunActivitySampleDao.TABLENAME,
+            MakibesHR3ActivitySampleDao.TABLENAME,
+            MiBandActivitySampleDao.TABLENAME,
+            No1F1ActivitySampleDao.TABLENAME,
+            PebbleHealthActivitySampleDao.TABLENAME,
+            PebbleMisfitSampleDao.TABLENAME,
+            PebbleMorpheuzSampleDao.TABLENAME,
+            PineTimeActivitySampleDao.TABLENAME,
+            SonySWR12SampleDao.TABLENAME,
+            TLW64ActivitySampleDao.TABLENAME,
+            VivomoveHrActivitySampleDao.TABLENAME,
+            WatchXPlusActivitySampleDao.TABLENAME,
+            Wena3ActivitySampleDao.TABLENAME,
+            WithingsSteelHRActivitySampleDao.TABLENAME,
+            XWatchActivitySampleDao.TABLENAME,
+            XiaomiActivitySampleDao.TABLENAME,
+            ZeTimeActivitySampleDao.TABLENAME,
+    };
+
+    public static String getIndexName(final String table) {
+        return "IDX_" + table + "_DEVICE_ID_TIMESTAMP";
+    }
+
+    @Override
+    public void upgradeSchema(final SQLiteDatabase db) {
+        for (final String table : ACTIVITY_SAMPLE_TABLES) {
+            final String statement = String.format(
+                    Locale.ROOT,
+                    "CREATE INDEX IF NOT EXISTS %s ON \"%s\" (\"DEVICE_ID\" ASC, \"TIMESTAMP\" ASC)",
+                    getIndexName(table),
+                    table
+            );
+            db.execSQL(statement);
+        }
+    }
+
+    @Override
+    public void downgradeSchema(final SQLiteDatabase db) {
+        for (final String table : ACTIVITY_SAMPLE_TABLES) {
+            db.execSQL("DROP INDEX IF EXISTS " + getIndexName(table));
+        }
+    }
+}
@@ -17,6 +17,8 @@
     along with this program.  If not, see <https://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.devices;
 
+import android.database.Cursor;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -27,6 +29,9 @@ import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
 import de.greenrobot.dao.query.WhereCondition;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupBackfill;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivitySampleBucketHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
@@ -89,14 +94,101 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
         }
     }
 
+    @Override
+    public void forEachSample(int timestamp_from, int timestamp_to, SampleVisitor<? super T> visitor) {
+        if (!canStreamSamples()) {
+            for (T sample : getAllActivitySamples(timestamp_from, timestamp_to)) {
+                visitor.visit(sample);
+            }
+            return;
+        }
+
+        Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
+        if (dbDevice == null) {
+            // no device, no samples
+            return;
+        }
+
+        AbstractDao<T, ?> dao = getSampleDao();
+        String timestampColumn = getTimestampSampleProperty().columnName;
+        StringBuilder sql = new StringBuilder("SELECT ");
+        String[] columns = dao.getAllColumns();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append('"').append(columns[i]).append('"');
+        }
+        sql.append(" FROM \"").append(dao.getTablename()).append('"')
+                .append(" WHERE \"").append(getDeviceIdentifierSampleProperty().columnName).append("\" = ?")
+                .append(" AND \"").append(timestampColumn).append("\" >= ?")
+                .append(" AND \"").append(timestampColumn).append("\" <= ?")
+                .append(" ORDER BY \"").append(timestampColumn).append('"');
+        String[] args = new String[]{
+                String.valueOf(dbDevice.getId()),
+                String.valueOf(timestamp_from),
+                String.valueOf(timestamp_to)
+        };
+
+        // a single flyweight sample, which is re-filled for every row
+        T sample = createActivitySample();
+        sample.setProvider(this);
+        try (Cursor cursor = dao.getDatabase().rawQuery(sql.toString(), args)) {
+            while (cursor.moveToNext()) {
+                dao.readEntity(cursor, sample, 0);
+                visitor.visit(sample);
+            }
+        }
+    }
+
+    /**
+     * Whether #forEachSample may read the samples straight from the database. Subclasses that
+     * post-process the samples in #getGBActivitySamples or #getAllActivitySamples must return
+     * false, so that the visitor gets the post-processed samples instead.
+     */
+    protected boolean canStreamSamples() {
+        return true;
+    }
+
     @Override
     public void addGBActivitySample(T activitySample) {
         getSampleDao().insertOrReplace(activitySample);
+
+        // this is called for every realtime sample, so only do the cheap part right away
+        final int timestamp = activitySample.getTimestamp();
+        ActivityDailyRollupHelper.invalidate(getSession(), activitySample.getDeviceId(), timestamp, timestamp);
+        ActivityDailyRollupBackfill.updateBucketsLater(getDevice(), timestamp, timestamp);
     }
 
     @Override
     public void addGBActivitySamples(T[] activitySamples) {
         getSampleDao().insertOrReplaceInTx(activitySamples);
+
+        if (activitySamples.length > 0) {
+            int minTimestamp = Integer.MAX_VALUE;
+            int maxTimestamp = Integer.MIN_VALUE;
+            for (T sample : activitySamples) {
+                minTimestamp = Math.min(minTimestamp, sample.getTimestamp());
+                maxTimestamp = Math.max(maxTimestamp, sample.getTimestamp());
+            }
+            updateAggregates(minTimestamp, maxTimestamp);
+        }
+    }
+
+    /**
+     * Invalidates the persisted daily rollups overlapping the given time range, so that they are
+     * re-computed from the samples on the next access, and updates the sample buckets.
+     *
+     * Subclasses that write samples in batches without going through #addGBActivitySamples must
+     * call this.
+     */
+    protected void updateAggregates(int timestampFrom, int timestampTo) {
+        Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
+        if (dbDevice == null) {
+            return;
+        }
+        ActivityDailyRollupHelper.invalidate(getSession(), dbDevice.getId(), timestampFrom, timestampTo);
+        ActivitySampleBucketHelper.update(getSession(), dbDevice.getId(), this, timestampFrom, timestampTo);
     }
 
     @Nullable
@@ -25,6 +25,7 @@ import java.util.List;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractTimeSample;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
@@ -75,11 +76,43 @@ public abstract class AbstractTimeSampleProvider<T extends AbstractTimeSample> i
     @Override
     public void addSample(final T activitySample) {
         getSampleDao().insertOrReplace(activitySample);
+        invalidateActivityAggregates(Collections.singletonList(activitySample));
     }
 
     @Override
     public void addSamples(final List<T> activitySamples) {
         getSampleDao().insertOrReplaceInTx(activitySamples);
+        invalidateActivityAggregates(activitySamples);
+    }
+
+    /**
+     * Returns the end of the time range (in milliseconds, starting at the timestamp of the sample)
+     * that the given sample changes when it is overlaid on the activity samples of the device, or
+     * -1 if samples of this type are not overlaid on the activity samples.
+     * <p>
+     * Providers whose samples are read by an activity sample provider (e.g. heart rate or sleep
+     * stages stored in a separate table) must override this, so that the daily rollups of the
+     * affected days are invalidated.
+     */
+    protected long getActivityOverlayEnd(final T sample) {
+        return -1;
+    }
+
+    private void invalidateActivityAggregates(final List<T> samples) {
+        long timestampFrom = Long.MAX_VALUE;
+        long timestampTo = Long.MIN_VALUE;
+        for (final T sample : samples) {
+            final long overlayEnd = getActivityOverlayEnd(sample);
+            if (overlayEnd < 0) {
+                continue;
+            }
+            timestampFrom = Math.min(timestampFrom, sample.getTimestamp());
+            timestampTo = Math.max(timestampTo, overlayEnd);
+        }
+        if (timestampFrom > timestampTo) {
+            return;
+        }
+        ActivityDailyRollupHelper.invalidate(getSession(), getDevice(), (int) (timestampFrom / 1000), (int) (timestampTo / 1000));
     }
 
     @Nullable
@@ -73,6 +73,21 @@ public interface SampleProvider<T extends AbstractActivitySample> {
     @NonNull
     List<T> getSleepSamples(int timestamp_from, int timestamp_to);
 
+    /**
+     * Passes all samples, of any type, within the given time span to the visitor, in ascending
+     * timestamp order. This returns the same samples as {@link #getAllActivitySamples}, but
+     * implementations may stream them from the database re-using a single sample instance,
+     * so that long time spans can be processed in constant memory.
+     * <p>
+     * Providers that post-process the samples after loading them (e.g. to merge heart rate or
+     * sleep data, or to fix up the activity kinds) load them in full instead, so that the visitor
+     * always gets the same samples as the charts.
+     * @param timestamp_from the start timestamp
+     * @param timestamp_to the end timestamp
+     * @param visitor the visitor, which must not keep references to the samples
+     */
+    void forEachSample(int timestamp_from, int timestamp_to, SampleVisitor<? super T> visitor);
+
     /**
      * Adds the given sample to the database. An existing sample with the same
      * timestamp will be overwritten.
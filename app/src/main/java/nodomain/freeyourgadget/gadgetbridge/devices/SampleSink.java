@@ -0,0 +1,149 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+/**
+ * Collects activity samples while they are being parsed, and writes them to the database in
+ * large batches. Each batch is written in a single transaction through
+ * {@link SampleProvider#addGBActivitySamples}, which re-uses the same compiled insert statement
+ * for all the samples, instead of paying the cost of a transaction for every sample or small chunk.
+ * <p/>
+ * The database is only acquired while flushing, and the device, user and provider of the
+ * samples are set then, so producers do not need to hold the database lock while parsing.
+ * {@link #finish()} must be called once all the samples were added.
+ *
+ * @param <T> the sample type
+ */
+public class SampleSink<T extends AbstractActivitySample> {
+    private static final Logger LOG = LoggerFactory.getLogger(SampleSink.class);
+
+    /**
+     * A few days of per-minute samples.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final GBDevice gbDevice;
+    private final Class<T> sampleClass;
+    private final int capacity;
+    private final List<T> buffer;
+
+    private long sampleCount = 0;
+    private long flushCount = 0;
+    private long flushNanos = 0;
+
+    public SampleSink(final GBDevice gbDevice, final Class<T> sampleClass) {
+        this(gbDevice, sampleClass, DEFAULT_CAPACITY);
+    }
+
+    public SampleSink(final GBDevice gbDevice, final Class<T> sampleClass, final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.gbDevice = gbDevice;
+        this.sampleClass = sampleClass;
+        this.capacity = capacity;
+        this.buffer = new ArrayList<>(Math.min(capacity, DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Adds a sample, flushing the buffer if it is full.
+     */
+    public void add(final T sample) throws Exception {
+        buffer.add(sample);
+        if (buffer.size() >= capacity) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all the buffered samples to the database, in a single transaction.
+     */
+    public void flush() throws Exception {
+        if (buffer.isEmpty()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try (DBHandler handler = GBApplication.acquireDB()) {
+            final DaoSession session = handler.getDaoSession();
+            final SampleProvider<T> sampleProvider = (SampleProvider<T>) gbDevice.getDeviceCoordinator().getSampleProvider(gbDevice, session);
+            final long deviceId = DBHelper.getDevice(gbDevice, session).getId();
+            final long userId = DBHelper.getUser(session).getId();
+
+            final T[] samples = (T[]) Array.newInstance(sampleClass, buffer.size());
+            for (int i = 0; i < samples.length; i++) {
+                final T sample = buffer.get(i);
+                sample.setDeviceId(deviceId);
+                sample.setUserId(userId);
+                sample.setProvider(sampleProvider);
+                samples[i] = sample;
+            }
+
+            sampleProvider.addGBActivitySamples(samples);
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        sampleCount += buffer.size();
+        flushCount++;
+        flushNanos += elapsed;
+        LOG.debug("Flushed {} samples in {}ms", buffer.size(), elapsed / 1_000_000);
+
+        buffer.clear();
+    }
+
+    /**
+     * Flushes the remaining samples, and logs the throughput.
+     */
+    public void finish() throws Exception {
+        flush();
+        if (sampleCount > 0) {
+            LOG.info("Saved {} samples in {} transactions, {} rows/s", sampleCount, flushCount, getRowsPerSecond());
+        }
+    }
+
+    /**
+     * @return the number of samples written to the database so far
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getBufferedCount() {
+        return buffer.size();
+    }
+
+    public long getRowsPerSecond() {
+        if (flushNanos == 0) {
+            return 0;
+        }
+        return sampleCount * 1_000_000_000L / flushNanos;
+    }
+}
@@ -0,0 +1,32 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Receives the samples streamed by {@link SampleProvider#forEachSample}, in ascending timestamp
+ * order.
+ * <p/>
+ * The sample passed to {@link #visit} may be re-used for the next sample, so implementations
+ * must copy the values they need instead of keeping a reference to it.
+ *
+ * @param <T> the sample type
+ */
+public interface SampleVisitor<T extends ActivitySample> {
+    void visit(T sample);
+}
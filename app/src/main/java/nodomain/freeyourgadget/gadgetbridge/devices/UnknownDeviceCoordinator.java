@@ -74,6 +74,10 @@ public class UnknownDeviceCoordinator extends AbstractDeviceCoordinator {
             return null;
         }
 
+        @Override
+        public void forEachSample(int timestamp_from, int timestamp_to, SampleVisitor visitor) {
+        }
+
         @Override
         public void addGBActivitySample(AbstractActivitySample activitySample) {
         }
@@ -90,6 +90,11 @@ public class CasioGBX100SampleProvider extends AbstractSampleProvider<CasioGBX10
         return super.getActivitySamples(timestamp_from, timestamp_to);
     }
 
+    @Override
+    protected boolean canStreamSamples() {
+        return false;
+    }
+
     @Override
     public List<CasioGBX100ActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
         return super.getActivitySamples(timestamp_from, timestamp_to);
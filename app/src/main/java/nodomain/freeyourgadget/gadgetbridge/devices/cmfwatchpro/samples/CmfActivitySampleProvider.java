@@ -91,6 +91,11 @@ public class CmfActivitySampleProvider extends AbstractSampleProvider<CmfActivit
         return new CmfActivitySample();
     }
 
+    @Override
+    protected boolean canStreamSamples() {
+        return false;
+    }
+
     @Override
     protected List<CmfActivitySample> getGBActivitySamples(final int timestamp_from, final int timestamp_to, final int activityType) {
         LOG.trace(
@@ -53,4 +53,9 @@ public class CmfHeartRateSampleProvider extends AbstractTimeSampleProvider<CmfHe
     public CmfHeartRateSample createSample() {
         return new CmfHeartRateSample();
     }
+
+    @Override
+    protected long getActivityOverlayEnd(final CmfHeartRateSample sample) {
+        return sample.getTimestamp();
+    }
 }
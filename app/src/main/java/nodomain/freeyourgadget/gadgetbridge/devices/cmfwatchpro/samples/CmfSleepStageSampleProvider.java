@@ -53,4 +53,9 @@ public class CmfSleepStageSampleProvider extends AbstractTimeSampleProvider<CmfS
     public CmfSleepStageSample createSample() {
         return new CmfSleepStageSample();
     }
+
+    @Override
+    protected long getActivityOverlayEnd(final CmfSleepStageSample sample) {
+        return sample.getTimestamp() + sample.getDuration() * 1000L;
+    }
 }
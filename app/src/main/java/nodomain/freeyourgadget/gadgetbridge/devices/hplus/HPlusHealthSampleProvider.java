@@ -122,6 +122,11 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
         return getAllActivitySamples(timestamp_from, timestamp_to);
     }
 
+    @Override
+    protected boolean canStreamSamples() {
+        return false;
+    }
+
     @NonNull
     @Override
     public List<HPlusHealthActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
@@ -74,6 +74,11 @@ public class HuamiExtendedSampleProvider extends AbstractSampleProvider<HuamiExt
         return new HuamiExtendedActivitySample();
     }
 
+    @Override
+    protected boolean canStreamSamples() {
+        return false;
+    }
+
     @Override
     protected List<HuamiExtendedActivitySample> getGBActivitySamples(final int timestamp_from, final int timestamp_to, final int activityType) {
         final List<HuamiExtendedActivitySample> samples = super.getGBActivitySamples(timestamp_from, timestamp_to, activityType);
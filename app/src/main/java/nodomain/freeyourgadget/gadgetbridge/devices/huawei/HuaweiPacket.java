@@ -22,7 +22,9 @@ import static nodomain.freeyourgadget.gadgetbridge.devices.huawei.HuaweiConstant
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import org.slf4j.Logger;
@@ -225,6 +227,80 @@ public class HuaweiPacket {
     }
 
     protected static final int PACKET_MINIMAL_SIZE = 6;
+    private static final int PACKET_BUFFER_SIZE = 256;
+
+    private interface ResponseFactory {
+        HuaweiPacket create(ParamsProvider paramsProvider);
+    }
+
+    /**
+     * Responses by (service id, command id), packets that are not in here are not parsed further
+     */
+    private static final Map<Integer, ResponseFactory> RESPONSES = new HashMap<>();
+
+    static {
+        addResponse(DeviceConfig.id, DeviceConfig.LinkParams.id, DeviceConfig.LinkParams.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.SupportedServices.id, DeviceConfig.SupportedServices.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.SupportedCommands.id, DeviceConfig.SupportedCommands.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.ProductInfo.id, DeviceConfig.ProductInfo.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.BondParams.id, DeviceConfig.BondParams.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.Auth.id, DeviceConfig.Auth.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.BatteryLevel.id, DeviceConfig.BatteryLevel.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.DeviceStatus.id, DeviceConfig.DeviceStatus.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.DndLiftWristType.id, DeviceConfig.DndLiftWristType.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.HiChain.id, DeviceConfig.HiChain.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.PinCode.id, DeviceConfig.PinCode.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.ExpandCapability.id, DeviceConfig.ExpandCapability.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.ActivityType.id, DeviceConfig.ActivityType.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.SettingRelated.id, DeviceConfig.SettingRelated.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.SecurityNegotiation.id, DeviceConfig.SecurityNegotiation.Response::new);
+        addResponse(DeviceConfig.id, DeviceConfig.WearStatus.id, DeviceConfig.WearStatus.Response::new);
+
+        addResponse(Notifications.id, Notifications.NotificationConstraints.id, Notifications.NotificationConstraints.Response::new);
+        addResponse(Notifications.id, Notifications.NotificationCapabilities.id, Notifications.NotificationCapabilities.Response::new);
+
+        addResponse(Calls.id, Calls.AnswerCallResponse.id, Calls.AnswerCallResponse::new);
+
+        addResponse(FitnessData.id, FitnessData.FitnessTotals.id, FitnessData.FitnessTotals.Response::new);
+        addResponse(FitnessData.id, FitnessData.MessageCount.stepId, FitnessData.MessageCount.Response::new);
+        addResponse(FitnessData.id, FitnessData.MessageData.stepId, FitnessData.MessageData.StepResponse::new);
+        addResponse(FitnessData.id, FitnessData.MessageCount.sleepId, FitnessData.MessageCount.Response::new);
+        addResponse(FitnessData.id, FitnessData.MessageData.sleepId, FitnessData.MessageData.SleepResponse::new);
+
+        addResponse(Alarms.id, Alarms.EventAlarmsList.id, Alarms.EventAlarmsList.Response::new);
+        addResponse(Alarms.id, Alarms.SmartAlarmList.id, Alarms.SmartAlarmList.Response::new);
+
+        addResponse(FindPhone.id, FindPhone.Response.id, FindPhone.Response::new);
+
+        addResponse(Weather.id, Weather.WeatherSupport.id, Weather.WeatherSupport.Response::new);
+        addResponse(Weather.id, Weather.WeatherExtendedSupport.id, Weather.WeatherExtendedSupport.Response::new);
+        addResponse(Weather.id, Weather.WeatherStart.id, Weather.WeatherStart.Response::new);
+        addResponse(Weather.id, Weather.WeatherSunMoonSupport.id, Weather.WeatherSunMoonSupport.Response::new);
+
+        addResponse(Workout.id, Workout.WorkoutCount.id, Workout.WorkoutCount.Response::new);
+        addResponse(Workout.id, Workout.WorkoutTotals.id, Workout.WorkoutTotals.Response::new);
+        addResponse(Workout.id, Workout.WorkoutData.id, Workout.WorkoutData.Response::new);
+        addResponse(Workout.id, Workout.WorkoutPace.id, Workout.WorkoutPace.Response::new);
+
+        addResponse(GpsAndTime.id, GpsAndTime.GpsParameters.id, GpsAndTime.GpsParameters.Response::new);
+        addResponse(GpsAndTime.id, GpsAndTime.GpsStatus.id, GpsAndTime.GpsStatus.Response::new);
+        addResponse(GpsAndTime.id, GpsAndTime.GpsData.id, GpsAndTime.GpsData.Response::new);
+
+        addResponse(MusicControl.id, MusicControl.MusicStatusResponse.id, MusicControl.MusicStatusResponse::new);
+        addResponse(MusicControl.id, MusicControl.MusicInfo.id, MusicControl.MusicInfo.Response::new);
+        addResponse(MusicControl.id, MusicControl.Control.id, MusicControl.Control.Response::new);
+
+        addResponse(AccountRelated.id, AccountRelated.SendAccountToDevice.id, AccountRelated.SendAccountToDevice.Response::new);
+        addResponse(AccountRelated.id, AccountRelated.SendExtendedAccountToDevice.id, AccountRelated.SendExtendedAccountToDevice.Response::new);
+    }
+
+    private static void addResponse(int serviceId, int commandId, ResponseFactory factory) {
+        RESPONSES.put(key(serviceId, commandId), factory);
+    }
+
+    private static int key(int serviceId, int commandId) {
+        return ((serviceId & 0xff) << 8) | (commandId & 0xff);
+    }
 
     protected ParamsProvider paramsProvider;
 
@@ -232,8 +308,11 @@ public class HuaweiPacket {
     public byte commandId = 0;
     protected HuaweiTLV tlv = null;
 
+    // Reused while a packet is received in multiple parts, only the first length bytes are valid
     private byte[] partialPacket = null;
+    private int partialPacketLength = 0;
     private byte[] payload = null;
+    private int payloadLength = 0;
 
     public boolean complete = false;
 
@@ -275,7 +354,9 @@ public class HuaweiPacket {
         this.commandId = packet.commandId;
         this.tlv = packet.tlv;
         this.partialPacket = packet.partialPacket;
+        this.partialPacketLength = packet.partialPacketLength;
         this.payload = packet.payload;
+        this.payloadLength = packet.payloadLength;
         this.complete = packet.complete;
 
         if (packet.isEncrypted)
@@ -292,33 +373,54 @@ public class HuaweiPacket {
      */
     public void parseTlv() throws ParseException {}
 
+    /**
+     * Appends count bytes of data to the first length bytes of buffer, growing it if needed
+     * @return The buffer holding the appended data, which may be a new one
+     */
+    private static byte[] append(byte[] buffer, int length, byte[] data, int offset, int count) {
+        if (buffer == null || buffer.length < length + count) {
+            int capacity = buffer == null ? PACKET_BUFFER_SIZE : buffer.length * 2;
+            byte[] grown = new byte[Math.max(capacity, length + count)];
+            if (buffer != null)
+                System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+        System.arraycopy(data, offset, buffer, length, count);
+        return buffer;
+    }
+
     private void parseData(byte[] data) throws ParseException {
-        if (partialPacket != null) {
-            int newCapacity = partialPacket.length + data.length;
-            data = ByteBuffer.allocate(newCapacity)
-                    .put(partialPacket)
-                    .put(data)
-                    .array();
+        int length = data.length;
+        if (partialPacketLength > 0) {
+            partialPacket = append(partialPacket, partialPacketLength, data, 0, data.length);
+            length = partialPacketLength + data.length;
+            data = partialPacket;
         }
 
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-
-        if (buffer.capacity() < PACKET_MINIMAL_SIZE) {
+        if (length < PACKET_MINIMAL_SIZE) {
             throw new LengthMismatchException("Packet length mismatch : "
-                    + buffer.capacity()
+                    + length
                     + " != 6");
         }
 
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+
         byte magic = buffer.get();
         short expectedSize = buffer.getShort();
         int isSliced = buffer.get();
-        if (isSliced == 1 || isSliced == 2 || isSliced == 3) {
+        boolean sliced = isSliced == 1 || isSliced == 2 || isSliced == 3;
+        if (sliced) {
             buffer.get(); // Throw away slice flag
         }
-        byte[] newPayload = new byte[buffer.remaining() - 2];
-        buffer.get(newPayload, 0, buffer.remaining() - 2);
-        short expectedChecksum = buffer.getShort();
-        buffer.rewind();
+        int newPayloadOffset = buffer.position();
+        int newPayloadLength = length - newPayloadOffset - 2;
+        if (newPayloadLength < 0) {
+            throw new LengthMismatchException("Packet length mismatch : "
+                    + length
+                    + " < "
+                    + (newPayloadOffset + 2));
+        }
+        short expectedChecksum = buffer.getShort(length - 2);
 
         if (magic != HUAWEI_MAGIC) {
             throw new MagicMismatchException("Magic mismatch : "
@@ -326,14 +428,16 @@ public class HuaweiPacket {
                     + " != 0x5A");
         }
 
-        int newPayloadLen = newPayload.length + 1;
-        if (isSliced == 1 || isSliced == 2 || isSliced == 3) {
-            newPayloadLen = newPayload.length + 2;
+        int newPayloadLen = newPayloadLength + 1;
+        if (sliced) {
+            newPayloadLen = newPayloadLength + 2;
         }
         if (expectedSize != (short) newPayloadLen) {
             if (expectedSize > (short) newPayloadLen) {
                 // Older band and BT version do not handle message with more than 256 bits.
-                this.partialPacket = data;
+                if (data != this.partialPacket)
+                    this.partialPacket = append(this.partialPacket, 0, data, 0, length);
+                this.partialPacketLength = length;
                 return;
             } else {
                 throw new LengthMismatchException("Expected length mismatch : "
@@ -342,11 +446,9 @@ public class HuaweiPacket {
                     + (short) newPayloadLen);
             }
         }
-        this.partialPacket = null;
+        this.partialPacketLength = 0;
 
-        byte[] dataNoCRC = new byte[buffer.capacity() - 2];
-        buffer.get(dataNoCRC, 0, buffer.capacity() - 2);
-        short actualChecksum = (short) CheckSums.getCRC16(dataNoCRC, 0x0000);
+        short actualChecksum = (short) CheckSums.getCRC16(data, 0, length - 2, 0x0000);
         if (actualChecksum != expectedChecksum) {
             throw new ChecksumIncorrectException("Checksum mismatch : "
                     + String.valueOf(actualChecksum)
@@ -354,24 +456,30 @@ public class HuaweiPacket {
                     + String.valueOf(expectedChecksum));
         }
 
-        if (isSliced == 1 || isSliced == 2 || isSliced == 3) {
-            if (payload != null) {
-                int newCapacity = payload.length + newPayload.length;
-                newPayload = ByteBuffer.allocate(newCapacity)
-                        .put(payload)
-                        .put(newPayload)
-                        .array();
-            }
+        byte[] newPayload = data;
+        if (sliced) {
+            this.payload = append(this.payload, this.payloadLength, data, newPayloadOffset, newPayloadLength);
+            this.payloadLength += newPayloadLength;
 
             if (isSliced != 3) {
                 // Sliced packet isn't complete yet
-                this.payload = newPayload;
                 return;
             }
+
+            newPayload = this.payload;
+            newPayloadOffset = 0;
+            newPayloadLength = this.payloadLength;
+            this.payloadLength = 0;
+        }
+
+        if (newPayloadLength < 2) {
+            throw new LengthMismatchException("Payload length mismatch : "
+                    + newPayloadLength
+                    + " < 2");
         }
 
-        this.serviceId = newPayload[0];
-        this.commandId = newPayload[1];
+        this.serviceId = newPayload[newPayloadOffset];
+        this.commandId = newPayload[newPayloadOffset + 1];
         this.complete = true;
 
         if (
@@ -383,7 +491,7 @@ public class HuaweiPacket {
         }
 
         this.tlv = new HuaweiTLV();
-        this.tlv.parse(newPayload, 2, newPayload.length - 2);
+        this.tlv.parse(newPayload, newPayloadOffset + 2, newPayloadLength - 2);
     }
 
     public HuaweiPacket parse(byte[] data) throws ParseException {
@@ -393,156 +501,15 @@ public class HuaweiPacket {
         if (!this.complete)
             return this;
 
-        switch (this.serviceId) {
-            case DeviceConfig.id:
-                switch (this.commandId) {
-                    case DeviceConfig.LinkParams.id:
-                        return new DeviceConfig.LinkParams.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.SupportedServices.id:
-                        return new DeviceConfig.SupportedServices.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.SupportedCommands.id:
-                        return new DeviceConfig.SupportedCommands.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.ProductInfo.id:
-                        return new DeviceConfig.ProductInfo.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.BondParams.id:
-                        return new DeviceConfig.BondParams.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.Auth.id:
-                        return new DeviceConfig.Auth.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.BatteryLevel.id:
-                        return new DeviceConfig.BatteryLevel.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.DeviceStatus.id:
-                        return new DeviceConfig.DeviceStatus.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.DndLiftWristType.id:
-                        return new DeviceConfig.DndLiftWristType.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.HiChain.id:
-                        return new DeviceConfig.HiChain.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.PinCode.id:
-                        return new DeviceConfig.PinCode.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.ExpandCapability.id:
-                        return new DeviceConfig.ExpandCapability.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.ActivityType.id:
-                        return new DeviceConfig.ActivityType.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.SettingRelated.id:
-                        return new DeviceConfig.SettingRelated.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.SecurityNegotiation.id:
-                        return new DeviceConfig.SecurityNegotiation.Response(paramsProvider).fromPacket(this);
-                    case DeviceConfig.WearStatus.id:
-                        return new DeviceConfig.WearStatus.Response(paramsProvider).fromPacket(this);
-                    default:
-                        this.isEncrypted = this.attemptDecrypt(); // Helps with debugging
-                        return this;
-                }
-            case Notifications.id:
-                switch (this.commandId) {
-                    case Notifications.NotificationConstraints.id:
-                        return new Notifications.NotificationConstraints.Response(paramsProvider).fromPacket(this);
-                    case Notifications.NotificationCapabilities.id:
-                        return new Notifications.NotificationCapabilities.Response(paramsProvider).fromPacket(this);
-                    default:
-                        return this;
-                }
-            case Calls.id:
-                if (this.commandId == Calls.AnswerCallResponse.id)
-                    return new Calls.AnswerCallResponse(paramsProvider).fromPacket(this);
-                this.isEncrypted = this.attemptDecrypt(); // Helps with debugging
-                return this;
-            case FitnessData.id:
-                switch (this.commandId) {
-                    case FitnessData.FitnessTotals.id:
-                        return new FitnessData.FitnessTotals.Response(paramsProvider).fromPacket(this);
-                    case FitnessData.MessageCount.stepId:
-                        return new FitnessData.MessageCount.Response(paramsProvider).fromPacket(this);
-                    case FitnessData.MessageData.stepId:
-                        return new FitnessData.MessageData.StepResponse(paramsProvider).fromPacket(this);
-                    case FitnessData.MessageCount.sleepId:
-                        return new FitnessData.MessageCount.Response(paramsProvider).fromPacket(this);
-                    case FitnessData.MessageData.sleepId:
-                        return new FitnessData.MessageData.SleepResponse(paramsProvider).fromPacket(this);
-                    default:
-                        this.isEncrypted = this.attemptDecrypt(); // Helps with debugging
-                        return this;
-                }
-            case Alarms.id:
-                switch (this.commandId) {
-                    case Alarms.EventAlarmsList.id:
-                        return new Alarms.EventAlarmsList.Response(paramsProvider).fromPacket(this);
-                    case Alarms.SmartAlarmList.id:
-                        return new Alarms.SmartAlarmList.Response(paramsProvider).fromPacket(this);
-                    default:
-                        this.isEncrypted = this.attemptDecrypt(); // Helps with debugging
-                        return this;
-                }
-            case FindPhone.id:
-                if (this.commandId == FindPhone.Response.id)
-                    return new FindPhone.Response(paramsProvider).fromPacket(this);
-                this.isEncrypted = this.attemptDecrypt(); // Helps with debugging
-                return this;
-            case Weather.id:
-                switch (this.commandId) {
-                    case Weather.WeatherSupport.id:
-                        return new Weather.WeatherSupport.Response(paramsProvider).fromPacket(this);
-                    case Weather.WeatherExtendedSupport.id:
-                        return new Weather.WeatherExtendedSupport.Response(paramsProvider).fromPacket(this);
-                    case Weather.WeatherStart.id:
-                        return new Weather.WeatherStart.Response(paramsProvider).fromPacket(this);
-                    case Weather.WeatherSunMoonSupport.id:
-                        return new Weather.WeatherSunMoonSupport.Response(paramsProvider).fromPacket(this);
-                    default:
-                        this.isEncrypted = this.attemptDecrypt(); // Helps with debugging
-                        return this;
-                }
-            case Workout.id:
-                switch (this.commandId) {
-                    case Workout.WorkoutCount.id:
-                        return new Workout.WorkoutCount.Response(paramsProvider).fromPacket(this);
-                    case Workout.WorkoutTotals.id:
-                        return new Workout.WorkoutTotals.Response(paramsProvider).fromPacket(this);
-                    case Workout.WorkoutData.id:
-                        return new Workout.WorkoutData.Response(paramsProvider).fromPacket(this);
-                    case Workout.WorkoutPace.id:
-                        return new Workout.WorkoutPace.Response(paramsProvider).fromPacket(this);
-                    default:
-                        this.isEncrypted = this.attemptDecrypt(); // Helps with debugging
-                        return this;
-                }
-            case GpsAndTime.id:
-                switch (this.commandId) {
-                    case GpsAndTime.GpsParameters.id:
-                        return new GpsAndTime.GpsParameters.Response(paramsProvider).fromPacket(this);
-                    case GpsAndTime.GpsStatus.id:
-                        return new GpsAndTime.GpsStatus.Response(paramsProvider).fromPacket(this);
-                    case GpsAndTime.GpsData.id:
-                        return new GpsAndTime.GpsData.Response(paramsProvider).fromPacket(this);
-                    default:
-                        this.isEncrypted = this.attemptDecrypt(); // Helps with debugging
-                        return this;
-                }
-            case MusicControl.id:
-                switch (this.commandId) {
-                    case MusicControl.MusicStatusResponse.id:
-                        return new MusicControl.MusicStatusResponse(paramsProvider).fromPacket(this);
-                    case MusicControl.MusicInfo.id:
-                        return new MusicControl.MusicInfo.Response(paramsProvider).fromPacket(this);
-                    case MusicControl.Control.id:
-                        return new MusicControl.Control.Response(paramsProvider).fromPacket(this);
-                    default:
-                        this.isEncrypted = this.attemptDecrypt(); // Helps with debugging
-                        return this;
-                }
-            case AccountRelated.id:
-                switch(this.commandId) {
-                    case AccountRelated.SendAccountToDevice.id:
-                        return new AccountRelated.SendAccountToDevice.Response(paramsProvider).fromPacket(this);
-                    case AccountRelated.SendExtendedAccountToDevice.id:
-                        return new AccountRelated.SendExtendedAccountToDevice.Response(paramsProvider).fromPacket(this);
-                    default:
-                        this.isEncrypted = this.attemptDecrypt(); // Helps with debugging
-                        return this;
-                }
-            default:
-                this.isEncrypted = this.attemptDecrypt(); // Helps with debugging
-                return this;
-        }
+        ResponseFactory factory = RESPONSES.get(key(this.serviceId, this.commandId));
+        if (factory != null)
+            return factory.create(paramsProvider).fromPacket(this);
+
+        if (this.serviceId == Notifications.id)
+            return this;
+
+        this.isEncrypted = this.attemptDecrypt(); // Helps with debugging
+        return this;
     }
 
     public HuaweiPacket parseOutgoing(byte[] data) throws ParseException {
@@ -723,8 +690,8 @@ public class HuaweiPacket {
                 ", serviceId=" + serviceId +
                 ", commandId=" + commandId +
                 ", tlv=" + tlv +
-                ", partialPacket=" + Arrays.toString(partialPacket) +
-                ", payload=" + Arrays.toString(payload) +
+                ", partialPacket=" + (partialPacket == null ? null : Arrays.toString(Arrays.copyOf(partialPacket, partialPacketLength))) +
+                ", payload=" + (payload == null ? null : Arrays.toString(Arrays.copyOf(payload, payloadLength))) +
                 ", complete=" + complete +
                 ", isEncrypted=" + isEncrypted +
                 ", isSliced=" + isSliced +
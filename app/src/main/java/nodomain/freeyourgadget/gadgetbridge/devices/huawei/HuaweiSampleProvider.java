@@ -31,6 +31,8 @@ import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupBackfill;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
@@ -211,6 +213,12 @@ public class HuaweiSampleProvider extends AbstractSampleProvider<HuaweiActivityS
 
         getSampleDao().insertOrReplace(start);
         getSampleDao().insertOrReplace(end);
+
+        // this is called for every realtime sample, so only do the cheap part right away
+        final int timestampFrom = Math.min(start.getTimestamp(), end.getTimestamp());
+        final int timestampTo = Math.max(start.getTimestamp(), end.getTimestamp());
+        ActivityDailyRollupHelper.invalidate(getSession(), activitySample.getDeviceId(), timestampFrom, timestampTo);
+        ActivityDailyRollupBackfill.updateBucketsLater(getDevice(), timestampFrom, timestampTo);
     }
 
     @Override
@@ -231,6 +239,16 @@ public class HuaweiSampleProvider extends AbstractSampleProvider<HuaweiActivityS
             newSamples.add(end);
         }
         getSampleDao().insertOrReplaceInTx(newSamples);
+
+        if (!newSamples.isEmpty()) {
+            int minTimestamp = Integer.MAX_VALUE;
+            int maxTimestamp = Integer.MIN_VALUE;
+            for (HuaweiActivitySample sample : newSamples) {
+                minTimestamp = Math.min(minTimestamp, sample.getTimestamp());
+                maxTimestamp = Math.max(maxTimestamp, sample.getTimestamp());
+            }
+            updateAggregates(minTimestamp, maxTimestamp);
+        }
     }
 
     /**
@@ -289,6 +307,11 @@ public class HuaweiSampleProvider extends AbstractSampleProvider<HuaweiActivityS
         public int sleepModifier = 0;
     }
 
+    @Override
+    protected boolean canStreamSamples() {
+        return false;
+    }
+
     /*
      * Note that this does a lot more than the normal implementation, as it takes care of everything
      * that is necessary for proper displaying of data.
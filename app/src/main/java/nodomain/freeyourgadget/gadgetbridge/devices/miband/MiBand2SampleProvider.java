@@ -36,6 +36,11 @@ public class MiBand2SampleProvider extends AbstractMiBandSampleProvider {
         super(device, session);
     }
 
+    @Override
+    protected boolean canStreamSamples() {
+        return false;
+    }
+
     @Override
     protected List<MiBandActivitySample> getGBActivitySamples(int timestamp_from, int timestamp_to, int activityType) {
         List<MiBandActivitySample> samples = super.getGBActivitySamples(timestamp_from, timestamp_to, activityType);
@@ -25,8 +25,8 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -35,12 +35,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceApp;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.pebble.PebbleProtocol;
+import nodomain.freeyourgadget.gadgetbridge.util.GBZipFile;
 import nodomain.freeyourgadget.gadgetbridge.util.UriHelper;
+import nodomain.freeyourgadget.gadgetbridge.util.ZipFileException;
 
 public class PBWReader {
     private static final Logger LOG = LoggerFactory.getLogger(PBWReader.class);
@@ -112,24 +112,16 @@ public class PBWReader {
         String appVersion = null;
         UUID appUUID = null;
 
-        ZipEntry ze;
         pebbleInstallables = new ArrayList<>();
         byte[] buffer = new byte[1024];
-        int count;
-        try (ZipInputStream zis = new ZipInputStream(uriHelper.openInputStream())) {
-            while ((ze = zis.getNextEntry()) != null) {
-                String fileName = ze.getName();
+        try (GBZipFile zipFile = uriHelper.openZipFile()) {
+            for (String fileName : zipFile.getEntryNames()) {
                 if (fileName.equals(platformDir + "manifest.json")) {
-                    long bytes = ze.getSize();
-                    if (bytes > 8192) // that should be too much
+                    if (zipFile.getFileSize(fileName) > 8192) // that should be too much
                         break;
+                    byte[] bytes = zipFile.getFileFromZip(fileName);
 
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    while ((count = zis.read(buffer)) != -1) {
-                        baos.write(buffer, 0, count);
-                    }
-
-                    String jsonString = baos.toString();
+                    String jsonString = new String(bytes);
                     try {
                         JSONObject json = new JSONObject(jsonString);
                         HashMap<String, Byte> fileTypeMap;
@@ -165,19 +157,14 @@ public class PBWReader {
                     }
 
                 } else if (fileName.equals("appinfo.json")) {
-                    long bytes = ze.getSize();
-                    if (bytes > 500000) {
+                    if (zipFile.getFileSize(fileName) > 500000) {
                         LOG.warn(fileName + " exeeds maximum of 500000 bytes");
                         // that should be too much
                         break;
                     }
+                    byte[] bytes = zipFile.getFileFromZip(fileName);
 
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    while ((count = zis.read(buffer)) != -1) {
-                        baos.write(buffer, 0, count);
-                    }
-
-                    String jsonString = baos.toString();
+                    String jsonString = new String(bytes);
                     try {
                         JSONObject json = new JSONObject(jsonString);
                         appName = json.getString("shortName");
@@ -194,7 +181,9 @@ public class PBWReader {
                         break;
                     }
                 } else if (fileName.equals(platformDir + "pebble-app.bin")) {
-                    zis.read(buffer, 0, 108);
+                    try (InputStream is = zipFile.getInputStream(fileName)) {
+                        is.read(buffer, 0, 108);
+                    }
                     byte[] tmp_buf = new byte[32];
                     ByteBuffer buf = ByteBuffer.wrap(buffer);
                     buf.order(ByteOrder.LITTLE_ENDIAN);
@@ -228,6 +217,8 @@ public class PBWReader {
             else if (!isFirmware) {
                 isValid = false;
             }
+        } catch (ZipFileException e) {
+            throw new IOException("Unable to read " + uriHelper.getFileName(), e);
         }
     }
 
@@ -264,15 +255,16 @@ public class PBWReader {
                 platformDirs = new String[]{"aplite/"};
         }
 
-        for (String dir : platformDirs) {
-            try (ZipInputStream zis = new ZipInputStream(uriHelper.openInputStream())) {
-                ZipEntry ze;
-                while ((ze = zis.getNextEntry()) != null) {
-                    if (ze.getName().startsWith(dir)) {
+        try (GBZipFile zipFile = uriHelper.openZipFile()) {
+            for (String dir : platformDirs) {
+                for (String fileName : zipFile.getEntryNames()) {
+                    if (fileName.startsWith(dir)) {
                         return dir;
                     }
                 }
             }
+        } catch (ZipFileException e) {
+            throw new IOException("Unable to read " + uriHelper.getFileName(), e);
         }
         return platformDir;
     }
@@ -302,25 +294,30 @@ public class PBWReader {
                 return null;
             }
         }
-        ZipInputStream zis = null;
-        ZipEntry ze;
+        GBZipFile zipFile = null;
         try {
-            zis = new ZipInputStream(uriHelper.openInputStream());
-            while ((ze = zis.getNextEntry()) != null) {
-                if (ze.getName().equals(filename)) {
-                    return zis; // return WITHOUT closing the stream!
+            zipFile = uriHelper.openZipFile();
+            final GBZipFile entryZipFile = zipFile;
+            return new FilterInputStream(zipFile.getInputStream(filename)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        // the entry is read from the archive until the stream is closed
+                        entryZipFile.close();
+                    }
                 }
-            }
-            zis.close();
+            };
         } catch (Throwable e) {
             try {
-                if (zis != null) {
-                    zis.close();
+                if (zipFile != null) {
+                    zipFile.close();
                 }
             } catch (IOException e1) {
                 // ignore
             }
-            e.printStackTrace();
+            LOG.warn("unable to read " + filename + ": " + e);
         }
         return null;
     }
@@ -50,6 +50,11 @@ public class PebbleHealthSampleProvider extends AbstractSampleProvider<PebbleHea
         super(device, session);
     }
 
+    @Override
+    protected boolean canStreamSamples() {
+        return false;
+    }
+
     @Override
     public List<PebbleHealthActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
         List<PebbleHealthActivitySample> samples = super.getGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
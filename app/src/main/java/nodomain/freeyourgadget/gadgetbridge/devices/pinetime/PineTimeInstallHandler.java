@@ -55,11 +55,12 @@ public class PineTimeInstallHandler implements InstallHandler {
         try {
             uriHelper = UriHelper.get(uri, this.context);
 
-            GBZipFile dfuPackage = new GBZipFile(uriHelper.openInputStream());
-            String manifest = new String(dfuPackage.getFileFromZip("manifest.json"));
+            try (GBZipFile dfuPackage = uriHelper.openZipFile()) {
+                String manifest = new String(dfuPackage.getFileFromZip("manifest.json"));
 
-            if (!manifest.trim().isEmpty()) {
-                dfuPackageManifest = new Gson().fromJson(manifest.trim(), InfiniTimeDFUPackage.class);
+                if (!manifest.trim().isEmpty()) {
+                    dfuPackageManifest = new Gson().fromJson(manifest.trim(), InfiniTimeDFUPackage.class);
+                }
             }
 
         } catch (ZipFileException e) {
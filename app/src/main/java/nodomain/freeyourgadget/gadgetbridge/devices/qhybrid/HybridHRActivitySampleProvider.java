@@ -84,6 +84,11 @@ public class HybridHRActivitySampleProvider extends AbstractSampleProvider<Hybri
         return super.getActivitySamples(timestamp_from, timestamp_to);
     }
 
+    @Override
+    protected boolean canStreamSamples() {
+        return false;
+    }
+
     @Override
     public List<HybridHRActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
         return super.getAllActivitySamples(timestamp_from, timestamp_to);
@@ -84,6 +84,11 @@ public class TestSampleProvider extends AbstractSampleProvider<TestSampleProvide
         throw new UnsupportedOperationException("read-only sample provider");
     }
 
+    @Override
+    protected boolean canStreamSamples() {
+        return false;
+    }
+
     @Override
     protected List<TestActivitySample> getGBActivitySamples(final int timestamp_from, final int timestamp_to, final int activityType) {
         final List<TestActivitySample> samples = new ArrayList<>();
@@ -53,4 +53,10 @@ public class XiaomiSleepStageSampleProvider extends AbstractTimeSampleProvider<X
     public XiaomiSleepStageSample createSample() {
         return new XiaomiSleepStageSample();
     }
+
+    @Override
+    protected long getActivityOverlayEnd(final XiaomiSleepStageSample sample) {
+        // a stage lasts until the next one, which XiaomiSampleProvider looks up to a day back
+        return sample.getTimestamp() + 86400000L;
+    }
 }
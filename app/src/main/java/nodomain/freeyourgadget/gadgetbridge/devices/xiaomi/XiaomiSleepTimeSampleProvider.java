@@ -53,4 +53,10 @@ public class XiaomiSleepTimeSampleProvider extends AbstractTimeSampleProvider<Xi
     public XiaomiSleepTimeSample createSample() {
         return new XiaomiSleepTimeSample();
     }
+
+    @Override
+    protected long getActivityOverlayEnd(final XiaomiSleepTimeSample sample) {
+        final Long wakeupTime = sample.getWakeupTime();
+        return wakeupTime != null ? Math.max(sample.getTimestamp(), wakeupTime) : sample.getTimestamp();
+    }
 }
@@ -19,18 +19,22 @@ package nodomain.freeyourgadget.gadgetbridge.export;
 
 import android.util.Xml;
 
-import androidx.annotation.Nullable;
-
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
@@ -50,16 +54,31 @@ public class GPXExporter implements ActivityTrackExporter {
     private static final String OPENTRACKS_NAMESPACE_URI = "http://opentracksapp.com/xmlschemas/v1";
     private static final String OPENTRACKS_NAMESPACE_XSD = "http://opentracksapp.com/xmlschemas/OpenTracks_v1.xsd";
 
+    private static final long MAX_NEAREST_HEART_RATE_DISTANCE_MILLIS = 60 * 2 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+    private static final double LOCATION_SCALE_FACTOR = 1_000_000d; // GPS_DECIMAL_DEGREES_SCALE
+    private static final double MAX_FAST_SCALED_LOCATION = 1e15;
+
     private String creator;
     private boolean includeHeartRate = true;
     private boolean includeHeartRateOfNearestSample = true;
 
+    // re-used for all points of an export, to avoid allocations
+    private final StringBuilder formatBuilder = new StringBuilder(32);
+    private final SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd'T'", Locale.US);
+    private long formattedDay = Long.MIN_VALUE;
+    private String formattedDayPrefix;
+
+    public GPXExporter() {
+        dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
     @Override
     public void performExport(ActivityTrack track, File targetFile) throws IOException, GPXTrackEmptyException {
         String encoding = StandardCharsets.UTF_8.name();
         XmlSerializer ser = Xml.newSerializer();
-        try (FileOutputStream outputStream = new FileOutputStream(targetFile)) {
-            ser.setOutput(outputStream, encoding);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(targetFile), StandardCharsets.UTF_8))) {
+            ser.setOutput(writer);
             ser.startDocument(encoding, Boolean.TRUE);
             ser.setPrefix("xsi", NS_XSI_URI);
             ser.setPrefix(NS_TRACKPOINT_EXTENSION, NS_TRACKPOINT_EXTENSION_URI);
@@ -116,8 +135,9 @@ public class GPXExporter implements ActivityTrackExporter {
             }
 
             ser.startTag(NS_GPX_URI, "trkseg");
+            NearestHeartRateFinder heartRateFinder = new NearestHeartRateFinder(segment);
             for (ActivityPoint point : segment) {
-                atLeastOnePointExported |= exportTrackPoint(ser, point, source, segment);
+                atLeastOnePointExported |= exportTrackPoint(ser, point, source, heartRateFinder);
             }
             ser.endTag(NS_GPX_URI, "trkseg");
         }
@@ -133,7 +153,7 @@ public class GPXExporter implements ActivityTrackExporter {
         return track.getDevice().getName();
     }
 
-    private boolean exportTrackPoint(XmlSerializer ser, ActivityPoint point, String source, List<ActivityPoint> trackPoints) throws IOException {
+    private boolean exportTrackPoint(XmlSerializer ser, ActivityPoint point, String source, NearestHeartRateFinder heartRateFinder) throws IOException {
         GPSCoordinate location = point.getLocation();
         if (location == null) {
             return false; // skip invalid points, that just contain hr data, for example
@@ -145,21 +165,21 @@ public class GPXExporter implements ActivityTrackExporter {
         if (location.getAltitude() != -20000) {
             ser.startTag(NS_GPX_URI, "ele").text(formatLocation(location.getAltitude())).endTag(NS_GPX_URI, "ele");
         }
-        ser.startTag(NS_GPX_URI, "time").text(DateTimeUtils.formatIso8601UTC(point.getTime())).endTag(NS_GPX_URI, "time");
+        ser.startTag(NS_GPX_URI, "time").text(formatTimeUTC(point.getTime())).endTag(NS_GPX_URI, "time");
         String description = point.getDescription();
         if (description != null) {
             ser.startTag(NS_GPX_URI, "desc").text(description).endTag(NS_GPX_URI, "desc");
         }
         //ser.startTag(NS_GPX_URI, "src").text(source).endTag(NS_GPX_URI, "src");
 
-        exportTrackpointExtensions(ser, point, trackPoints);
+        exportTrackpointExtensions(ser, point, heartRateFinder);
 
         ser.endTag(NS_GPX_URI, "trkpt");
 
         return true;
     }
 
-    private void exportTrackpointExtensions(XmlSerializer ser, ActivityPoint point, List<ActivityPoint> trackPoints) throws IOException {
+    private void exportTrackpointExtensions(XmlSerializer ser, ActivityPoint point, NearestHeartRateFinder heartRateFinder) throws IOException {
         if (!includeHeartRate) {
             return;
         }
@@ -170,12 +190,7 @@ public class GPXExporter implements ActivityTrackExporter {
                 return;
             }
 
-            ActivityPoint closestPointItem = findClosestSensibleActivityPoint(point.getTime(), trackPoints);
-            if(closestPointItem == null) {
-                return;
-            }
-
-            hr = closestPointItem.getHeartRate();
+            hr = heartRateFinder.findPrecedingHeartRate(point.getTime());
             if (!HeartRateUtils.getInstance().isValidHeartRateValue(hr)) {
                 return;
             }
@@ -189,29 +204,104 @@ public class GPXExporter implements ActivityTrackExporter {
         ser.endTag(NS_GPX_URI, "extensions");
     }
 
-    private @Nullable ActivityPoint findClosestSensibleActivityPoint(Date time, List<ActivityPoint> trackPoints) {
-        ActivityPoint closestPointItem = null;
-        HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
+    /**
+     * Finds the heart rate of the closest point with a valid heart rate before a given time,
+     * within 2 minutes. The segment is only traversed once, so the times must be queried in
+     * ascending order, like the points of the segment are sorted (oldest first).
+     */
+    private static class NearestHeartRateFinder {
+        private final List<ActivityPoint> trackPoints;
+        private final HeartRateUtils heartRateUtils = HeartRateUtils.getInstance();
+        private int nextIndex = 0;
+        private long lastValidTime;
+        private int lastValidHeartRate = -1;
+
+        NearestHeartRateFinder(List<ActivityPoint> trackPoints) {
+            this.trackPoints = trackPoints;
+        }
 
-        long lowestDifference = 60 * 2 * 1000; // minimum distance is 2min
-        for (ActivityPoint pointItem : trackPoints) {
-            int hrItem = pointItem.getHeartRate();
-            if (heartRateUtilsInstance.isValidHeartRateValue(hrItem)) {
-                Date timeItem = pointItem.getTime();
-                if (timeItem.after(time) || timeItem.equals(time)) {
-                    break; // we assume that the given trackPoints are sorted in time ascending order (oldest first)
-                }
-                long difference = time.getTime() - timeItem.getTime();
-                if (difference < lowestDifference) {
-                    lowestDifference = difference;
-                    closestPointItem = pointItem;
+        int findPrecedingHeartRate(Date time) {
+            final long millis = time.getTime();
+            while (nextIndex < trackPoints.size()) {
+                final ActivityPoint pointItem = trackPoints.get(nextIndex);
+                final int hrItem = pointItem.getHeartRate();
+                if (heartRateUtils.isValidHeartRateValue(hrItem)) {
+                    final long timeItem = pointItem.getTime().getTime();
+                    if (timeItem >= millis) {
+                        break;
+                    }
+                    lastValidTime = timeItem;
+                    lastValidHeartRate = hrItem;
                 }
+                nextIndex++;
             }
+
+            if (lastValidHeartRate != -1 && millis - lastValidTime < MAX_NEAREST_HEART_RATE_DISTANCE_MILLIS) {
+                return lastValidHeartRate;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Same as {@link DateTimeUtils#formatIso8601UTC(Date)}, but only formats the date once per day.
+     */
+    private String formatTimeUTC(Date date) {
+        final long millis = date.getTime();
+        long day = millis / MILLIS_PER_DAY;
+        if (millis % MILLIS_PER_DAY < 0) {
+            day--; // before 1970
+        }
+        if (day != formattedDay) {
+            formattedDay = day;
+            formattedDayPrefix = dayFormat.format(date);
+        }
+        final int secondOfDay = (int) ((millis - day * MILLIS_PER_DAY) / 1000);
+
+        formatBuilder.setLength(0);
+        formatBuilder.append(formattedDayPrefix);
+        appendTwoDigits(formatBuilder, secondOfDay / 3600).append(':');
+        appendTwoDigits(formatBuilder, secondOfDay / 60 % 60).append(':');
+        appendTwoDigits(formatBuilder, secondOfDay % 60).append('Z');
+        return formatBuilder.toString();
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder builder, int value) {
+        return builder.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * Formats the value with {@link GPSCoordinate#GPS_DECIMAL_DEGREES_SCALE} decimals, rounding
+     * half up like {@link BigDecimal}. Values that are too close to a tie to be decided with double
+     * arithmetic are formatted with BigDecimal.
+     */
+    String formatLocation(double value) {
+        final double scaled = Math.abs(value) * LOCATION_SCALE_FACTOR;
+        if (!(scaled < MAX_FAST_SCALED_LOCATION)) {
+            // also NaN
+            return formatLocationExact(value);
+        }
+        final double integral = Math.floor(scaled);
+        final double fraction = scaled - integral;
+        // the multiplication is accurate to half an ulp of the result
+        if (Math.abs(fraction - 0.5) <= Math.ulp(scaled)) {
+            return formatLocationExact(value);
+        }
+        final long units = (long) integral + (fraction > 0.5 ? 1 : 0);
+
+        formatBuilder.setLength(0);
+        if (value < 0 && units != 0) {
+            formatBuilder.append('-');
+        }
+        formatBuilder.append(units / 1_000_000).append('.');
+        final long decimals = units % 1_000_000;
+        for (long divisor = 100_000; divisor > 0; divisor /= 10) {
+            formatBuilder.append((char) ('0' + decimals / divisor % 10));
         }
-        return closestPointItem;
+        return formatBuilder.toString();
     }
 
-    private String formatLocation(double value) {
+    private static String formatLocationExact(double value) {
         return new BigDecimal(value).setScale(GPSCoordinate.GPS_DECIMAL_DEGREES_SCALE, RoundingMode.HALF_UP).toPlainString();
     }
 
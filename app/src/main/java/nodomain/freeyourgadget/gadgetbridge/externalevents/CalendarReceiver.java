@@ -26,14 +26,16 @@ import android.widget.Toast;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Enumeration;
+import java.util.Collection;
 import java.util.GregorianCalendar;
-import java.util.concurrent.TimeUnit;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.BuildConfig;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
@@ -49,43 +51,9 @@ import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class CalendarReceiver extends BroadcastReceiver {
     private static final Logger LOG = LoggerFactory.getLogger(CalendarReceiver.class);
-    private Hashtable<Long, EventSyncState> eventState = new Hashtable<>();
 
     private GBDevice mGBDevice;
 
-    private class EventSyncState {
-        private int state;
-        private CalendarEvent event;
-
-        EventSyncState(CalendarEvent event, int state) {
-            this.state = state;
-            this.event = event;
-        }
-
-        public int getState() {
-            return state;
-        }
-
-        public void setState(int state) {
-            this.state = state;
-        }
-
-        public CalendarEvent getEvent() {
-            return event;
-        }
-
-        public void setEvent(CalendarEvent event) {
-            this.event = event;
-        }
-    }
-
-    private static class EventState {
-        private static final int NOT_SYNCED = 0;
-        private static final int SYNCED = 1;
-        private static final int NEEDS_UPDATE = 2;
-        private static final int NEEDS_DELETE = 3;
-    }
-
     public CalendarReceiver(GBDevice gbDevice) {
         LOG.info("Created calendar receiver.");
         mGBDevice = gbDevice;
@@ -112,118 +80,95 @@ public class CalendarReceiver extends BroadcastReceiver {
         }
     }
 
+    /**
+     * Compares the given events with the sync state of the device, which is loaded from the
+     * database at once, updates the sync state in a single transaction, and then sends only
+     * the events that were added, changed or removed to the device.
+     */
     public void syncCalendar(List<CalendarEvent> eventList, DaoSession session) {
         LOG.info("Syncing with calendar.");
-        Hashtable<Long, CalendarEvent> eventTable = new Hashtable<>();
-        Long deviceId = DBHelper.getDevice(mGBDevice, session).getId();
-        QueryBuilder<CalendarSyncState> qb = session.getCalendarSyncStateDao().queryBuilder();
-
+        final long deviceId = DBHelper.getDevice(mGBDevice, session).getId();
+        final CalendarSyncStateDao calendarSyncStateDao = session.getCalendarSyncStateDao();
+
+        final Map<Long, CalendarSyncState> syncStates = new HashMap<>();
+        final List<CalendarSyncState> syncStateList = calendarSyncStateDao.queryBuilder()
+                .where(CalendarSyncStateDao.Properties.DeviceId.eq(deviceId))
+                .build().list();
+        for (CalendarSyncState syncState : syncStateList) {
+            syncStates.put(syncState.getCalendarEntryId(), syncState);
+        }
 
+        final Map<Long, CalendarEvent> events = new LinkedHashMap<>();
         for (CalendarEvent e : eventList) {
-            long id = e.getId();
-            eventTable.put(id, e);
-            if (!eventState.containsKey(e.getId())) {
-                qb = session.getCalendarSyncStateDao().queryBuilder();
-
-                CalendarSyncState calendarSyncState = qb.where(qb.and(CalendarSyncStateDao.Properties.DeviceId.eq(deviceId), CalendarSyncStateDao.Properties.CalendarEntryId.eq(id)))
-                        .build().unique();
-                if (calendarSyncState == null) {
-                    eventState.put(id, new EventSyncState(e, EventState.NOT_SYNCED));
-                    LOG.info("event id=" + id + " is yet unknown to device id=" + deviceId);
-                } else if (calendarSyncState.getHash() == e.hashCode()) {
-                    eventState.put(id, new EventSyncState(e, EventState.SYNCED));
-                    LOG.info("event id=" + id + " is up to date on device id=" + deviceId);
-                }
-                else {
-                    eventState.put(id, new EventSyncState(e, EventState.NEEDS_UPDATE));
-                    LOG.info("event id=" + id + " is not up to date on device id=" + deviceId);
-                }
-            }
+            events.put(e.getId(), e);
         }
 
-        // add all missing calendar ids on the device to sync status (so that they are deleted later)
-        List<CalendarSyncState> CalendarSyncStateList = qb.where(CalendarSyncStateDao.Properties.DeviceId.eq(deviceId)).build().list();
-        for (CalendarSyncState CalendarSyncState : CalendarSyncStateList) {
-            if (!eventState.containsKey(CalendarSyncState.getCalendarEntryId())) {
-                eventState.put(CalendarSyncState.getCalendarEntryId(), new EventSyncState(null, EventState.NEEDS_DELETE));
-                LOG.info("insert null event for orphaned calendar id=" + CalendarSyncState.getCalendarEntryId() + " for device=" + mGBDevice.getName());
+        final List<CalendarEvent> addedEvents = new ArrayList<>();
+        final List<CalendarEvent> changedEvents = new ArrayList<>();
+        final List<CalendarSyncState> changedSyncStates = new ArrayList<>();
+        for (CalendarEvent e : events.values()) {
+            final CalendarSyncState syncState = syncStates.remove(e.getId());
+            if (syncState == null) {
+                addedEvents.add(e);
+                changedSyncStates.add(new CalendarSyncState(null, deviceId, e.getId(), e.hashCode()));
+            } else if (syncState.getHash() != e.hashCode()) {
+                changedEvents.add(e);
+                syncState.setHash(e.hashCode());
+                changedSyncStates.add(syncState);
             }
         }
+        // whatever is left is no longer in the calendar, and needs to be deleted from the device
+        final Collection<CalendarSyncState> orphanedSyncStates = syncStates.values();
 
-        Enumeration<Long> ids = eventState.keys();
-        while (ids.hasMoreElements()) {
-            qb = session.getCalendarSyncStateDao().queryBuilder();
-            Long i = ids.nextElement();
-            EventSyncState es = eventState.get(i);
-            if (eventTable.containsKey(i)) {
-                if (es.getState() == EventState.SYNCED) {
-                    if (!es.getEvent().equals(eventTable.get(i))) {
-                        eventState.put(i, new EventSyncState(eventTable.get(i), EventState.NEEDS_UPDATE));
-                    }
-                }
-            } else {
-                if (es.getState() == EventState.NOT_SYNCED) {
-                    // delete for current device only
-                    qb.where(qb.and(CalendarSyncStateDao.Properties.DeviceId.eq(deviceId), CalendarSyncStateDao.Properties.CalendarEntryId.eq(i)))
-                            .buildDelete().executeDeleteWithoutDetachingEntities();
-                    eventState.remove(i);
-                } else {
-                    es.setState(EventState.NEEDS_DELETE);
-                    eventState.put(i, es);
-                }
-            }
-            updateEvents(deviceId, session);
+        LOG.info("Calendar sync for device id={}: {} events, {} new, {} changed, {} deleted",
+                deviceId, events.size(), addedEvents.size(), changedEvents.size(), orphanedSyncStates.size());
+
+        if (changedSyncStates.isEmpty() && orphanedSyncStates.isEmpty()) {
+            return;
+        }
+
+        session.runInTx(() -> {
+            calendarSyncStateDao.deleteInTx(orphanedSyncStates);
+            calendarSyncStateDao.insertOrReplaceInTx(changedSyncStates);
+        });
+
+        for (CalendarSyncState syncState : orphanedSyncStates) {
+            GBApplication.deviceService(mGBDevice).onDeleteCalendarEvent(CalendarEventSpec.TYPE_UNKNOWN, syncState.getCalendarEntryId());
+        }
+        for (CalendarEvent e : changedEvents) {
+            GBApplication.deviceService(mGBDevice).onDeleteCalendarEvent(CalendarEventSpec.TYPE_UNKNOWN, e.getId());
+            GBApplication.deviceService(mGBDevice).onAddCalendarEvent(createCalendarEventSpec(e));
+        }
+        for (CalendarEvent e : addedEvents) {
+            GBApplication.deviceService(mGBDevice).onAddCalendarEvent(createCalendarEventSpec(e));
         }
     }
 
-    private void updateEvents(Long deviceId, DaoSession session) {
-        Enumeration<Long> ids = eventState.keys();
-        while (ids.hasMoreElements()) {
-            Long i = ids.nextElement();
-            EventSyncState es = eventState.get(i);
-            int syncState = es.getState();
-            if (syncState == EventState.NOT_SYNCED || syncState == EventState.NEEDS_UPDATE) {
-                CalendarEvent calendarEvent = es.getEvent();
-                CalendarEventSpec calendarEventSpec = new CalendarEventSpec();
-                calendarEventSpec.id = i;
-                calendarEventSpec.title = calendarEvent.getTitle();
-                calendarEventSpec.allDay = calendarEvent.isAllDay();
-                calendarEventSpec.timestamp = calendarEvent.getBeginSeconds();
-                calendarEventSpec.durationInSeconds = calendarEvent.getDurationSeconds(); //FIXME: leads to problems right now
-                if (calendarEvent.isAllDay()) {
-                    //force the all day events to begin at midnight and last N whole days
-                    Calendar c = GregorianCalendar.getInstance();
-                    int numDays = (int)TimeUnit.DAYS.convert(calendarEvent.getEnd()-calendarEvent.getBegin(),
-                            TimeUnit.MILLISECONDS);
-                    c.setTimeInMillis(calendarEvent.getBegin());
-                    c.set(Calendar.HOUR_OF_DAY, 0);
-                    //workaround for negative timezones
-                    if(c.getTimeZone().getRawOffset()<0) c.add(Calendar.DAY_OF_MONTH, 1);
-                    calendarEventSpec.timestamp = (int) (c.getTimeInMillis() / 1000);
-                    calendarEventSpec.durationInSeconds = 24 * 60 * 60 * numDays;
-                }
-                calendarEventSpec.description = calendarEvent.getDescription();
-                calendarEventSpec.location = calendarEvent.getLocation();
-                calendarEventSpec.type = CalendarEventSpec.TYPE_UNKNOWN;
-                calendarEventSpec.calName = calendarEvent.getUniqueCalName();
-                calendarEventSpec.color = calendarEvent.getColor();
-                if (syncState == EventState.NEEDS_UPDATE) {
-                    GBApplication.deviceService(mGBDevice).onDeleteCalendarEvent(CalendarEventSpec.TYPE_UNKNOWN, i);
-                }
-                GBApplication.deviceService(mGBDevice).onAddCalendarEvent(calendarEventSpec);
-                es.setState(EventState.SYNCED);
-                eventState.put(i, es);
-                // update db
-                session.insertOrReplace(new CalendarSyncState(null, deviceId, i, es.event.hashCode()));
-            } else if (syncState == EventState.NEEDS_DELETE) {
-                GBApplication.deviceService(mGBDevice).onDeleteCalendarEvent(CalendarEventSpec.TYPE_UNKNOWN, i);
-                eventState.remove(i);
-                // delete from db for current device only
-                QueryBuilder<CalendarSyncState> qb = session.getCalendarSyncStateDao().queryBuilder();
-                qb.where(qb.and(CalendarSyncStateDao.Properties.DeviceId.eq(deviceId), CalendarSyncStateDao.Properties.CalendarEntryId.eq(i)))
-                        .buildDelete().executeDeleteWithoutDetachingEntities();
-            }
+    private static CalendarEventSpec createCalendarEventSpec(CalendarEvent calendarEvent) {
+        CalendarEventSpec calendarEventSpec = new CalendarEventSpec();
+        calendarEventSpec.id = calendarEvent.getId();
+        calendarEventSpec.title = calendarEvent.getTitle();
+        calendarEventSpec.allDay = calendarEvent.isAllDay();
+        calendarEventSpec.timestamp = calendarEvent.getBeginSeconds();
+        calendarEventSpec.durationInSeconds = calendarEvent.getDurationSeconds(); //FIXME: leads to problems right now
+        if (calendarEvent.isAllDay()) {
+            //force the all day events to begin at midnight and last N whole days
+            Calendar c = GregorianCalendar.getInstance();
+            int numDays = (int)TimeUnit.DAYS.convert(calendarEvent.getEnd()-calendarEvent.getBegin(),
+                    TimeUnit.MILLISECONDS);
+            c.setTimeInMillis(calendarEvent.getBegin());
+            c.set(Calendar.HOUR_OF_DAY, 0);
+            //workaround for negative timezones
+            if(c.getTimeZone().getRawOffset()<0) c.add(Calendar.DAY_OF_MONTH, 1);
+            calendarEventSpec.timestamp = (int) (c.getTimeInMillis() / 1000);
+            calendarEventSpec.durationInSeconds = 24 * 60 * 60 * numDays;
         }
+        calendarEventSpec.description = calendarEvent.getDescription();
+        calendarEventSpec.location = calendarEvent.getLocation();
+        calendarEventSpec.type = CalendarEventSpec.TYPE_UNKNOWN;
+        calendarEventSpec.calName = calendarEvent.getUniqueCalName();
+        calendarEventSpec.color = calendarEvent.getColor();
+        return calendarEventSpec;
     }
 
     public static void forceSync() {
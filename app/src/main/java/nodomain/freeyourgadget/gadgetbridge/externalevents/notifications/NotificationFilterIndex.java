@@ -0,0 +1,172 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.externalevents.notifications;
+
+import static nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity.NOTIFICATION_FILTER_MODE_BLACKLIST;
+import static nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity.NOTIFICATION_FILTER_MODE_WHITELIST;
+import static nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity.NOTIFICATION_FILTER_SUBMODE_ALL;
+
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilter;
+import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterEntry;
+import nodomain.freeyourgadget.gadgetbridge.util.AhoCorasick;
+
+/**
+ * The notification filters of all apps, loaded from the database once and kept in memory, so that
+ * checking a notification does not need the database. Must be invalidated whenever the filters
+ * in the database change.
+ */
+public class NotificationFilterIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationFilterIndex.class);
+
+    private static volatile Map<String, CompiledFilter> filters;
+
+    /**
+     * A filter with its words compiled into a single matcher.
+     */
+    public static class CompiledFilter {
+        private final int mode;
+        private final int subMode;
+        private final AhoCorasick matcher;
+
+        public CompiledFilter(final int mode, final int subMode, final List<String> words) {
+            this.mode = mode;
+            this.subMode = subMode;
+            this.matcher = new AhoCorasick(words);
+        }
+
+        /**
+         * @return true if a notification with the given text should be processed
+         */
+        public boolean shouldContinue(final String body) {
+            final boolean allMode = subMode == NOTIFICATION_FILTER_SUBMODE_ALL;
+
+            switch (mode) {
+                case NOTIFICATION_FILTER_MODE_BLACKLIST:
+                    if (allMode) {
+                        if (!matcher.containsAll(body)) {
+                            LOG.info("Not every word was found, blacklist has no effect, processing continues.");
+                            return true;
+                        }
+                        LOG.info("Every word was found, blacklist has effect, processing stops.");
+                        return false;
+                    } else {
+                        final boolean containsAny = matcher.containsAny(body);
+                        if (!containsAny) {
+                            LOG.info("No matching word was found, blacklist has no effect, processing continues.");
+                        } else {
+                            LOG.info("At least one matching word was found, blacklist has effect, processing stops.");
+                        }
+                        return !containsAny;
+                    }
+
+                case NOTIFICATION_FILTER_MODE_WHITELIST:
+                    if (allMode) {
+                        if (!matcher.containsAll(body)) {
+                            LOG.info("Not every word was found, whitelist has no effect, processing stops.");
+                            return false;
+                        }
+                        LOG.info("Every word was found, whitelist has effect, processing continues.");
+                        return true;
+                    } else {
+                        final boolean containsAny = matcher.containsAny(body);
+                        if (containsAny) {
+                            LOG.info("At least one matching word was found, whitelist has effect, processing continues.");
+                        } else {
+                            LOG.info("No matching word was found, whitelist has no effect, processing stops.");
+                        }
+                        return containsAny;
+                    }
+
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * @param packageName the package name of the app, in lower case
+     * @return the filter of the app, or null if it has none or the filters could not be loaded
+     */
+    @Nullable
+    public static CompiledFilter get(final String packageName) {
+        Map<String, CompiledFilter> current = filters;
+        if (current == null) {
+            current = load();
+        }
+        return current.get(packageName);
+    }
+
+    /**
+     * Drops the loaded filters, they are loaded again on the next notification. Waits for a load
+     * that is in progress, as it may have read the filters before they were changed.
+     */
+    public static synchronized void invalidate() {
+        filters = null;
+    }
+
+    private static synchronized Map<String, CompiledFilter> load() {
+        if (filters != null) {
+            return filters;
+        }
+
+        final long start = System.currentTimeMillis();
+        final Map<String, CompiledFilter> loaded = new HashMap<>();
+        try (DBHandler db = GBApplication.acquireReadOnlyDB()) {
+            final List<NotificationFilter> notificationFilters = db.getDaoSession().getNotificationFilterDao().loadAll();
+            final List<NotificationFilterEntry> entries = db.getDaoSession().getNotificationFilterEntryDao().loadAll();
+
+            final Map<Long, List<String>> wordsByFilter = new HashMap<>();
+            for (final NotificationFilterEntry entry : entries) {
+                List<String> words = wordsByFilter.get(entry.getNotificationFilterId());
+                if (words == null) {
+                    words = new ArrayList<>();
+                    wordsByFilter.put(entry.getNotificationFilterId(), words);
+                }
+                words.add(entry.getNotificationFilterContent());
+            }
+
+            for (final NotificationFilter filter : notificationFilters) {
+                List<String> words = wordsByFilter.get(filter.getId());
+                if (words == null) {
+                    words = Collections.emptyList();
+                }
+                loaded.put(filter.getAppIdentifier(), new CompiledFilter(filter.getNotificationFilterMode(), filter.getNotificationFilterSubMode(), words));
+            }
+        } catch (final Exception e) {
+            LOG.error("Could not load notification filters", e);
+            // try again on the next notification
+            return Collections.emptyMap();
+        }
+
+        LOG.debug("Loaded {} notification filters in {} ms", loaded.size(), System.currentTimeMillis() - start);
+        filters = loaded;
+        return loaded;
+    }
+}
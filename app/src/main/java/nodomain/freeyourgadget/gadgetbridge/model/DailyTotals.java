@@ -26,11 +26,12 @@ import java.util.Calendar;
 import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
-import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
 
@@ -65,7 +66,7 @@ public class DailyTotals {
 
     public long[] getDailyTotalsForDevice(GBDevice device, Calendar day) {
 
-        try (DBHandler handler = GBApplication.acquireDB()) {
+        try (DBHandler handler = GBApplication.acquireReadOnlyDB()) {
             return getDailyTotalsForDevice(device, day, handler);
 
         } catch (Exception e) {
@@ -75,12 +76,12 @@ public class DailyTotals {
     }
 
     public long[] getDailyTotalsForDevice(GBDevice device, Calendar day, DBHandler handler) {
-        ActivityAnalysis analysis = new ActivityAnalysis();
         ActivityAmounts amountsSteps;
         ActivityAmounts amountsSleep;
 
-        amountsSteps = analysis.calculateActivityAmounts(getSamplesOfDay(handler, day, 0, device));
-        amountsSleep = analysis.calculateActivityAmounts(getSamplesOfDay(handler, day, -12, device));
+        DaoSession session = handler.getDaoSession();
+        amountsSteps = ActivityDailyRollupHelper.toActivityAmounts(ActivityDailyRollupHelper.getRollupForDay(session, device, day, 0));
+        amountsSleep = ActivityDailyRollupHelper.toActivityAmounts(ActivityDailyRollupHelper.getRollupForDay(session, device, day, -12));
 
         long[] sleep = getTotalsSleepForActivityAmounts(amountsSleep);
         long steps = getTotalsStepsForActivityAmounts(amountsSteps);
@@ -118,23 +119,6 @@ public class DailyTotals {
     }
 
 
-    private List<? extends ActivitySample> getSamplesOfDay(DBHandler db, Calendar day, int offsetHours, GBDevice device) {
-        int startTs;
-        int endTs;
-
-        day = (Calendar) day.clone(); // do not modify the caller's argument
-        day.set(Calendar.HOUR_OF_DAY, 0);
-        day.set(Calendar.MINUTE, 0);
-        day.set(Calendar.SECOND, 0);
-        day.add(Calendar.HOUR, offsetHours);
-
-        startTs = (int) (day.getTimeInMillis() / 1000);
-        endTs = startTs + 24 * 60 * 60 - 1;
-
-        return getSamples(db, device, startTs, endTs);
-    }
-
-
     public List<? extends ActivitySample> getSamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
         return getAllSamples(db, device, tsFrom, tsTo);
     }
@@ -0,0 +1,202 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+
+/**
+ * The values of a series of activity samples, stored column-wise in primitive arrays instead of
+ * one entity object per sample. The values are copied when a sample is added, so a block can be
+ * passed directly to {@link SampleProvider#forEachSample} as a visitor, and then be used by the
+ * charts and analyses without keeping any sample objects around.
+ * <p/>
+ * The kind and intensity are stored normalized, as returned by {@link ActivitySample#getKind()}
+ * and {@link ActivitySample#getIntensity()}. The activity kinds are bit flags that do not fit in a
+ * byte, so they are stored as ints.
+ */
+public class SampleBlock implements SampleVisitor<ActivitySample> {
+    private static final int DEFAULT_CAPACITY = 1440; // one day of per-minute samples
+
+    private int size = 0;
+    private int[] timestamps;
+    private int[] steps;
+    private short[] heartRates;
+    private int[] kinds;
+    private int[] rawKinds;
+    private float[] intensities;
+    private boolean[] trailing;
+    private long userId;
+    private long deviceId;
+
+    public SampleBlock() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SampleBlock(int capacity) {
+        capacity = Math.max(capacity, 1);
+        timestamps = new int[capacity];
+        steps = new int[capacity];
+        heartRates = new short[capacity];
+        kinds = new int[capacity];
+        rawKinds = new int[capacity];
+        intensities = new float[capacity];
+        trailing = new boolean[capacity];
+    }
+
+    /**
+     * Copies the values of the given samples into a new block.
+     */
+    public static SampleBlock of(List<? extends ActivitySample> samples) {
+        SampleBlock block = new SampleBlock(samples.size());
+        for (ActivitySample sample : samples) {
+            block.add(sample);
+        }
+        return block;
+    }
+
+    /**
+     * Reads all samples of the provider within the given time span into a new block.
+     */
+    public static SampleBlock load(SampleProvider<?> provider, int timestampFrom, int timestampTo) {
+        SampleBlock block = new SampleBlock();
+        provider.forEachSample(timestampFrom, timestampTo, block);
+        return block;
+    }
+
+    @Override
+    public void visit(ActivitySample sample) {
+        add(sample);
+    }
+
+    public void add(ActivitySample sample) {
+        add(sample, false);
+    }
+
+    /**
+     * Adds the values of the given sample.
+     *
+     * @param trailing whether the sample is only a placeholder at the start or end of the time
+     *                 span, which does not contain measured values
+     */
+    public void add(ActivitySample sample, boolean trailing) {
+        ensureCapacity(size + 1);
+        timestamps[size] = sample.getTimestamp();
+        steps[size] = sample.getSteps();
+        heartRates[size] = (short) sample.getHeartRate();
+        kinds[size] = sample.getKind();
+        rawKinds[size] = sample.getRawKind();
+        intensities[size] = sample.getIntensity();
+        this.trailing[size] = trailing;
+        if (size == 0 && sample instanceof AbstractActivitySample) {
+            userId = ((AbstractActivitySample) sample).getUserId();
+            deviceId = ((AbstractActivitySample) sample).getDeviceId();
+        }
+        size++;
+    }
+
+    /**
+     * Removes all samples outside of the given time span, keeping the order of the others.
+     */
+    public void retainRange(int timestampFrom, int timestampTo) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (timestamps[i] < timestampFrom || timestamps[i] > timestampTo) {
+                continue;
+            }
+            if (kept != i) {
+                timestamps[kept] = timestamps[i];
+                steps[kept] = steps[i];
+                heartRates[kept] = heartRates[i];
+                kinds[kept] = kinds[i];
+                rawKinds[kept] = rawKinds[i];
+                intensities[kept] = intensities[i];
+                trailing[kept] = trailing[i];
+            }
+            kept++;
+        }
+        size = kept;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= timestamps.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, timestamps.length + (timestamps.length >> 1));
+        timestamps = Arrays.copyOf(timestamps, newCapacity);
+        steps = Arrays.copyOf(steps, newCapacity);
+        heartRates = Arrays.copyOf(heartRates, newCapacity);
+        kinds = Arrays.copyOf(kinds, newCapacity);
+        rawKinds = Arrays.copyOf(rawKinds, newCapacity);
+        intensities = Arrays.copyOf(intensities, newCapacity);
+        trailing = Arrays.copyOf(trailing, newCapacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public int getSteps(int index) {
+        return steps[index];
+    }
+
+    public int getHeartRate(int index) {
+        return heartRates[index];
+    }
+
+    public int getKind(int index) {
+        return kinds[index];
+    }
+
+    public int getRawKind(int index) {
+        return rawKinds[index];
+    }
+
+    public float getIntensity(int index) {
+        return intensities[index];
+    }
+
+    public boolean isTrailing(int index) {
+        return trailing[index];
+    }
+
+    /**
+     * @return the user id of the first sample that was added
+     */
+    public long getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return the device id of the first sample that was added
+     */
+    public long getDeviceId() {
+        return deviceId;
+    }
+}
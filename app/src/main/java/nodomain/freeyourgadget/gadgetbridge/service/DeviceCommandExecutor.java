@@ -0,0 +1,118 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.metrics.MetricsRegistry;
+
+/**
+ * Runs the commands for one device in order, on a thread of its own, so that a slow command
+ * for one device does not hold up the other devices or the main thread.
+ * <p>
+ * The time commands waited in the queue, the queue depth and the duration of each command are
+ * recorded in the {@link MetricsRegistry} of the device.
+ */
+public class DeviceCommandExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceCommandExecutor.class);
+
+    private final String address;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final MetricsRegistry metrics;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    // commands queued before the last #cancelPending are dropped
+    private final AtomicInteger generation = new AtomicInteger();
+
+    public DeviceCommandExecutor(final GBDevice device) {
+        this.address = device.getAddress();
+        this.thread = new HandlerThread("Gadgetbridge Device Commands " + address);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+        this.metrics = MetricsRegistry.forDevice(address);
+    }
+
+    /**
+     * Queues a command, to be run after all commands that were queued before it.
+     *
+     * @param name    the name the command is recorded under in the metrics
+     * @param command the command
+     * @return false if the command could not be queued, because the executor was shut down
+     */
+    public boolean execute(final String name, final Runnable command) {
+        final long queuedNanos = System.nanoTime();
+        final int commandGeneration = generation.get();
+        final int depth = queueDepth.incrementAndGet();
+        metrics.histogram("command.queue.depth").record(depth);
+        metrics.setGauge("command.queue", depth);
+
+        final boolean queued = handler.post(() -> {
+            if (commandGeneration != generation.get()) {
+                LOG.debug("Dropping cancelled command {} for {}", name, address);
+                metrics.counter("command.cancelled").increment();
+                metrics.setGauge("command.queue", queueDepth.decrementAndGet());
+                return;
+            }
+            final long startNanos = System.nanoTime();
+            metrics.timer("command.wait").recordNanos(startNanos - queuedNanos);
+            try {
+                command.run();
+            } catch (final Exception e) {
+                LOG.error("Command {} failed for {}", name, address, e);
+                metrics.counter("command.failed").increment();
+            } finally {
+                metrics.timer("command." + name).recordSince(startNanos);
+                metrics.setGauge("command.queue", queueDepth.decrementAndGet());
+            }
+        });
+
+        if (!queued) {
+            LOG.warn("Command executor for {} was shut down, dropping command {}", address, name);
+            queueDepth.decrementAndGet();
+        }
+        return queued;
+    }
+
+    /**
+     * @return the number of commands that are queued or running
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Drops the commands that are queued but not running yet. The command that is running, if
+     * any, is not interrupted, and commands queued afterwards are run as usual, after it.
+     */
+    public void cancelPending() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Runs the commands that are already queued, and stops accepting new ones.
+     */
+    public void shutdown() {
+        thread.quitSafely();
+    }
+}
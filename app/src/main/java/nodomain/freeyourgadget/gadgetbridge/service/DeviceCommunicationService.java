@@ -49,6 +49,7 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -56,6 +57,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.GBException;
@@ -109,9 +111,11 @@ import nodomain.freeyourgadget.gadgetbridge.util.language.Transliterator;
 
 public class DeviceCommunicationService extends Service implements SharedPreferences.OnSharedPreferenceChangeListener {
     public static class DeviceStruct{
-        private GBDevice device;
-        private DeviceCoordinator coordinator;
-        private DeviceSupport deviceSupport;
+        // Read by the command executor thread
+        private volatile GBDevice device;
+        private volatile DeviceCoordinator coordinator;
+        private volatile DeviceSupport deviceSupport;
+        private DeviceCommandExecutor commandExecutor;
 
         public GBDevice getDevice() {
             return device;
@@ -136,6 +140,14 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         public void setDeviceSupport(DeviceSupport deviceSupport) {
             this.deviceSupport = deviceSupport;
         }
+
+        public DeviceCommandExecutor getCommandExecutor() {
+            return commandExecutor;
+        }
+
+        public void setCommandExecutor(DeviceCommandExecutor commandExecutor) {
+            this.commandExecutor = commandExecutor;
+        }
     }
 
     private class FeatureSet{
@@ -227,8 +239,11 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     private static DeviceSupportFactory DEVICE_SUPPORT_FACTORY = null;
 
     private DeviceSupportFactory mFactory;
-    private final ArrayList<DeviceStruct> deviceStructs = new ArrayList<>(1);
-    private final HashMap<String, ArrayList<Intent>> cachedNotifications = new HashMap<>();
+    // Written on the main thread only, but also read by the command executors
+    private final List<DeviceStruct> deviceStructs = new CopyOnWriteArrayList<>();
+    private final HashMap<String, NotificationOutbox> notificationOutboxes = new HashMap<>();
+    private final Set<String> notificationReplays = new HashSet<>();
+    private final Handler mHandler = new Handler();
 
     private PhoneCallReceiver mPhoneCallReceiver = null;
     private SMSReceiver mSMSReceiver = null;
@@ -273,6 +288,8 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     private final String ACTION_DEVICE_CONNECTED = "nodomain.freeyourgadget.gadgetbridge.BLUETOOTH_CONNECTED";
     private final String ACTION_DEVICE_SCANNED = "nodomain.freeyourgadget.gadgetbridge.BLUETOOTH_SCANNED";
     private final int NOTIFICATIONS_CACHE_MAX = 10;  // maximum amount of notifications to cache per device while disconnected
+    private final int NOTIFICATIONS_REPLAY_BATCH_SIZE = 3;  // cached notifications sent at once after reconnecting
+    private final long NOTIFICATIONS_REPLAY_INTERVAL_MILLIS = 2000;
     private boolean allowBluetoothIntentApi = false;
     private boolean reconnectViaScan = GBPrefs.RECONNECT_SCAN_DEFAULT;
 
@@ -539,6 +556,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         DeviceStruct registeredStruct = new DeviceStruct();
         registeredStruct.setDevice(target);
         registeredStruct.setCoordinator(target.getDeviceCoordinator());
+        registeredStruct.setCommandExecutor(new DeviceCommandExecutor(target));
         deviceStructs.add(registeredStruct);
         return registeredStruct;
     }
@@ -635,6 +653,8 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
 
                 if (deviceSupport != null) {
                     setDeviceSupport(gbDevice, deviceSupport);
+                    // loads the cached notifications in the background, before they are needed
+                    getNotificationOutbox(gbDevice);
 
                     if (firstTime) {
                         deviceSupport.connectFirstTime();
@@ -655,7 +675,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     }
 
     @Override
-    public synchronized int onStartCommand(Intent intent, int flags, int startId) {
+    public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent == null) {
             LOG.info("no intent");
             return START_STICKY;
@@ -689,40 +709,21 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                         if(isDeviceInitialized(device)){
                             targetedDevices.add(device);
                         } else if (isDeviceReconnecting(device) && action.equals(ACTION_NOTIFICATION) && GBApplication.getPrefs().getBoolean("notification_cache_while_disconnected", false)) {
-                            if (!cachedNotifications.containsKey(device.getAddress())) {
-                                cachedNotifications.put(device.getAddress(), new ArrayList<>());
-                            }
-                            ArrayList<Intent> notifCache = cachedNotifications.get(device.getAddress());
-                            notifCache.add(intent);
-                            if (notifCache.size() > NOTIFICATIONS_CACHE_MAX) {
-                                // remove the oldest notification if the maximum is reached
-                                notifCache.remove(0);
-                            }
+                            getNotificationOutbox(device).add(intent);
                         } else if (action.equals(ACTION_DELETE_NOTIFICATION)) {
-                            ArrayList<Intent> notifCache = cachedNotifications.get(device.getAddress());
-                            if (notifCache != null) {
-                                int notifId = intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1);
-                                ArrayList<Intent> toRemove = new ArrayList<>();
-                                for (Intent cached : notifCache) {
-                                    if (notifId == cached.getIntExtra(EXTRA_NOTIFICATION_ID, -1)) {
-                                        toRemove.add(cached);
-                                    }
-                                }
-                                notifCache.removeAll(toRemove);
-                            }
+                            getNotificationOutbox(device).delete(intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1));
                         } else if (action.equals(ACTION_DISCONNECT) && device.getState() != GBDevice.State.NOT_CONNECTED) {
                             targetedDevices.add(device);
                         }
                     }
                 }
                 for (GBDevice device1 : targetedDevices) {
-                    try {
-                        handleAction(intent, action, device1);
-                    } catch (DeviceNotFoundException e) {
-                        e.printStackTrace();
-                    } catch (Exception e) {
-                        LOG.error("An exception was raised while handling the action {} for the device {}: ", action, device1, e);
+                    if (isDeviceInitialized(device1) && (action.equals(ACTION_NOTIFICATION) || action.equals(ACTION_DELETE_NOTIFICATION))) {
+                        // a cached copy of this notification is outdated now, it must not be replayed later
+                        getNotificationOutbox(device1).delete(intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1));
                     }
+                    // every device gets its own copy, the extras are transliterated per device
+                    executeAction(targetedDevices.size() == 1 ? intent : new Intent(intent), action, device1);
                 }
                 break;
         }
@@ -758,6 +759,33 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         throw new DeviceNotFoundException(device);
     }
 
+    /**
+     * Hands the action over to the command executor of the device, so that the actions for each
+     * device are handled in order, but independently of other devices and off the main thread.
+     * Disconnecting is handled right away, dropping the actions that were queued before it,
+     * see {@link #disposeDeviceSupport}.
+     */
+    private void executeAction(final Intent intent, final String action, final GBDevice device) {
+        final DeviceStruct struct = getDeviceStructOrNull(device);
+        if (ACTION_DISCONNECT.equals(action) || struct == null || struct.getCommandExecutor() == null) {
+            runAction(intent, action, device);
+            return;
+        }
+
+        final String name = action.substring(action.lastIndexOf('.') + 1);
+        struct.getCommandExecutor().execute(name, () -> runAction(intent, action, device));
+    }
+
+    private void runAction(Intent intent, String action, GBDevice device) {
+        try {
+            handleAction(intent, action, device);
+        } catch (DeviceNotFoundException e) {
+            e.printStackTrace();
+        } catch (Exception e) {
+            LOG.error("An exception was raised while handling the action {} for the device {}: ", action, device, e);
+        }
+    }
+
     private void handleAction(Intent intent, String action, GBDevice device) throws DeviceNotFoundException {
         if(ACTION_DISCONNECT.equals(intent.getAction())) {
             try {
@@ -1082,7 +1110,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
        DeviceStruct deviceStruct = getDeviceStruct(device);
        DeviceSupport cachedDeviceSupport = deviceStruct.getDeviceSupport();
        if (deviceSupport != cachedDeviceSupport && cachedDeviceSupport != null) {
-           cachedDeviceSupport.dispose();
+           disposeDeviceSupport(deviceStruct, cachedDeviceSupport);
        }
        deviceStruct.setDeviceSupport(deviceSupport);
     }
@@ -1090,11 +1118,29 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     private void removeDeviceSupport(GBDevice device) throws DeviceNotFoundException {
         DeviceStruct struct = getDeviceStruct(device);
         if(struct.getDeviceSupport() != null){
-            struct.getDeviceSupport().dispose();
+            disposeDeviceSupport(struct, struct.getDeviceSupport());
         }
         struct.setDeviceSupport(null);
     }
 
+    /**
+     * Disposes a device support that is no longer used. The actions still queued for the device
+     * are dropped, and the device support is disposed on the main thread once the running
+     * action, if any, is done, so that the action does not use it while it is being disposed.
+     */
+    private void disposeDeviceSupport(DeviceStruct struct, DeviceSupport deviceSupport) {
+        final DeviceCommandExecutor executor = struct.getCommandExecutor();
+        if (executor == null) {
+            deviceSupport.dispose();
+            return;
+        }
+        executor.cancelPending();
+        if (!executor.execute("dispose", () -> mHandler.post(deviceSupport::dispose))) {
+            // shut down already, no action is running anymore
+            deviceSupport.dispose();
+        }
+    }
+
     private DeviceStruct getDeviceStructOrNull(GBDevice device){
         DeviceStruct deviceStruct = null;
         try {
@@ -1425,15 +1471,41 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         }
     }
 
+    private NotificationOutbox getNotificationOutbox(GBDevice device) {
+        NotificationOutbox outbox = notificationOutboxes.get(device.getAddress());
+        if (outbox == null) {
+            outbox = new NotificationOutbox(new File(getFilesDir(), "notification_outbox"), device.getAddress(), NOTIFICATIONS_CACHE_MAX);
+            notificationOutboxes.put(device.getAddress(), outbox);
+        }
+        return outbox;
+    }
+
     private void sendCachedNotifications(GBDevice device) {
-        ArrayList<Intent> notifCache = cachedNotifications.get(device.getAddress());
-        if (notifCache == null) return;
-        try {
-            while (notifCache.size() > 0) {
-                handleAction(notifCache.remove(0), ACTION_NOTIFICATION, device);
-            }
-        } catch (DeviceNotFoundException e) {
-            LOG.error("Error while sending cached notifications to "+device.getAliasOrName(), e);
+        final NotificationOutbox outbox = getNotificationOutbox(device);
+        if (outbox.size() == 0 || !notificationReplays.add(device.getAddress())) {
+            return;
+        }
+        LOG.info("Sending {} cached notifications to {}", outbox.size(), device.getAliasOrName());
+        sendCachedNotificationsBatch(device, outbox);
+    }
+
+    /**
+     * Sends the cached notifications a few at a time, so the device is not flooded after a long
+     * disconnect.
+     */
+    private void sendCachedNotificationsBatch(GBDevice device, NotificationOutbox outbox) {
+        if (!isDeviceInitialized(device)) {
+            // the rest is sent when the device is connected again
+            notificationReplays.remove(device.getAddress());
+            return;
+        }
+        for (Intent intent : outbox.poll(NOTIFICATIONS_REPLAY_BATCH_SIZE)) {
+            executeAction(intent, ACTION_NOTIFICATION, device);
+        }
+        if (outbox.size() > 0) {
+            mHandler.postDelayed(() -> sendCachedNotificationsBatch(device, outbox), NOTIFICATIONS_REPLAY_INTERVAL_MILLIS);
+        } else {
+            notificationReplays.remove(device.getAddress());
         }
     }
 
@@ -1447,6 +1519,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         super.onDestroy();
 
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mReceiver);
+        mHandler.removeCallbacksAndMessages(null);
         setReceiversEnableState(false, false, null, null); // disable BroadcastReceivers
 
         unregisterReceiver(mBlueToothConnectReceiver);
@@ -1463,6 +1536,14 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 e.printStackTrace();
             }
         }
+        for (DeviceStruct struct : deviceStructs) {
+            if (struct.getCommandExecutor() != null) {
+                struct.getCommandExecutor().shutdown();
+            }
+        }
+        for (NotificationOutbox outbox : notificationOutboxes.values()) {
+            outbox.flush();
+        }
         GB.removeNotification(GB.NOTIFICATION_ID, this); // need to do this because the updated notification won't be cancelled when service stops
 
         unregisterReceiver(bluetoothCommandReceiver);
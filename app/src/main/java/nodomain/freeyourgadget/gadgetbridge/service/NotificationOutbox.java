@@ -0,0 +1,246 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service;
+
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.ACTION_NOTIFICATION;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_ID;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.metrics.MetricsRegistry;
+
+/**
+ * Notifications waiting to be sent to a device that is reconnecting, saved to disk so they
+ * survive a restart of the service.
+ * <p>
+ * There is at most one pending notification per notification id: an update replaces the pending
+ * notification, and deleting the notification drops it. When the outbox is full, the oldest
+ * notification is dropped. The backlog size is available as the "notification.outbox" gauge in
+ * the {@link MetricsRegistry} of the device.
+ * <p>
+ * The file is read and written on a background thread. It is loaded as soon as the outbox is
+ * created, and changes are written with a short delay, so that a burst of notifications causes a
+ * single write.
+ */
+public class NotificationOutbox {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationOutbox.class);
+
+    private final File file;
+    private final int maxSize;
+    private final MetricsRegistry metrics;
+
+    private static final int SAVE_DELAY_MILLIS = 1000;
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    private final Future<LinkedHashMap<Integer, HashMap<String, Serializable>>> loading;
+    private boolean saveScheduled = false;
+
+    // The extras of the notification intents by notification id, oldest first
+    private LinkedHashMap<Integer, HashMap<String, Serializable>> pending;
+
+    public NotificationOutbox(final File dir, final String address, final int maxSize) {
+        this.file = new File(dir, FileUtils.makeValidFileName(address) + ".bin");
+        this.maxSize = maxSize;
+        this.metrics = MetricsRegistry.forDevice(address);
+        this.loading = EXECUTOR.submit(this::load);
+    }
+
+    /**
+     * Adds a notification, or replaces the pending notification with the same id.
+     */
+    public synchronized void add(final Intent intent) {
+        final int id = intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1);
+        final HashMap<String, Serializable> extras = new HashMap<>();
+        final Bundle bundle = intent.getExtras();
+        if (bundle != null) {
+            for (final String key : bundle.keySet()) {
+                final Object value = bundle.get(key);
+                if (value == null || value instanceof Serializable) {
+                    extras.put(key, (Serializable) value);
+                }
+            }
+        }
+
+        final Map<Integer, HashMap<String, Serializable>> pending = getPending();
+        // remove first, so that an update moves to the end
+        if (pending.remove(id) != null) {
+            metrics.counter("notification.outbox.coalesced").increment();
+        }
+        pending.put(id, extras);
+        final Iterator<Integer> it = pending.keySet().iterator();
+        while (pending.size() > maxSize) {
+            it.next();
+            it.remove();
+            metrics.counter("notification.outbox.dropped").increment();
+        }
+        save();
+    }
+
+    /**
+     * Drops the pending notification with the given id, if any.
+     *
+     * @return true if a pending notification was dropped
+     */
+    public synchronized boolean delete(final int id) {
+        if (getPending().remove(id) == null) {
+            return false;
+        }
+        metrics.counter("notification.outbox.deleted").increment();
+        save();
+        return true;
+    }
+
+    /**
+     * Removes up to max of the oldest notifications from the outbox.
+     *
+     * @return the notification intents, oldest first
+     */
+    public synchronized List<Intent> poll(final int max) {
+        final List<Intent> intents = new ArrayList<>(Math.min(max, getPending().size()));
+        final Iterator<HashMap<String, Serializable>> it = getPending().values().iterator();
+        while (it.hasNext() && intents.size() < max) {
+            intents.add(toIntent(it.next()));
+            it.remove();
+        }
+        if (!intents.isEmpty()) {
+            save();
+        }
+        return intents;
+    }
+
+    /**
+     * @return the number of notifications waiting to be sent
+     */
+    public synchronized int size() {
+        return getPending().size();
+    }
+
+    private static Intent toIntent(final Map<String, Serializable> extras) {
+        final Intent intent = new Intent(ACTION_NOTIFICATION);
+        for (final Map.Entry<String, Serializable> entry : extras.entrySet()) {
+            final Serializable value = entry.getValue();
+            if (value instanceof String) {
+                intent.putExtra(entry.getKey(), (String) value);
+            } else if (value instanceof Integer) {
+                intent.putExtra(entry.getKey(), (int) (Integer) value);
+            } else if (value instanceof Byte) {
+                intent.putExtra(entry.getKey(), (byte) (Byte) value);
+            } else {
+                intent.putExtra(entry.getKey(), value);
+            }
+        }
+        return intent;
+    }
+
+    /**
+     * Writes pending changes to disk without waiting for the delay, e.g. before the service stops.
+     *
+     * @return completes once the changes were written
+     */
+    public Future<?> flush() {
+        return EXECUTOR.submit(this::write);
+    }
+
+    private LinkedHashMap<Integer, HashMap<String, Serializable>> getPending() {
+        if (pending != null) {
+            return pending;
+        }
+        try {
+            // usually loaded already, the outbox is created when the device connects
+            pending = loading.get();
+        } catch (final ExecutionException | InterruptedException e) {
+            LOG.error("Failed to load pending notifications from {}", file, e);
+            pending = new LinkedHashMap<>();
+        }
+        metrics.setGauge("notification.outbox", pending.size());
+        return pending;
+    }
+
+    @SuppressWarnings("unchecked")
+    private LinkedHashMap<Integer, HashMap<String, Serializable>> load() {
+        if (file.isFile()) {
+            try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+                final LinkedHashMap<Integer, HashMap<String, Serializable>> loaded = (LinkedHashMap<Integer, HashMap<String, Serializable>>) in.readObject();
+                LOG.info("Loaded {} pending notifications from {}", loaded.size(), file);
+                return loaded;
+            } catch (final Exception e) {
+                LOG.error("Failed to load pending notifications from {}", file, e);
+            }
+        }
+        return new LinkedHashMap<>();
+    }
+
+    private void save() {
+        metrics.setGauge("notification.outbox", pending.size());
+        if (!saveScheduled) {
+            saveScheduled = true;
+            EXECUTOR.schedule(this::write, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void write() {
+        final LinkedHashMap<Integer, HashMap<String, Serializable>> snapshot;
+        synchronized (this) {
+            if (!saveScheduled) {
+                return;
+            }
+            saveScheduled = false;
+            // the extras of a notification are never modified, copying the map is enough
+            snapshot = new LinkedHashMap<>(pending);
+        }
+
+        if (snapshot.isEmpty()) {
+            if (file.exists() && !file.delete()) {
+                LOG.warn("Failed to delete {}", file);
+            }
+            return;
+        }
+        final File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            LOG.error("Failed to create {}", dir);
+            return;
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
+            out.writeObject(snapshot);
+        } catch (final Exception e) {
+            LOG.error("Failed to save pending notifications to {}", file, e);
+        }
+    }
+}
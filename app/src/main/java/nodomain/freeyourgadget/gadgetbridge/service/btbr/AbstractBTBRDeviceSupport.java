@@ -139,7 +139,7 @@ public abstract class AbstractBTBRDeviceSupport extends AbstractDeviceSupport im
      * @param value
      */
     public void logMessageContent(byte[] value) {
-        logger.info("RECEIVED DATA WITH LENGTH: " + ((value != null) ? value.length : "(null)"));
+        logger.info("RECEIVED DATA WITH LENGTH: {}", (value != null) ? value.length : "(null)");
         Logging.logBytes(logger, value);
     }
 
@@ -39,7 +39,7 @@ import java.util.UUID;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.DeviceSupport;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 
 public final class BtBRQueue {
     private static final Logger LOG = LoggerFactory.getLogger(BtBRQueue.class);
@@ -153,7 +153,7 @@ public final class BtBRQueue {
                     break;
                 }
 
-                LOG.debug("Received {} bytes: {}", nRead, GB.hexdump(buffer, 0, nRead));
+                LOG.debug("Received {} bytes: {}", nRead, Hex.of(buffer, 0, nRead));
 
                 try {
                     mCallback.onSocketRead(Arrays.copyOf(buffer, nRead));
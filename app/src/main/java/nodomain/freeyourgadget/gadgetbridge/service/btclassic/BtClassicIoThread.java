@@ -38,7 +38,7 @@ import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.AbstractSerialDeviceSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceIoThread;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceProtocol;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 
 public abstract class BtClassicIoThread extends GBDeviceIoThread {
     private static final Logger LOG = LoggerFactory.getLogger(BtClassicIoThread.class);
@@ -82,7 +82,7 @@ public abstract class BtClassicIoThread extends GBDeviceIoThread {
             LOG.error("mOutStream is null");
             return;
         }
-        LOG.debug("writing: {}", GB.hexdump(bytes, 0, bytes.length));
+        LOG.debug("writing: {}", Hex.of(bytes));
         try {
             mOutStream.write(bytes);
             mOutStream.flush();
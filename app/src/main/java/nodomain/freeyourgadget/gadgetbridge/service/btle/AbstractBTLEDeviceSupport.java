@@ -40,6 +40,7 @@ import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.AbstractDeviceSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.CheckInitializedAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.AbstractBleProfile;
+import nodomain.freeyourgadget.gadgetbridge.util.metrics.MetricsRegistry;
 
 /**
  * Abstract base class for all devices connected through Bluetooth Low Energy (LE) aka
@@ -296,7 +297,7 @@ public abstract class AbstractBTLEDeviceSupport extends AbstractDeviceSupport im
      * @param value
      */
     public void logMessageContent(byte[] value) {
-        logger.info("RECEIVED DATA WITH LENGTH: " + ((value != null) ? value.length : "(null)"));
+        logger.info("RECEIVED DATA WITH LENGTH: {}", (value != null) ? value.length : "(null)");
         Logging.logBytes(logger, value);
     }
 
@@ -409,6 +410,13 @@ public abstract class AbstractBTLEDeviceSupport extends AbstractDeviceSupport im
         return false;
     }
 
+    /**
+     * Gets the metrics of this device, eg. to record the throughput of operations.
+     */
+    public MetricsRegistry getMetrics() {
+        return MetricsRegistry.forDevice(getDevice());
+    }
+
     /**
      * Gets the current MTU, or 0 if unknown
      * @return the current MTU, 0 if unknown
@@ -23,6 +23,7 @@ import java.util.Locale;
 public abstract class AbstractTransaction {
     private final String mName;
     private final long creationTimestamp = System.currentTimeMillis();
+    private volatile long queuedNanos;
 
     public AbstractTransaction(String taskName) {
         this.mName = taskName;
@@ -36,6 +37,17 @@ public abstract class AbstractTransaction {
         return DateFormat.getTimeInstance(DateFormat.MEDIUM).format(new Date(creationTimestamp));
     }
 
+    /**
+     * Remembers when the transaction was added to the queue, to measure how long it waited.
+     */
+    void setQueued() {
+        queuedNanos = System.nanoTime();
+    }
+
+    long getQueuedNanos() {
+        return queuedNanos;
+    }
+
     public abstract int getActionCount();
 
     @Override
@@ -51,7 +51,10 @@ import nodomain.freeyourgadget.gadgetbridge.Logging;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice.State;
 import nodomain.freeyourgadget.gadgetbridge.service.DeviceSupport;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.NotifyAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.ReadAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.WriteAction;
+import nodomain.freeyourgadget.gadgetbridge.util.metrics.MetricsRegistry;
 
 /**
  * One queue/thread per connectable device.
@@ -59,6 +62,9 @@ import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.WriteAction;
 public final class BtLEQueue {
     private static final Logger LOG = LoggerFactory.getLogger(BtLEQueue.class);
 
+    private static final int MAX_PIPELINED_WRITE_RETRIES = 5;
+    private static final int PIPELINED_WRITE_BACKOFF_MILLIS = 10;
+
     private final Object mGattMonitor = new Object();
     private final GBDevice mGbDevice;
     private final BluetoothAdapter mBluetoothAdapter;
@@ -78,12 +84,16 @@ public final class BtLEQueue {
     private CountDownLatch mWaitForServerActionResultLatch;
     private CountDownLatch mConnectionLatch;
     private BluetoothGattCharacteristic mWaitCharacteristic;
+    private volatile int mLastWriteStatus;
+    private volatile boolean mPipelinedWrite;
     private final InternalGattCallback internalGattCallback;
     private final InternalGattServerCallback internalGattServerCallback;
     private boolean mAutoReconnect;
     private boolean scanReconnect;
     private boolean mImplicitGattCallbackModify = true;
     private boolean mSendWriteRequestResponse = false;
+    private final MetricsRegistry mMetrics;
+    private volatile long mConnectStartNanos;
 
     private Thread dispatchThread = new Thread("Gadgetbridge GATT Dispatcher") {
 
@@ -94,6 +104,9 @@ public final class BtLEQueue {
             while (!mDisposed && !mCrashed) {
                 try {
                     AbstractTransaction qTransaction = mTransactions.take();
+                    final long transactionStartNanos = System.nanoTime();
+                    mMetrics.timer("queue.wait").recordNanos(transactionStartNanos - qTransaction.getQueuedNanos());
+                    mMetrics.counter("queue.transactions").increment();
 
                     if (!isConnected()) {
                         LOG.debug("not connected, waiting for connection...");
@@ -147,6 +160,7 @@ public final class BtLEQueue {
                             internalGattCallback.setTransactionGattCallback(transaction.getGattCallback());
                         }
                         mAbortTransaction = false;
+                        final PipelinedWriter pipelinedWriter = transaction.isPipelinedWrites() ? new PipelinedWriter(transaction) : null;
                         // Run all actions of the transaction until one doesn't succeed
                         for (BtLEAction action : transaction.getActions()) {
                             if (mAbortTransaction) { // got disconnected
@@ -162,6 +176,15 @@ public final class BtLEQueue {
                                   break;
                               }
                             }
+                            // conditional and listener writes keep their own semantics
+                            if (pipelinedWriter != null && action.getClass() == WriteAction.class) {
+                                if (!pipelinedWriter.write((WriteAction) action)) {
+                                    LOG.error("Action returned false: " + action);
+                                    mMetrics.counter("action.failed").increment();
+                                    break; // abort the transaction
+                                }
+                                continue;
+                            }
                             mWaitCharacteristic = action.getCharacteristic();
                             mWaitForActionResultLatch = new CountDownLatch(1);
                             if (LOG.isDebugEnabled()) {
@@ -172,21 +195,32 @@ public final class BtLEQueue {
                                 // always be the last action in the transaction
                                 internalGattCallback.setTransactionGattCallback(((GattListenerAction) action).getGattCallback());
                             }
+                            final long actionStartNanos = System.nanoTime();
                             if (action.run(mBluetoothGatt)) {
                                 // check again, maybe due to some condition, action did not need to write, so we can't wait
                                 boolean waitForResult = action.expectsResult();
                                 if (waitForResult) {
                                     mWaitForActionResultLatch.await();
                                     mWaitForActionResultLatch = null;
+                                    mMetrics.timer("action.ack." + getMetricName(action)).recordSince(actionStartNanos);
                                     if (mAbortTransaction) {
+                                        mMetrics.counter("action.aborted").increment();
                                         break;
                                     }
                                 }
+                                if (action instanceof WriteAction && ((WriteAction) action).getValue() != null) {
+                                    mMetrics.counter("write.bytes").add(((WriteAction) action).getValue().length);
+                                }
                             } else {
                                 LOG.error("Action returned false: " + action);
+                                mMetrics.counter("action.failed").increment();
                                 break; // abort the transaction
                             }
                         }
+                        if (pipelinedWriter != null) {
+                            pipelinedWriter.finish();
+                        }
+                        mMetrics.timer("transaction.duration").recordSince(transactionStartNanos);
                     }
                 } catch (InterruptedException ignored) {
                     mConnectionLatch = null;
@@ -198,6 +232,7 @@ public final class BtLEQueue {
                 } finally {
                     mWaitForActionResultLatch = null;
                     mWaitCharacteristic = null;
+                    mPipelinedWrite = false;
                 }
             }
             LOG.info("Queue Dispatch Thread terminated.");
@@ -211,6 +246,7 @@ public final class BtLEQueue {
         internalGattServerCallback = new InternalGattServerCallback(externalGattServerCallback);
         mContext = context;
         mSupportedServerServices = supportedServerServices;
+        mMetrics = MetricsRegistry.forDevice(gbDevice);
 
         dispatchThread.start();
     }
@@ -262,6 +298,7 @@ public final class BtLEQueue {
             }
         }
         LOG.info("Attempting to connect to " + mGbDevice.getName());
+        mConnectStartNanos = System.nanoTime();
         mBluetoothAdapter.cancelDiscovery();
         BluetoothDevice remoteDevice = mBluetoothAdapter.getRemoteDevice(mGbDevice.getAddress());
         if(!mSupportedServerServices.isEmpty()) {
@@ -326,6 +363,7 @@ public final class BtLEQueue {
 
     private void handleDisconnected(int status) {
         LOG.debug("handleDisconnected: " + status);
+        mMetrics.counter("connection.disconnects").increment();
         internalGattCallback.reset();
         mTransactions.clear();
         mPauseTransaction = false;
@@ -404,6 +442,7 @@ public final class BtLEQueue {
     public void add(Transaction transaction) {
         LOG.debug("about to add: " + transaction);
         if (!transaction.isEmpty()) {
+            transaction.setQueued();
             mTransactions.add(transaction);
         }
     }
@@ -426,6 +465,7 @@ public final class BtLEQueue {
     public void add(ServerTransaction transaction) {
         LOG.debug("about to add: " + transaction);
         if(!transaction.isEmpty()) {
+            transaction.setQueued();
             mTransactions.add(transaction);
         }
     }
@@ -444,6 +484,7 @@ public final class BtLEQueue {
             //mTransactions.drainTo(tail);
             tail.addAll(mTransactions);
             mTransactions.clear();
+            transaction.setQueued();
             mTransactions.add(transaction);
             mTransactions.addAll(tail);
         }
@@ -467,6 +508,17 @@ public final class BtLEQueue {
         return mBluetoothGatt.getServices();
     }
 
+    private static String getMetricName(final BtLEAction action) {
+        if (action instanceof WriteAction) {
+            return "write";
+        } else if (action instanceof ReadAction) {
+            return "read";
+        } else if (action instanceof NotifyAction) {
+            return "notify";
+        }
+        return "other";
+    }
+
     private boolean checkCorrectGattInstance(BluetoothGatt gatt, String where) {
         if (gatt != mBluetoothGatt && mBluetoothGatt != null) {
             LOG.info("Ignoring event from wrong BluetoothGatt instance: " + where + "; " + gatt);
@@ -485,6 +537,103 @@ public final class BtLEQueue {
         return true;
     }
 
+    /**
+     * Runs the write actions of a transaction with pipelined writes, see
+     * {@link TransactionBuilder#setPipelinedWrites(int)}. Must only be used by the dispatch thread.
+     */
+    private final class PipelinedWriter {
+        private final Transaction transaction;
+        private final PipelinedWriteStats stats;
+        private int credits;
+        private boolean acknowledgedOnly = false;
+
+        PipelinedWriter(final Transaction transaction) {
+            this.transaction = transaction;
+            this.stats = transaction.getPipelinedWriteStats();
+            this.credits = transaction.getPipelinedWriteWindow();
+            stats.start();
+        }
+
+        /**
+         * Writes the value of the action, retrying it with a backoff while the Bluetooth stack is
+         * busy or the connection is congested.
+         *
+         * @return false if the write failed, true if it succeeded or the transaction was aborted
+         */
+        boolean write(final WriteAction action) throws InterruptedException {
+            final BluetoothGattCharacteristic characteristic = action.getCharacteristic();
+            final int properties = characteristic.getProperties();
+            final boolean canWriteWithResponse = (properties & BluetoothGattCharacteristic.PROPERTY_WRITE) != 0;
+            final boolean canWriteWithoutResponse = (properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+            final int originalWriteType = characteristic.getWriteType();
+
+            mPipelinedWrite = true;
+            try {
+                for (int attempt = 0; attempt <= MAX_PIPELINED_WRITE_RETRIES; attempt++) {
+                    if (attempt > 0) {
+                        stats.onRetry();
+                        Thread.sleep((long) PIPELINED_WRITE_BACKOFF_MILLIS * attempt);
+                    }
+                    if (mAbortTransaction) {
+                        return true;
+                    }
+
+                    final boolean withResponse = !canWriteWithoutResponse || (canWriteWithResponse && (acknowledgedOnly || credits <= 0));
+                    characteristic.setWriteType(withResponse ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+
+                    mWaitCharacteristic = characteristic;
+                    mWaitForActionResultLatch = new CountDownLatch(1);
+                    mLastWriteStatus = BluetoothGatt.GATT_SUCCESS;
+                    if (!action.run(mBluetoothGatt)) {
+                        // the stack is still busy with the previous packets
+                        onCongestion(canWriteWithResponse);
+                        continue;
+                    }
+                    // for writes without response, this only waits until the stack sent the packet
+                    final long writeStartNanos = System.nanoTime();
+                    mWaitForActionResultLatch.await();
+                    mWaitForActionResultLatch = null;
+                    mMetrics.timer(withResponse ? "action.ack.write" : "action.ack.write_no_response").recordSince(writeStartNanos);
+                    if (mAbortTransaction) {
+                        return true;
+                    }
+                    if (mLastWriteStatus == BluetoothGatt.GATT_CONNECTION_CONGESTED) {
+                        onCongestion(canWriteWithResponse);
+                        continue;
+                    }
+
+                    if (withResponse) {
+                        credits = transaction.getPipelinedWriteWindow();
+                    } else {
+                        credits--;
+                    }
+                    stats.onWrite(action.getValue().length, withResponse);
+                    mMetrics.counter("write.bytes").add(action.getValue().length);
+                    return true;
+                }
+                return false;
+            } finally {
+                mPipelinedWrite = false;
+                characteristic.setWriteType(originalWriteType);
+            }
+        }
+
+        private void onCongestion(final boolean canWriteWithResponse) {
+            if (!acknowledgedOnly && canWriteWithResponse) {
+                LOG.info("Connection congested, falling back to acknowledged writes for {}", transaction.getTaskName());
+                acknowledgedOnly = true;
+                stats.onFallback();
+            }
+        }
+
+        void finish() {
+            LOG.info("Pipelined writes of {}: {}", transaction.getTaskName(), stats);
+            mMetrics.histogram("pipelined.bytes_per_second").record(stats.getBytesPerSecond());
+            mMetrics.counter("pipelined.retries").add(stats.getRetries());
+            mMetrics.counter("pipelined.fallbacks").add(stats.getFallbacks());
+        }
+    }
+
     // Implements callback methods for GATT events that the app cares about.  For example,
     // connection change and services discovered.
     private final class InternalGattCallback extends BluetoothGattCallback {
@@ -566,6 +715,11 @@ public final class BtLEQueue {
             }
 
             if (status == BluetoothGatt.GATT_SUCCESS) {
+                final long connectStartNanos = mConnectStartNanos;
+                if (connectStartNanos != 0) {
+                    mMetrics.timer("connection.setup").recordSince(connectStartNanos);
+                    mConnectStartNanos = 0;
+                }
                 if (getCallbackToUse() != null) {
                     // only propagate the successful event
                     getCallbackToUse().onServicesDiscovered(gatt);
@@ -584,6 +738,14 @@ public final class BtLEQueue {
             if (!checkCorrectGattInstance(gatt, "characteristic write")) {
                 return;
             }
+            mLastWriteStatus = status;
+            if (mPipelinedWrite && status == BluetoothGatt.GATT_CONNECTION_CONGESTED) {
+                // not a failure, the pipelined writer retries the packet
+                if (mWaitForActionResultLatch != null) {
+                    mWaitForActionResultLatch.countDown();
+                }
+                return;
+            }
             if (getCallbackToUse() != null) {
                 getCallbackToUse().onCharacteristicWrite(gatt, characteristic, status);
             }
@@ -595,6 +757,9 @@ public final class BtLEQueue {
         @Override
         public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
             super.onMtuChanged(gatt, mtu, status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mMetrics.setGauge("mtu", mtu);
+            }
 
             if(getCallbackToUse() != null){
                 getCallbackToUse().onMtuChanged(gatt, mtu, status);
@@ -667,6 +832,9 @@ public final class BtLEQueue {
             if (!checkCorrectGattInstance(gatt, "characteristic changed")) {
                 return;
             }
+            final byte[] value = characteristic.getValue();
+            mMetrics.counter("notification.count").increment();
+            mMetrics.counter("notification.bytes").add(value != null ? value.length : 0);
             if (getCallbackToUse() != null) {
                 try {
                     getCallbackToUse().onCharacteristicChanged(gatt, characteristic);
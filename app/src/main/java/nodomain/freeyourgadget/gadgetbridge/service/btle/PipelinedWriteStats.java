@@ -0,0 +1,103 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import java.util.Locale;
+
+/**
+ * Throughput of the writes of a transaction with pipelined writes, see
+ * {@link TransactionBuilder#setPipelinedWrites(int)}.
+ */
+public class PipelinedWriteStats {
+    private long startNanos;
+    private long endNanos;
+    private long bytes;
+    private int packets;
+    private int acknowledgedPackets;
+    private int retries;
+    private int fallbacks;
+
+    void start() {
+        startNanos = System.nanoTime();
+        endNanos = startNanos;
+    }
+
+    void onWrite(final int length, final boolean acknowledged) {
+        bytes += length;
+        packets++;
+        if (acknowledged) {
+            acknowledgedPackets++;
+        }
+        endNanos = System.nanoTime();
+    }
+
+    void onRetry() {
+        retries++;
+    }
+
+    void onFallback() {
+        fallbacks++;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getPackets() {
+        return packets;
+    }
+
+    /**
+     * @return the number of packets that were written with response, to give the device a chance
+     * to catch up, or after falling back due to congestion
+     */
+    public int getAcknowledgedPackets() {
+        return acknowledgedPackets;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return the number of times the transaction fell back to acknowledged writes
+     */
+    public int getFallbacks() {
+        return fallbacks;
+    }
+
+    public long getDurationMillis() {
+        return (endNanos - startNanos) / 1_000_000;
+    }
+
+    public long getBytesPerSecond() {
+        final long nanos = endNanos - startNanos;
+        if (nanos <= 0) {
+            return 0;
+        }
+        return bytes * 1_000_000_000L / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                Locale.ROOT,
+                "%d bytes in %d packets (%d acknowledged), %d ms, %d bytes/s, %d retries, %d fallbacks",
+                bytes, packets, acknowledgedPackets, getDurationMillis(), getBytesPerSecond(), retries, fallbacks
+        );
+    }
+}
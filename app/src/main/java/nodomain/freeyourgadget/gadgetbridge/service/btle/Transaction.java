@@ -38,6 +38,11 @@ public class Transaction extends AbstractTransaction {
 
     private boolean modifyGattCallback;
 
+    private int pipelinedWriteWindow = 0;
+
+    @Nullable
+    private PipelinedWriteStats pipelinedWriteStats;
+
     public Transaction(String taskName) {
         super(taskName);
     }
@@ -76,6 +81,31 @@ public class Transaction extends AbstractTransaction {
         return modifyGattCallback;
     }
 
+    /**
+     * @param window the number of writes that may be sent without response before waiting for an
+     *               acknowledged write, or 0 to acknowledge every write
+     */
+    public void setPipelinedWriteWindow(final int window) {
+        pipelinedWriteWindow = window;
+        pipelinedWriteStats = window > 0 ? new PipelinedWriteStats() : null;
+    }
+
+    public int getPipelinedWriteWindow() {
+        return pipelinedWriteWindow;
+    }
+
+    public boolean isPipelinedWrites() {
+        return pipelinedWriteWindow > 0;
+    }
+
+    /**
+     * Returns the throughput of the writes, if the transaction has pipelined writes.
+     */
+    @Nullable
+    public PipelinedWriteStats getPipelinedWriteStats() {
+        return pipelinedWriteStats;
+    }
+
     @Override
     public int getActionCount() {
         return mActions.size();
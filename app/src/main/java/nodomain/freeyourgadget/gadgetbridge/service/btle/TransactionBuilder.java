@@ -40,6 +40,12 @@ import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.WriteAction;
 public class TransactionBuilder {
     private static final Logger LOG = LoggerFactory.getLogger(TransactionBuilder.class);
 
+    /**
+     * Enough packets to fill a few connection intervals, without overrunning the buffers of the
+     * devices.
+     */
+    public static final int DEFAULT_PIPELINE_WINDOW = 16;
+
     private final Transaction mTransaction;
     private boolean mQueued;
 
@@ -123,6 +129,27 @@ public class TransactionBuilder {
         return this;
     }
 
+    /**
+     * Sends the writes of this transaction without response, if the characteristic supports it.
+     * The queue then only waits until each packet was handed to the Bluetooth stack, instead of
+     * waiting one connection interval for the device to acknowledge it, which is much faster for
+     * bulk transfers such as firmware and file uploads.
+     * <p/>
+     * After {@code window} writes without response, the next write is sent with response, so that
+     * the device can catch up. If the connection is congested, the remaining writes of the
+     * transaction are sent with response.
+     *
+     * @param window the number of writes without response between acknowledged writes
+     * @see Transaction#getPipelinedWriteStats()
+     */
+    public TransactionBuilder setPipelinedWrites(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be positive: " + window);
+        }
+        mTransaction.setPipelinedWriteWindow(window);
+        return this;
+    }
+
     /**
      * Sets a GattCallback instance that will be called when the transaction is executed,
      * resulting in GattCallback events.
@@ -1,9 +1,6 @@
 package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
 
 import static java.lang.Integer.parseInt;
-import static java.lang.Long.parseLong;
-import static java.lang.Math.cos;
-import static java.lang.Math.sqrt;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -19,10 +16,8 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.Objects;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -38,10 +33,8 @@ import nodomain.freeyourgadget.gadgetbridge.export.ActivityTrackExporter;
 import nodomain.freeyourgadget.gadgetbridge.export.GPXExporter;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
-import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummaryEntries;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
-import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
 import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
@@ -160,239 +153,44 @@ class BangleJSActivityTrack {
         File inputFile = new File(dir, filename);
         try { // FIXME: There is maybe code inside this try-statement that should be outside of it.
 
-            // Read from the previously stored log into a string.
-            BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-            StringBuilder storedLogBuilder = new StringBuilder(reader.readLine() + "\n");
-            String line;
-            while ((line = reader.readLine()) != null) {
-                storedLogBuilder.append(line).append("\n");
-            }
-            reader.close();
-            String storedLog = String.valueOf(storedLogBuilder);
-            storedLog = storedLog.replace(",",", "); // So all rows (internal arrays) in storedLogArray2 get the same number of entries.
-            LOG.debug("Contents of log read from GB storage:\n" + storedLog);
-
-            // Turn the string log into a 2d array in two steps.
-            String[] storedLogArray = storedLog.split("\n") ;
-            String[][] storedLogArray2 = new String[storedLogArray.length][1];
-
-            for (int i = 0; i < storedLogArray.length; i++) {
-                storedLogArray2[i] = storedLogArray[i].split(",");
-                for (int j = 0; j < storedLogArray2[i].length;j++) {
-                    storedLogArray2[i][j] = storedLogArray2[i][j].trim(); // Remove the extra spaces we introduced above for getting the same number of entries on all rows.
-                }
-            }
-
-            LOG.debug("Contents of storedLogArray2:\n" + Arrays.deepToString(storedLogArray2));
-
-            // Turn the 2d array into an object for easier access later on.
-            JSONObject storedLogObject = new JSONObject();
-            JSONArray valueArray = new JSONArray();
-            for (int i = 0; i < storedLogArray2[0].length; i++){
-                for (int j = 1; j < storedLogArray2.length; j++) {
-                    valueArray.put(storedLogArray2[j][i]);
-                }
-                storedLogObject.put(storedLogArray2[0][i], valueArray);
-                valueArray = new JSONArray();
-            }
-
-            // Clean out heartrate==0...
-            if (storedLogObject.has("Heartrate")) {
-                JSONArray heartrateArray = storedLogObject.getJSONArray("Heartrate");
-                for (int i = 0; i < heartrateArray.length(); i++){
-                    if (Objects.equals(heartrateArray.getString(i), "0") ||
-                            Objects.equals(heartrateArray.getString(i), "0.0")) {
-                        heartrateArray.put(i,"");
-                    }
-                }
-                //storedLogObject.remove("Heartrate");
-                storedLogObject.put("Heartrate", heartrateArray);
-
-            }
-
-            LOG.debug("storedLogObject:\n" + storedLogObject);
-
-            // Calculate and store analytical data (distance, speed, cadence, etc.).
-            JSONObject analyticsObject = new JSONObject();
-            JSONArray calculationsArray = new JSONArray();
-            int logLength = storedLogObject.getJSONArray("Time").length();
-
-            // Add elapsed time since first reading (seconds).
-            valueArray = storedLogObject.getJSONArray("Time");
-            for (int i = 0; i < logLength; i++) {
-                calculationsArray.put(valueArray.getDouble(i)-valueArray.getDouble(0));
-            }
-            analyticsObject.put("Elapsed Time", calculationsArray);
-
-            valueArray = new JSONArray();
-            calculationsArray = new JSONArray();
-
-            JSONArray valueArray2 = new JSONArray();
-
-            //LOG.debug("check here 0");
-            // Add analytics based on GPS coordinates.
-            if (storedLogObject.has("Latitude")) {
-                // Add distance between last and current reading.
-                valueArray = storedLogObject.getJSONArray("Latitude");
-                valueArray2 = storedLogObject.getJSONArray("Longitude");
-                for (int i = 0; i < logLength; i++) {
-                    if (i == 0) {
-                        calculationsArray.put("0");
-                    } else {
-                        String distance;
-                        if (Objects.equals(valueArray.getString(i), "") ||
-                                Objects.equals(valueArray.getString(i - 1), "")) {
-                            // FIXME: GPS data can be missing for some entries which is handled here.
-                            // Should use more complex logic to be more accurate. Use interpolation.
-                            // Should distances be done via the GPX file we generate instead?
-                            distance = "0";
-                        } else {
-                            distance = distanceFromCoordinatePairs(
-                                    (String) valueArray.get(i - 1),
-                                    (String) valueArray2.get(i - 1),
-                                    (String) valueArray.get(i),
-                                    (String) valueArray2.get(i)
-                            );
-                        }
-                        calculationsArray.put(distance);
-                    }
-                }
-                analyticsObject.put("Intermediate Distance", calculationsArray);
-
-                valueArray = new JSONArray();
-                valueArray2 = new JSONArray();
-                calculationsArray = new JSONArray();
-
-                //LOG.debug("check here 1");
-                // Add stride lengths between consecutive readings.
-                if (storedLogObject.has("Steps")) {
-                    for (int i = 0; i < logLength; i++) {
-                        if (Objects.equals(storedLogObject.getJSONArray("Steps").getString(i), "0") ||
-                                Objects.equals(storedLogObject.getJSONArray("Steps").getString(i), "")) {
-                            calculationsArray.put("");
-                        } else if (Objects.equals(analyticsObject.getJSONArray("Intermediate Distance").getString(i), "0")) {
-                            calculationsArray.put("0");
-                        } else {
-                            double steps = storedLogObject.getJSONArray("Steps").getDouble(i);
-                            double calculation =
-                                    analyticsObject.getJSONArray("Intermediate Distance").getDouble(i) / steps;
-                            calculationsArray.put(calculation);
-                        }
-                    }
-                    analyticsObject.put("Stride", calculationsArray);
-
-                    calculationsArray = new JSONArray();
-                }
-
-                //LOG.debug("check here 2");
-            } else if (storedLogObject.has("Steps")) {
-                for (int i = 0; i < logLength; i++) {
-                    if (i==0 ||
-                            Objects.equals(storedLogObject.getJSONArray("Steps").getString(i), "0") ||
-                            Objects.equals(storedLogObject.getJSONArray("Steps").getString(i), "")) {
-                        calculationsArray.put(0);
-                    } else {
-                        double avgStep = (0.67+0.762)/2; // https://marathonhandbook.com/average-stride-length/  (female+male)/2
-                        double stride = 2*avgStep; // TODO: Depend on user defined stride length?
-                        double calculation = stride * (storedLogObject.getJSONArray("Steps").getDouble(i));
-                        //if (calculation == 0) calculation = 0.001; // To avoid potential division by zero later on.
-                        calculationsArray.put(calculation);
-                    }
-                }
-                analyticsObject.put("Intermediate Distance", calculationsArray);
-
-                calculationsArray = new JSONArray();
-
+            ActivityTrack track = new ActivityTrack(); // detailsParser.parse(buffer.toByteArray());
+            track.startNewSegment();
+            track.setName(log);
+            try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                DaoSession session = dbHandler.getDaoSession();
+                Device deviceDB = DBHelper.getDevice(device, session);
+                User user = DBHelper.getUser(session);
+                track.setDevice(deviceDB);
+                track.setUser(user);
+            } catch (Exception ex) {
+                GB.toast(context, "Error setting user for activity track.", Toast.LENGTH_LONG, GB.ERROR, ex);
             }
 
-            //LOG.debug("check here 3");
-            if (analyticsObject.has("Intermediate Distance")) {
-                // Add total distance from start of activity up to each reading.
-                for (int i = 0; i < logLength; i++) {
-                    if (i==0) {
-                        calculationsArray.put(0);
-                    } else {
-                        double calculation = calculationsArray.getDouble(i-1) + analyticsObject.getJSONArray("Intermediate Distance").getDouble(i);
-                        calculationsArray.put(calculation);
-                    }
-                }
-                analyticsObject.put("Total Distance", calculationsArray);
-
-                calculationsArray = new JSONArray();
-
-                //LOG.debug("check here 4");
-                // Add average speed between last and current reading (m/s).
-                for (int i = 0; i < logLength; i++) {
-                    if (i==0) {
-                        calculationsArray.put("");
-                    } else {
-                        double timeDiff =
-                                (analyticsObject.getJSONArray("Elapsed Time").getDouble(i) -
-                                        analyticsObject.getJSONArray("Elapsed Time").getDouble(i-1));
-                        if (timeDiff==0) timeDiff = 1; // On older versions of the Recorder Bangle.js app the time reporting could be the same for two data points due to rounding.
-                        double calculation =
-                                analyticsObject.getJSONArray("Intermediate Distance").getDouble(i) / timeDiff;
-                        calculationsArray.put(calculation);
-                    }
-                }
-                //LOG.debug("check " + calculationsArray);
-                analyticsObject.put("Speed", calculationsArray);
-
-                calculationsArray = new JSONArray();
-
-                //LOG.debug("check here 5");
-                // Add average pace between last and current reading (s/km). (Was gonna do this as min/km but summary seems to expect s/km).
-                for (int i = 0; i < logLength; i++) {
-                    String speed = analyticsObject.getJSONArray("Speed").getString(i);
-                    //LOG.debug("check: " + speed);
-                    if (i==0 || Objects.equals(speed, "0") || Objects.equals(speed, "0.0") || Objects.equals(speed, "")) {
-                        calculationsArray.put("");
-                    } else {
-                        double calculation = (1000.0) * 1/ analyticsObject.getJSONArray("Speed").getDouble(i);
-                        calculationsArray.put(calculation);
-                    }
-                }
-                analyticsObject.put("Pace", calculationsArray);
-
-                calculationsArray = new JSONArray();
+            // Read the previously stored log row by row, adding the track points and the
+            // analytical data (distance, speed, cadence, etc.) as we go.
+            BangleJSRecorderCSVParser parser = new BangleJSRecorderCSVParser(track);
+            try (BufferedReader reader = new BufferedReader(new FileReader(inputFile))) {
+                parser.parse(reader);
             }
-
-            //LOG.debug("check here 6");
-            if (storedLogObject.has("Steps")) {
-                for (int i = 0; i < logLength; i++) {
-                    if (i==0 || Objects.equals(storedLogObject.getJSONArray("Steps").getString(i), "")) {
-                        calculationsArray.put(0);
-                    } else {
-                        // FIXME: Should cadence be steps/min or half that? https://www.polar.com/blog/what-is-running-cadence/
-                        // The Bangle.js App Loader has Cadence = (steps/min)/2,  https://github.com/espruino/BangleApps/blob/master/apps/recorder/interface.html#L103,
-                        // as discussed here: https://github.com/espruino/BangleApps/pull/3068#issuecomment-1790293879 .
-                        double timeDiff =
-                                (storedLogObject.getJSONArray("Time").getDouble(i) -
-                                        storedLogObject.getJSONArray("Time").getDouble(i-1));
-                        if (timeDiff==0) timeDiff = 1;
-                        double calculation = 0.5 * 60 *
-                                (storedLogObject.getJSONArray("Steps").getDouble(i) / timeDiff);
-                        calculationsArray.put(calculation);
-                    }
-                }
-                analyticsObject.put("Cadence", calculationsArray);
-
-                calculationsArray = new JSONArray();
+            if (parser.getRowCount() == 0) {
+                LOG.warn("Recorder log " + log + " contains no readings");
+                stopAndRestartTimeout(device,context);
+                return;
             }
-            //LOG.debug("check here AnalyticsObject:\n" + analyticsObject.toString());
+            LOG.debug("Parsed " + parser.getRowCount() + " readings from recorder log " + log);
 
             //LOG.debug("check here 7");
             BaseActivitySummary summary = null;
 
-            Date startTime = new Date(parseLong(storedLogArray2[1][0].split("\\.\\d")[0])*1000L);
-            Date endTime = new Date(parseLong(storedLogArray2[storedLogArray2.length-1][0].split("\\.\\d")[0])*1000L);
+            Date startTime = parser.getStartTime();
+            Date endTime = parser.getEndTime();
             summary = new BaseActivitySummary();
             summary.setName(log);
             summary.setStartTime(startTime);
             summary.setEndTime(endTime);
             int activityKind;
-            if (analyticsObject.has("Speed")) {
-                if ((float) 3 > averageOfJSONArray(analyticsObject.getJSONArray("Speed"))) {
+            if (parser.hasDistance()) {
+                if ((float) 3 > parser.getSpeed().getAverage()) {
                     activityKind = ActivityKind.TYPE_WALKING;
                 } else {
                     activityKind = ActivityKind.TYPE_RUNNING;
@@ -410,24 +208,24 @@ class BangleJSActivityTrack {
             //             "distanceMeters", "steps", "activeSeconds", "caloriesBurnt", "totalStride",
             //             "averageHR", "maxHR", "minHR", "averageStride", "maxStride", "minStride"
             //     ));
-            if (analyticsObject.has("Intermediate Distance")) summaryData =
+            if (parser.hasDistance()) summaryData =
                     addSummaryData(summaryData, ActivitySummaryEntries.DISTANCE_METERS,
-                            (float) analyticsObject.getJSONArray("Total Distance").getDouble(logLength - 1),
+                            (float) parser.getTotalDistance(),
                             "m");
-            if (storedLogObject.has("Steps"))
-                summaryData = addSummaryData(summaryData, "steps", sumOfJSONArray(storedLogObject.getJSONArray("Steps")), "steps");
+            if (parser.hasSteps())
+                summaryData = addSummaryData(summaryData, "steps", parser.getSteps(), "steps");
             //summaryData = addSummaryData(summaryData,ActivitySummaryEntries.ACTIVE_SECONDS,3,"mm"); // FIXME: Is this suppose to exclude the time of inactivity in a workout?
             //summaryData = addSummaryData(summaryData,ActivitySummaryEntries.CALORIES_BURNT,3,"mm"); // TODO: Should this be calculated on Gadgetbridge side or be reported by Bangle.js?
             //summaryData = addSummaryData(summaryData,ActivitySummaryEntries.STRIDE_TOTAL,3,"mm"); // FIXME: What is this?
-            if (storedLogObject.has("Heartrate")) {
-                summaryData = addSummaryData(summaryData, ActivitySummaryEntries.HR_AVG, averageOfJSONArray(storedLogObject.getJSONArray("Heartrate")), "bpm");
-                summaryData = addSummaryData(summaryData, ActivitySummaryEntries.HR_MAX, maxOfJSONArray(storedLogObject.getJSONArray("Heartrate")), "bpm");
-                summaryData = addSummaryData(summaryData, ActivitySummaryEntries.HR_MIN, minOfJSONArray(storedLogObject.getJSONArray("Heartrate")), "bpm");
+            if (parser.hasHeartRate()) {
+                summaryData = addSummaryData(summaryData, ActivitySummaryEntries.HR_AVG, parser.getHeartRate().getAverage(), "bpm");
+                summaryData = addSummaryData(summaryData, ActivitySummaryEntries.HR_MAX, parser.getHeartRate().getMax(), "bpm");
+                summaryData = addSummaryData(summaryData, ActivitySummaryEntries.HR_MIN, parser.getHeartRate().getMin(), "bpm");
             }
-            if (analyticsObject.has("Stride")) {
+            if (parser.hasStride()) {
                 summaryData = addSummaryData(summaryData, ActivitySummaryEntries.STRIDE_AVG,
-                        (float) (analyticsObject.getJSONArray("Total Distance").getDouble(logLength - 1) /
-                                (0.5 * sumOfJSONArray(storedLogObject.getJSONArray("Steps")))),
+                        (float) (parser.getTotalDistance() /
+                                (0.5 * parser.getSteps())),
                         "m"); // FIXME: Is this meant to be stride length as I've assumed?
                 //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.STRIDE_MAX, maxOfJSONArray(analyticsObject.getJSONArray("Stride")), "m");
                 //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.STRIDE_MIN, minOfJSONArray(analyticsObject.getJSONArray("Stride")), "m");
@@ -438,8 +236,8 @@ class BangleJSActivityTrack {
             //             "maxPace", "averageSpeed2", "averageCadence", "maxCadence", "minCadence"
             //     ));
             try {
-                if (analyticsObject.has("Speed")) {
-                    summaryData = addSummaryData(summaryData,ActivitySummaryEntries.SPEED_AVG, averageOfJSONArray(analyticsObject.getJSONArray("Speed")),"m/s"); // This seems to be calculated somewhere else automatically.
+                if (parser.hasDistance()) {
+                    summaryData = addSummaryData(summaryData,ActivitySummaryEntries.SPEED_AVG, parser.getSpeed().getAverage(),"m/s"); // This seems to be calculated somewhere else automatically.
                     //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.SPEED_MAX, maxOfJSONArray(analyticsObject.getJSONArray("Speed")), "m/s");
                     //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.SPEED_MIN, minOfJSONArray(analyticsObject.getJSONArray("Speed")), "m/s");
                     //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.PACE_AVG_SECONDS_KM, averageOfJSONArray(analyticsObject.getJSONArray("Pace")), "s/km"); // Is this also calculated automatically then?
@@ -452,11 +250,11 @@ class BangleJSActivityTrack {
                     //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.PACE_MAX, minOfJSONArray(analyticsObject.getJSONArray("Pace")), "s/km");
                     //summaryData = addSummaryData(summaryData,ActivitySummaryEntries.averageSpeed2,3,"mm");
                 }
-                if (analyticsObject.has("Cadence")) {
+                if (parser.hasSteps()) {
                     //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.averageCadence, averageOfJSONArray(analyticsObject.getJSONArray("Cadence")), "cycles/min"); // Is this also calculated automatically then?
                     summaryData = addSummaryData(summaryData, ActivitySummaryEntries.CADENCE_AVG,
-                            (float) 0.5 * 60 * sumOfJSONArray(storedLogObject.getJSONArray("Steps")) /
-                                    (float) analyticsObject.getJSONArray("Elapsed Time").getDouble(logLength - 1),
+                            (float) 0.5 * 60 * parser.getSteps() /
+                                    (float) parser.getElapsedTime(),
                             "cycles/min"
                     );
                     //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.CADENCE_MAX, maxOfJSONArray(analyticsObject.getJSONArray("Cadence")), "cycles/min");
@@ -481,18 +279,13 @@ class BangleJSActivityTrack {
             //             "descentDistance", "flatDistance", "elevationGain", "elevationLoss"
             //     ));
             //}
-            if (storedLogObject.has("Altitude") || storedLogObject.has("Barometer Altitude")) {
-                String altitudeToUseKey = null;
-                if (storedLogObject.has("Altitude")) {
-                    altitudeToUseKey = "Altitude";
-                } else if (storedLogObject.has("Barometer Altitude")) {
-                    altitudeToUseKey = "Barometer Altitude";
-                }
+            if (parser.hasAltitude()) {
+                // the GPS altitude is preferred over the barometer altitude
                 //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.ASCENT_METERS, 3, "m");
                 //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.ASCENT_DISTANCE, 3, "m");
-                summaryData = addSummaryData(summaryData, ActivitySummaryEntries.ALTITUDE_MAX, maxOfJSONArray(storedLogObject.getJSONArray(altitudeToUseKey)), "m");
-                summaryData = addSummaryData(summaryData, ActivitySummaryEntries.ALTITUDE_MIN, minOfJSONArray(storedLogObject.getJSONArray(altitudeToUseKey)), "m");
-                summaryData = addSummaryData(summaryData, ActivitySummaryEntries.ALTITUDE_AVG, averageOfJSONArray(storedLogObject.getJSONArray(altitudeToUseKey)), "m");
+                summaryData = addSummaryData(summaryData, ActivitySummaryEntries.ALTITUDE_MAX, parser.getAltitude().getMax(), "m");
+                summaryData = addSummaryData(summaryData, ActivitySummaryEntries.ALTITUDE_MIN, parser.getAltitude().getMin(), "m");
+                summaryData = addSummaryData(summaryData, ActivitySummaryEntries.ALTITUDE_AVG, parser.getAltitude().getAverage(), "m");
                 //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.ALTITUDE_BASE, 3, "m");
                 //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.ASCENT_SECONDS, 3, "s");
                 //summaryData = addSummaryData(summaryData, ActivitySummaryEntries.DESCENT_SECONDS, 3, "s");
@@ -530,51 +323,6 @@ class BangleJSActivityTrack {
             // }};
             summary.setSummaryData(summaryData.toString());
 
-            ActivityTrack track = new ActivityTrack(); // detailsParser.parse(buffer.toByteArray());
-            track.startNewSegment();
-            track.setBaseTime(startTime);
-            track.setName(log);
-            try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                DaoSession session = dbHandler.getDaoSession();
-                Device deviceDB = DBHelper.getDevice(device, session);
-                User user = DBHelper.getUser(session);
-                track.setDevice(deviceDB);
-                track.setUser(user);
-            } catch (Exception ex) {
-                GB.toast(context, "Error setting user for activity track.", Toast.LENGTH_LONG, GB.ERROR, ex);
-            }
-            ActivityPoint point = new ActivityPoint();
-            Date timeOfPoint = new Date();
-            boolean hasGPXReading = false;
-            boolean hasHRMReading = false;
-            for (int i = 0; i < storedLogObject.getJSONArray("Time").length(); i++) {
-                timeOfPoint.setTime(storedLogObject.getJSONArray("Time").getLong(i)*1000L);
-                point.setTime((Date) timeOfPoint.clone());
-                if (storedLogObject.has("Longitude")) {
-                    if (!Objects.equals(storedLogObject.getJSONArray("Longitude").getString(i), "")
-                            && !Objects.equals(storedLogObject.getJSONArray("Latitude").getString(i), "")
-                            && !Objects.equals(storedLogObject.getJSONArray("Altitude").getString(i), "")) {
-
-                        point.setLocation(new GPSCoordinate(
-                                        storedLogObject.getJSONArray("Longitude").getDouble(i),
-                                        storedLogObject.getJSONArray("Latitude").getDouble(i),
-                                        storedLogObject.getJSONArray("Altitude").getDouble(i)
-                                )
-                        );
-
-                        if (!hasGPXReading) hasGPXReading = true;
-                    }
-                }
-                if (storedLogObject.has("Heartrate") && !Objects.equals(storedLogObject.getJSONArray("Heartrate").getString(i), "")) {
-                    point.setHeartRate(storedLogObject.getJSONArray("Heartrate").getInt(i));
-
-                    if (!hasHRMReading) hasHRMReading = true;
-                }
-                track.addTrackPoint(point);
-                LOG.debug("Activity Point:\n" + point.getHeartRate());
-                point = new ActivityPoint();
-            }
-
             ActivityTrackExporter exporter = createExporter();
             String trackType = "track";
             switch (summary.getActivityKind()) {
@@ -602,7 +350,7 @@ class BangleJSActivityTrack {
             dir = new File(FileUtils.getExternalFilesDir() + "/" + FileUtils.makeValidFileName(device.getName()));
             File targetFile = new File(dir, fileName);
 
-            if (hasGPXReading /*|| hasHRMReading*/) {
+            if (parser.hasGPXReading() /*|| hasHRMReading*/) {
                 try {
                     exporter.performExport(track, targetFile);
 
@@ -634,8 +382,8 @@ class BangleJSActivityTrack {
 
         } catch (IOException e) {
             LOG.error("IOException when parsing fetched CSV: " + e);
-        } catch (JSONException e) {
-            LOG.error("JSONException when parsing fetched CSV: " + e);
+        } catch (NumberFormatException e) {
+            LOG.error("NumberFormatException when parsing fetched CSV: " + e);
         }
 
         stopAndRestartTimeout(device,context);
@@ -843,59 +591,4 @@ class BangleJSActivityTrack {
     //     return summaryData;
     // }
 
-    private static String distanceFromCoordinatePairs(String latA, String lonA, String latB, String lonB) {
-        // https://en.wikipedia.org/wiki/Geographic_coordinate_system#Length_of_a_degree
-        //phi = latitude
-        //lambda = longitude
-        //length of 1 degree lat:
-        //111132.92 - 559.82*cos(2*phi) + 1.175*cos(4*phi) - 0.0023*cos(6*phi)
-        //length of 1 degree lon:
-        //111412.84*cos(phi) - 93.5*cos(3*phi) + 0.118*cos(5*phi)
-        double latADouble = Double.parseDouble(latA);
-        double latBDouble = Double.parseDouble(latB);
-        double lonADouble = Double.parseDouble(lonA);
-        double lonBDouble = Double.parseDouble(lonB);
-
-        double lengthPerDegreeLat = 111132.92 - 559.82*cos(2*latADouble) + 1.175*cos(4*latADouble) - 0.0023*cos(6*latADouble);
-        double lengthPerDegreeLon = 111412.84*cos(latADouble) - 93.5*cos(3*latADouble) + 0.118*cos(5*latADouble);
-
-        double latDist = (latBDouble-latADouble)*lengthPerDegreeLat;
-        double lonDist = (lonBDouble-lonADouble)*lengthPerDegreeLon;
-
-        return String.valueOf(sqrt(latDist*latDist+lonDist*lonDist));
-    }
-
-    private static float sumOfJSONArray(JSONArray a) throws JSONException {
-        double sum = 0;
-        for (int i=0; i<a.length(); i++) {
-            if (!Objects.equals(a.getString(i), "")) sum += a.getDouble(i);
-        }
-        return (float) sum;
-    }
-
-    private static float averageOfJSONArray(JSONArray a) throws JSONException {
-        JSONArray b = new JSONArray();
-        // Disregard empty lines.
-        for (int i=0; i<a.length(); i++) {
-            if (!Objects.equals(a.getString(i), ""))  b.put(a.getString(i));
-        }
-        return sumOfJSONArray(b) / b.length();
-    }
-
-    private static float minOfJSONArray(JSONArray a) throws JSONException {
-        double min = 999999999;
-        for (int i=0; i<a.length(); i++) {
-            if (!Objects.equals(a.getString(i), "")) min = Math.min(min, a.getDouble(i));
-        }
-        return (float) min;
-    }
-
-    private static float maxOfJSONArray(JSONArray a) throws JSONException {
-        double max = -999999999;
-        for (int i=0; i<a.length(); i++) {
-            if (!Objects.equals(a.getString(i), "")) max = Math.max(max, a.getDouble(i));
-        }
-        return (float) max;
-    }
-
 }
@@ -157,7 +157,7 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
     int bangleCommandSeq = 0; // to attempt to stop duplicate packets when sending Local Intents
 
     /// Current line of data received from Bangle.js
-    private String receivedLine = "";
+    private final UartLineFramer receivedLine = new UartLineFramer();
     /// All characters received from Bangle.js for debug purposes (limited to MAX_RECEIVE_HISTORY_CHARS). Can be dumped with 'Fetch Device Debug Logs' from Debug menu
     private String receiveHistory = "";
     private boolean realtimeHRM = false;
@@ -1087,13 +1087,7 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
             // logging
             addReceiveHistory(packetStr);
             // split into input lines
-            receivedLine += packetStr;
-            while (receivedLine.contains("\n")) {
-                int p = receivedLine.indexOf("\n");
-                String line = receivedLine.substring(0,(p>0) ? (p-1) : 0);
-                receivedLine = receivedLine.substring(p+1);
-                handleUartRxLine(line);
-            }
+            receivedLine.append(chars, this::handleUartRxLine);
             // Send an intent with new data
             Intent intent = new Intent(BangleJSDeviceSupport.BANGLEJS_COMMAND_RX);
             intent.putExtra("DATA", packetStr);
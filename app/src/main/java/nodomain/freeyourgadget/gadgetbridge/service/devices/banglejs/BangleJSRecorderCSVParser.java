@@ -0,0 +1,329 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
+
+import static java.lang.Math.cos;
+import static java.lang.Math.sqrt;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Date;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
+
+/**
+ * Reads a Bangle.js recorder log line by line, adding the track points to an {@link ActivityTrack}
+ * and keeping running totals for the activity summary, so that the log is never held in memory.
+ */
+class BangleJSRecorderCSVParser {
+    // https://marathonhandbook.com/average-stride-length/  (female+male)/2
+    private static final double AVERAGE_STEP_LENGTH = (0.67 + 0.762) / 2;
+
+    private final ActivityTrack track;
+
+    private int timeColumn = -1;
+    private int latitudeColumn = -1;
+    private int longitudeColumn = -1;
+    private int altitudeColumn = -1;
+    private int barometerAltitudeColumn = -1;
+    private int heartrateColumn = -1;
+    private int stepsColumn = -1;
+    private String[] fields;
+
+    private int rowCount = 0;
+    private String firstTime;
+    private String lastTime;
+    private double firstTimeValue;
+    private double elapsedTime;
+    private String previousLatitude;
+    private String previousLongitude;
+    private double totalDistance = 0;
+    private double stepsSum = 0;
+    private boolean hasGPXReading = false;
+    private final Stats speed = new Stats();
+    private final Stats heartRate = new Stats();
+    private final Stats altitude = new Stats();
+
+    BangleJSRecorderCSVParser(ActivityTrack track) {
+        this.track = track;
+    }
+
+    /**
+     * @throws IOException if the log cannot be read or has no Time column
+     * @throws NumberFormatException if a value is not a number
+     */
+    void parse(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            throw new IOException("Empty recorder log");
+        }
+        parseHeader(line);
+
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            splitRow(line);
+            parseRow();
+        }
+    }
+
+    private void parseHeader(String line) {
+        fields = line.split(",", -1);
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim();
+        }
+        timeColumn = indexOf("Time");
+        latitudeColumn = indexOf("Latitude");
+        longitudeColumn = indexOf("Longitude");
+        altitudeColumn = indexOf("Altitude");
+        barometerAltitudeColumn = indexOf("Barometer Altitude");
+        heartrateColumn = indexOf("Heartrate");
+        stepsColumn = indexOf("Steps");
+    }
+
+    private int indexOf(String column) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits a row into the reused fields array, missing trailing values are left empty.
+     */
+    private void splitRow(String line) {
+        int start = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (start > line.length()) {
+                fields[i] = "";
+                continue;
+            }
+            int end = line.indexOf(',', start);
+            if (end < 0) {
+                end = line.length();
+            }
+            fields[i] = line.substring(start, end).trim();
+            start = end + 1;
+        }
+    }
+
+    private String field(int column) {
+        return column < 0 ? "" : fields[column];
+    }
+
+    private void parseRow() throws IOException {
+        if (timeColumn < 0) {
+            throw new IOException("Recorder log has no Time column");
+        }
+        final String time = fields[timeColumn];
+        final double timeValue = Double.parseDouble(time);
+        if (rowCount == 0) {
+            firstTime = time;
+            firstTimeValue = timeValue;
+            track.setBaseTime(getStartTime());
+        }
+        final double previousElapsedTime = elapsedTime;
+        elapsedTime = timeValue - firstTimeValue;
+        lastTime = time;
+
+        final String latitude = field(latitudeColumn);
+        final String longitude = field(longitudeColumn);
+        final String steps = field(stepsColumn);
+        String heartrate = field(heartrateColumn);
+        if (heartrate.equals("0") || heartrate.equals("0.0")) {
+            heartrate = "";
+        }
+
+        if (hasDistance()) {
+            // distance between last and current reading
+            double intermediateDistance = 0;
+            if (latitudeColumn >= 0) {
+                // FIXME: GPS data can be missing for some entries which is handled here.
+                // Should use more complex logic to be more accurate. Use interpolation.
+                // Should distances be done via the GPX file we generate instead?
+                if (rowCount > 0 && !latitude.isEmpty() && !previousLatitude.isEmpty()) {
+                    intermediateDistance = distanceFromCoordinatePairs(previousLatitude, previousLongitude, latitude, longitude);
+                }
+                previousLatitude = latitude;
+                previousLongitude = longitude;
+            } else if (rowCount > 0 && !steps.isEmpty() && !steps.equals("0")) {
+                double stride = 2 * AVERAGE_STEP_LENGTH; // TODO: Depend on user defined stride length?
+                intermediateDistance = stride * Double.parseDouble(steps);
+            }
+
+            if (rowCount > 0) {
+                totalDistance += intermediateDistance;
+
+                // average speed between last and current reading (m/s)
+                double timeDiff = elapsedTime - previousElapsedTime;
+                if (timeDiff == 0) timeDiff = 1; // On older versions of the Recorder Bangle.js app the time reporting could be the same for two data points due to rounding.
+                speed.add(intermediateDistance / timeDiff);
+            }
+        }
+
+        if (!steps.isEmpty()) {
+            stepsSum += Double.parseDouble(steps);
+        }
+        if (!heartrate.isEmpty()) {
+            heartRate.add(Double.parseDouble(heartrate));
+        }
+        final String altitudeValue = field(altitudeColumn >= 0 ? altitudeColumn : barometerAltitudeColumn);
+        if (!altitudeValue.isEmpty()) {
+            altitude.add(Double.parseDouble(altitudeValue));
+        }
+
+        ActivityPoint point = new ActivityPoint();
+        point.setTime(new Date((long) timeValue * 1000L));
+        final String gpsAltitude = field(altitudeColumn);
+        if (!longitude.isEmpty() && !latitude.isEmpty() && !gpsAltitude.isEmpty()) {
+            point.setLocation(new GPSCoordinate(
+                    Double.parseDouble(longitude),
+                    Double.parseDouble(latitude),
+                    Double.parseDouble(gpsAltitude)
+            ));
+            hasGPXReading = true;
+        }
+        if (!heartrate.isEmpty()) {
+            point.setHeartRate((int) Double.parseDouble(heartrate));
+        }
+        track.addTrackPoint(point);
+
+        rowCount++;
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    Date getStartTime() {
+        return parseTime(firstTime);
+    }
+
+    Date getEndTime() {
+        return parseTime(lastTime);
+    }
+
+    private static Date parseTime(String time) {
+        return new Date(Long.parseLong(time.split("\\.\\d")[0]) * 1000L);
+    }
+
+    /// Seconds between the first and the last reading
+    double getElapsedTime() {
+        return elapsedTime;
+    }
+
+    boolean hasGPXReading() {
+        return hasGPXReading;
+    }
+
+    /// Distance can be calculated from GPS coordinates, or estimated from steps
+    boolean hasDistance() {
+        return latitudeColumn >= 0 || stepsColumn >= 0;
+    }
+
+    boolean hasStride() {
+        return latitudeColumn >= 0 && stepsColumn >= 0;
+    }
+
+    boolean hasSteps() {
+        return stepsColumn >= 0;
+    }
+
+    boolean hasHeartRate() {
+        return heartrateColumn >= 0;
+    }
+
+    boolean hasAltitude() {
+        return altitudeColumn >= 0 || barometerAltitudeColumn >= 0;
+    }
+
+    double getTotalDistance() {
+        return totalDistance;
+    }
+
+    float getSteps() {
+        return (float) stepsSum;
+    }
+
+    Stats getSpeed() {
+        return speed;
+    }
+
+    Stats getHeartRate() {
+        return heartRate;
+    }
+
+    Stats getAltitude() {
+        return altitude;
+    }
+
+    private static double distanceFromCoordinatePairs(String latA, String lonA, String latB, String lonB) {
+        // https://en.wikipedia.org/wiki/Geographic_coordinate_system#Length_of_a_degree
+        //phi = latitude
+        //lambda = longitude
+        //length of 1 degree lat:
+        //111132.92 - 559.82*cos(2*phi) + 1.175*cos(4*phi) - 0.0023*cos(6*phi)
+        //length of 1 degree lon:
+        //111412.84*cos(phi) - 93.5*cos(3*phi) + 0.118*cos(5*phi)
+        double latADouble = Double.parseDouble(latA);
+        double latBDouble = Double.parseDouble(latB);
+        double lonADouble = Double.parseDouble(lonA);
+        double lonBDouble = Double.parseDouble(lonB);
+
+        double lengthPerDegreeLat = 111132.92 - 559.82*cos(2*latADouble) + 1.175*cos(4*latADouble) - 0.0023*cos(6*latADouble);
+        double lengthPerDegreeLon = 111412.84*cos(latADouble) - 93.5*cos(3*latADouble) + 0.118*cos(5*latADouble);
+
+        double latDist = (latBDouble-latADouble)*lengthPerDegreeLat;
+        double lonDist = (lonBDouble-lonADouble)*lengthPerDegreeLon;
+
+        return sqrt(latDist*latDist+lonDist*lonDist);
+    }
+
+    /**
+     * Running sum, minimum and maximum of the non-empty values of a column.
+     */
+    static class Stats {
+        private double sum = 0;
+        private int count = 0;
+        private double min = 999999999;
+        private double max = -999999999;
+
+        private void add(double value) {
+            sum += value;
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        float getAverage() {
+            return (float) sum / count;
+        }
+
+        float getMin() {
+            return (float) min;
+        }
+
+        float getMax() {
+            return (float) max;
+        }
+    }
+}
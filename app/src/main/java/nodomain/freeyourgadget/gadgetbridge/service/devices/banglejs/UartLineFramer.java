@@ -0,0 +1,90 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits the bytes received over the UART into lines, without re-scanning or copying the
+ * pending part of a line for every packet. Lines are terminated by "\r\n" or "\n", and are
+ * decoded as ISO-8859-1 like the rest of the Bangle.js traffic.
+ */
+class UartLineFramer {
+    interface LineHandler {
+        void onLine(String line);
+    }
+
+    private static final int INITIAL_CAPACITY = 256;
+    // Lines longer than this (e.g. screenshots) do not keep their buffer around afterwards
+    private static final int MAX_RETAINED_CAPACITY = 16384;
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length = 0;
+
+    /**
+     * Appends received bytes, and calls the handler for every line completed by them.
+     */
+    void append(final byte[] data, final LineHandler handler) {
+        int start = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            final String line;
+            if (length == 0) {
+                line = decode(data, start, i - start);
+            } else {
+                appendToBuffer(data, start, i - start);
+                line = decode(buffer, 0, length);
+                clear();
+            }
+            start = i + 1;
+            handler.onLine(line);
+        }
+        appendToBuffer(data, start, data.length - start);
+    }
+
+    /**
+     * Drops any partial line.
+     */
+    void clear() {
+        length = 0;
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    private void appendToBuffer(final byte[] data, final int offset, final int count) {
+        if (count == 0) {
+            return;
+        }
+        if (length + count > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + count)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+        System.arraycopy(data, offset, buffer, length, count);
+        length += count;
+    }
+
+    private static String decode(final byte[] data, final int offset, int count) {
+        if (count > 0 && data[offset + count - 1] == '\r') {
+            count--;
+        }
+        return new String(data, offset, count, StandardCharsets.ISO_8859_1);
+    }
+}
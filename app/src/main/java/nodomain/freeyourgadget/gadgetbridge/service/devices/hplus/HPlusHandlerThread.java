@@ -34,6 +34,8 @@ import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupBackfill;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.hplus.HPlusConstants;
@@ -302,6 +304,12 @@ class HPlusHandlerThread extends GBDeviceIoThread {
 
                 provider.getSampleDao().insertOrReplaceInTx(samples);
                 mDaySlotRecords.clear();
+                if (!samples.isEmpty()) {
+                    ActivityDailyRollupHelper.invalidate(dbHandler.getDaoSession(), getDevice(),
+                            samples.get(0).getTimestamp(), samples.get(samples.size() - 1).getTimestamp());
+                    ActivityDailyRollupBackfill.updateBucketsLater(getDevice(),
+                            samples.get(0).getTimestamp(), samples.get(samples.size() - 1).getTimestamp());
+                }
 
                 //Create an overlay with unused slots
                 if (notWornSlots.size() > 0) {
@@ -333,6 +341,8 @@ class HPlusHandlerThread extends GBDeviceIoThread {
                         overlayList.add(new HPlusHealthActivityOverlay(firstSlotTimestamp, lastSlotTimestamp, ActivityKind.TYPE_NOT_WORN, deviceId, userId, null));
 
                     overlayDao.insertOrReplaceInTx(overlayList);
+                    ActivityDailyRollupHelper.invalidate(session, deviceId, notWornSlots.get(0), notWornSlots.get(notWornSlots.size() - 1));
+                    ActivityDailyRollupBackfill.updateBucketsLater(getDevice(), notWornSlots.get(0), notWornSlots.get(notWornSlots.size() - 1));
                 }
 
             } catch (GBException ex) {
@@ -383,6 +393,8 @@ class HPlusHandlerThread extends GBDeviceIoThread {
             }
 
             overlayDao.insertOrReplaceInTx(overlayList);
+            ActivityDailyRollupHelper.invalidate(session, deviceId, record.bedTimeStart, record.bedTimeEnd);
+            ActivityDailyRollupBackfill.updateBucketsLater(getDevice(), record.bedTimeStart, record.bedTimeEnd);
 
             //Store the data
             HPlusHealthActivitySample sample = createSample(dbHandler, record.timestamp);
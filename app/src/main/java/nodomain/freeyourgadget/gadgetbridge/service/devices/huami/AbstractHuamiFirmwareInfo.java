@@ -27,10 +27,11 @@ import java.util.Map;
 
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.util.ArrayUtils;
-import nodomain.freeyourgadget.gadgetbridge.util.CheckSums;
+import nodomain.freeyourgadget.gadgetbridge.util.FirmwareSource;
 
 public abstract class AbstractHuamiFirmwareInfo {
     private byte[] bytes;
+    private FirmwareSource source;
 
     private int crc16;
     private int crc32;
@@ -64,6 +65,13 @@ public abstract class AbstractHuamiFirmwareInfo {
         return bytes;
     }
 
+    /**
+     * @return a view of the firmware bytes to read packets from without copying the whole firmware
+     */
+    public FirmwareSource getSource() {
+        return source;
+    }
+
     public int getCrc16() {
         return crc16;
     }
@@ -74,8 +82,9 @@ public abstract class AbstractHuamiFirmwareInfo {
 
     public void setBytes(final byte[] bytes) {
         this.bytes = bytes;
-        this.crc16 = CheckSums.getCRC16(bytes);
-        this.crc32 = CheckSums.getCRC32(bytes);
+        this.source = FirmwareSource.fromBytes(bytes);
+        this.crc16 = source.getCrc16();
+        this.crc32 = source.getCrc32();
     }
 
     public int getFirmwareVersion() {
@@ -88,6 +97,7 @@ public abstract class AbstractHuamiFirmwareInfo {
 
     public void unsetFwBytes() {
         this.bytes = null;
+        this.source = null;
     }
 
     @Nullable
@@ -22,8 +22,7 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 
-import nodomain.freeyourgadget.gadgetbridge.util.CryptoUtils;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 
 public class Huami2021ChunkedDecoder {
     private static final Logger LOG = LoggerFactory.getLogger(Huami2021ChunkedDecoder.class);
@@ -37,7 +36,7 @@ public class Huami2021ChunkedDecoder {
     private byte lastHandle;
     private byte lastCount;
 
-    private volatile byte[] sharedSessionKey;
+    private volatile Huami2021MessageKeys messageKeys;
 
     private Huami2021Handler huami2021Handler;
     private final boolean force2021Protocol;
@@ -49,7 +48,7 @@ public class Huami2021ChunkedDecoder {
     }
 
     public void setEncryptionParameters(final byte[] sharedSessionKey) {
-        this.sharedSessionKey = sharedSessionKey;
+        this.messageKeys = sharedSessionKey != null ? new Huami2021MessageKeys(sharedSessionKey) : null;
     }
 
     public void setHuami2021Handler(final Huami2021Handler huami2021Handler) {
@@ -105,7 +104,8 @@ public class Huami2021ChunkedDecoder {
         if (lastChunk) { // end
             byte[] buf = reassemblyBuffer.array();
             if (encrypted) {
-                if (sharedSessionKey == null) {
+                final Huami2021MessageKeys keys = messageKeys;
+                if (keys == null) {
                     // Should never happen
                     LOG.warn("Got encrypted message, but there's no shared session key");
                     currentHandle = null;
@@ -113,12 +113,9 @@ public class Huami2021ChunkedDecoder {
                     return false;
                 }
 
-                byte[] messagekey = new byte[16];
-                for (int j = 0; j < 16; j++) {
-                    messagekey[j] = (byte) (sharedSessionKey[j] ^ handle);
-                }
                 try {
-                    buf = CryptoUtils.decryptAES(buf, messagekey);
+                    // the reassembly buffer is not used anymore, decrypt it in place
+                    keys.get(handle).decrypt(buf, 0, buf.length, buf, 0);
                     buf = ArrayUtils.subarray(buf, 0, currentLength);
                 } catch (Exception e) {
                     LOG.warn("error decrypting " + e);
@@ -127,12 +124,14 @@ public class Huami2021ChunkedDecoder {
                     return false;
                 }
             }
-            LOG.debug(
-                    "{} data {}: {}",
-                    encrypted ? "Decrypted" : "Plaintext",
-                    String.format("0x%04x", currentType),
-                    GB.hexdump(buf)
-            );
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(
+                        "{} data {}: {}",
+                        encrypted ? "Decrypted" : "Plaintext",
+                        String.format("0x%04x", currentType),
+                        Hex.of(buf)
+                );
+            }
 
             try {
                 huami2021Handler.handle2021Payload((short) currentType, buf);
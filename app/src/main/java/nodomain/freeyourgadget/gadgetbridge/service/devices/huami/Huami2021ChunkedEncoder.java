@@ -23,7 +23,6 @@ import org.slf4j.LoggerFactory;
 
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.util.CheckSums;
-import nodomain.freeyourgadget.gadgetbridge.util.CryptoUtils;
 
 public class Huami2021ChunkedEncoder {
     private static final Logger LOG = LoggerFactory.getLogger(Huami2021ChunkedEncoder.class);
@@ -36,7 +35,7 @@ public class Huami2021ChunkedEncoder {
     // attempt to encode a payload before they were set, which will make them not be propagated
     // to that thread later.
     private volatile int encryptedSequenceNr;
-    private volatile byte[] sharedSessionKey;
+    private volatile Huami2021MessageKeys messageKeys;
 
     private final boolean force2021Protocol;
     private volatile int mMTU = 23;
@@ -51,7 +50,7 @@ public class Huami2021ChunkedEncoder {
 
     public synchronized void setEncryptionParameters(final int encryptedSequenceNr, final byte[] sharedSessionKey) {
         this.encryptedSequenceNr = encryptedSequenceNr;
-        this.sharedSessionKey = sharedSessionKey;
+        this.messageKeys = sharedSessionKey != null ? new Huami2021MessageKeys(sharedSessionKey) : null;
     }
 
     public synchronized void setMTU(int mMTU) {
@@ -63,7 +62,7 @@ public class Huami2021ChunkedEncoder {
                                    byte[] data,
                                    final boolean extended_flags,
                                    final boolean encrypt) {
-        if (encrypt && sharedSessionKey == null) {
+        if (encrypt && messageKeys == null) {
             LOG.error("Can't encrypt without the shared session key");
             return;
         }
@@ -80,10 +79,6 @@ public class Huami2021ChunkedEncoder {
         }
 
         if (extended_flags && encrypt) {
-            byte[] messagekey = new byte[16];
-            for (int i = 0; i < 16; i++) {
-                messagekey[i] = (byte) (sharedSessionKey[i] ^ writeHandle);
-            }
             int encrypted_length = length + 8;
             int overflow = encrypted_length % 16;
             if (overflow > 0) {
@@ -104,7 +99,8 @@ public class Huami2021ChunkedEncoder {
             encryptable_payload[length + 7] = (byte) ((checksum >> 24) & 0xff);
             remaining = encrypted_length;
             try {
-                data = CryptoUtils.encryptAES(encryptable_payload, messagekey);
+                messageKeys.get(writeHandle).encrypt(encryptable_payload, 0, encrypted_length, encryptable_payload, 0);
+                data = encryptable_payload;
             } catch (Exception e) {
                 LOG.error("error while encrypting", e);
                 return;
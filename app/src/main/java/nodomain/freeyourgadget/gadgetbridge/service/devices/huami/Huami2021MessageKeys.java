@@ -0,0 +1,45 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.huami;
+
+import nodomain.freeyourgadget.gadgetbridge.util.CryptoUtils;
+
+/**
+ * The per-message keys of an encrypted 2021 session, which are the shared session key xor'ed with
+ * the message handle. There are only 256 handles, so the keys and their ciphers are created once
+ * per handle and reused for the rest of the session.
+ */
+public class Huami2021MessageKeys {
+    private final byte[] sharedSessionKey;
+    private final CryptoUtils.AesEcbContext[] keys = new CryptoUtils.AesEcbContext[256];
+
+    public Huami2021MessageKeys(final byte[] sharedSessionKey) {
+        this.sharedSessionKey = sharedSessionKey.clone();
+    }
+
+    public synchronized CryptoUtils.AesEcbContext get(final byte handle) {
+        final int index = handle & 0xff;
+        if (keys[index] == null) {
+            final byte[] messagekey = new byte[16];
+            for (int i = 0; i < 16; i++) {
+                messagekey[i] = (byte) (sharedSessionKey[i] ^ handle);
+            }
+            keys[index] = new CryptoUtils.AesEcbContext(messagekey);
+        }
+        return keys[index];
+    }
+}
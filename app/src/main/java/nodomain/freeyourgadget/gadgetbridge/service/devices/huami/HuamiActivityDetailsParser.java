@@ -32,7 +32,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
 import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 
 public class HuamiActivityDetailsParser extends AbstractHuamiActivityDetailsParser {
     private static final Logger LOG = LoggerFactory.getLogger(HuamiActivityDetailsParser.class);
@@ -264,32 +264,32 @@ public class HuamiActivityDetailsParser extends AbstractHuamiActivityDetailsPars
     }
 
     private int consumePause(byte[] bytes, int offset) {
-        LOG.debug("got pause packet: " + GB.hexdump(bytes, offset, 6));
+        LOG.debug("got pause packet: {}", Hex.of(bytes, offset, 6));
         return 6;
     }
 
     private int consumeResume(byte[] bytes, int offset) {
-        LOG.debug("got resume package: " + GB.hexdump(bytes, offset, 6));
+        LOG.debug("got resume package: {}", Hex.of(bytes, offset, 6));
         return 6;
     }
 
     private int consumeSpeed4(byte[] bytes, int offset) {
-        LOG.debug("got packet type 4 (speed): " + GB.hexdump(bytes, offset, 6));
+        LOG.debug("got packet type 4 (speed): {}", Hex.of(bytes, offset, 6));
         return 6;
     }
 
     private int consumeSpeed5(byte[] bytes, int offset) {
-        LOG.debug("got packet type 5 (speed): " + GB.hexdump(bytes, offset, 6));
+        LOG.debug("got packet type 5 (speed): {}", Hex.of(bytes, offset, 6));
         return 6;
     }
 
     private int consumeSpeed6(byte[] bytes, int offset) {
-        LOG.debug("got packet type 6 (speed): " + GB.hexdump(bytes, offset, 6));
+        LOG.debug("got packet type 6 (speed): {}", Hex.of(bytes, offset, 6));
         return 6;
     }
 
     private int consumeSwimming(byte[] bytes, int offset) {
-        LOG.debug("got packet type 8 (swimming?): " + GB.hexdump(bytes, offset, 6));
+        LOG.debug("got packet type 8 (swimming?): {}", Hex.of(bytes, offset, 6));
         return 6;
     }
 }
@@ -49,6 +49,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.zeppos.ZeppOsSupport;
 import nodomain.freeyourgadget.gadgetbridge.util.CheckSums;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.metrics.MetricsRegistry;
 
 /**
  * An operation that fetches activity data.
@@ -68,6 +69,9 @@ public abstract class AbstractFetchOperation extends AbstractHuamiOperation {
 
     protected boolean operationValid = true; // to mark operation failed midway (eg. out of sync)
 
+    private long fetchStartNanos = 0;
+    private long fetchedBytes = 0;
+
     public AbstractFetchOperation(final HuamiSupport support) {
         super(support);
     }
@@ -89,6 +93,8 @@ public abstract class AbstractFetchOperation extends AbstractHuamiOperation {
     protected void startFetching() throws IOException {
         expectedDataLength = 0;
         lastPacketCounter = -1;
+        fetchStartNanos = System.nanoTime();
+        fetchedBytes = 0;
 
         final TransactionBuilder builder = performInitialized(getName());
         if (fetchCount == 0) {
@@ -135,6 +141,8 @@ public abstract class AbstractFetchOperation extends AbstractHuamiOperation {
      * Handles the finishing of fetching the activity. This signals the actual end of this operation.
      */
     protected final void onOperationFinished() {
+        recordFetchMetrics();
+
         final AbstractFetchOperation nextFetchOperation = getSupport().getNextFetchOperation();
         if (nextFetchOperation != null) {
             LOG.debug("Performing next operation {}", nextFetchOperation.getName());
@@ -160,6 +168,21 @@ public abstract class AbstractFetchOperation extends AbstractHuamiOperation {
         unsetBusy();
     }
 
+    private void recordFetchMetrics() {
+        if (fetchStartNanos == 0) {
+            return;
+        }
+        final long elapsedNanos = System.nanoTime() - fetchStartNanos;
+        fetchStartNanos = 0;
+
+        final MetricsRegistry metrics = getSupport().getMetrics();
+        metrics.timer("fetch.duration").recordNanos(elapsedNanos);
+        metrics.timer("fetch.duration." + getClass().getSimpleName()).recordNanos(elapsedNanos);
+        if (fetchedBytes > 0 && elapsedNanos > 0) {
+            metrics.histogram("fetch.bytes_per_second").record(fetchedBytes * 1_000_000_000L / elapsedNanos);
+        }
+    }
+
     /**
      * Validates that the received data has the expected checksum. Only
      * relevant for ZeppOsSupport devices.
@@ -185,6 +208,8 @@ public abstract class AbstractFetchOperation extends AbstractHuamiOperation {
         if ((byte) (lastPacketCounter + 1) == value[0]) {
             // TODO we should handle skipped or repeated bytes more gracefully
             lastPacketCounter++;
+            fetchedBytes += value.length;
+            getSupport().getMetrics().counter("fetch.bytes").add(value.length);
             bufferActivityData(value);
         } else {
             GB.toast("Error " + getName() + ", invalid package counter: " + value[0] + ", last was: " + lastPacketCounter, Toast.LENGTH_LONG, GB.ERROR);
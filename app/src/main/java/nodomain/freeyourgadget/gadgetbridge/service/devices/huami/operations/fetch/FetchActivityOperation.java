@@ -23,24 +23,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.List;
 import java.util.Locale;
 
-import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
-import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
-import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
-import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleSink;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiExtendedActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
-import nodomain.freeyourgadget.gadgetbridge.entities.User;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiSupport;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
@@ -71,52 +62,39 @@ public class FetchActivityOperation extends AbstractRepeatingFetchOperation {
             return false;
         }
 
-        final List<MiBandActivitySample> samples = new ArrayList<>(60 * 24); // 1day per default
-
-        for (int i = 0; i < bytes.length; i += sampleSize) {
-            final MiBandActivitySample sample;
-
-            switch (sampleSize) {
-                case 4:
-                    sample = createSample(bytes, i);
-                    break;
-                case 8:
-                    sample = createExtendedSample(bytes, i);
-                    break;
-                default:
-                    throw new IllegalStateException("Unsupported sample size " + sampleSize);
-            }
-
-            samples.add(sample);
-        }
-
-        if (samples.isEmpty()) {
+        if (bytes.length == 0) {
             LOG.info("No samples to save");
             return true;
         }
 
-        LOG.info("Saving {} samples", samples.size());
-
-        // save all the samples that we got
-        try (DBHandler handler = GBApplication.acquireDB()) {
-            DaoSession session = handler.getDaoSession();
+        LOG.info("Saving {} samples", bytes.length / sampleSize);
+
+        // save all the samples that we got, in large batches while parsing
+        final SampleSink<MiBandActivitySample> sink = new SampleSink<>(getDevice(), MiBandActivitySample.class);
+        try {
+            for (int i = 0; i < bytes.length; i += sampleSize) {
+                final MiBandActivitySample sample;
+
+                switch (sampleSize) {
+                    case 4:
+                        sample = createSample(bytes, i);
+                        break;
+                    case 8:
+                        sample = createExtendedSample(bytes, i);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unsupported sample size " + sampleSize);
+                }
 
-            DeviceCoordinator coordinator = getDevice().getDeviceCoordinator();
-            SampleProvider sampleProvider = coordinator.getSampleProvider(getDevice(), session);
-            Device device = DBHelper.getDevice(getDevice(), session);
-            User user = DBHelper.getUser(session);
-
-            for (MiBandActivitySample sample : samples) {
-                sample.setDevice(device);
-                sample.setUser(user);
                 sample.setTimestamp((int) (timestamp.getTimeInMillis() / 1000));
-                sample.setProvider(sampleProvider);
 
                 //LOG.debug(sampleToString(sample));
 
+                sink.add(sample);
+
                 timestamp.add(Calendar.MINUTE, 1);
             }
-            sampleProvider.addGBActivitySamples(samples.toArray(new MiBandActivitySample[0]));
+            sink.finish();
 
             timestamp.add(Calendar.MINUTE, -1);
 
@@ -23,7 +23,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Arrays;
 
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiService;
@@ -35,6 +34,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.AbstractHuamiF
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiFirmwareType;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiSupport;
 import nodomain.freeyourgadget.gadgetbridge.util.ArrayUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.FirmwareSource;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 import static nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiFirmwareInfo.UIHH_HEADER;
@@ -229,8 +229,8 @@ public class UpdateFirmwareOperation2020 extends UpdateFirmwareOperation {
 
 
     private boolean sendFirmwareDataChunk(AbstractHuamiFirmwareInfo info, int offset) {
-        byte[] fwbytes = info.getBytes();
-        int len = fwbytes.length;
+        FirmwareSource source = info.getSource();
+        int len = source.size();
         int remaining = len - offset;
         final int packetLength = getSupport().getMTU() - 3;
 
@@ -249,16 +249,17 @@ public class UpdateFirmwareOperation2020 extends UpdateFirmwareOperation {
             }
 
             TransactionBuilder builder = performInitialized("send firmware packets");
+            builder.setPipelinedWrites(TransactionBuilder.DEFAULT_PIPELINE_WINDOW);
 
             for (int i = 0; i < packets; i++) {
-                byte[] fwChunk = Arrays.copyOfRange(fwbytes, offset + i * packetLength, offset + i * packetLength + packetLength);
+                byte[] fwChunk = source.getBytes(offset + i * packetLength, packetLength);
 
                 builder.write(fwCDataChar, fwChunk);
                 chunkProgress += packetLength;
             }
 
             if (chunkProgress < chunkLength) {
-                byte[] lastChunk = Arrays.copyOfRange(fwbytes, offset + packets * packetLength, offset + packets * packetLength + (chunkLength - chunkProgress));
+                byte[] lastChunk = source.getBytes(offset + packets * packetLength, chunkLength - chunkProgress);
                 builder.write(fwCDataChar, lastChunk);
             }
 
@@ -30,6 +30,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.zeppos.service
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.zeppos.services.ZeppOsConfigService;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.zeppos.services.ZeppOsFileTransferService;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.miband.operations.OperationStatus;
+import nodomain.freeyourgadget.gadgetbridge.util.FirmwareSource;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 /**
@@ -48,7 +49,7 @@ public class ZeppOsAgpsUpdateOperation extends AbstractBTLEOperation<ZeppOsSuppo
     private static final String AGPS_UPDATE_FILE = "uih.bin";
 
     private final ZeppOsAgpsFile file;
-    private final byte[] fileBytes;
+    private final FirmwareSource fileSource;
 
     private final ZeppOsAgpsService agpsService;
     private final ZeppOsFileTransferService fileTransferService;
@@ -61,7 +62,7 @@ public class ZeppOsAgpsUpdateOperation extends AbstractBTLEOperation<ZeppOsSuppo
                                      final ZeppOsConfigService configService) {
         super(support);
         this.file = file;
-        this.fileBytes = file.getUihhBytes();
+        this.fileSource = FirmwareSource.fromBytes(file.getUihhBytes());
         this.agpsService = agpsService;
         this.fileTransferService = fileTransferService;
         this.configService = configService;
@@ -70,7 +71,7 @@ public class ZeppOsAgpsUpdateOperation extends AbstractBTLEOperation<ZeppOsSuppo
     @Override
     protected void doPerform() throws IOException {
         agpsService.setCallback(this);
-        agpsService.startUpload(file.getUihhBytes().length);
+        agpsService.startUpload(fileSource.size());
     }
 
     @Override
@@ -95,7 +96,7 @@ public class ZeppOsAgpsUpdateOperation extends AbstractBTLEOperation<ZeppOsSuppo
 
         // This makes the progress go from 0% to 50%, during file upload the other 50% are incremented
         // by the update process on the watch
-        final int progressPercent = (int) ((((float) (progress)) / (fileBytes.length * 2)) * 100);
+        final int progressPercent = (int) ((((float) (progress)) / (fileSource.size() * 2)) * 100);
         updateProgress(progressPercent);
     }
 
@@ -111,7 +112,7 @@ public class ZeppOsAgpsUpdateOperation extends AbstractBTLEOperation<ZeppOsSuppo
             return;
         }
 
-        fileTransferService.sendFile(AGPS_UPDATE_URL, AGPS_UPDATE_FILE, fileBytes, this);
+        fileTransferService.sendFile(AGPS_UPDATE_URL, AGPS_UPDATE_FILE, fileSource, this);
     }
 
     @Override
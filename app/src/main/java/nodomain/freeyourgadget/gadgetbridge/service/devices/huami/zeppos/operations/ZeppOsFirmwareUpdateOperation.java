@@ -25,7 +25,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.R;
@@ -44,6 +43,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.operations.upd
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.zeppos.ZeppOsSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.miband.operations.AbstractMiBandOperation;
 import nodomain.freeyourgadget.gadgetbridge.util.ArrayUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.FirmwareSource;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 /**
@@ -64,7 +64,7 @@ public class ZeppOsFirmwareUpdateOperation extends AbstractMiBandOperation<ZeppO
     private final BluetoothGattCharacteristic fwCControlChar;
     private final BluetoothGattCharacteristic fwCDataChar;
     private ZeppOsFwHelper fwHelper;
-    private RandomAccessFile raf;
+    private FirmwareSource source;
 
     protected int mChunkLength = -1;
 
@@ -106,7 +106,7 @@ public class ZeppOsFirmwareUpdateOperation extends AbstractMiBandOperation<ZeppO
             throw new IOException("Firmware is not valid for: " + getDevice().getAddress());
         }
 
-        raf = new RandomAccessFile(fwHelper.getFile(), "r");
+        source = FirmwareSource.fromFile(fwHelper.getFile());
 
         if (!requestParameters()) {
             displayErrorMessage("Error requesting parameters, aborting.");
@@ -116,6 +116,10 @@ public class ZeppOsFirmwareUpdateOperation extends AbstractMiBandOperation<ZeppO
 
     protected void done() {
         LOG.info("Operation done.");
+        if (source != null) {
+            source.close();
+            source = null;
+        }
         operationFinished();
         unsetBusy();
     }
@@ -321,20 +325,17 @@ public class ZeppOsFirmwareUpdateOperation extends AbstractMiBandOperation<ZeppO
             }
 
             TransactionBuilder builder = performInitialized("send firmware packets");
+            builder.setPipelinedWrites(TransactionBuilder.DEFAULT_PIPELINE_WINDOW);
 
             for (int i = 0; i < packets; i++) {
-                raf.seek(offset + (long) i * packetLength);
-                byte[] fwChunk = new byte[packetLength];
-                raf.read(fwChunk);
+                byte[] fwChunk = source.getBytes(offset + i * packetLength, packetLength);
 
                 builder.write(fwCDataChar, fwChunk);
                 chunkProgress += packetLength;
             }
 
             if (chunkProgress < chunkLength) {
-                raf.seek(offset + (long) packets * packetLength);
-                byte[] lastChunk = new byte[chunkLength - chunkProgress];
-                raf.read(lastChunk);
+                byte[] lastChunk = source.getBytes(offset + packets * packetLength, chunkLength - chunkProgress);
                 builder.write(fwCDataChar, lastChunk);
             }
 
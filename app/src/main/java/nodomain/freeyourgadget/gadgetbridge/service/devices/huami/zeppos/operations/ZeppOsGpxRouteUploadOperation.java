@@ -28,6 +28,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetProgressActi
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.zeppos.ZeppOsSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.zeppos.services.ZeppOsFileTransferService;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.miband.operations.OperationStatus;
+import nodomain.freeyourgadget.gadgetbridge.util.FirmwareSource;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class ZeppOsGpxRouteUploadOperation extends AbstractBTLEOperation<ZeppOsSupport>
@@ -35,7 +36,7 @@ public class ZeppOsGpxRouteUploadOperation extends AbstractBTLEOperation<ZeppOsS
     private static final Logger LOG = LoggerFactory.getLogger(ZeppOsGpxRouteUploadOperation.class);
 
     private final ZeppOsGpxRouteFile file;
-    private final byte[] fileBytes;
+    private final FirmwareSource fileSource;
 
     private final ZeppOsFileTransferService fileTransferService;
 
@@ -44,7 +45,7 @@ public class ZeppOsGpxRouteUploadOperation extends AbstractBTLEOperation<ZeppOsS
                                          final ZeppOsFileTransferService fileTransferService) {
         super(support);
         this.file = file;
-        this.fileBytes = file.getEncodedBytes();
+        this.fileSource = FirmwareSource.fromBytes(file.getEncodedBytes());
         this.fileTransferService = fileTransferService;
     }
 
@@ -53,7 +54,7 @@ public class ZeppOsGpxRouteUploadOperation extends AbstractBTLEOperation<ZeppOsS
         fileTransferService.sendFile(
                 "sport://file_transfer?appId=7073283073&params={}",
                 "track_" + file.getTimestamp() + ".dat",
-                fileBytes,
+                fileSource,
                 this
         );
     }
@@ -84,7 +85,7 @@ public class ZeppOsGpxRouteUploadOperation extends AbstractBTLEOperation<ZeppOsS
     public void onFileUploadProgress(final int progress) {
         LOG.trace("Gpx route upload operation progress: {}", progress);
 
-        final int progressPercent = (int) ((((float) (progress)) / fileBytes.length) * 100);
+        final int progressPercent = (int) ((((float) (progress)) / fileSource.size()) * 100);
         updateProgress(progressPercent);
     }
 
@@ -16,7 +16,8 @@
     along with this program.  If not, see <https://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.huami.zeppos.services;
 
-import org.apache.commons.lang3.ArrayUtils;
+import androidx.annotation.Nullable;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,6 +34,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.zeppos.ZeppOsSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.zeppos.AbstractZeppOsService;
 import nodomain.freeyourgadget.gadgetbridge.util.CheckSums;
+import nodomain.freeyourgadget.gadgetbridge.util.FirmwareSource;
 import nodomain.freeyourgadget.gadgetbridge.util.StringUtils;
 
 public class ZeppOsFileTransferService extends AbstractZeppOsService {
@@ -259,16 +261,20 @@ public class ZeppOsFileTransferService extends AbstractZeppOsService {
         return output;
     }
 
-    public void sendFile(final String url, final String filename, final byte[] bytes, final Callback callback) {
+    /**
+     * Sends the contents of the source to the device. The source is closed once the upload finishes.
+     */
+    public void sendFile(final String url, final String filename, final FirmwareSource source, final Callback callback) {
         if (mChunkSize < 0) {
             LOG.error("Service not initialized, refusing to send {}", url);
+            source.close();
             callback.onFileUploadFinish(false);
             return;
         }
 
-        LOG.info("Sending {} bytes to {}", bytes.length, url);
+        LOG.info("Sending {} bytes to {}", source.size(), url);
 
-        final FileTransferRequest request = new FileTransferRequest(url, filename, bytes, false, callback);
+        final FileTransferRequest request = new FileTransferRequest(url, filename, source, callback);
 
         byte session = (byte) mSessionRequests.size();
         while (mSessionRequests.containsKey(session)) {
@@ -283,7 +289,7 @@ public class ZeppOsFileTransferService extends AbstractZeppOsService {
         buf.put((byte) 0x00);
         buf.put(filename.getBytes(StandardCharsets.UTF_8));
         buf.put((byte) 0x00);
-        buf.putInt(bytes.length);
+        buf.putInt(source.size());
         buf.putInt(request.getCrc32());
 
         write("send file upload request", buf.array());
@@ -328,20 +334,23 @@ public class ZeppOsFileTransferService extends AbstractZeppOsService {
             buf.put((byte) 0x00); // ?
         }
 
-        final byte[] payload = ArrayUtils.subarray(
-                request.getBytes(),
-                request.getProgress(),
-                request.getProgress() + mChunkSize
-        );
+        final int payloadLength = Math.min(mChunkSize, request.getSize() - request.getProgress());
 
-        buf.putShort((short) payload.length);
-        buf.put(payload);
+        buf.putShort((short) payloadLength);
+        buf.put(request.getSource().slice(request.getProgress(), payloadLength));
 
-        request.setProgress(request.getProgress() + payload.length);
+        request.setProgress(request.getProgress() + payloadLength);
         request.setIndex((byte) (request.getIndex() + 1));
         request.getCallback().onFileUploadProgress(request.getProgress());
 
-        write("send file data", buf.array());
+        try {
+            final TransactionBuilder builder = getSupport().performInitialized("send file data");
+            builder.setPipelinedWrites(TransactionBuilder.DEFAULT_PIPELINE_WINDOW);
+            write(builder, buf.array());
+            builder.queue(getSupport().getQueue());
+        } catch (final Exception e) {
+            LOG.error("Failed to send file data", e);
+        }
     }
 
     private void onUploadFinish(final byte session, final boolean success) {
@@ -352,6 +361,7 @@ public class ZeppOsFileTransferService extends AbstractZeppOsService {
         }
 
         mSessionRequests.remove(session);
+        request.getSource().close();
 
         request.getCallback().onFileUploadFinish(success);
     }
@@ -362,20 +372,35 @@ public class ZeppOsFileTransferService extends AbstractZeppOsService {
     public static class FileTransferRequest {
         private final String url;
         private final String filename;
+        @Nullable
         private final byte[] bytes;
+        private final FirmwareSource source;
         private final boolean compressed;
         private final Callback callback;
         private int progress = 0;
         private byte index = 0;
-        private int crc32;
+        private Integer crc32;
 
+        /**
+         * Creates a request backed by a byte array, which is also used as the receive buffer for
+         * file downloads.
+         */
         public FileTransferRequest(final String url, final String filename, final byte[] bytes, boolean compressed, final Callback callback) {
             this.url = url;
             this.filename = filename;
             this.bytes = bytes;
+            this.source = FirmwareSource.fromBytes(bytes);
             this.compressed = compressed;
             this.callback = callback;
-            this.crc32 = CheckSums.getCRC32(bytes);
+        }
+
+        public FileTransferRequest(final String url, final String filename, final FirmwareSource source, final Callback callback) {
+            this.url = url;
+            this.filename = filename;
+            this.bytes = null;
+            this.source = source;
+            this.compressed = false;
+            this.callback = callback;
         }
 
         public String getUrl() {
@@ -386,12 +411,20 @@ public class ZeppOsFileTransferService extends AbstractZeppOsService {
             return filename;
         }
 
+        /**
+         * @return the receive buffer, or null for requests created from a {@link FirmwareSource}
+         */
+        @Nullable
         public byte[] getBytes() {
             return bytes;
         }
 
+        public FirmwareSource getSource() {
+            return source;
+        }
+
         public int getSize() {
-            return bytes.length;
+            return source.size();
         }
 
         public boolean isCompressed() {
@@ -419,6 +452,9 @@ public class ZeppOsFileTransferService extends AbstractZeppOsService {
         }
 
         public int getCrc32() {
+            if (crc32 == null) {
+                crc32 = source.getCrc32();
+            }
             return crc32;
         }
 
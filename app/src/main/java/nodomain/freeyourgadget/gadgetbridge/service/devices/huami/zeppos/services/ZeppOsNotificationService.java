@@ -42,6 +42,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.zeppos.ZeppOsSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.zeppos.AbstractZeppOsService;
 import nodomain.freeyourgadget.gadgetbridge.util.BitmapUtil;
+import nodomain.freeyourgadget.gadgetbridge.util.FirmwareSource;
 import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
 import nodomain.freeyourgadget.gadgetbridge.util.NotificationUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.StringUtils;
@@ -389,7 +390,7 @@ public class ZeppOsNotificationService extends AbstractZeppOsService {
         fileTransferService.sendFile(
                 url,
                 filename,
-                tga565,
+                FirmwareSource.fromBytes(tga565),
                 new ZeppOsFileTransferService.Callback() {
                     @Override
                     public void onFileUploadFinish(final boolean success) {
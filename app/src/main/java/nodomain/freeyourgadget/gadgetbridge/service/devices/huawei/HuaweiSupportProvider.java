@@ -45,6 +45,7 @@ import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.EventHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleSink;
 import nodomain.freeyourgadget.gadgetbridge.devices.huawei.HuaweiConstants;
 import nodomain.freeyourgadget.gadgetbridge.devices.huawei.HuaweiCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.huawei.HuaweiCoordinatorSupplier;
@@ -1352,57 +1353,57 @@ public class HuaweiSupportProvider {
         responseManager.addHandler(request);
     }
 
-    public void addSleepActivity(int timestamp, short duration, byte type) {
-        try (DBHandler db = GBApplication.acquireDB()) {
-            Long userId = DBHelper.getUser(db.getDaoSession()).getId();
-            Long deviceId = DBHelper.getDevice(gbDevice, db.getDaoSession()).getId();
-            HuaweiSampleProvider sampleProvider = new HuaweiSampleProvider(gbDevice, db.getDaoSession());
-
-            HuaweiActivitySample activitySample = new HuaweiActivitySample(
-                    timestamp,
-                    deviceId,
-                    userId,
-                    timestamp + duration,
-                    FitnessData.MessageData.sleepId,
-                    type,
-                    1,
-                    ActivitySample.NOT_MEASURED,
-                    ActivitySample.NOT_MEASURED,
-                    ActivitySample.NOT_MEASURED,
-                    ActivitySample.NOT_MEASURED,
-                    ActivitySample.NOT_MEASURED
-            );
-            activitySample.setProvider(sampleProvider);
+    /**
+     * Creates a sink for the samples of a fitness data response, which must be finished once
+     * the response was processed.
+     */
+    public SampleSink<HuaweiActivitySample> createFitnessSampleSink() {
+        return new SampleSink<>(gbDevice, HuaweiActivitySample.class);
+    }
+
+    public void addSleepActivity(SampleSink<HuaweiActivitySample> sink, int timestamp, short duration, byte type) {
+        // The device and user are set by the sink
+        HuaweiActivitySample activitySample = new HuaweiActivitySample(
+                timestamp,
+                0,
+                0,
+                timestamp + duration,
+                FitnessData.MessageData.sleepId,
+                type,
+                1,
+                ActivitySample.NOT_MEASURED,
+                ActivitySample.NOT_MEASURED,
+                ActivitySample.NOT_MEASURED,
+                ActivitySample.NOT_MEASURED,
+                ActivitySample.NOT_MEASURED
+        );
 
-            sampleProvider.addGBActivitySample(activitySample);
+        try {
+            sink.add(activitySample);
         } catch (Exception e) {
             LOG.error("Failed to add sleep activity to database", e);
         }
     }
 
-    public void addStepData(int timestamp, short steps, short calories, short distance, byte spo, byte heartrate) {
-        try (DBHandler db = GBApplication.acquireDB()) {
-            Long userId = DBHelper.getUser(db.getDaoSession()).getId();
-            Long deviceId = DBHelper.getDevice(gbDevice, db.getDaoSession()).getId();
-            HuaweiSampleProvider sampleProvider = new HuaweiSampleProvider(gbDevice, db.getDaoSession());
+    public void addStepData(SampleSink<HuaweiActivitySample> sink, int timestamp, short steps, short calories, short distance, byte spo, byte heartrate) {
+        // The device and user are set by the sink
+        HuaweiActivitySample activitySample = new HuaweiActivitySample(
+                timestamp,
+                0,
+                0,
+                timestamp + 60,
+                FitnessData.MessageData.stepId,
+                ActivitySample.NOT_MEASURED,
+                1,
+                steps,
+                calories,
+                distance,
+                spo,
+                heartrate
+        );
 
-            HuaweiActivitySample activitySample = new HuaweiActivitySample(
-                    timestamp,
-                    deviceId,
-                    userId,
-                    timestamp + 60,
-                    FitnessData.MessageData.stepId,
-                    ActivitySample.NOT_MEASURED,
-                    1,
-                    steps,
-                    calories,
-                    distance,
-                    spo,
-                    heartrate
-            );
-            activitySample.setProvider(sampleProvider);
-
-            sampleProvider.addGBActivitySample(activitySample);
+        try {
+            sink.add(activitySample);
         } catch (Exception e) {
             LOG.error("Failed to add step data to database", e);
         }
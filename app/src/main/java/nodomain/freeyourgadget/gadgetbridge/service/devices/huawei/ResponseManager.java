@@ -20,8 +20,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import nodomain.freeyourgadget.gadgetbridge.devices.huawei.HuaweiPacket;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huawei.requests.Request;
@@ -32,7 +34,11 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.huawei.requests.Requ
 public class ResponseManager {
     private static final Logger LOG = LoggerFactory.getLogger(ResponseManager.class);
 
-    private final List<Request> handlers = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * Pending requests by (service id, command id), in the order they were added, so a response
+     * does not need to be offered to every request that is waiting for one
+     */
+    private final Map<Integer, List<Request>> handlers = new HashMap<>();
     private HuaweiPacket receivedPacket;
     private final AsynchronousResponse asynchronousResponse;
     private final HuaweiSupportProvider support;
@@ -47,8 +53,14 @@ public class ResponseManager {
      * @param handler The request to handle responses
      */
     public void addHandler(Request handler) {
+        final int key = key(handler.getServiceId(), handler.getCommandId());
         synchronized (handlers) {
-            handlers.add(handler);
+            List<Request> requests = handlers.get(key);
+            if (requests == null) {
+                requests = new ArrayList<>(1);
+                handlers.put(key, requests);
+            }
+            requests.add(handler);
         }
     }
 
@@ -57,11 +69,35 @@ public class ResponseManager {
      * @param handler The request to remove
      */
     public void removeHandler(Request handler) {
+        final int key = key(handler.getServiceId(), handler.getCommandId());
         synchronized (handlers) {
-            handlers.remove(handler);
+            if (remove(key, handler))
+                return;
+            // The ids may have been changed after the request was added
+            for (Iterator<Map.Entry<Integer, List<Request>>> it = handlers.entrySet().iterator(); it.hasNext(); ) {
+                final List<Request> requests = it.next().getValue();
+                if (requests.remove(handler)) {
+                    if (requests.isEmpty())
+                        it.remove();
+                    return;
+                }
+            }
         }
     }
 
+    private boolean remove(int key, Request handler) {
+        final List<Request> requests = handlers.get(key);
+        if (requests == null || !requests.remove(handler))
+            return false;
+        if (requests.isEmpty())
+            handlers.remove(key);
+        return true;
+    }
+
+    private static int key(byte serviceId, byte commandId) {
+        return ((serviceId & 0xff) << 8) | (commandId & 0xff);
+    }
+
     /**
      * Parses the data into a Huawei Packet.
      * If the packet is complete, it will be handled by the first request that accepts it,
@@ -84,27 +120,29 @@ public class ResponseManager {
         }
 
         if (receivedPacket.complete) {
+            final int key = key(receivedPacket.serviceId, receivedPacket.commandId);
             Request handler = null;
             synchronized (handlers) {
-                for (Request req : handlers) {
-                    if (req.handleResponse(receivedPacket)) {
-                        handler = req;
-                        break;
+                final List<Request> requests = handlers.get(key);
+                if (requests != null) {
+                    for (Request req : requests) {
+                        if (req.handleResponse(receivedPacket)) {
+                            handler = req;
+                            break;
+                        }
                     }
+                    if (handler != null)
+                        remove(key, handler);
                 }
             }
 
             if (handler == null) {
-                LOG.debug("Service: " + Integer.toHexString(receivedPacket.serviceId & 0xff) + ", command: " + Integer.toHexString(receivedPacket.commandId & 0xff)  + ", asynchronous response.");
+                LOG.debug("Service: {}, command: {}, asynchronous response.", Integer.toHexString(receivedPacket.serviceId & 0xff), Integer.toHexString(receivedPacket.commandId & 0xff));
 
                 // Asynchronous response
                 asynchronousResponse.handleResponse(receivedPacket);
             } else {
-                LOG.debug("Service: " + Integer.toHexString(receivedPacket.serviceId & 0xff)  + ", command: " + Integer.toHexString(receivedPacket.commandId & 0xff)  + ", handled by: " + handler.getClass());
-
-                synchronized (handlers) {
-                    handlers.remove(handler);
-                }
+                LOG.debug("Service: {}, command: {}, handled by: {}", Integer.toHexString(receivedPacket.serviceId & 0xff), Integer.toHexString(receivedPacket.commandId & 0xff), handler.getClass());
 
                 handler.handleResponse();
             }
@@ -21,8 +21,10 @@ import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleSink;
 import nodomain.freeyourgadget.gadgetbridge.devices.huawei.HuaweiPacket;
 import nodomain.freeyourgadget.gadgetbridge.devices.huawei.packets.FitnessData;
+import nodomain.freeyourgadget.gadgetbridge.entities.HuaweiActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huawei.HuaweiSupportProvider;
 
 public class GetSleepDataRequest extends Request {
@@ -63,6 +65,7 @@ public class GetSleepDataRequest extends Request {
             LOG.warn("Counts do not match");
         }
 
+        SampleSink<HuaweiActivitySample> sink = this.supportProvider.createFitnessSampleSink();
         for (FitnessData.MessageData.SleepResponse.SubContainer subContainer : response.containers) {
             // TODO: it might make more sense to convert the timestamp in the FitnessData class
             int[] timestampInts = new int[6];
@@ -85,7 +88,12 @@ public class GetSleepDataRequest extends Request {
                             (timestampInts[5]);
             short duration = (short) (durationInt * 60);
 
-            this.supportProvider.addSleepActivity(timestamp, duration, subContainer.type);
+            this.supportProvider.addSleepActivity(sink, timestamp, duration, subContainer.type);
+        }
+        try {
+            sink.finish();
+        } catch (Exception e) {
+            LOG.error("Failed to add sleep activity to database", e);
         }
 
         if (count + 1 < maxCount) {
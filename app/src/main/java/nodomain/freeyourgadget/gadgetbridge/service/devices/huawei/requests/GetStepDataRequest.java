@@ -21,8 +21,10 @@ import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleSink;
 import nodomain.freeyourgadget.gadgetbridge.devices.huawei.HuaweiPacket;
 import nodomain.freeyourgadget.gadgetbridge.devices.huawei.packets.FitnessData;
+import nodomain.freeyourgadget.gadgetbridge.entities.HuaweiActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huawei.HuaweiSupportProvider;
 
 public class GetStepDataRequest extends Request {
@@ -60,6 +62,7 @@ public class GetStepDataRequest extends Request {
             this.count = response.number; // This stops it from going into a loop
         }
 
+        SampleSink<HuaweiActivitySample> sink = this.supportProvider.createFitnessSampleSink();
         for (FitnessData.MessageData.StepResponse.SubContainer subContainer : response.containers) {
             int dataTimestamp = subContainer.timestamp;
 
@@ -81,11 +84,16 @@ public class GetStepDataRequest extends Request {
                     LOG.warn("Unknown tag in step data: " + tv);
                 }
 
-                this.supportProvider.addStepData(dataTimestamp, steps, calories, distance, spo, heartrate);
+                this.supportProvider.addStepData(sink, dataTimestamp, steps, calories, distance, spo, heartrate);
             } else {
                 LOG.error(subContainer.parsedDataError);
             }
         }
+        try {
+            sink.finish();
+        } catch (Exception e) {
+            LOG.error("Failed to add step data to database", e);
+        }
 
         if (count + 1 < maxCount) {
             GetStepDataRequest nextRequest = new GetStepDataRequest(supportProvider, this.maxCount, (short) (this.count + 1));
@@ -254,6 +254,14 @@ public class Request {
         return false;
     }
 
+    public byte getServiceId() {
+        return serviceId;
+    }
+
+    public byte getCommandId() {
+        return commandId;
+    }
+
     protected Context getContext() {
         return supportProvider.getContext();
     }
@@ -44,6 +44,8 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.SettingsActivity;
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupBackfill;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventFindPhone;
@@ -884,6 +886,8 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
             sample.setRawIntensity(LefunConstants.INTENSITY_AWAKE);
 
             session.getLefunActivitySampleDao().insertOrReplace(sample);
+            ActivityDailyRollupHelper.invalidate(session, sample.getDeviceId(), timestamp, timestamp);
+            ActivityDailyRollupBackfill.updateBucketsLater(getDevice(), timestamp, timestamp);
         } catch (Exception e) {
             LOG.error("Error handling activity data", e);
         }
@@ -915,6 +919,8 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
                 sample.setHeartRate(ppgData0);
 
                 session.getLefunActivitySampleDao().insertOrReplace(sample);
+                ActivityDailyRollupHelper.invalidate(session, sample.getDeviceId(), timestamp, timestamp);
+                ActivityDailyRollupBackfill.updateBucketsLater(getDevice(), timestamp, timestamp);
 
                 final Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
                         .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample);
@@ -1001,6 +1007,8 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
             sample.setRawIntensity(intensity);
 
             session.getLefunActivitySampleDao().insertOrReplace(sample);
+            ActivityDailyRollupHelper.invalidate(session, sample.getDeviceId(), timestamp, timestamp);
+            ActivityDailyRollupBackfill.updateBucketsLater(getDevice(), timestamp, timestamp);
 
             LefunSleepSample sleepSample = new LefunSleepSample(timestamp,
                     DBHelper.getDevice(getDevice(), session).getId());
@@ -52,6 +52,8 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.SettingsActivity;
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupBackfill;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventBatteryInfo;
@@ -1638,6 +1640,12 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
                     overlayList.add(new WatchXPlusHealthActivityOverlay(sample.getTimestamp(), sample.getTimestamp()+300, sample.getRawKind(), sample.getDeviceId(), sample.getUserId(), sample.getRawWatchXPlusHealthData()));
                 }
                 overlayDao.insertOrReplaceInTx(overlayList);
+                if (!overlayList.isEmpty()) {
+                    ActivityDailyRollupHelper.invalidate(dbHandler.getDaoSession(), getDevice(),
+                            overlayList.get(0).getTimestampFrom(), overlayList.get(overlayList.size() - 1).getTimestampTo());
+                    ActivityDailyRollupBackfill.updateBucketsLater(getDevice(),
+                            overlayList.get(0).getTimestampFrom(), overlayList.get(overlayList.size() - 1).getTimestampTo());
+                }
                 provider.addGBActivitySamples(samples.toArray(new WatchXPlusActivitySample[0]));
 
                 handleEndOfDataChunks(chunkNo, type);
@@ -32,7 +32,7 @@ import nodomain.freeyourgadget.gadgetbridge.devices.liveview.LiveviewConstants;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.btclassic.BtClassicIoThread;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceProtocol;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 
 public class LiveviewIoThread extends BtClassicIoThread {
     private static final Logger LOG = LoggerFactory.getLogger(LiveviewIoThread.class);
@@ -77,7 +77,7 @@ public class LiveviewIoThread extends BtClassicIoThread {
             }
         }
         byte[] msgArray = msgStream.toByteArray();
-        LOG.debug("received: " + GB.hexdump(msgArray, 0, msgArray.length));
+        LOG.debug("received: {}", Hex.of(msgArray));
         return msgArray;
     }
 
@@ -24,7 +24,7 @@ import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 
 class DatalogSessionHealthHR extends DatalogSessionPebbleHealth {
 
@@ -37,7 +37,7 @@ class DatalogSessionHealthHR extends DatalogSessionPebbleHealth {
 
     @Override
     public GBDeviceEvent[] handleMessage(ByteBuffer datalogMessage, int length) {
-        LOG.info("DATALOG " + taginfo + GB.hexdump(datalogMessage.array(), datalogMessage.position(), length));
+        LOG.info("DATALOG {}{}", taginfo, Hex.of(datalogMessage.array(), datalogMessage.position(), length));
 
         return isPebbleHealthEnabled() ? new GBDeviceEvent[]{null} : null;
     }
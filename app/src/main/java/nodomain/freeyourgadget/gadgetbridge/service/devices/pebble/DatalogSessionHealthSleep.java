@@ -27,6 +27,8 @@ import java.util.List;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupBackfill;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivityDailyRollupHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
@@ -34,7 +36,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlay;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 
 class DatalogSessionHealthSleep extends DatalogSessionPebbleHealth {
 
@@ -47,7 +49,7 @@ class DatalogSessionHealthSleep extends DatalogSessionPebbleHealth {
 
     @Override
     public GBDeviceEvent[] handleMessage(ByteBuffer datalogMessage, int length) {
-        LOG.info("DATALOG " + taginfo + GB.hexdump(datalogMessage.array(), datalogMessage.position(), length));
+        LOG.info("DATALOG {}{}", taginfo, Hex.of(datalogMessage.array(), datalogMessage.position(), length));
 
         if (!isPebbleHealthEnabled()) {
             return null;
@@ -85,11 +87,19 @@ class DatalogSessionHealthSleep extends DatalogSessionPebbleHealth {
             PebbleHealthActivityOverlayDao overlayDao = session.getPebbleHealthActivityOverlayDao();
 
             List<PebbleHealthActivityOverlay> overlayList = new ArrayList<>();
+            int timestampFrom = Integer.MAX_VALUE;
+            int timestampTo = Integer.MIN_VALUE;
             for (SleepRecord sleepRecord : sleepRecords) {
                 //TODO: check the firmware version and don't use the sleep record if overlay is available?
                 overlayList.add(new PebbleHealthActivityOverlay(sleepRecord.bedTimeStart, sleepRecord.bedTimeEnd, sleepRecord.type, deviceId, userId, sleepRecord.getRawData()));
+                timestampFrom = Math.min(timestampFrom, sleepRecord.bedTimeStart);
+                timestampTo = Math.max(timestampTo, sleepRecord.bedTimeEnd);
             }
             overlayDao.insertOrReplaceInTx(overlayList);
+            if (!overlayList.isEmpty()) {
+                ActivityDailyRollupHelper.invalidate(session, deviceId, timestampFrom, timestampTo);
+                ActivityDailyRollupBackfill.updateBucketsLater(getDevice(), timestampFrom, timestampTo);
+            }
         } catch (Exception ex) {
             LOG.debug(ex.getMessage());
         }
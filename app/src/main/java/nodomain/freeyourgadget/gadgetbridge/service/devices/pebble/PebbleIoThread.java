@@ -38,8 +38,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
@@ -187,9 +185,9 @@ class PebbleIoThread extends GBDeviceIoThread {
                 BluetoothDevice btDevice = mBtAdapter.getRemoteDevice(deviceAddress);
                 if (btDevice.getType() == BluetoothDevice.DEVICE_TYPE_LE) {
                     LOG.info("This is a Pebble 2 or Pebble-LE/Pebble Time LE, will use BLE");
-                    mInStream = new PipedInputStream();
-                    mOutStream = new PipedOutputStream();
-                    mPebbleLESupport = new PebbleLESupport(this.getContext(), btDevice, (PipedInputStream) mInStream, (PipedOutputStream) mOutStream);
+                    mPebbleLESupport = new PebbleLESupport(this.getContext(), btDevice);
+                    mInStream = mPebbleLESupport.getInputStream();
+                    mOutStream = mPebbleLESupport.getOutputStream();
                 } else {
                     ParcelUuid[] uuids = btDevice.getUuids();
                     if (uuids == null) {
@@ -284,11 +282,18 @@ class PebbleIoThread extends GBDeviceIoThread {
                             break;
                         case UPLOAD_CHUNK:
                             int bytes = 0;
-                            do {
-                                int read = mFis.read(buffer, bytes, 2000 - bytes);
-                                if (read <= 0) break;
-                                bytes += read;
-                            } while (bytes < 2000);
+                            try {
+                                do {
+                                    int read = mFis.read(buffer, bytes, 2000 - bytes);
+                                    if (read <= 0) break;
+                                    bytes += read;
+                                } while (bytes < 2000);
+                            } catch (IOException e) {
+                                // e.g. a corrupted entry in the archive, do not commit it
+                                LOG.error("Failed to read the binary to install", e);
+                                finishInstall(true);
+                                break;
+                            }
 
                             if (bytes > 0) {
                                 GB.updateInstallNotification(getContext().getString(
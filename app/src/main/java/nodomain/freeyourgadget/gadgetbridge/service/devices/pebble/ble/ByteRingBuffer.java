@@ -0,0 +1,207 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble.ble;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single producer, single consumer byte pipe between the GATT callbacks and the IO thread.
+ * <p>
+ * Unlike {@link java.io.PipedInputStream}, it does not poll and does not care which threads read
+ * and write, as long as there is only one of each at a time. Reads block until data is available,
+ * writes block while the buffer is full. After {@link #close()}, the remaining data can still be
+ * read before the input stream reports the end of the stream.
+ */
+class ByteRingBuffer {
+    private final byte[] buffer;
+    private final int mask;
+
+    // total number of bytes ever written and read, each only updated by its own side
+    private volatile long writePosition = 0;
+    private volatile long readPosition = 0;
+    private volatile boolean closed = false;
+
+    private volatile Thread waitingReader;
+    private volatile Thread waitingWriter;
+
+    private final InputStream inputStream = new RingBufferInputStream();
+    private final OutputStream outputStream = new RingBufferOutputStream();
+
+    /**
+     * @param capacity the buffer size in bytes, rounded up to the next power of two
+     */
+    ByteRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    InputStream getInputStream() {
+        return inputStream;
+    }
+
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    int getCapacity() {
+        return buffer.length;
+    }
+
+    int available() {
+        return (int) (writePosition - readPosition);
+    }
+
+    void close() {
+        closed = true;
+        LockSupport.unpark(waitingReader);
+        LockSupport.unpark(waitingWriter);
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        final long read = readPosition;
+        long available = writePosition - read;
+        while (available == 0) {
+            if (closed) {
+                // the writer may have published a last chunk right before closing
+                available = writePosition - read;
+                if (available == 0) {
+                    return -1;
+                }
+                break;
+            }
+            waitingReader = Thread.currentThread();
+            try {
+                if (writePosition == read && !closed) {
+                    LockSupport.park(this);
+                }
+            } finally {
+                waitingReader = null;
+            }
+            checkInterrupted();
+            available = writePosition - read;
+        }
+
+        final int count = (int) Math.min(len, available);
+        final int start = (int) (read & mask);
+        final int first = Math.min(count, buffer.length - start);
+        System.arraycopy(buffer, start, b, off, first);
+        System.arraycopy(buffer, 0, b, off + first, count - first);
+        readPosition = read + count;
+
+        LockSupport.unpark(waitingWriter);
+        return count;
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (closed) {
+                throw new IOException("Pipe closed");
+            }
+            final long write = writePosition;
+            final long free = buffer.length - (write - readPosition);
+            if (free == 0) {
+                waitingWriter = Thread.currentThread();
+                try {
+                    if (buffer.length - (write - readPosition) == 0 && !closed) {
+                        LockSupport.park(this);
+                    }
+                } finally {
+                    waitingWriter = null;
+                }
+                checkInterrupted();
+                continue;
+            }
+
+            final int count = (int) Math.min(len, free);
+            final int start = (int) (write & mask);
+            final int first = Math.min(count, buffer.length - start);
+            System.arraycopy(b, off, buffer, start, first);
+            System.arraycopy(b, off + first, buffer, 0, count - first);
+            writePosition = write + count;
+
+            LockSupport.unpark(waitingReader);
+            off += count;
+            len -= count;
+        }
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.interrupted()) {
+            // keep the interrupt status for the caller, like the piped streams do
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private class RingBufferInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            return ByteRingBuffer.this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return ByteRingBuffer.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return ByteRingBuffer.this.available();
+        }
+
+        @Override
+        public void close() {
+            ByteRingBuffer.this.close();
+        }
+    }
+
+    private class RingBufferOutputStream extends OutputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            ByteRingBuffer.this.write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteRingBuffer.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            ByteRingBuffer.this.close();
+        }
+    }
+}
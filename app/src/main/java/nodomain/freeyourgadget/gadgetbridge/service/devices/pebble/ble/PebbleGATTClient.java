@@ -31,7 +31,7 @@ import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 
 import static android.bluetooth.BluetoothGattCharacteristic.FORMAT_UINT16;
 import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_WRITE;
@@ -83,7 +83,7 @@ class PebbleGATTClient extends BluetoothGattCallback {
         } else if (characteristic.getUuid().equals(PPOGATT_CHARACTERISTIC_READ)) {
             mPebbleLESupport.handlePPoGATTPacket(characteristic.getValue().clone());
         } else {
-            LOG.info("onCharacteristicChanged() " + characteristic.getUuid().toString() + " " + GB.hexdump(characteristic.getValue(), 0, -1));
+            LOG.info("onCharacteristicChanged() {} {}", characteristic.getUuid(), Hex.of(characteristic.getValue()));
         }
     }
 
@@ -94,7 +94,7 @@ class PebbleGATTClient extends BluetoothGattCallback {
 
         LOG.info("onCharacteristicRead() status = " + status);
         if (status == BluetoothGatt.GATT_SUCCESS) {
-            LOG.info("onCharacteristicRead() " + characteristic.getUuid().toString() + " " + GB.hexdump(characteristic.getValue(), 0, -1));
+            LOG.info("onCharacteristicRead() {} {}", characteristic.getUuid(), Hex.of(characteristic.getValue()));
 
             if (oldPebble) {
                 subscribeToConnectivity(gatt);
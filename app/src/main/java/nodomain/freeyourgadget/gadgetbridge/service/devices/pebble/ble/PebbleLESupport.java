@@ -25,19 +25,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 
 public class PebbleLESupport {
     private static final Logger LOG = LoggerFactory.getLogger(PebbleLESupport.class);
+    // large enough for a few maximum sized Pebble Protocol packets (8192 bytes payload) in flight
+    private static final int BUFFER_CAPACITY = 32768;
     private final BluetoothDevice mBtDevice;
     private PipeReader mPipeReader;
     private PebbleGATTServer mPebbleGATTServer;
     private PebbleGATTClient mPebbleGATTClient;
-    private PipedInputStream mPipedInputStream;
-    private PipedOutputStream mPipedOutputStream;
+    private final ByteRingBuffer mIncomingBuffer; // watch -> PebbleIoThread
+    private final ByteRingBuffer mOutgoingBuffer; // PebbleIoThread -> watch
     private int mMTU = 20;
     private int mMTULimit = Integer.MAX_VALUE;
     public boolean clientOnly = false; // currently experimental, and only possible for Pebble 2
@@ -45,16 +47,10 @@ public class PebbleLESupport {
     private HandlerThread mWriteHandlerThread;
     private Handler mWriteHandler;
 
-    public PebbleLESupport(Context context, final BluetoothDevice btDevice, PipedInputStream pipedInputStream, PipedOutputStream pipedOutputStream) throws IOException {
+    public PebbleLESupport(Context context, final BluetoothDevice btDevice) throws IOException {
         mBtDevice = btDevice;
-        mPipedInputStream = new PipedInputStream();
-        mPipedOutputStream = new PipedOutputStream();
-        try {
-            pipedOutputStream.connect(mPipedInputStream);
-            pipedInputStream.connect(mPipedOutputStream);
-        } catch (IOException e) {
-            LOG.warn("could not connect input stream");
-        }
+        mIncomingBuffer = new ByteRingBuffer(BUFFER_CAPACITY);
+        mOutgoingBuffer = new ByteRingBuffer(BUFFER_CAPACITY);
 
         mWriteHandlerThread = new HandlerThread("write handler thread");
         mWriteHandlerThread.start();
@@ -85,11 +81,25 @@ public class PebbleLESupport {
         throw new IOException("connection failed");
     }
 
-    private void writeToPipedOutputStream(byte[] value, int offset, int count) {
+    /**
+     * Returns the stream of Pebble Protocol packets received from the watch.
+     */
+    public InputStream getInputStream() {
+        return mIncomingBuffer.getInputStream();
+    }
+
+    /**
+     * Returns the stream for Pebble Protocol packets to be sent to the watch.
+     */
+    public OutputStream getOutputStream() {
+        return mOutgoingBuffer.getOutputStream();
+    }
+
+    private void writeToIncomingBuffer(byte[] value, int offset, int count) {
         try {
-            mPipedOutputStream.write(value, offset, count);
+            mIncomingBuffer.getOutputStream().write(value, offset, count);
         } catch (IOException e) {
-            LOG.warn("error writing to output stream", e);
+            LOG.warn("error writing to incoming buffer", e);
         }
     }
 
@@ -103,14 +113,8 @@ public class PebbleLESupport {
             mPebbleGATTClient.close();
             mPebbleGATTClient = null;
         }
-        try {
-            mPipedInputStream.close();
-        } catch (IOException ignore) {
-        }
-        try {
-            mPipedOutputStream.close();
-        } catch (IOException ignore) {
-        }
+        mIncomingBuffer.close();
+        mOutgoingBuffer.close();
         if (mWriteHandlerThread != null) {
             mWriteHandlerThread.quit();
         }
@@ -168,7 +172,7 @@ public class PebbleLESupport {
 
             sendAckToPebble(serial);
 
-            writeToPipedOutputStream(value, 1, value.length - 1);
+            writeToIncomingBuffer(value, 1, value.length - 1);
         }
     }
 
@@ -200,27 +204,18 @@ public class PebbleLESupport {
 
         @Override
         public void run() {
-            byte[] buf = new byte[8192];
-            int bytesRead;
+            byte[] buf = new byte[8192 + 4];
             while (true) {
                 try {
                     // this code is very similar to iothread, that is bad
                     // because we are the ones who prepared the buffer, there should be no
                     // need to do crazy stuff just to find out the PP boundaries again.
-                    bytesRead = mPipedInputStream.read(buf, 0, 4);
-                    while (bytesRead < 4) {
-                        bytesRead += mPipedInputStream.read(buf, bytesRead, 4 - bytesRead);
-                    }
+                    readFully(buf, 0, 4);
 
                     int length = (buf[0] & 0xff) << 8 | (buf[1] & 0xff);
-                    bytesRead = mPipedInputStream.read(buf, 4, length);
-
-                    while (bytesRead < length) {
-                        bytesRead += mPipedInputStream.read(buf, bytesRead + 4, length - bytesRead);
-                    }
+                    readFully(buf, 4, length);
 
-
-                    int payloadToSend = bytesRead + 4;
+                    int payloadToSend = length + 4;
                     int srcPos = 0;
                     while (payloadToSend > 0) {
                         int chunkSize = (payloadToSend < (mMTU - 4)) ? payloadToSend : mMTU - 4;
@@ -240,14 +235,23 @@ public class PebbleLESupport {
             LOG.info("Pipereader thread shut down");
         }
 
+        private void readFully(byte[] buf, int offset, int count) throws IOException {
+            InputStream inputStream = mOutgoingBuffer.getInputStream();
+            while (count > 0) {
+                int bytesRead = inputStream.read(buf, offset, count);
+                if (bytesRead == -1) {
+                    throw new IOException("outgoing buffer closed");
+                }
+                offset += bytesRead;
+                count -= bytesRead;
+            }
+        }
+
         @Override
         public void interrupt() {
             super.interrupt();
-            try {
-                LOG.info("closing piped inputstream");
-                mPipedInputStream.close();
-            } catch (IOException ignore) {
-            }
+            LOG.info("closing outgoing buffer");
+            mOutgoingBuffer.close();
         }
     }
 
@@ -37,9 +37,7 @@ import org.json.JSONException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -89,9 +87,8 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.mis
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.misfit.RequestHandControlRequest;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.misfit.SaveCalibrationRequest;
 import nodomain.freeyourgadget.gadgetbridge.util.AlarmUtils;
-import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.FirmwareSource;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
-import nodomain.freeyourgadget.gadgetbridge.util.UriHelper;
 
 public class FossilWatchAdapter extends WatchAdapter {
     private ArrayList<Request> requestQueue = new ArrayList<>();
@@ -480,19 +477,18 @@ public class FossilWatchAdapter extends WatchAdapter {
 
     @Override
     public void onInstallApp(Uri uri) {
-        UriHelper uriHelper = null;
+        FirmwareSource firmware;
         try {
-            uriHelper = UriHelper.get(uri, getContext());
+            firmware = FirmwareSource.fromUri(uri, getContext(), 1024 * 2024); // 2MB
         } catch (IOException e) {
             GB.toast(getContext(), "Could not open firmare: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
+            return;
         }
-        if (uriHelper != null) {
-            try (InputStream in = new BufferedInputStream(uriHelper.openInputStream())) {
-                byte[] firmwareBytes = FileUtils.readAll(in, 1024 * 2024); // 2MB
-                queueWrite(new FirmwareFilePutRequest(firmwareBytes, this));
-            } catch (Exception e) {
-                GB.toast(getContext(), "Firmware cannot be installed: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
-            }
+        try {
+            queueWrite(new FirmwareFilePutRequest(firmware, this));
+        } catch (Exception e) {
+            firmware.close();
+            GB.toast(getContext(), "Firmware cannot be installed: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
         }
     }
 
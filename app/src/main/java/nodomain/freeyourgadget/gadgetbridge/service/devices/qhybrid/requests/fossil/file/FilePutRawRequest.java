@@ -20,36 +20,41 @@ import android.bluetooth.BluetoothGattCharacteristic;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.ArrayList;
 import java.util.UUID;
-import java.util.zip.CRC32;
 
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.ConditionalWriteAction;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil.FossilWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.file.FileHandle;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil.FossilRequest;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.file.ResultCode;
+import nodomain.freeyourgadget.gadgetbridge.util.FirmwareSource;
 
 public class FilePutRawRequest extends FossilRequest {
     public enum UploadState {INITIALIZED, UPLOADING, CLOSING, UPLOADED}
 
     public UploadState state;
 
-    public ArrayList<byte[]> packets = new ArrayList<>();
-
     private short handle;
 
     private FossilWatchAdapter adapter;
 
-    byte[] file;
+    FirmwareSource file;
 
     int fullCRC;
 
     public FilePutRawRequest(short handle, byte[] file, FossilWatchAdapter adapter) {
+        this(handle, FirmwareSource.fromBytes(file), adapter);
+    }
+
+    /**
+     * The source is closed once the file packets have been queued.
+     */
+    public FilePutRawRequest(short handle, FirmwareSource file, FossilWatchAdapter adapter) {
         this.handle = handle;
         this.adapter = adapter;
 
-        int fileLength = file.length;
+        int fileLength = file.size();
         ByteBuffer buffer = this.createBuffer();
         buffer.putShort(1, handle);
         buffer.putInt(3, 0);
@@ -87,15 +92,18 @@ public class FilePutRawRequest extends FossilRequest {
                     TransactionBuilder transactionBuilder = new TransactionBuilder("file upload");
                     BluetoothGattCharacteristic uploadCharacteristic = adapter.getDeviceSupport().getCharacteristic(UUID.fromString("3dda0004-957f-7d4a-34a6-74696673696d"));
 
-                    this.prepareFilePackets(this.file);
+                    int maxPacketSize = adapter.getMTU() - 4;
+                    int packetCount = (int) Math.ceil(file.size() / (float) maxPacketSize);
+                    this.fullCRC = file.getCrc32();
 
-                    for (int i = 0, packetCount = packets.size(); i < packetCount; i++) {
-                        byte[] packet = packets.get(i);
-                        transactionBuilder.write(uploadCharacteristic, packet);
+                    for (int i = 0; i < packetCount; i++) {
+                        transactionBuilder.add(new FilePacketWriteAction(uploadCharacteristic, file, i, maxPacketSize));
                         onPacketWritten(transactionBuilder, i, packetCount);
                     }
 
                     transactionBuilder.queue(adapter.getDeviceSupport().getQueue());
+                    // a mapped file stays readable after its temporary file was deleted
+                    this.file.close();
                     break;
                 }
                 case 8: {
@@ -194,25 +202,30 @@ public class FilePutRawRequest extends FossilRequest {
         return this.state == UploadState.UPLOADED;
     }
 
-    private void prepareFilePackets(byte[] file) {
-        int maxPacketSize = adapter.getMTU() - 4;
-
-        byte[] data = file;
-
-        CRC32 fullCRC = new CRC32();
-
-        fullCRC.update(data);
-        this.fullCRC = (int) fullCRC.getValue();
-
-        int packetCount = (int) Math.ceil(data.length / (float) maxPacketSize);
+    /**
+     * Reads its packet from the file only when it is written, so that the packets of a large
+     * file are not all held in memory while the transaction is queued.
+     */
+    private static class FilePacketWriteAction extends ConditionalWriteAction {
+        private final FirmwareSource file;
+        private final int packetIndex;
+        private final int maxPacketSize;
+
+        FilePacketWriteAction(BluetoothGattCharacteristic characteristic, FirmwareSource file, int packetIndex, int maxPacketSize) {
+            super(characteristic);
+            this.file = file;
+            this.packetIndex = packetIndex;
+            this.maxPacketSize = maxPacketSize;
+        }
 
-        for (int i = 0; i < packetCount; i++) {
-            int currentPacketLength = Math.min(maxPacketSize, data.length - i * maxPacketSize);
+        @Override
+        protected byte[] checkCondition() {
+            int offset = packetIndex * maxPacketSize;
+            int currentPacketLength = Math.min(maxPacketSize, file.size() - offset);
             byte[] packet = new byte[currentPacketLength + 1];
-            packet[0] = (byte) i;
-            System.arraycopy(data, i * maxPacketSize, packet, 1, currentPacketLength);
-
-            packets.add(packet);
+            packet[0] = (byte) packetIndex;
+            file.read(offset, packet, 1, currentPacketLength);
+            return packet;
         }
     }
 
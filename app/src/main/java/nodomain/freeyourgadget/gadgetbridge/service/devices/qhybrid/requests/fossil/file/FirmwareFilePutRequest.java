@@ -25,6 +25,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetProgressActi
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil.FossilWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil_hr.FossilHRWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil.file.FilePutRawRequest;
+import nodomain.freeyourgadget.gadgetbridge.util.FirmwareSource;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class FirmwareFilePutRequest extends FilePutRawRequest {
@@ -32,6 +33,10 @@ public class FirmwareFilePutRequest extends FilePutRawRequest {
         super((short) 0x00FF, firmwareBytes, adapter);
     }
 
+    public FirmwareFilePutRequest(FirmwareSource firmware, FossilWatchAdapter adapter) {
+        super((short) 0x00FF, firmware, adapter);
+    }
+
     @Override
     public void onPacketWritten(TransactionBuilder transactionBuilder, int packetNr, int packetCount) {
         int progressPercent = (int) ((((float) packetNr) / packetCount) * 100);
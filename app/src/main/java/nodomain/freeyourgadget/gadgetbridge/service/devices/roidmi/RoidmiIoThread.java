@@ -28,7 +28,7 @@ import java.io.InputStream;
 
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.btclassic.BtClassicIoThread;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 
 public class RoidmiIoThread extends BtClassicIoThread {
     private static final Logger LOG = LoggerFactory.getLogger(RoidmiIoThread.class);
@@ -64,7 +64,7 @@ public class RoidmiIoThread extends BtClassicIoThread {
         }
 
         final byte[] msgArray = msgStream.toByteArray();
-        LOG.debug("Packet: " + GB.hexdump(msgArray, 0, msgArray.length));
+        LOG.debug("Packet: {}", Hex.of(msgArray));
         return msgArray;
     }
 }
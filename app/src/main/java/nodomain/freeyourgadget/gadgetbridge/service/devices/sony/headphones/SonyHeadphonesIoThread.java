@@ -111,7 +111,9 @@ public class SonyHeadphonesIoThread extends BtClassicIoThread {
             msgStream.write(incoming);
         } while (incoming[0] != Message.MESSAGE_TRAILER);
 
-        LOG.trace("Raw message: {}", GB.hexdump(msgStream.toByteArray()));
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Raw message: {}", GB.hexdump(msgStream.toByteArray()));
+        }
 
         return msgStream.toByteArray();
     }
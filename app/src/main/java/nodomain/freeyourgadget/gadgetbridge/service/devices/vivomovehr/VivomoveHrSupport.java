@@ -112,9 +112,11 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.notificat
 import nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.uploads.FileUploadQueue;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceProtocol;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
@@ -212,7 +214,7 @@ public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements File
             // handled by real-time activity handler
         } else {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Unknown characteristic {} changed: {}", characteristicUUID, GB.hexdump(data));
+                LOG.debug("Unknown characteristic {} changed: {}", characteristicUUID, Hex.of(data));
             }
         }
 
@@ -302,7 +304,7 @@ public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements File
 
             default:
                 if (LOG.isInfoEnabled()) {
-                    LOG.info("Unknown message type {}: {}", messageType, GB.hexdump(packet, 0, packet.length));
+                    LOG.info("Unknown message type {}: {}", messageType, Hex.of(packet));
                 }
                 break;
         }
@@ -384,13 +386,13 @@ public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements File
     }
 
     private void processProtobufResponse(ProtobufRequestMessage requestMessage) {
-        LOG.info("Received protobuf response #{}, {}B@{}/{}: {}", requestMessage.requestId, requestMessage.protobufDataLength, requestMessage.dataOffset, requestMessage.totalProtobufLength, GB.hexdump(requestMessage.messageBytes, 0, requestMessage.messageBytes.length));
+        LOG.info("Received protobuf response #{}, {}B@{}/{}: {}", requestMessage.requestId, requestMessage.protobufDataLength, requestMessage.dataOffset, requestMessage.totalProtobufLength, Hex.of(requestMessage.messageBytes));
         sendMessage(new GenericResponseMessage(VivomoveConstants.MESSAGE_PROTOBUF_RESPONSE, 0).packet);
         final GdiSmartProto.Smart smart;
         try {
             smart = GdiSmartProto.Smart.parseFrom(requestMessage.messageBytes);
         } catch (InvalidProtocolBufferException e) {
-            LOG.error("Failed to parse protobuf message ({}): {}", e.getLocalizedMessage(), GB.hexdump(requestMessage.messageBytes, 0, requestMessage.messageBytes.length));
+            LOG.error("Failed to parse protobuf message ({}): {}", e.getLocalizedMessage(), Hex.of(requestMessage.messageBytes));
             return;
         }
         boolean processed = false;
@@ -617,7 +619,7 @@ public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements File
     private void sendProtobufRequest(byte[] protobufMessage) {
         final int requestId = getNextProtobufRequestId();
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Sending {}B protobuf request #{}: {}", protobufMessage.length, requestId, GB.hexdump(protobufMessage, 0, protobufMessage.length));
+            LOG.debug("Sending {}B protobuf request #{}: {}", protobufMessage.length, requestId, Hex.of(protobufMessage));
         }
         sendMessage(new ProtobufRequestMessage(requestId, 0, protobufMessage.length, protobufMessage.length, protobufMessage).packet);
     }
@@ -1032,7 +1034,7 @@ public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements File
         }
 
         if (fileIndex <= 0x8000) {
-            fitImporter.processFitFile(fitParser.parseFitFile(data));
+            fitImporter.processFitFile(fitParser, new ByteArrayInputStream(data));
         } else {
             LOG.debug("Not importing file {} as FIT", fileIndex);
         }
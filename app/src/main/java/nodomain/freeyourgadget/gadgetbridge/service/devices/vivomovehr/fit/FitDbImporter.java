@@ -23,15 +23,20 @@ import nodomain.freeyourgadget.gadgetbridge.devices.vivomovehr.VivomoveHrSampleP
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.entities.VivomoveHrActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 public class FitDbImporter {
     private static final Logger LOG = LoggerFactory.getLogger(FitDbImporter.class);
 
+    private static final int SAMPLE_BATCH_SIZE = 1000;
+
     private final GBDevice gbDevice;
     private final FitImporter fitImporter;
 
@@ -40,9 +45,9 @@ public class FitDbImporter {
         fitImporter = new FitImporter();
     }
 
-    public void processFitFile(List<FitMessage> messages) {
+    public void processFitFile(FitParser fitParser, InputStream stream) {
         try {
-            fitImporter.importFitData(messages);
+            fitImporter.importFitFile(fitParser, stream);
         } catch (Exception e) {
             LOG.error("Error importing FIT data", e);
         }
@@ -56,15 +61,27 @@ public class FitDbImporter {
             final User user = DBHelper.getUser(session);
             final VivomoveHrSampleProvider provider = new VivomoveHrSampleProvider(gbDevice, session);
 
+            final List<VivomoveHrActivitySample> samples = new ArrayList<>(SAMPLE_BATCH_SIZE);
             fitImporter.processImportedData(sample -> {
                 sample.setDevice(device);
                 sample.setUser(user);
                 sample.setProvider(provider);
 
-                provider.addGBActivitySample(sample);
+                samples.add(sample);
+                if (samples.size() >= SAMPLE_BATCH_SIZE) {
+                    addSamples(provider, samples);
+                }
             });
+            addSamples(provider, samples);
         } catch (Exception e) {
             LOG.error("Error importing FIT data", e);
         }
     }
+
+    private static void addSamples(VivomoveHrSampleProvider provider, List<VivomoveHrActivitySample> samples) {
+        if (!samples.isEmpty()) {
+            provider.addGBActivitySamples(samples.toArray(new VivomoveHrActivitySample[0]));
+            samples.clear();
+        }
+    }
 }
@@ -22,70 +22,146 @@ import nodomain.freeyourgadget.gadgetbridge.entities.VivomoveHrActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.GarminTimeUtils;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
-
-public class FitImporter {
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Collects the activity events from the messages of FIT files as they are parsed, and merges
+ * them into one sample per timestamp afterwards.
+ */
+public class FitImporter implements FitMessageVisitor {
     private static final int ACTIVITY_TYPE_ALL = -1;
-    private final SortedMap<Integer, List<FitEvent>> eventsPerTimestamp = new TreeMap<>();
-
-    public void importFitData(List<FitMessage> messages) {
-        boolean ohrEnabled = false;
-        int softwareVersion = -1;
-
-        int lastTimestamp = 0;
-        final SparseIntArray lastCycles = new SparseIntArray();
-
-        for (FitMessage message : messages) {
-            switch (message.definition.globalMessageID) {
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_EVENT:
-                    //message.getField();
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_SOFTWARE:
-                    final Integer versionField = message.getIntegerField("version");
-                    if (versionField != null) softwareVersion = versionField;
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING_INFO:
-                    lastTimestamp = message.getIntegerField("timestamp");
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING:
-                    lastTimestamp = processMonitoringMessage(message, ohrEnabled, lastTimestamp, lastCycles);
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_OHR_SETTINGS:
-                    final Boolean isOhrEnabled = message.getBooleanField("enabled");
-                    if (isOhrEnabled != null) ohrEnabled = isOhrEnabled;
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_SLEEP_LEVEL:
-                    processSleepLevelMessage(message);
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING_HR_DATA:
-                    processHrDataMessage(message);
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_STRESS_LEVEL:
-                    processStressLevelMessage(message);
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MAX_MET_DATA:
-                    processMaxMetDataMessage(message);
-                    break;
-            }
+
+    private static final int FIELD_TIMESTAMP = 253;
+    private static final int FIELD_SOFTWARE_VERSION = getFieldNumber(FitMessageDefinitions.DEFINITION_SOFTWARE, "version");
+    private static final int FIELD_OHR_ENABLED = getFieldNumber(FitMessageDefinitions.DEFINITION_OHR_SETTINGS, "enabled");
+    private static final int FIELD_SLEEP_LEVEL = getFieldNumber(FitMessageDefinitions.DEFINITION_SLEEP_LEVEL, "sleep_level");
+    private static final int FIELD_ACTIVITY_TYPE = getFieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "activity_type");
+    private static final int FIELD_ACTIVE_CALORIES = getFieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "active_calories");
+    private static final int FIELD_INTENSITY = getFieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "current_activity_type_intensity");
+    private static final int FIELD_CYCLES = getFieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "cycles");
+    private static final int FIELD_HEART_RATE = getFieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "heart_rate");
+    private static final int FIELD_TIMESTAMP_16 = getFieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "timestamp_16");
+
+    // events are stored flat, EVENT_SIZE ints per event
+    private static final int EVENT_TIMESTAMP = 0;
+    private static final int EVENT_KIND = 1;
+    private static final int EVENT_RAW_KIND = 2;
+    private static final int EVENT_CALORIES_BURNT = 3;
+    private static final int EVENT_FLOORS_CLIMBED = 4;
+    private static final int EVENT_HEART_RATE = 5;
+    private static final int EVENT_STEPS = 6;
+    private static final int EVENT_RAW_INTENSITY = 7;
+    private static final int EVENT_SIZE = 8;
+
+    private int[] events = new int[EVENT_SIZE * 1024];
+    private int eventCount;
+
+    // the values of the fields of the current message, a field is set if its generation is
+    // the one of the current message, so that nothing needs to be cleared between messages
+    private final double[] fieldValues = new double[256];
+    private final int[] fieldGenerations = new int[256];
+    private int generation;
+
+    // state of the current file
+    private boolean ohrEnabled;
+    private int softwareVersion;
+    private int lastTimestamp;
+    private final SparseIntArray lastCycles = new SparseIntArray();
+
+    public void importFitFile(FitParser parser, InputStream stream) throws IOException {
+        ohrEnabled = false;
+        softwareVersion = -1;
+        lastTimestamp = 0;
+        lastCycles.clear();
+
+        parser.parseFitStream(stream, this);
+    }
+
+    @Override
+    public boolean onMessageStart(FitMessageDefinition definition) {
+        switch (definition.globalMessageID) {
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_SOFTWARE:
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING_INFO:
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING:
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_OHR_SETTINGS:
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_SLEEP_LEVEL:
+                ++generation;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void onIntField(int fieldNumber, int value) {
+        setField(fieldNumber, value);
+    }
+
+    @Override
+    public void onLongField(int fieldNumber, long value) {
+        setField(fieldNumber, value);
+    }
+
+    @Override
+    public void onFloatField(int fieldNumber, float value) {
+        setField(fieldNumber, value);
+    }
+
+    @Override
+    public void onDoubleField(int fieldNumber, double value) {
+        setField(fieldNumber, value);
+    }
+
+    @Override
+    public void onStringField(int fieldNumber, String value) {
+    }
+
+    @Override
+    public void onBytesField(int fieldNumber, byte[] value) {
+    }
+
+    @Override
+    public void onMessageEnd(FitMessageDefinition definition) {
+        switch (definition.globalMessageID) {
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_SOFTWARE:
+                if (hasField(FIELD_SOFTWARE_VERSION)) softwareVersion = getIntField(FIELD_SOFTWARE_VERSION);
+                break;
+
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING_INFO:
+                if (hasField(FIELD_TIMESTAMP)) lastTimestamp = getIntField(FIELD_TIMESTAMP);
+                break;
+
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING:
+                processMonitoringMessage();
+                break;
+
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_OHR_SETTINGS:
+                if (hasField(FIELD_OHR_ENABLED) && getIntField(FIELD_OHR_ENABLED) != FitBool.INVALID) {
+                    ohrEnabled = getIntField(FIELD_OHR_ENABLED) != 0;
+                }
+                break;
+
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_SLEEP_LEVEL:
+                processSleepLevelMessage();
+                break;
         }
     }
 
     public void processImportedData(FitImportProcessor processor) {
-        for (final Map.Entry<Integer, List<FitEvent>> eventsForTimestamp : eventsPerTimestamp.entrySet()) {
+        // sort by timestamp, keeping the order of the events within the same timestamp
+        final long[] order = new long[eventCount];
+        for (int i = 0; i < eventCount; ++i) {
+            order[i] = ((long) events[i * EVENT_SIZE + EVENT_TIMESTAMP] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        int i = 0;
+        while (i < eventCount) {
+            final int timestamp = (int) (order[i] >> 32);
             final VivomoveHrActivitySample sample = new VivomoveHrActivitySample();
-            sample.setTimestamp(eventsForTimestamp.getKey());
+            sample.setTimestamp(timestamp);
 
             sample.setRawKind(ActivitySample.NOT_MEASURED);
             sample.setCaloriesBurnt(ActivitySample.NOT_MEASURED);
@@ -94,31 +170,32 @@ public class FitImporter {
             sample.setFloorsClimbed(ActivitySample.NOT_MEASURED);
             sample.setRawIntensity(ActivitySample.NOT_MEASURED);
 
-            FitEvent.EventKind bestKind = FitEvent.EventKind.UNKNOWN;
+            int bestKind = EventKind.UNKNOWN.ordinal();
             float bestScore = Float.NEGATIVE_INFINITY;
-            for (final FitEvent event : eventsForTimestamp.getValue()) {
-                if (event.getHeartRate() > sample.getHeartRate()) {
-                    sample.setHeartRate(event.getHeartRate());
+            for (; i < eventCount && (int) (order[i] >> 32) == timestamp; ++i) {
+                final int event = (int) order[i] * EVENT_SIZE;
+                final int kind = events[event + EVENT_KIND];
+                final int rawKind = events[event + EVENT_RAW_KIND];
+                final int caloriesBurnt = events[event + EVENT_CALORIES_BURNT];
+                final int steps = events[event + EVENT_STEPS];
+                if (events[event + EVENT_HEART_RATE] > sample.getHeartRate()) {
+                    sample.setHeartRate(events[event + EVENT_HEART_RATE]);
                 }
-                if (event.getFloorsClimbed() > sample.getFloorsClimbed()) {
-                    sample.setFloorsClimbed(event.getFloorsClimbed());
+                if (events[event + EVENT_FLOORS_CLIMBED] > sample.getFloorsClimbed()) {
+                    sample.setFloorsClimbed(events[event + EVENT_FLOORS_CLIMBED]);
                 }
 
                 float score = 0;
-                if (event.getRawKind() > 0) score += 1;
-                if (event.getCaloriesBurnt() > 0) score += event.getCaloriesBurnt() * 10.0f;
-                if (event.getSteps() > 0) score += event.getSteps();
-                //if (event.getRawIntensity() > 0) score += 10.0f * event.getRawIntensity();
-                if (event.getKind().isBetterThan(bestKind) || (event.getKind() == bestKind && score > bestScore)) {
-//                    if (bestScore > Float.NEGATIVE_INFINITY && event.getKind() != FitEvent.EventKind.NOT_WORN) {
-//                        System.out.println(String.format(Locale.ROOT, "Replacing %s %d (%d cal, %d steps) with %s %d (%d cal, %d steps)", sample.getRawKind(), sample.getRawIntensity(), sample.getCaloriesBurnt(), sample.getSteps(), event.getRawKind(), event.getRawIntensity(), event.getCaloriesBurnt(), event.getSteps()));
-//                    }
+                if (rawKind > 0) score += 1;
+                if (caloriesBurnt > 0) score += caloriesBurnt * 10.0f;
+                if (steps > 0) score += steps;
+                if (kind > bestKind || (kind == bestKind && score > bestScore)) {
                     bestScore = score;
-                    bestKind = event.getKind();
-                    sample.setRawKind(event.getRawKind());
-                    sample.setCaloriesBurnt(event.getCaloriesBurnt());
-                    sample.setSteps(event.getSteps());
-                    sample.setRawIntensity(event.getRawIntensity());
+                    bestKind = kind;
+                    sample.setRawKind(rawKind);
+                    sample.setCaloriesBurnt(caloriesBurnt);
+                    sample.setSteps(steps);
+                    sample.setRawIntensity(events[event + EVENT_RAW_INTENSITY]);
                 }
             }
 
@@ -131,34 +208,31 @@ public class FitImporter {
         }
     }
 
-    private void processSleepLevelMessage(FitMessage message) {
-        final Integer timestampFull = message.getIntegerField("timestamp");
-        final Integer sleepLevel = message.getIntegerField("sleep_level");
+    private void processSleepLevelMessage() {
+        if (!hasField(FIELD_TIMESTAMP) || !hasField(FIELD_SLEEP_LEVEL)) return;
+        final int timestampFull = getIntField(FIELD_TIMESTAMP);
+        final int sleepLevel = getIntField(FIELD_SLEEP_LEVEL);
 
         final int timestamp = GarminTimeUtils.garminTimestampToUnixTime(timestampFull);
         final int rawIntensity = (4 - sleepLevel) * 40;
         final int rawKind = VivomoveHrSampleProvider.RAW_TYPE_KIND_SLEEP | sleepLevel;
 
-        addEvent(new FitEvent(timestamp, FitEvent.EventKind.SLEEP, rawKind, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, rawIntensity));
+        addEvent(timestamp, EventKind.SLEEP, rawKind, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, rawIntensity);
     }
 
-    private int processMonitoringMessage(FitMessage message, boolean ohrEnabled, int lastTimestamp, SparseIntArray lastCycles) {
-        final Integer activityType = message.getIntegerField("activity_type");
-        final Double activeCalories = message.getNumericField("active_calories");
-        final Integer intensity = message.getIntegerField("current_activity_type_intensity");
-        final Integer cycles = message.getIntegerField("cycles");
-        final Double heartRateMeasured = message.getNumericField("heart_rate");
-        final Integer timestampFull = message.getIntegerField("timestamp");
-        final Integer timestamp16 = message.getIntegerField("timestamp_16");
-        final Double activeTime = message.getNumericField("active_time");
+    private void processMonitoringMessage() {
+        final boolean hasActivityType = hasField(FIELD_ACTIVITY_TYPE);
+        final boolean hasCycles = hasField(FIELD_CYCLES);
 
-        final int activityTypeOrAll = activityType == null ? ACTIVITY_TYPE_ALL : activityType;
-        final int activityTypeOrDefault = activityType == null ? 0 : activityType;
+        final int activityTypeOrAll = hasActivityType ? getIntField(FIELD_ACTIVITY_TYPE) : ACTIVITY_TYPE_ALL;
+        final int activityTypeOrDefault = hasActivityType ? getIntField(FIELD_ACTIVITY_TYPE) : 0;
 
         final int lastDefaultCycleCount = lastCycles.get(ACTIVITY_TYPE_ALL);
         final int lastCycleCount = Math.max(lastCycles.get(activityTypeOrAll), lastDefaultCycleCount);
-        final Integer currentCycles = cycles == null ? null : cycles < lastCycleCount ? cycles : cycles - lastCycleCount;
-        if (currentCycles != null) {
+        int currentCycles = ActivitySample.NOT_MEASURED;
+        if (hasCycles) {
+            final int cycles = getIntField(FIELD_CYCLES);
+            currentCycles = cycles < lastCycleCount ? cycles : cycles - lastCycleCount;
             lastCycles.put(activityTypeOrDefault, cycles);
             final int newAllCycles = Math.max(lastDefaultCycleCount, cycles);
             if (newAllCycles != lastDefaultCycleCount) {
@@ -167,10 +241,10 @@ public class FitImporter {
             }
         }
 
-        if (timestampFull != null) {
-            lastTimestamp = timestampFull;
-        } else if (timestamp16 != null) {
-            lastTimestamp += (timestamp16 - (lastTimestamp & 0xFFFF)) & 0xFFFF;
+        if (hasField(FIELD_TIMESTAMP)) {
+            lastTimestamp = getIntField(FIELD_TIMESTAMP);
+        } else if (hasField(FIELD_TIMESTAMP_16)) {
+            lastTimestamp += (getIntField(FIELD_TIMESTAMP_16) - (lastTimestamp & 0xFFFF)) & 0xFFFF;
         } else {
             // TODO: timestamp_min_8
             throw new IllegalArgumentException("Unsupported timestamp");
@@ -178,15 +252,15 @@ public class FitImporter {
 
         final int timestamp = GarminTimeUtils.garminTimestampToUnixTime(lastTimestamp);
         final int rawKind, caloriesBurnt, floorsClimbed, heartRate, steps, rawIntensity;
-        final FitEvent.EventKind eventKind;
+        final EventKind eventKind;
 
-        caloriesBurnt = activeCalories == null ? ActivitySample.NOT_MEASURED : (int) Math.round(activeCalories);
+        caloriesBurnt = hasField(FIELD_ACTIVE_CALORIES) ? (int) Math.round(fieldValues[FIELD_ACTIVE_CALORIES]) : ActivitySample.NOT_MEASURED;
         floorsClimbed = ActivitySample.NOT_MEASURED;
-        heartRate = ohrEnabled && heartRateMeasured != null && heartRateMeasured > 0 ? (int) Math.round(heartRateMeasured) : ActivitySample.NOT_MEASURED;
-        steps = currentCycles == null ? ActivitySample.NOT_MEASURED : currentCycles;
-        rawIntensity = intensity == null ? 0 : intensity;
+        heartRate = ohrEnabled && hasField(FIELD_HEART_RATE) && fieldValues[FIELD_HEART_RATE] > 0 ? (int) Math.round(fieldValues[FIELD_HEART_RATE]) : ActivitySample.NOT_MEASURED;
+        steps = hasCycles ? currentCycles : ActivitySample.NOT_MEASURED;
+        rawIntensity = hasField(FIELD_INTENSITY) ? getIntField(FIELD_INTENSITY) : 0;
         rawKind = VivomoveHrSampleProvider.RAW_TYPE_KIND_ACTIVITY | activityTypeOrDefault;
-        eventKind = steps != ActivitySample.NOT_MEASURED || rawIntensity > 0 || activityTypeOrDefault > 0 ? FitEvent.EventKind.ACTIVITY : FitEvent.EventKind.WORN;
+        eventKind = steps != ActivitySample.NOT_MEASURED || rawIntensity > 0 || activityTypeOrDefault > 0 ? EventKind.ACTIVITY : EventKind.WORN;
 
         if (rawKind != ActivitySample.NOT_MEASURED
                 || caloriesBurnt != ActivitySample.NOT_MEASURED
@@ -195,94 +269,51 @@ public class FitImporter {
                 || steps != ActivitySample.NOT_MEASURED
                 || rawIntensity != ActivitySample.NOT_MEASURED) {
 
-            addEvent(new FitEvent(timestamp, eventKind, rawKind, caloriesBurnt, floorsClimbed, heartRate, steps, rawIntensity));
+            addEvent(timestamp, eventKind, rawKind, caloriesBurnt, floorsClimbed, heartRate, steps, rawIntensity);
         } else {
-            addEvent(new FitEvent(timestamp, FitEvent.EventKind.NOT_WORN, VivomoveHrSampleProvider.RAW_NOT_WORN, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED));
+            addEvent(timestamp, EventKind.NOT_WORN, VivomoveHrSampleProvider.RAW_NOT_WORN, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED);
         }
-        return lastTimestamp;
     }
 
-    private void processHrDataMessage(FitMessage message) {
+    private void addEvent(int timestamp, EventKind kind, int rawKind, int caloriesBurnt, int floorsClimbed, int heartRate, int steps, int rawIntensity) {
+        if ((eventCount + 1) * EVENT_SIZE > events.length) {
+            events = Arrays.copyOf(events, events.length * 2);
+        }
+        final int event = eventCount * EVENT_SIZE;
+        events[event + EVENT_TIMESTAMP] = timestamp;
+        events[event + EVENT_KIND] = kind.ordinal();
+        events[event + EVENT_RAW_KIND] = rawKind;
+        events[event + EVENT_CALORIES_BURNT] = caloriesBurnt;
+        events[event + EVENT_FLOORS_CLIMBED] = floorsClimbed;
+        events[event + EVENT_HEART_RATE] = heartRate;
+        events[event + EVENT_STEPS] = steps;
+        events[event + EVENT_RAW_INTENSITY] = rawIntensity;
+        ++eventCount;
     }
 
-    private void processStressLevelMessage(FitMessage message) {
+    private void setField(int fieldNumber, double value) {
+        fieldValues[fieldNumber] = value;
+        fieldGenerations[fieldNumber] = generation;
     }
 
-    private void processMaxMetDataMessage(FitMessage message) {
+    private boolean hasField(int fieldNumber) {
+        return fieldGenerations[fieldNumber] == generation;
     }
 
-    private void addEvent(FitEvent event) {
-        List<FitEvent> eventsForTimestamp = eventsPerTimestamp.get(event.getTimestamp());
-        if (eventsForTimestamp == null) {
-            eventsForTimestamp = new ArrayList<>();
-            eventsPerTimestamp.put(event.getTimestamp(), eventsForTimestamp);
-        }
-        eventsForTimestamp.add(event);
+    private int getIntField(int fieldNumber) {
+        return (int) fieldValues[fieldNumber];
     }
 
-    private static class FitEvent {
-        private final int timestamp;
-        private final EventKind kind;
-        private final int rawKind;
-        private final int caloriesBurnt;
-        private final int floorsClimbed;
-        private final int heartRate;
-        private final int steps;
-        private final int rawIntensity;
-
-        private FitEvent(int timestamp, EventKind kind, int rawKind, int caloriesBurnt, int floorsClimbed, int heartRate, int steps, int rawIntensity) {
-            this.timestamp = timestamp;
-            this.kind = kind;
-            this.rawKind = rawKind;
-            this.caloriesBurnt = caloriesBurnt;
-            this.floorsClimbed = floorsClimbed;
-            this.heartRate = heartRate;
-            this.steps = steps;
-            this.rawIntensity = rawIntensity;
-        }
-
-        public int getTimestamp() {
-            return timestamp;
-        }
-
-        public EventKind getKind() {
-            return kind;
-        }
-
-        public int getRawKind() {
-            return rawKind;
-        }
-
-        public int getCaloriesBurnt() {
-            return caloriesBurnt;
-        }
-
-        public int getFloorsClimbed() {
-            return floorsClimbed;
-        }
-
-        public int getHeartRate() {
-            return heartRate;
-        }
-
-        public int getSteps() {
-            return steps;
-        }
-
-        public int getRawIntensity() {
-            return rawIntensity;
-        }
-
-        public enum EventKind {
-            UNKNOWN,
-            NOT_WORN,
-            WORN,
-            SLEEP,
-            ACTIVITY;
+    private static int getFieldNumber(FitMessageDefinition definition, String fieldName) {
+        return definition.findField(fieldName).fieldNumber;
+    }
 
-            public boolean isBetterThan(EventKind other) {
-                return ordinal() > other.ordinal();
-            }
-        }
+    // ordered from the least to the most relevant, when merging events with the same timestamp
+    private enum EventKind {
+        UNKNOWN,
+        NOT_WORN,
+        WORN,
+        SLEEP,
+        ACTIVITY,
     }
 }
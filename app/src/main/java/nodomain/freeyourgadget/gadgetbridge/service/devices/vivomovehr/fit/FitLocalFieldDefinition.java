@@ -20,10 +20,24 @@ class FitLocalFieldDefinition {
     public final FitMessageFieldDefinition globalDefinition;
     public final int size;
     public final FitFieldBaseType baseType;
+    private final boolean hasIntInvalidValue;
+    private final boolean hasLongInvalidValue;
+    private final long invalidValue;
 
     FitLocalFieldDefinition(FitMessageFieldDefinition globalDefinition, int size, FitFieldBaseType baseType) {
         this.globalDefinition = globalDefinition;
         this.size = size;
         this.baseType = baseType;
+        this.hasIntInvalidValue = baseType.invalidValue instanceof Integer;
+        this.hasLongInvalidValue = baseType.invalidValue instanceof Long;
+        this.invalidValue = baseType.invalidValue instanceof Number ? ((Number) baseType.invalidValue).longValue() : 0;
+    }
+
+    boolean isInvalid(int value) {
+        return hasIntInvalidValue && value == (int) invalidValue;
+    }
+
+    boolean isInvalid(long value) {
+        return hasLongInvalidValue && value == invalidValue;
     }
 }
@@ -21,9 +21,19 @@ import java.util.List;
 class FitLocalMessageDefinition {
     public final FitMessageDefinition globalDefinition;
     public final List<FitLocalFieldDefinition> fieldDefinitions;
+    // offset of each field within the data message (after the record header), and the total size
+    final int[] fieldOffsets;
+    final int messageSize;
 
     FitLocalMessageDefinition(FitMessageDefinition globalDefinition, List<FitLocalFieldDefinition> fieldDefinitions) {
         this.globalDefinition = globalDefinition;
         this.fieldDefinitions = fieldDefinitions;
+        this.fieldOffsets = new int[fieldDefinitions.size()];
+        int offset = 0;
+        for (int i = 0; i < fieldOffsets.length; ++i) {
+            fieldOffsets[i] = offset;
+            offset += fieldDefinitions.get(i).size;
+        }
+        this.messageSize = offset;
     }
 }
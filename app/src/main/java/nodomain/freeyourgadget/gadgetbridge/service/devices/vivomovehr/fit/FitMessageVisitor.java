@@ -0,0 +1,47 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit;
+
+/**
+ * Receives the data messages of a FIT file from {@link FitParser#parseFitStream}, field by
+ * field, without building a {@link FitMessage} for each of them.
+ * <p>
+ * Fields are identified by their field number within the message, invalid values are not
+ * reported. Integer fields of up to 4 bytes are reported as int, larger ones as long, and
+ * fields with a scale as double.
+ */
+public interface FitMessageVisitor {
+    /**
+     * @return false to skip the fields of the message without decoding them, in which case
+     * neither the field callbacks nor {@link #onMessageEnd} are called
+     */
+    boolean onMessageStart(FitMessageDefinition definition);
+
+    void onIntField(int fieldNumber, int value);
+
+    void onLongField(int fieldNumber, long value);
+
+    void onFloatField(int fieldNumber, float value);
+
+    void onDoubleField(int fieldNumber, double value);
+
+    void onStringField(int fieldNumber, String value);
+
+    void onBytesField(int fieldNumber, byte[] value);
+
+    void onMessageEnd(FitMessageDefinition definition);
+}
@@ -18,13 +18,13 @@ package nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit;
 
 import android.util.SparseArray;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
-import nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.messages.MessageReader;
-import nodomain.freeyourgadget.gadgetbridge.util.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -43,6 +43,8 @@ public class FitParser {
     private static final int MASK_TIME_OFFSET = 0x1F;
     private static final int MASK_COMPRESSED_LOCAL_MESSAGE_TYPE = 0x60;
 
+    private static final int BUFFER_SIZE = 8192;
+
     private final SparseArray<FitMessageDefinition> globalMessageDefinitions;
     private final SparseArray<FitLocalMessageDefinition> localMessageDefinitions = new SparseArray<>(16);
 
@@ -60,30 +62,43 @@ public class FitParser {
     public List<FitMessage> parseFitFile(byte[] data) {
         if (data.length < 12) throw new IllegalArgumentException("Too short data");
 
-        final MessageReader reader = new MessageReader(data);
-        final List<FitMessage> result = new ArrayList<>();
-        while (!reader.isEof()) {
-            final int fileHeaderStart = reader.getPosition();
-            final int fileHeaderSize = reader.readByte();
-            final int protocolVersion = reader.readByte();
-            final int profileVersion = reader.readShort();
-            final int dataSize = reader.readInt();
-            final int dataTypeMagic = reader.readInt();
-            final int headerCrc = fileHeaderSize >= 14 ? reader.readShort() : 0;
+        final FitMessageCollector collector = new FitMessageCollector();
+        try {
+            parseFitStream(new ByteArrayInputStream(data), collector);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated FIT file", e);
+        }
+        return collector.messages;
+    }
+
+    /**
+     * Parses the FIT file(s) from the stream and passes their data messages to the visitor,
+     * as they are read. Only a small buffer is kept in memory, regardless of the file size.
+     */
+    public void parseFitStream(InputStream stream, FitMessageVisitor visitor) throws IOException {
+        final FitInput input = new FitInput(stream);
+        while (input.hasMore()) {
+            final long fileHeaderStart = input.getPosition();
+            input.require(12);
+            final int fileHeaderSize = input.readByte();
+            final int protocolVersion = input.readByte();
+            final int profileVersion = input.readShort();
+            final int dataSize = input.readInt();
+            final int dataTypeMagic = input.readInt();
             if (dataTypeMagic != FIT_MAGIC) {
                 throw new IllegalArgumentException("Not a FIT file, data type signature not found");
             }
             if (fileHeaderSize < 12) throw new IllegalArgumentException("Header size too low");
-            reader.skip(fileHeaderSize - 14);
-
             // TODO: Check header CRC
+            input.skip(fileHeaderSize - 12);
 
             localMessageDefinitions.clear();
 
             int lastTimestamp = 0;
-            final int end = fileHeaderStart + fileHeaderSize + dataSize;
-            while (reader.getPosition() < end) {
-                final int recordHeader = reader.readByte();
+            final long end = fileHeaderStart + fileHeaderSize + (dataSize & 0xFFFFFFFFL);
+            while (input.getPosition() < end) {
+                input.require(1);
+                final int recordHeader = input.readByte();
                 final boolean isDefinitionMessage;
                 final int localMessageType;
                 final int currentTimestamp;
@@ -103,7 +118,7 @@ public class FitParser {
 
                 if (isDefinitionMessage) {
                     final boolean hasDeveloperFields = (recordHeader & FLAG_DEVELOPER_FIELDS) != 0;
-                    final FitLocalMessageDefinition definition = parseDefinitionMessage(reader, hasDeveloperFields);
+                    final FitLocalMessageDefinition definition = parseDefinitionMessage(input, hasDeveloperFields);
                     LOG.trace("Defining local message {} to global message {}", localMessageType, definition.globalDefinition.globalMessageID);
                     localMessageDefinitions.put(localMessageType, definition);
                 } else {
@@ -112,28 +127,36 @@ public class FitParser {
                         LOG.error("Use of undefined local message {}", localMessageType);
                         throw new IllegalArgumentException("Use of undefined local message " + localMessageType);
                     }
-                    final FitMessage dataMessage = new FitMessage(definition.globalDefinition);
-                    parseDataMessage(reader, definition, dataMessage);
-                    result.add(dataMessage);
+                    if (visitor.onMessageStart(definition.globalDefinition)) {
+                        input.require(definition.messageSize);
+                        parseDataMessage(input, definition, visitor);
+                        visitor.onMessageEnd(definition.globalDefinition);
+                    }
+                    input.skip(definition.messageSize);
                 }
             }
 
-            final int fileCrc = reader.readShort();
+            input.require(2);
+            final int fileCrc = input.readShort();
             // TODO: Check file CRC
         }
-        return result;
     }
 
-    private void parseDataMessage(MessageReader reader, FitLocalMessageDefinition localMessageDefinition, FitMessage dataMessage) {
-        for (FitLocalFieldDefinition localFieldDefinition : localMessageDefinition.fieldDefinitions) {
-            final Object value = readValue(reader, localFieldDefinition);
-            if (!localFieldDefinition.baseType.invalidValue.equals(value)) {
-                dataMessage.setField(localFieldDefinition.globalDefinition.fieldNumber, value);
-            }
+    /**
+     * Decodes the fields of a data message from the buffer of the input, without consuming it.
+     * The caller must have made sure that the whole message is buffered.
+     */
+    private void parseDataMessage(FitInput input, FitLocalMessageDefinition localMessageDefinition, FitMessageVisitor visitor) {
+        final byte[] buffer = input.buffer;
+        final int start = input.position;
+        final List<FitLocalFieldDefinition> fieldDefinitions = localMessageDefinition.fieldDefinitions;
+        for (int i = 0; i < fieldDefinitions.size(); ++i) {
+            readValue(buffer, start + localMessageDefinition.fieldOffsets[i], fieldDefinitions.get(i), visitor);
         }
     }
 
-    private Object readValue(MessageReader reader, FitLocalFieldDefinition fieldDefinition) {
+    private void readValue(byte[] buffer, int offset, FitLocalFieldDefinition fieldDefinition, FitMessageVisitor visitor) {
+        final int fieldNumber = fieldDefinition.globalDefinition.fieldNumber;
         //switch (fieldDefinition.baseType) {
         switch (fieldDefinition.globalDefinition.fieldType) {
             case ENUM:
@@ -149,120 +172,136 @@ public class FitParser {
             case SINT64:
             case UINT64:
             case UINT64Z:
-                return readFitNumber(reader, fieldDefinition.size, fieldDefinition.globalDefinition.scale, fieldDefinition.globalDefinition.offset);
+                readFitNumber(buffer, offset, fieldDefinition, visitor);
+                break;
             case BYTE:
-                return fieldDefinition.size == 1 ? reader.readByte() : reader.readBytes(fieldDefinition.size);
+                if (fieldDefinition.size == 1) {
+                    final int value = BLETypeConversions.toUnsigned(buffer, offset);
+                    if (!fieldDefinition.isInvalid(value)) visitor.onIntField(fieldNumber, value);
+                } else {
+                    final byte[] value = new byte[fieldDefinition.size];
+                    System.arraycopy(buffer, offset, value, 0, fieldDefinition.size);
+                    visitor.onBytesField(fieldNumber, value);
+                }
+                break;
             case STRING:
-                return readFitString(reader, fieldDefinition.size);
+                final String value = readFitString(buffer, offset, fieldDefinition.size);
+                if (!(fieldDefinition.baseType == FitFieldBaseType.STRING && value.isEmpty())) {
+                    visitor.onStringField(fieldNumber, value);
+                }
+                break;
             case FLOAT32:
-                return readFloat32(reader, fieldDefinition.size);
+                if (fieldDefinition.size != 4) {
+                    throw new IllegalArgumentException("Invalid size for Float32: " + fieldDefinition.size);
+                }
+                visitor.onFloatField(fieldNumber, Float.intBitsToFloat(BLETypeConversions.toUint32(buffer, offset)));
+                break;
             case FLOAT64:
-                return readFloat64(reader, fieldDefinition.size);
-            // TODO: Float data types
+                if (fieldDefinition.size != 8) {
+                    throw new IllegalArgumentException("Invalid size for Float64: " + fieldDefinition.size);
+                }
+                visitor.onDoubleField(fieldNumber, Double.longBitsToDouble(BLETypeConversions.toUint64(buffer, offset)));
+                break;
             default:
                 throw new IllegalArgumentException("Unable to read value of type " + fieldDefinition.baseType);
         }
     }
 
-    private float readFloat32(MessageReader reader, int size) {
-        if (size != 4) {
-            throw new IllegalArgumentException("Invalid size for Float32: " + size);
-        }
-        final byte[] bytes = reader.readBytes(size);
-        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-    }
-
-    private double readFloat64(MessageReader reader, int size) {
-        if (size != 8) {
-            throw new IllegalArgumentException("Invalid size for Float64: " + size);
-        }
-        final byte[] bytes = reader.readBytes(size);
-        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getDouble();
-    }
-
-    private String readFitString(MessageReader reader, int size) {
-        final byte[] bytes = reader.readBytes(size);
-        final int zero = ArrayUtils.indexOf((byte) 0, bytes);
-        if (zero < 0) {
-            LOG.warn("Unterminated string");
-            return new String(bytes, StandardCharsets.UTF_8);
+    private String readFitString(byte[] buffer, int offset, int size) {
+        for (int i = 0; i < size; ++i) {
+            if (buffer[offset + i] == 0) {
+                return new String(buffer, offset, i, StandardCharsets.UTF_8);
+            }
         }
-        return new String(bytes, 0, zero, StandardCharsets.UTF_8);
+        LOG.warn("Unterminated string");
+        return new String(buffer, offset, size, StandardCharsets.UTF_8);
     }
 
-    private Object readRawFitNumber(MessageReader reader, int size) {
-        switch (size) {
+    private void readFitNumber(byte[] buffer, int offset, FitLocalFieldDefinition fieldDefinition, FitMessageVisitor visitor) {
+        final int fieldNumber = fieldDefinition.globalDefinition.fieldNumber;
+        final double scale = fieldDefinition.globalDefinition.scale;
+        final int intValue;
+        final long longValue;
+        switch (fieldDefinition.size) {
             case 1:
-                return reader.readByte();
+                intValue = BLETypeConversions.toUnsigned(buffer, offset);
+                break;
             case 2:
-                return reader.readShort();
-            case 3: {
+                intValue = BLETypeConversions.toUint16(buffer, offset);
+                break;
+            case 3:
                 // this is strange?
-                byte[] bytes = new byte[4];
-                reader.readBytesTo(3, bytes, 0);
-                return BLETypeConversions.toUint32(bytes, 0);
-            }
+                intValue = BLETypeConversions.toUint16(buffer, offset) | (BLETypeConversions.toUnsigned(buffer, offset + 2) << 16);
+                break;
             case 4:
-                return reader.readInt();
+                intValue = BLETypeConversions.toUint32(buffer, offset);
+                break;
             case 7: {
                 // this is strange?
-                byte[] bytes = new byte[8];
-                reader.readBytesTo(7, bytes, 0);
-                return BLETypeConversions.toUint64(bytes, 0);
+                if (scale != 0) throw new IllegalArgumentException("Unable to read number of size " + fieldDefinition.size);
+                longValue = BLETypeConversions.toUint32(buffer, offset) & 0xFFFFFFFFL
+                        | (long) (BLETypeConversions.toUint16(buffer, offset + 4) | (BLETypeConversions.toUnsigned(buffer, offset + 6) << 16)) << 32;
+                if (!fieldDefinition.isInvalid(longValue)) visitor.onLongField(fieldNumber, longValue);
+                return;
             }
             case 8:
-                return reader.readLong();
-            case 12:
+                longValue = BLETypeConversions.toUint64(buffer, offset);
+                if (fieldDefinition.isInvalid(longValue)) return;
+                if (scale == 0) {
+                    visitor.onLongField(fieldNumber, longValue);
+                } else {
+                    visitor.onDoubleField(fieldNumber, longValue / scale + fieldDefinition.globalDefinition.offset);
+                }
+                return;
+            case 12: {
                 // this is strange?
-                long lower = reader.readLong();
-                int upper = reader.readInt();
-                return upper * ((double) Long.MAX_VALUE) + lower;
+                if (scale != 0) throw new IllegalArgumentException("Unable to read number of size " + fieldDefinition.size);
+                final long lower = BLETypeConversions.toUint64(buffer, offset);
+                final int upper = BLETypeConversions.toUint32(buffer, offset + 8);
+                visitor.onDoubleField(fieldNumber, upper * ((double) Long.MAX_VALUE) + lower);
+                return;
+            }
             case 16:
                 // this is strange?
-                return reader.readLong() + reader.readLong() * (double) (Long.MAX_VALUE);
+                if (scale != 0) throw new IllegalArgumentException("Unable to read number of size " + fieldDefinition.size);
+                visitor.onDoubleField(fieldNumber, BLETypeConversions.toUint64(buffer, offset) + BLETypeConversions.toUint64(buffer, offset + 8) * (double) (Long.MAX_VALUE));
+                return;
             case 32:
                 // this is strange?
                 // TODO: FIXME: 32-byte integer?!?
-                reader.skip(16);
-                return Math.pow(2, 128) * (reader.readLong() + reader.readLong() * (double) (Long.MAX_VALUE));
+                if (scale != 0) throw new IllegalArgumentException("Unable to read number of size " + fieldDefinition.size);
+                visitor.onDoubleField(fieldNumber, Math.pow(2, 128) * (BLETypeConversions.toUint64(buffer, offset + 16) + BLETypeConversions.toUint64(buffer, offset + 24) * (double) (Long.MAX_VALUE)));
+                return;
             default:
-                throw new IllegalArgumentException("Unable to read number of size " + size);
+                throw new IllegalArgumentException("Unable to read number of size " + fieldDefinition.size);
         }
-    }
 
-    private Object readFitNumber(MessageReader reader, int size, double scale, double offset) {
+        if (fieldDefinition.isInvalid(intValue)) return;
         if (scale == 0) {
-            return readRawFitNumber(reader, size);
+            visitor.onIntField(fieldNumber, intValue);
+        } else if (fieldDefinition.size == 3) {
+            throw new IllegalArgumentException("Unable to read number of size " + fieldDefinition.size);
         } else {
-            switch (size) {
-                case 1:
-                    return reader.readByte() / scale + offset;
-                case 2:
-                    return reader.readShort() / scale + offset;
-                case 4:
-                    return reader.readInt() / scale + offset;
-                case 8:
-                    return reader.readLong() / scale + offset;
-                default:
-                    throw new IllegalArgumentException("Unable to read number of size " + size);
-            }
+            visitor.onDoubleField(fieldNumber, intValue / scale + fieldDefinition.globalDefinition.offset);
         }
     }
 
-    private FitLocalMessageDefinition parseDefinitionMessage(MessageReader reader, boolean hasDeveloperFields) {
-        reader.skip(1);
-        final int architecture = reader.readByte();
+    private FitLocalMessageDefinition parseDefinitionMessage(FitInput input, boolean hasDeveloperFields) throws IOException {
+        input.require(5);
+        input.skip(1);
+        final int architecture = input.readByte();
         final boolean isBigEndian = architecture == 1;
         if (isBigEndian) throw new IllegalArgumentException("Big-endian data not supported yet");
-        final int globalMessageType = reader.readShort();
+        final int globalMessageType = input.readShort();
         final FitMessageDefinition messageDefinition = getGlobalDefinition(globalMessageType);
 
-        final int fieldCount = reader.readByte();
+        final int fieldCount = input.readByte();
         final List<FitLocalFieldDefinition> fields = new ArrayList<>(fieldCount);
+        input.require(fieldCount * 3);
         for (int i = 0; i < fieldCount; ++i) {
-            final int globalField = reader.readByte();
-            final int size = reader.readByte();
-            final int baseTypeNum = reader.readByte();
+            final int globalField = input.readByte();
+            final int size = input.readByte();
+            final int baseTypeNum = input.readByte();
             final FitFieldBaseType baseType = FitFieldBaseType.decodeTypeID(baseTypeNum);
 
             final FitMessageFieldDefinition globalFieldDefinition = getFieldDefinition(messageDefinition, globalField, size, baseType);
@@ -270,7 +309,8 @@ public class FitParser {
             fields.add(new FitLocalFieldDefinition(globalFieldDefinition, size, baseType));
         }
         if (hasDeveloperFields) {
-            final int developerFieldCount = reader.readByte();
+            input.require(1);
+            final int developerFieldCount = input.readByte();
             if (developerFieldCount != 0) throw new IllegalArgumentException("Developer fields not supported yet");
         }
 
@@ -298,4 +338,151 @@ public class FitParser {
         globalMessageDefinitions.append(globalMessageType, newDefinition);
         return newDefinition;
     }
+
+    /**
+     * Buffered little-endian reader over the stream. Reads only consume bytes that were made
+     * available by {@link #require(int)} before.
+     */
+    private static class FitInput {
+        private final InputStream stream;
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        // stream position of the start of the buffer
+        private long bufferStart;
+
+        FitInput(InputStream stream) {
+            this.stream = stream;
+        }
+
+        long getPosition() {
+            return bufferStart + position;
+        }
+
+        boolean hasMore() throws IOException {
+            return fill(1) >= 1;
+        }
+
+        void require(int size) throws IOException {
+            if (fill(size) < size) {
+                throw new EOFException("Unexpected end of FIT data, " + size + " bytes needed at " + getPosition());
+            }
+        }
+
+        /**
+         * Reads from the stream until at least the given number of bytes is buffered, or the
+         * stream ends.
+         *
+         * @return the number of buffered bytes
+         */
+        private int fill(int size) throws IOException {
+            if (limit - position >= size) {
+                return limit - position;
+            }
+            if (size > buffer.length) {
+                final byte[] newBuffer = new byte[Math.max(size, buffer.length * 2)];
+                System.arraycopy(buffer, position, newBuffer, 0, limit - position);
+                buffer = newBuffer;
+            } else if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+            }
+            limit -= position;
+            bufferStart += position;
+            position = 0;
+            while (limit < size) {
+                final int read = stream.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    break;
+                }
+                limit += read;
+            }
+            return limit;
+        }
+
+        void skip(int size) throws IOException {
+            final int buffered = Math.min(size, limit - position);
+            position += buffered;
+            long remaining = size - buffered;
+            if (remaining > 0) {
+                // the buffer is empty now, read the rest into it and discard it
+                bufferStart += limit;
+                position = 0;
+                limit = 0;
+            }
+            while (remaining > 0) {
+                final int read = stream.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of FIT data");
+                }
+                remaining -= read;
+                bufferStart += read;
+            }
+        }
+
+        int readByte() {
+            return BLETypeConversions.toUnsigned(buffer, position++);
+        }
+
+        int readShort() {
+            final int result = BLETypeConversions.toUint16(buffer, position);
+            position += 2;
+            return result;
+        }
+
+        int readInt() {
+            final int result = BLETypeConversions.toUint32(buffer, position);
+            position += 4;
+            return result;
+        }
+    }
+
+    /**
+     * Builds a {@link FitMessage} for each data message, for callers that need all of them.
+     */
+    private static class FitMessageCollector implements FitMessageVisitor {
+        private final List<FitMessage> messages = new ArrayList<>();
+        private FitMessage current;
+
+        @Override
+        public boolean onMessageStart(FitMessageDefinition definition) {
+            current = new FitMessage(definition);
+            return true;
+        }
+
+        @Override
+        public void onIntField(int fieldNumber, int value) {
+            current.setField(fieldNumber, value);
+        }
+
+        @Override
+        public void onLongField(int fieldNumber, long value) {
+            current.setField(fieldNumber, value);
+        }
+
+        @Override
+        public void onFloatField(int fieldNumber, float value) {
+            current.setField(fieldNumber, value);
+        }
+
+        @Override
+        public void onDoubleField(int fieldNumber, double value) {
+            current.setField(fieldNumber, value);
+        }
+
+        @Override
+        public void onStringField(int fieldNumber, String value) {
+            current.setField(fieldNumber, value);
+        }
+
+        @Override
+        public void onBytesField(int fieldNumber, byte[] value) {
+            current.setField(fieldNumber, value);
+        }
+
+        @Override
+        public void onMessageEnd(FitMessageDefinition definition) {
+            messages.add(current);
+            current = null;
+        }
+    }
 }
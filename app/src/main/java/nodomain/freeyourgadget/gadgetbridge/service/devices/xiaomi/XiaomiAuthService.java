@@ -50,11 +50,21 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.proto.xiaomi.XiaomiProto;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.services.AbstractXiaomiService;
+import nodomain.freeyourgadget.gadgetbridge.util.CryptoUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class XiaomiAuthService extends AbstractXiaomiService {
     private static final Logger LOG = LoggerFactory.getLogger(XiaomiAuthService.class);
 
+    // Every packet is encrypted, so avoid creating a cipher for each of them. The ciphers are
+    // not thread-safe, so there is one per thread.
+    private static final ThreadLocal<CCMBlockCipher> BLOCK_CIPHERS = new ThreadLocal<CCMBlockCipher>() {
+        @Override
+        protected CCMBlockCipher initialValue() {
+            return new CCMBlockCipher(new AESEngine());
+        }
+    };
+
 
     public static final int COMMAND_TYPE = 1;
 
@@ -306,9 +316,7 @@ public class XiaomiAuthService extends AbstractXiaomiService {
 
     protected static byte[] hmacSHA256(final byte[] key, final byte[] input) {
         try {
-            final Mac mac = Mac.getInstance("HmacSHA256");
-            mac.init(new SecretKeySpec(key, "HmacSHA256"));
-            return mac.doFinal(input);
+            return CryptoUtils.calcHmacSha256(key, input);
         } catch (final Exception e) {
             throw new RuntimeException("Failed to hmac", e);
         }
@@ -316,7 +324,7 @@ public class XiaomiAuthService extends AbstractXiaomiService {
 
     public static byte[] encrypt(final byte[] key, final byte[] nonce, final byte[] payload) throws
             CryptoException {
-        final CCMBlockCipher cipher = createBlockCipher(true, new SecretKeySpec(key, "AES"), nonce);
+        final CCMBlockCipher cipher = initBlockCipher(true, key, nonce);
         final byte[] out = new byte[cipher.getOutputSize(payload.length)];
         final int outBytes = cipher.processBytes(payload, 0, payload.length, out, 0);
         cipher.doFinal(out, outBytes);
@@ -326,12 +334,21 @@ public class XiaomiAuthService extends AbstractXiaomiService {
     public static byte[] decrypt(final byte[] key,
                                  final byte[] nonce,
                                  final byte[] encryptedPayload) throws CryptoException {
-        final CCMBlockCipher cipher = createBlockCipher(false, new SecretKeySpec(key, "AES"), nonce);
+        final CCMBlockCipher cipher = initBlockCipher(false, key, nonce);
         final byte[] decrypted = new byte[cipher.getOutputSize(encryptedPayload.length)];
         cipher.doFinal(decrypted, cipher.processBytes(encryptedPayload, 0, encryptedPayload.length, decrypted, 0));
         return decrypted;
     }
 
+    private static CCMBlockCipher initBlockCipher(final boolean forEncrypt,
+                                                  final byte[] key,
+                                                  final byte[] nonce) {
+        // init resets the cipher, so it can be reused for every packet
+        final CCMBlockCipher blockCipher = BLOCK_CIPHERS.get();
+        blockCipher.init(forEncrypt, new AEADParameters(new KeyParameter(key), 32, nonce, null));
+        return blockCipher;
+    }
+
     public static CCMBlockCipher createBlockCipher(final boolean forEncrypt,
                                                    final SecretKey secretKey,
                                                    final byte[] nonce) {
@@ -36,6 +36,7 @@ import java.util.UUID;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 
 public class XiaomiCharacteristic {
     private final Logger LOG = LoggerFactory.getLogger(XiaomiCharacteristic.class);
@@ -346,7 +347,7 @@ public class XiaomiCharacteristic {
             return;
         }
 
-        LOG.debug("Will send {}", GB.hexdump(currentPayload.getBytesToSend()));
+        LOG.debug("Will send {}", Hex.of(currentPayload.getBytesToSend()));
 
         final boolean encrypt = isEncrypted && authService.isEncryptionInitialized();
 
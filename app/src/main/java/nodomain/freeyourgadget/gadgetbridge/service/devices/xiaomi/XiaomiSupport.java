@@ -74,7 +74,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.services.Xiao
 import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.services.XiaomiWatchfaceService;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.services.XiaomiWeatherService;
 import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
 public class XiaomiSupport extends AbstractDeviceSupport {
@@ -211,7 +211,7 @@ public class XiaomiSupport extends AbstractDeviceSupport {
     }
 
     public void handleCommandBytes(final byte[] plainValue) {
-        LOG.debug("Got command: {}", GB.hexdump(plainValue));
+        LOG.debug("Got command: {}", Hex.of(plainValue));
 
         final XiaomiProto.Command cmd;
         try {
@@ -27,16 +27,8 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
-import nodomain.freeyourgadget.gadgetbridge.GBApplication;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
-import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
-import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
-import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
-import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleSink;
 import nodomain.freeyourgadget.gadgetbridge.entities.XiaomiActivitySample;
-import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.XiaomiSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.activity.XiaomiActivityFileId;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.activity.XiaomiActivityParser;
@@ -154,21 +146,12 @@ public class DailyDetailsParser extends XiaomiActivityParser {
         }
 
         // save all the samples that we got
-        try (DBHandler handler = GBApplication.acquireDB()) {
-            final DaoSession session = handler.getDaoSession();
-
-            final GBDevice gbDevice = support.getDevice();
-            final DeviceCoordinator coordinator = gbDevice.getDeviceCoordinator();
-            final SampleProvider<XiaomiActivitySample> sampleProvider = (SampleProvider<XiaomiActivitySample>) coordinator.getSampleProvider(gbDevice, session);
-            final Device device = DBHelper.getDevice(gbDevice, session);
-            final User user = DBHelper.getUser(session);
-
+        try {
+            final SampleSink<XiaomiActivitySample> sink = new SampleSink<>(support.getDevice(), XiaomiActivitySample.class);
             for (final XiaomiActivitySample sample : samples) {
-                sample.setDevice(device);
-                sample.setUser(user);
-                sample.setProvider(sampleProvider);
+                sink.add(sample);
             }
-            sampleProvider.addGBActivitySamples(samples.toArray(new XiaomiActivitySample[0]));
+            sink.finish();
 
             return true;
         } catch (final Exception e) {
@@ -0,0 +1,172 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Finds any number of words in a text in a single pass over the text, using the Aho-Corasick
+ * algorithm. Matching is case-sensitive, like {@link String#contains(CharSequence)}.
+ * <p>
+ * Instances are immutable once constructed and can be shared between threads.
+ */
+public class AhoCorasick {
+    private static final int ROOT = 0;
+
+    private final int wordCount;
+    // state -> sorted characters of the trie edges leaving it, and the states they lead to
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] fail;
+    // state -> indices of the words that end in this state, including through the fail links
+    private final int[][] output;
+    // words that are empty, and are therefore found in every text
+    private final BitSet emptyWords = new BitSet();
+
+    public AhoCorasick(final Collection<String> words) {
+        this.wordCount = words.size();
+
+        final List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        final List<List<Integer>> outputs = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        outputs.add(new ArrayList<>(0));
+
+        int index = 0;
+        for (final String word : words) {
+            if (word.isEmpty()) {
+                emptyWords.set(index++);
+                continue;
+            }
+            int state = ROOT;
+            for (int i = 0; i < word.length(); i++) {
+                final Character c = word.charAt(i);
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    outputs.add(new ArrayList<>(0));
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            outputs.get(state).add(index++);
+        }
+
+        edgeChars = new char[trie.size()][];
+        edgeTargets = new int[trie.size()][];
+        for (int state = 0; state < trie.size(); state++) {
+            final TreeMap<Character, Integer> edges = trie.get(state);
+            edgeChars[state] = new char[edges.size()];
+            edgeTargets[state] = new int[edges.size()];
+            int i = 0;
+            for (final Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                edgeChars[state][i] = edge.getKey();
+                edgeTargets[state][i] = edge.getValue();
+                i++;
+            }
+        }
+
+        // breadth-first, so that the fail state of every state is computed before its children
+        fail = new int[trie.size()];
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (final int child : edgeTargets[ROOT]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            for (int i = 0; i < edgeChars[state].length; i++) {
+                final int child = edgeTargets[state][i];
+                fail[child] = next(fail[state], edgeChars[state][i]);
+                outputs.get(child).addAll(outputs.get(fail[child]));
+                queue.add(child);
+            }
+        }
+
+        output = new int[outputs.size()][];
+        for (int state = 0; state < output.length; state++) {
+            final List<Integer> stateOutput = outputs.get(state);
+            output[state] = new int[stateOutput.size()];
+            for (int i = 0; i < output[state].length; i++) {
+                output[state][i] = stateOutput.get(i);
+            }
+        }
+    }
+
+    private int next(int state, final char c) {
+        while (true) {
+            final int i = Arrays.binarySearch(edgeChars[state], c);
+            if (i >= 0) {
+                return edgeTargets[state][i];
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = fail[state];
+        }
+    }
+
+    /**
+     * @return the number of words
+     */
+    public int size() {
+        return wordCount;
+    }
+
+    /**
+     * @return true if at least one of the words occurs in the text
+     */
+    public boolean containsAny(final CharSequence text) {
+        if (!emptyWords.isEmpty()) {
+            return true;
+        }
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, text.charAt(i));
+            if (output[state].length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if every word occurs in the text, which is the case if there are no words
+     */
+    public boolean containsAll(final CharSequence text) {
+        final BitSet found = (BitSet) emptyWords.clone();
+        int foundCount = found.cardinality();
+        int state = ROOT;
+        for (int i = 0; i < text.length() && foundCount < wordCount; i++) {
+            state = next(state, text.charAt(i));
+            for (final int word : output[state]) {
+                if (!found.get(word)) {
+                    found.set(word);
+                    foundCount++;
+                }
+            }
+        }
+        return foundCount == wordCount;
+    }
+}
@@ -16,17 +16,18 @@
     along with this program.  If not, see <https://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.util;
 
-import android.annotation.SuppressLint;
-
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.InvalidKeySpecException;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -41,41 +42,162 @@ import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
 public class CryptoUtils {
+    /**
+     * Cipher.getInstance and Mac.getInstance go through the provider lookup, which dominates the
+     * cost of encrypting the small payloads sent to and received from devices. Instances are not
+     * thread-safe, so they are cached per thread.
+     */
+    private static final ThreadLocal<Map<String, Cipher>> CIPHERS = new ThreadLocal<Map<String, Cipher>>() {
+        @Override
+        protected Map<String, Cipher> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private static final ThreadLocal<Map<String, Mac>> MACS = new ThreadLocal<Map<String, Mac>>() {
+        @Override
+        protected Map<String, Mac> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    /**
+     * @return a cipher for the transformation, cached for the calling thread. It must be
+     * initialized before every use.
+     */
+    public static Cipher getCipher(String transformation) throws NoSuchPaddingException, NoSuchAlgorithmException {
+        final Map<String, Cipher> ciphers = CIPHERS.get();
+        Cipher cipher = ciphers.get(transformation);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            ciphers.put(transformation, cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * @return a mac for the algorithm, cached for the calling thread. It must be initialized
+     * before every use.
+     */
+    public static Mac getMac(String algorithm) throws NoSuchAlgorithmException {
+        final Map<String, Mac> macs = MACS.get();
+        Mac mac = macs.get(algorithm);
+        if (mac == null) {
+            mac = Mac.getInstance(algorithm);
+            macs.put(algorithm, mac);
+        }
+        return mac;
+    }
+
+    private static Cipher initCipher(String transformation, int opmode, SecretKeySpec key, AlgorithmParameterSpec params) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
+        Cipher cipher = getCipher(transformation);
+        try {
+            if (params != null) {
+                cipher.init(opmode, key, params);
+            } else {
+                cipher.init(opmode, key);
+            }
+        } catch (InvalidAlgorithmParameterException e) {
+            // Some providers refuse to re-initialize an instance that encrypted with the same
+            // key and iv before. That protects against nonce reuse when encrypting, so only
+            // decryption may work around it with a new instance.
+            if (!(params instanceof GCMParameterSpec) || opmode != Cipher.DECRYPT_MODE) {
+                throw e;
+            }
+            cipher = Cipher.getInstance(transformation);
+            CIPHERS.get().put(transformation, cipher);
+            cipher.init(opmode, key, params);
+        }
+        return cipher;
+    }
+
     public static byte[] encryptAES(byte[] value, byte[] secretKey) throws InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, BadPaddingException, IllegalBlockSizeException {
-        @SuppressLint("GetInstance") Cipher ecipher = Cipher.getInstance("AES/ECB/NoPadding");
-        SecretKeySpec newKey = new SecretKeySpec(secretKey, "AES");
-        ecipher.init(Cipher.ENCRYPT_MODE, newKey);
-        return ecipher.doFinal(value);
+        try {
+            return initCipher("AES/ECB/NoPadding", Cipher.ENCRYPT_MODE, new SecretKeySpec(secretKey, "AES"), null).doFinal(value);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new InvalidKeyException(e);
+        }
     }
 
     public static byte[] decryptAES(byte[] value, byte[] secretKey) throws InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, BadPaddingException, IllegalBlockSizeException {
-        @SuppressLint("GetInstance") Cipher ecipher = Cipher.getInstance("AES/ECB/NoPadding");
-        SecretKeySpec newKey = new SecretKeySpec(secretKey, "AES");
-        ecipher.init(Cipher.DECRYPT_MODE, newKey);
-        return ecipher.doFinal(value);
+        try {
+            return initCipher("AES/ECB/NoPadding", Cipher.DECRYPT_MODE, new SecretKeySpec(secretKey, "AES"), null).doFinal(value);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new InvalidKeyException(e);
+        }
+    }
+
+    /**
+     * AES/ECB for a fixed key, such as a session key. Each thread keeps its own initialized
+     * ciphers, so neither the provider lookup nor the key setup is repeated for every payload.
+     */
+    public static class AesEcbContext {
+        private final SecretKeySpec key;
+        private final ThreadLocal<Cipher> encryptCipher = new ThreadLocal<>();
+        private final ThreadLocal<Cipher> decryptCipher = new ThreadLocal<>();
+
+        public AesEcbContext(byte[] key) {
+            this.key = new SecretKeySpec(key, "AES");
+        }
+
+        public byte[] encrypt(byte[] value) throws GeneralSecurityException {
+            byte[] output = new byte[value.length];
+            encrypt(value, 0, value.length, output, 0);
+            return output;
+        }
+
+        public byte[] decrypt(byte[] value) throws GeneralSecurityException {
+            byte[] output = new byte[value.length];
+            decrypt(value, 0, value.length, output, 0);
+            return output;
+        }
+
+        /**
+         * Encrypts into the output buffer, which may be the input buffer itself.
+         * @return the number of bytes written
+         */
+        public int encrypt(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) throws GeneralSecurityException {
+            return doFinal(encryptCipher, Cipher.ENCRYPT_MODE, input, inputOffset, length, output, outputOffset);
+        }
+
+        /**
+         * Decrypts into the output buffer, which may be the input buffer itself.
+         * @return the number of bytes written
+         */
+        public int decrypt(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) throws GeneralSecurityException {
+            return doFinal(decryptCipher, Cipher.DECRYPT_MODE, input, inputOffset, length, output, outputOffset);
+        }
+
+        private int doFinal(ThreadLocal<Cipher> cache, int opmode, byte[] input, int inputOffset, int length, byte[] output, int outputOffset) throws GeneralSecurityException {
+            Cipher cipher = cache.get();
+            if (cipher == null) {
+                // not shared with getCipher, since that one is re-initialized with other keys
+                cipher = Cipher.getInstance("AES/ECB/NoPadding");
+                cipher.init(opmode, key);
+                cache.set(cipher);
+            }
+            try {
+                // doFinal resets the cipher to its initialized state
+                return cipher.doFinal(input, inputOffset, length, output, outputOffset);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                cache.remove();
+                throw e;
+            }
+        }
     }
 
     public static byte[] encryptAES_CBC_Pad(byte[] data, byte[] key, byte[] iv) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-        AlgorithmParameterSpec paramSpec = new IvParameterSpec(iv);
-        cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, paramSpec);
+        Cipher cipher = initCipher("AES/CBC/PKCS5Padding", Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
         return cipher.doFinal(data);
     }
 
     public static byte[] decryptAES_CBC_Pad(byte[] data, byte[] key, byte[] iv) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-        AlgorithmParameterSpec paramSpec = new IvParameterSpec(iv);
-        cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, paramSpec);
+        Cipher cipher = initCipher("AES/CBC/PKCS5Padding", Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
         return cipher.doFinal(data);
     }
 
     public static byte[] encryptAES_GCM_NoPad(byte[] data, byte[] key, byte[] iv, byte[] aad) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-        GCMParameterSpec paramSpec = new GCMParameterSpec(16 * 8, iv);
-        cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, paramSpec);
+        Cipher cipher = initCipher("AES/GCM/NoPadding", Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(16 * 8, iv));
         if (aad != null) {
             cipher.updateAAD(aad);
         }
@@ -83,10 +205,7 @@ public class CryptoUtils {
     }
 
     public static byte[] decryptAES_GCM_NoPad(byte[] data, byte[] key, byte[] iv, byte[] aad) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-        GCMParameterSpec paramSpec = new GCMParameterSpec(16 * 8, iv);
-        cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, paramSpec);
+        Cipher cipher = initCipher("AES/GCM/NoPadding", Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(16 * 8, iv));
         if (aad != null) {
             cipher.updateAAD(aad);
         }
@@ -94,7 +213,7 @@ public class CryptoUtils {
     }
 
     public static byte[] calcHmacSha256(byte[] secretKey, byte[] message) throws NoSuchAlgorithmException, InvalidKeyException {
-        Mac mac = Mac.getInstance("HmacSHA256");
+        Mac mac = getMac("HmacSHA256");
         SecretKeySpec secretKeySpec = new SecretKeySpec(secretKey, "HmacSHA256");
         mac.init(secretKeySpec);
         return mac.doFinal(message);
@@ -116,7 +235,7 @@ public class CryptoUtils {
         byte[] hashRound = new byte[0];
 
         ByteBuffer generatedBytes = ByteBuffer.allocate(n * hashLen);
-        Mac mac = Mac.getInstance("HmacSHA256");
+        Mac mac = getMac("HmacSHA256");
         mac.init(pseudoSecretKey);
         for (int roundNum = 1; roundNum <= n; roundNum++) {
           mac.reset();
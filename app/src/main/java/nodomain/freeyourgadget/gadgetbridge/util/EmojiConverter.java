@@ -22,8 +22,12 @@ import android.content.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+
 import io.wax911.emojify.EmojiManager;
 import io.wax911.emojify.EmojiUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.language.CompiledTransliterator;
+import nodomain.freeyourgadget.gadgetbridge.util.language.Transliterator;
 
 public class EmojiConverter {
     private static final Logger LOG = LoggerFactory.getLogger(EmojiConverter.class);
@@ -65,15 +69,24 @@ public class EmojiConverter {
             {"\u2764", "<3"},         // heart
     };
 
+    // Every mapping replaces a single code point, so they can all be applied in one pass
+    private static final Transliterator simpleEmojiTransliterator = new CompiledTransliterator(
+            Collections.<Transliterator>singletonList(EmojiConverter::replaceSimpleEmoji)
+    );
+
     private static boolean isEmojiDataInitialised = false;
 
-    private static String convertSimpleEmojiToAscii(String text) {
+    private static String replaceSimpleEmoji(String text) {
         for (String[] emojiMap : simpleEmojiMapping) {
             text = text.replace(emojiMap[0], emojiMap[1]);
         }
         return text;
     }
 
+    private static String convertSimpleEmojiToAscii(String text) {
+        return simpleEmojiTransliterator.transliterate(text);
+    }
+
     private static synchronized void initEmojiData(Context context) {
         // Do a lazy initialisation not to slowdown the startup and when it is needed
         if (!isEmojiDataInitialised) {
@@ -0,0 +1,211 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only view of a firmware or file to be uploaded to a device. When backed by a file, the
+ * contents are memory-mapped instead of being loaded into the heap, so that large firmwares can
+ * be sent packet by packet without holding a copy of the whole file.
+ */
+public class FirmwareSource implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(FirmwareSource.class);
+
+    private static final int SCRATCH_SIZE = 64 * 1024;
+
+    private final ByteBuffer buffer;
+    @Nullable
+    private final File tempFile;
+
+    private boolean crc32Computed;
+    private int crc32;
+    private boolean crc16Computed;
+    private int crc16;
+
+    private FirmwareSource(final ByteBuffer buffer, @Nullable final File tempFile) {
+        this.buffer = buffer;
+        this.tempFile = tempFile;
+    }
+
+    public static FirmwareSource fromBytes(@NonNull final byte[] bytes) {
+        return new FirmwareSource(ByteBuffer.wrap(bytes).asReadOnlyBuffer(), null);
+    }
+
+    public static FirmwareSource fromFile(@NonNull final File file) throws IOException {
+        return new FirmwareSource(map(file), null);
+    }
+
+    /**
+     * Maps the file behind the uri. Content uris are copied to a temporary file in the cache
+     * directory first, which is deleted when the source is closed.
+     */
+    public static FirmwareSource fromUri(@NonNull final Uri uri, @NonNull final Context context) throws IOException {
+        return fromUri(uri, context, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #fromUri(Uri, Context)}, but fails with an IOException if the contents of
+     * the uri are larger than maxSize bytes.
+     */
+    public static FirmwareSource fromUri(@NonNull final Uri uri, @NonNull final Context context, final long maxSize) throws IOException {
+        final UriHelper uriHelper = UriHelper.get(uri, context);
+        if (uriHelper.getFileSize() > maxSize) {
+            throw new IOException("File too large: " + uriHelper.getFileSize() + " bytes, at most " + maxSize + " are supported");
+        }
+        final File file = uriHelper.getFile();
+        if (file != null) {
+            return fromFile(file);
+        }
+
+        final File tempFile = File.createTempFile("fwsource", ".bin", context.getCacheDir());
+        tempFile.deleteOnExit();
+        try {
+            try (InputStream in = uriHelper.openInputStream();
+                 OutputStream out = new FileOutputStream(tempFile)) {
+                final byte[] scratch = new byte[SCRATCH_SIZE];
+                long total = 0;
+                int read;
+                while ((read = in.read(scratch)) != -1) {
+                    total += read;
+                    // the size reported by content providers is not always reliable
+                    if (total > maxSize) {
+                        throw new IOException("File too large: more than " + maxSize + " bytes");
+                    }
+                    out.write(scratch, 0, read);
+                }
+            }
+            return new FirmwareSource(map(tempFile), tempFile);
+        } catch (final IOException e) {
+            deleteTempFile(tempFile);
+            throw e;
+        }
+    }
+
+    private static ByteBuffer map(final File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to be mapped: " + size + " bytes");
+            }
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    private static void deleteTempFile(final File file) {
+        if (!file.delete()) {
+            LOG.warn("Failed to delete temporary file {}", file);
+        }
+    }
+
+    public int size() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return a read-only view of the given range, sharing the contents of this source
+     */
+    public ByteBuffer slice(final int offset, final int length) {
+        checkRange(offset, length);
+        final ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+    public void read(final int offset, final byte[] dst, final int dstOffset, final int length) {
+        checkRange(offset, length);
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(dst, dstOffset, length);
+    }
+
+    public byte[] getBytes(final int offset, final int length) {
+        final byte[] bytes = new byte[length];
+        read(offset, bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * @return the CRC32 of the whole source, computed on first use in chunks of 64KB
+     */
+    public synchronized int getCrc32() {
+        if (!crc32Computed) {
+            final CRC32 crc = new CRC32();
+            final byte[] scratch = new byte[Math.min(SCRATCH_SIZE, size())];
+            for (int offset = 0; offset < size(); offset += scratch.length) {
+                final int length = Math.min(scratch.length, size() - offset);
+                read(offset, scratch, 0, length);
+                crc.update(scratch, 0, length);
+            }
+            crc32 = (int) crc.getValue();
+            crc32Computed = true;
+        }
+        return crc32;
+    }
+
+    /**
+     * @return the CRC16 of the whole source, as computed by {@link CheckSums#getCRC16(byte[])}
+     */
+    public synchronized int getCrc16() {
+        if (!crc16Computed) {
+            int crc = 0xFFFF;
+            final byte[] scratch = new byte[Math.min(SCRATCH_SIZE, size())];
+            for (int offset = 0; offset < size(); offset += scratch.length) {
+                final int length = Math.min(scratch.length, size() - offset);
+                read(offset, scratch, 0, length);
+                crc = CheckSums.getCRC16(scratch, 0, length, crc);
+            }
+            crc16 = crc & 0xFFFF;
+            crc16Computed = true;
+        }
+        return crc16;
+    }
+
+    private void checkRange(final int offset, final int length) {
+        if (offset < 0 || length < 0 || offset + length > size()) {
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " out of bounds for size " + size());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (tempFile != null) {
+            deleteTempFile(tempFile);
+        }
+    }
+}
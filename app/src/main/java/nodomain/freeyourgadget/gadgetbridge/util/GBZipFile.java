@@ -19,24 +19,51 @@ package nodomain.freeyourgadget.gadgetbridge.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
-import java.util.zip.ZipInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
- * Utility class for recognition and reading of ZIP archives.
+ * Utility class for recognition and reading of ZIP archives.<br>
+ * The central directory is parsed once, on first access, into an index of all entries. Entries
+ * are then read directly from their offset, so looking up several files does not inflate the
+ * archive over and over again.
  */
-public class GBZipFile {
+public class GBZipFile implements Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(GBZipFile.class);
     public static final byte[] ZIP_HEADER = new byte[]{
         0x50, 0x4B, 0x03, 0x04
     };
 
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
     private final byte[] zipBytes;
+    private final FileChannel zipChannel;
+
+    private Map<String, Entry> entries;
 
     /**
      * Open ZIP file from byte array already in memory.
@@ -44,6 +71,7 @@ public class GBZipFile {
      */
     public GBZipFile(byte[] zipBytes) {
         this.zipBytes = zipBytes;
+        this.zipChannel = null;
     }
 
     /**
@@ -52,7 +80,18 @@ public class GBZipFile {
      * @param inputStream data to handle as a ZIP file.
      */
     public GBZipFile(InputStream inputStream) throws IOException {
-        this.zipBytes = readAllBytes(inputStream);
+        this(readAllBytes(inputStream));
+    }
+
+    /**
+     * Open ZIP file from a seekable channel.<br>
+     * Only the central directory and the requested entries are read, the archive is never loaded
+     * into memory as a whole. The channel is closed by {@link #close()}.
+     * @param channel data to handle as a ZIP file.
+     */
+    public GBZipFile(FileChannel channel) {
+        this.zipBytes = null;
+        this.zipChannel = channel;
     }
 
     /**
@@ -72,48 +111,111 @@ public class GBZipFile {
      * @throws ZipFileException If the specified path does not exist or references a directory, or if some other I/O error occurs. In other words, if return value would otherwise be null.
      */
     public byte[] getFileFromZip(final String path) throws ZipFileException {
-        try (InputStream is = new ByteArrayInputStream(zipBytes); ZipInputStream zipInputStream = new ZipInputStream(is)) {
-            ZipEntry zipEntry;
-            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
-                if (!zipEntry.getName().equals(path)) continue; // TODO: is this always a path? The documentation is very vague.
+        final Entry entry = getFileEntry(path);
 
-                if (zipEntry.isDirectory()) {
-                    throw new ZipFileException(String.format("Path in ZIP file is a directory: %s", path));
-                }
+        if (entry.uncompressedSize > Integer.MAX_VALUE || entry.compressedSize > Integer.MAX_VALUE) {
+            throw new ZipFileException(String.format("Path in ZIP file is too large: %s", path));
+        }
 
-                return readAllBytes(zipInputStream);
+        final byte[] data;
+        try {
+            final long dataOffset = getDataOffset(entry);
+            if (entry.method == METHOD_STORED) {
+                data = new byte[(int) entry.compressedSize];
+                read(dataOffset, data, 0, data.length);
+            } else {
+                data = new byte[(int) entry.uncompressedSize];
+                final Inflater inflater = new Inflater(true);
+                try {
+                    if (zipBytes != null) {
+                        inflater.setInput(zipBytes, (int) dataOffset, (int) entry.compressedSize);
+                    } else {
+                        final byte[] compressed = new byte[(int) entry.compressedSize];
+                        read(dataOffset, compressed, 0, compressed.length);
+                        inflater.setInput(compressed);
+                    }
+                    int inflated = 0;
+                    while (inflated < data.length) {
+                        final int n = inflater.inflate(data, inflated, data.length - inflated);
+                        if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        inflated += n;
+                    }
+                    if (inflated != data.length) {
+                        throw new ZipFileException("The ZIP file might be corrupted");
+                    }
+                } finally {
+                    inflater.end();
+                }
             }
-
-            throw new ZipFileException(String.format("Path in ZIP file was not found: %s", path));
-
-        } catch (ZipException e) {
+        } catch (final DataFormatException e) {
             throw new ZipFileException("The ZIP file might be corrupted", e);
-        } catch (IOException e) {
+        } catch (final IOException e) {
             throw new ZipFileException("General IO error", e);
         }
-    }
 
-    public boolean fileExists(final String path) throws ZipFileException {
-        try (InputStream is = new ByteArrayInputStream(zipBytes); ZipInputStream zipInputStream = new ZipInputStream(is)) {
-            ZipEntry zipEntry;
-            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
-                if (!zipEntry.getName().equals(path)) {
-                    continue;
-                }
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        if (crc.getValue() != entry.crc) {
+            throw new ZipFileException(String.format("CRC mismatch for path in ZIP file: %s", path));
+        }
 
-                if (zipEntry.isDirectory()) {
-                    return false;
-                }
+        return data;
+    }
 
-                return true;
-            }
+    /**
+     * Opens a stream over the contents of file at path, without reading it into memory.<br>
+     * The stream has to be closed by the caller, and is only valid while this ZIP file is open.
+     * The length and CRC of the file are verified when reaching its end, the stream throws an
+     * IOException instead of returning the end of the file if they do not match.
+     * @param path Path of the file in the ZIP file.
+     * @return stream returning the uncompressed contents of the requested file.
+     * @throws ZipFileException If the specified path does not exist or references a directory, or if some other I/O error occurs.
+     */
+    public InputStream getInputStream(final String path) throws ZipFileException {
+        final Entry entry = getFileEntry(path);
 
-            return false;
-        } catch (final ZipException e) {
-            throw new ZipFileException("The ZIP file might be corrupted", e);
+        final InputStream rawStream;
+        try {
+            rawStream = new RangeInputStream(getDataOffset(entry), entry.compressedSize);
         } catch (final IOException e) {
             throw new ZipFileException("General IO error", e);
         }
+
+        if (entry.method == METHOD_STORED) {
+            return new CheckedEntryInputStream(rawStream, entry);
+        }
+        return new CheckedEntryInputStream(new EntryInflaterInputStream(rawStream), entry);
+    }
+
+    /**
+     * Returns the uncompressed size of file at path, as recorded in the central directory, without
+     * reading the file. {@link #getFileFromZip(String)} never returns more than this.
+     * @param path Path of the file in the ZIP file.
+     * @throws ZipFileException If the specified path does not exist or references a directory, or if some other I/O error occurs.
+     */
+    public long getFileSize(final String path) throws ZipFileException {
+        return getFileEntry(path).uncompressedSize;
+    }
+
+    public boolean fileExists(final String path) throws ZipFileException {
+        final Entry entry = getEntries().get(path);
+        return entry != null && !entry.isDirectory();
+    }
+
+    /**
+     * @return the names of all entries in the ZIP file, including directories, in archive order.
+     */
+    public Set<String> getEntryNames() throws ZipFileException {
+        return Collections.unmodifiableSet(getEntries().keySet());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (zipChannel != null) {
+            zipChannel.close();
+        }
     }
 
     public static byte[] readAllBytes(final InputStream is) throws IOException {
@@ -128,4 +230,316 @@ public class GBZipFile {
 
         return buffer.toByteArray();
     }
-}
\ No newline at end of file
+
+    private Entry getFileEntry(final String path) throws ZipFileException {
+        final Entry entry = getEntries().get(path);
+        if (entry == null) {
+            throw new ZipFileException(String.format("Path in ZIP file was not found: %s", path));
+        }
+        if (entry.isDirectory()) {
+            throw new ZipFileException(String.format("Path in ZIP file is a directory: %s", path));
+        }
+        if (entry.method != METHOD_STORED && entry.method != METHOD_DEFLATED) {
+            throw new ZipFileException(String.format("Unsupported compression method %d for path in ZIP file: %s", entry.method, path));
+        }
+        return entry;
+    }
+
+    private synchronized Map<String, Entry> getEntries() throws ZipFileException {
+        if (entries == null) {
+            try {
+                entries = readCentralDirectory();
+            } catch (final IOException e) {
+                throw new ZipFileException("General IO error", e);
+            }
+        }
+        return entries;
+    }
+
+    private Map<String, Entry> readCentralDirectory() throws IOException, ZipFileException {
+        final long size = size();
+        final int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        final byte[] tail = new byte[tailSize];
+        read(size - tailSize, tail, 0, tailSize);
+
+        int eocd = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (readInt(tail, i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipFileException("The ZIP file might be corrupted: central directory not found");
+        }
+
+        final int entryCount = readShort(tail, eocd + 10);
+        final long directorySize = readInt(tail, eocd + 12) & 0xFFFFFFFFL;
+        final long directoryOffset = readInt(tail, eocd + 16) & 0xFFFFFFFFL;
+        if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+            throw new ZipFileException("ZIP64 archives are not supported");
+        }
+        if (directoryOffset + directorySize > size - tailSize + eocd || directorySize > Integer.MAX_VALUE) {
+            throw new ZipFileException("The ZIP file might be corrupted: invalid central directory");
+        }
+
+        final byte[] directory = new byte[(int) directorySize];
+        read(directoryOffset, directory, 0, directory.length);
+
+        final Map<String, Entry> result = new LinkedHashMap<>(entryCount * 2);
+        int pos = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > directory.length || readInt(directory, pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipFileException("The ZIP file might be corrupted: invalid central directory entry");
+            }
+            final int nameLength = readShort(directory, pos + 28);
+            final int extraLength = readShort(directory, pos + 30);
+            final int commentLength = readShort(directory, pos + 32);
+            if (pos + CENTRAL_HEADER_SIZE + nameLength > directory.length) {
+                throw new ZipFileException("The ZIP file might be corrupted: invalid central directory entry");
+            }
+
+            final String name = new String(directory, pos + CENTRAL_HEADER_SIZE, nameLength, StandardCharsets.UTF_8);
+            final Entry entry = new Entry(
+                    name,
+                    readShort(directory, pos + 10),
+                    readInt(directory, pos + 16) & 0xFFFFFFFFL,
+                    readInt(directory, pos + 20) & 0xFFFFFFFFL,
+                    readInt(directory, pos + 24) & 0xFFFFFFFFL,
+                    readInt(directory, pos + 42) & 0xFFFFFFFFL
+            );
+            // keep the first entry in case of duplicates, same as a sequential scan would
+            if (!result.containsKey(name)) {
+                result.put(name, entry);
+            }
+
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        LOG.debug("Indexed {} entries in ZIP file", result.size());
+
+        return result;
+    }
+
+    /**
+     * The sizes in the local header may be missing (data descriptor), but the name and extra
+     * field lengths may differ from the central directory, so the data offset is only known
+     * after reading the local header.
+     */
+    private long getDataOffset(final Entry entry) throws IOException, ZipFileException {
+        if (entry.dataOffset < 0) {
+            final byte[] header = new byte[LOCAL_HEADER_SIZE];
+            read(entry.localHeaderOffset, header, 0, header.length);
+            if (readInt(header, 0) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipFileException("The ZIP file might be corrupted: invalid local header for " + entry.name);
+            }
+            entry.dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + readShort(header, 26) + readShort(header, 28);
+        }
+        if (entry.dataOffset + entry.compressedSize > size()) {
+            throw new ZipFileException("The ZIP file might be corrupted: truncated entry " + entry.name);
+        }
+        return entry.dataOffset;
+    }
+
+    private long size() throws IOException {
+        if (zipBytes != null) {
+            return zipBytes.length;
+        }
+        return zipChannel.size();
+    }
+
+    private void read(long position, final byte[] buffer, int offset, int length) throws IOException {
+        if (position < 0 || position + length > size()) {
+            throw new EOFException("Read beyond the end of the ZIP file");
+        }
+        if (zipBytes != null) {
+            System.arraycopy(zipBytes, (int) position, buffer, offset, length);
+            return;
+        }
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length);
+        while (byteBuffer.hasRemaining()) {
+            final int n = zipChannel.read(byteBuffer, position);
+            if (n < 0) {
+                throw new EOFException("Read beyond the end of the ZIP file");
+            }
+            position += n;
+        }
+    }
+
+    private static int readShort(final byte[] data, final int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(final byte[] data, final int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24;
+    }
+
+    private static class Entry {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long uncompressedSize;
+        private final long localHeaderOffset;
+        private long dataOffset = -1;
+
+        private Entry(final String name, final int method, final long crc, final long compressedSize, final long uncompressedSize, final long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        private boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    /**
+     * Reads a range of the archive, using positional reads so that several streams may be open at
+     * the same time.
+     */
+    private class RangeInputStream extends InputStream {
+        private long position;
+        private long remaining;
+
+        private RangeInputStream(final long position, final long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int n = (int) Math.min(len, remaining);
+            GBZipFile.this.read(position, b, off, n);
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final long skipped = Math.max(0, Math.min(n, remaining));
+            position += skipped;
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Verifies the length and CRC of an entry while it is streamed, same as
+     * {@link #getFileFromZip(String)} does for the whole entry. A mismatch is reported by an
+     * IOException once the end of the entry is reached.
+     */
+    private static class CheckedEntryInputStream extends FilterInputStream {
+        private final Entry entry;
+        private final CRC32 crc = new CRC32();
+        private long count = 0;
+
+        private CheckedEntryInputStream(final InputStream in, final Entry entry) {
+            super(in);
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            final int n = in.read(b, off, len);
+            if (n == -1) {
+                if (count != entry.uncompressedSize) {
+                    throw new IOException(String.format("Size mismatch for path in ZIP file: %s", entry.name));
+                }
+                if (crc.getValue() != entry.crc) {
+                    throw new IOException(String.format("CRC mismatch for path in ZIP file: %s", entry.name));
+                }
+                return -1;
+            }
+            count += n;
+            if (count > entry.uncompressedSize) {
+                throw new IOException(String.format("Size mismatch for path in ZIP file: %s", entry.name));
+            }
+            crc.update(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            // the skipped bytes are part of the CRC as well
+            final byte[] buffer = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                final int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof = false;
+        private boolean closed = false;
+
+        private EntryInflaterInputStream(final InputStream in) {
+            super(in, new Inflater(true), 8192);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of ZIP entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                // the raw inflater may need an extra dummy byte to finish
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                inf.end();
+                super.close();
+            }
+        }
+    }
+}
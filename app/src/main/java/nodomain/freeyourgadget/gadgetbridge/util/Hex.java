@@ -0,0 +1,77 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Hex dump of a byte array to be passed as a logger argument, eg.
+ * {@code LOG.debug("Got {}", Hex.of(bytes))}. The bytes are only formatted when an appender
+ * writes the message, so disabled log levels do not pay for the formatting.
+ * <p>
+ * The array is not copied, so it must not be modified before the logger call returns.
+ */
+public final class Hex {
+    /**
+     * Maximum number of bytes dumped by {@link #capped(byte[])}.
+     */
+    public static final int DEFAULT_MAX_BYTES = 256;
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private final int maxBytes;
+
+    private Hex(final byte[] bytes, final int offset, final int length, final int maxBytes) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.maxBytes = maxBytes;
+    }
+
+    public static Hex of(final byte[] bytes) {
+        return new Hex(bytes, 0, bytes != null ? bytes.length : 0, Integer.MAX_VALUE);
+    }
+
+    public static Hex of(final byte[] bytes, final int offset, final int length) {
+        return new Hex(bytes, offset, length, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #of(byte[])}, but only dumps the first {@link #DEFAULT_MAX_BYTES} bytes of
+     * large payloads.
+     */
+    public static Hex capped(final byte[] bytes) {
+        return capped(bytes, DEFAULT_MAX_BYTES);
+    }
+
+    public static Hex capped(final byte[] bytes, final int maxBytes) {
+        return new Hex(bytes, 0, bytes != null ? bytes.length : 0, maxBytes);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        if (bytes == null) {
+            return "(null)";
+        }
+        if (length <= maxBytes) {
+            return GB.hexdump(bytes, offset, length);
+        }
+        return GB.hexdump(bytes, offset, maxBytes) + "... (" + length + " bytes)";
+    }
+}
@@ -20,6 +20,7 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 
 import androidx.annotation.NonNull;
@@ -33,6 +34,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 
 public class UriHelper {
     @NonNull
@@ -98,6 +100,49 @@ public class UriHelper {
         throw new FileNotFoundException("Unable to open inputstream for " + uri);
     }
 
+    /**
+     * Opens a read-only channel for random access to the contents of the uri.
+     * Note: the caller has to close the channel after usage.
+     * @return the channel, or null if the uri is not backed by a seekable file, e.g. a pipe
+     * @throws FileNotFoundException
+     */
+    @Nullable
+    public FileChannel openFileChannel() throws FileNotFoundException {
+        ContentResolver cr = context.getContentResolver();
+        ParcelFileDescriptor pfd = cr.openFileDescriptor(uri, "r");
+        if (pfd == null) {
+            throw new FileNotFoundException("Unable to open file descriptor for " + uri);
+        }
+        // -1 if the descriptor does not refer to a regular file
+        if (pfd.getStatSize() < 0) {
+            LOG.debug("File descriptor for {} is not seekable", uri);
+            try {
+                pfd.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            return null;
+        }
+        return new ParcelFileDescriptor.AutoCloseInputStream(pfd).getChannel();
+    }
+
+    /**
+     * Opens the contents of the uri as a ZIP archive. Only the requested entries are read if
+     * the uri is seekable, otherwise the whole archive is read into memory.
+     * Note: the caller has to close the archive after usage.
+     * @throws IOException
+     */
+    @NonNull
+    public GBZipFile openZipFile() throws IOException {
+        FileChannel channel = openFileChannel();
+        if (channel != null) {
+            return new GBZipFile(channel);
+        }
+        try (InputStream inputStream = openInputStream()) {
+            return new GBZipFile(inputStream);
+        }
+    }
+
     /**
      * Returns the content length (file size) in bytes
      */
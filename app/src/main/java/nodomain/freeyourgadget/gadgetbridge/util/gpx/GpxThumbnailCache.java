@@ -0,0 +1,471 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util.gpx;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
+import nodomain.freeyourgadget.gadgetbridge.util.gpx.model.GpxFile;
+import nodomain.freeyourgadget.gadgetbridge.util.gpx.model.GpxTrack;
+import nodomain.freeyourgadget.gadgetbridge.util.gpx.model.GpxTrackSegment;
+
+/**
+ * Caches simplified tracks and rendered thumbnails of the GPX files of activity summaries, so
+ * that the GPX file only needs to be parsed once. The simplified track (Douglas-Peucker, to at
+ * most {@link #MAX_POINTS} points) and the rendered bitmap are stored in the cache directory,
+ * and the bitmaps are also kept in an in-memory LRU cache.
+ * <p/>
+ * The entries are keyed by the summary id and the path and modification time of the GPX file, so
+ * they are not used anymore once the track of a summary is changed or its file is re-written.
+ */
+public class GpxThumbnailCache {
+    private static final Logger LOG = LoggerFactory.getLogger(GpxThumbnailCache.class);
+
+    public static final int DEFAULT_SIZE = 360;
+    public static final int MAX_POINTS = 500;
+
+    private static final String CACHE_DIR = "gpx_thumbnails";
+    private static final String TRACK_EXTENSION = ".track";
+    private static final String THUMBNAIL_EXTENSION = ".png";
+    private static final int TRACK_FORMAT_VERSION = 1;
+    private static final int MAX_DISK_FILES = 256;
+    private static final int MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+
+    private static GpxThumbnailCache instance;
+
+    private final File cacheDir;
+    private final LruCache<String, Bitmap> thumbnails = new LruCache<String, Bitmap>(MEMORY_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(final String key, final Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+    };
+
+    public GpxThumbnailCache(final File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public static synchronized GpxThumbnailCache getInstance() {
+        if (instance == null) {
+            instance = new GpxThumbnailCache(new File(GBApplication.getContext().getCacheDir(), CACHE_DIR));
+        }
+        return instance;
+    }
+
+    /**
+     * @return the thumbnail from the in-memory cache, or null if it needs to be loaded with
+     * {@link #getThumbnail(long, File, int, int)}
+     */
+    @Nullable
+    public Bitmap getCachedThumbnail(final long summaryId, final File gpxFile, final int size, final int color) {
+        return thumbnails.get(getThumbnailKey(getTrackKey(summaryId, gpxFile), size, color));
+    }
+
+    /**
+     * Returns the thumbnail of the track, with a transparent background and north at the top.
+     * It is loaded from the caches if possible, and only rendered from the GPX file otherwise.
+     *
+     * @return the thumbnail, or null if the GPX file could not be read or has no points
+     */
+    @Nullable
+    @WorkerThread
+    public Bitmap getThumbnail(final long summaryId, final File gpxFile, final int size, final int color) {
+        final String trackKey = getTrackKey(summaryId, gpxFile);
+        final String thumbnailKey = getThumbnailKey(trackKey, size, color);
+
+        Bitmap bitmap = thumbnails.get(thumbnailKey);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        synchronized (this) {
+            final File thumbnailFile = new File(cacheDir, thumbnailKey + THUMBNAIL_EXTENSION);
+            if (thumbnailFile.isFile()) {
+                bitmap = BitmapFactory.decodeFile(thumbnailFile.getPath());
+                if (bitmap == null) {
+                    LOG.warn("Failed to decode {}", thumbnailFile);
+                }
+            }
+
+            if (bitmap == null) {
+                final List<List<GPSCoordinate>> track = getSimplifiedTrack(summaryId, gpxFile);
+                if (track == null) {
+                    return null;
+                }
+                bitmap = render(track, size, color);
+                writeThumbnail(thumbnailFile, bitmap);
+            }
+        }
+
+        thumbnails.put(thumbnailKey, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Returns the simplified segments of the track, from the cache directory if possible.
+     *
+     * @return the segments, or null if the GPX file could not be read or has no points
+     */
+    @Nullable
+    @WorkerThread
+    public synchronized List<List<GPSCoordinate>> getSimplifiedTrack(final long summaryId, final File gpxFile) {
+        final String trackKey = getTrackKey(summaryId, gpxFile);
+        final File trackFile = new File(cacheDir, trackKey + TRACK_EXTENSION);
+        if (trackFile.isFile()) {
+            try {
+                return readTrack(trackFile);
+            } catch (final IOException e) {
+                LOG.warn("Failed to read cached track {}", trackFile, e);
+            }
+        }
+
+        final GpxFile parsedFile;
+        try (FileInputStream inputStream = new FileInputStream(gpxFile)) {
+            parsedFile = new GpxParser(inputStream).getGpxFile();
+        } catch (final IOException e) {
+            LOG.error("Failed to open {}", gpxFile, e);
+            return null;
+        } catch (final GpxParseException e) {
+            LOG.error("Failed to parse gpx file", e);
+            return null;
+        }
+
+        final List<List<? extends GPSCoordinate>> segments = new ArrayList<>();
+        for (final GpxTrack track : parsedFile.getTracks()) {
+            for (final GpxTrackSegment segment : track.getTrackSegments()) {
+                if (!segment.getTrackPoints().isEmpty()) {
+                    segments.add(segment.getTrackPoints());
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            return null;
+        }
+
+        final List<List<GPSCoordinate>> simplified = simplify(segments, MAX_POINTS);
+        deleteStaleFiles(summaryId, trackKey);
+        try {
+            writeTrack(trackFile, simplified);
+        } catch (final IOException e) {
+            LOG.warn("Failed to write cached track {}", trackFile, e);
+        }
+        return simplified;
+    }
+
+    private static String getTrackKey(final long summaryId, final File gpxFile) {
+        return summaryId + "_" + Integer.toHexString(gpxFile.getPath().hashCode()) + "_" + gpxFile.lastModified();
+    }
+
+    private static String getThumbnailKey(final String trackKey, final int size, final int color) {
+        return trackKey + "_" + size + "_" + Integer.toHexString(color);
+    }
+
+    /**
+     * Simplifies the segments with a tolerance of half a pixel of a {@link #DEFAULT_SIZE}
+     * thumbnail, doubling the tolerance until there are at most maxPoints points left. The
+     * returned points are plain coordinates, without the timestamps of the track points.
+     */
+    public static List<List<GPSCoordinate>> simplify(final List<? extends List<? extends GPSCoordinate>> segments, final int maxPoints) {
+        final double[] bounds = getBounds(segments);
+        double epsilon = Math.max(bounds[2] - bounds[0], bounds[3] - bounds[1]) / DEFAULT_SIZE / 2;
+
+        while (true) {
+            final List<List<GPSCoordinate>> simplified = new ArrayList<>(segments.size());
+            int count = 0;
+            for (final List<? extends GPSCoordinate> segment : segments) {
+                final List<GPSCoordinate> simplifiedSegment = simplify(segment, epsilon);
+                for (int i = 0; i < simplifiedSegment.size(); i++) {
+                    final GPSCoordinate p = simplifiedSegment.get(i);
+                    simplifiedSegment.set(i, new GPSCoordinate(p.getLongitude(), p.getLatitude(), p.getAltitude()));
+                }
+                simplified.add(simplifiedSegment);
+                count += simplifiedSegment.size();
+            }
+            // every segment keeps at least its start and end
+            if (count <= Math.max(maxPoints, 2 * segments.size()) || epsilon <= 0) {
+                return simplified;
+            }
+            epsilon *= 2;
+        }
+    }
+
+    /**
+     * Douglas-Peucker simplification, keeping the points that are further than epsilon degrees
+     * away from the simplified line. Implemented with an explicit stack, since tracks can have
+     * tens of thousands of points.
+     */
+    public static List<GPSCoordinate> simplify(final List<? extends GPSCoordinate> points, final double epsilon) {
+        final int n = points.size();
+        if (n <= 2) {
+            return new ArrayList<GPSCoordinate>(points);
+        }
+
+        final double epsilonSquared = epsilon * epsilon;
+        final boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+
+        // the ranges on the stack do not overlap, so there are less than n of them
+        final int[] stack = new int[2 * n];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        stack[stackSize++] = n - 1;
+        while (stackSize > 0) {
+            final int last = stack[--stackSize];
+            final int first = stack[--stackSize];
+
+            final GPSCoordinate a = points.get(first);
+            final GPSCoordinate b = points.get(last);
+            double maxDistance = -1;
+            int maxIndex = -1;
+            for (int i = first + 1; i < last; i++) {
+                final double distance = getSegmentDistanceSquared(points.get(i), a, b);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    maxIndex = i;
+                }
+            }
+
+            if (maxIndex != -1 && maxDistance > epsilonSquared) {
+                keep[maxIndex] = true;
+                stack[stackSize++] = first;
+                stack[stackSize++] = maxIndex;
+                stack[stackSize++] = maxIndex;
+                stack[stackSize++] = last;
+            }
+        }
+
+        final List<GPSCoordinate> simplified = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                simplified.add(points.get(i));
+            }
+        }
+        return simplified;
+    }
+
+    /**
+     * Distance of p to the line segment between a and b, rather than to the infinite line, so that
+     * round trips where both ends are at the same place are simplified correctly.
+     */
+    private static double getSegmentDistanceSquared(final GPSCoordinate p, final GPSCoordinate a, final GPSCoordinate b) {
+        final double dx = b.getLongitude() - a.getLongitude();
+        final double dy = b.getLatitude() - a.getLatitude();
+        final double lengthSquared = dx * dx + dy * dy;
+        double t = 0;
+        if (lengthSquared > 0) {
+            t = ((p.getLongitude() - a.getLongitude()) * dx + (p.getLatitude() - a.getLatitude()) * dy) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+        }
+        final double x = p.getLongitude() - (a.getLongitude() + t * dx);
+        final double y = p.getLatitude() - (a.getLatitude() + t * dy);
+        return x * x + y * y;
+    }
+
+    /**
+     * @return min longitude, min latitude, max longitude, max latitude, min altitude, max altitude
+     */
+    private static double[] getBounds(final List<? extends List<? extends GPSCoordinate>> segments) {
+        final double[] bounds = new double[]{
+                Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE
+        };
+        for (final List<? extends GPSCoordinate> segment : segments) {
+            for (final GPSCoordinate p : segment) {
+                bounds[0] = Math.min(bounds[0], p.getLongitude());
+                bounds[1] = Math.min(bounds[1], p.getLatitude());
+                bounds[2] = Math.max(bounds[2], p.getLongitude());
+                bounds[3] = Math.max(bounds[3], p.getLatitude());
+                bounds[4] = Math.min(bounds[4], p.getAltitude());
+                bounds[5] = Math.max(bounds[5], p.getAltitude());
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Draws the segments proportionally onto a square bitmap, with the line getting thicker with
+     * higher altitude.
+     */
+    public static Bitmap render(final List<List<GPSCoordinate>> segments, final int size, final int color) {
+        final Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+
+        final double[] bounds = getBounds(segments);
+        final double range = Math.max(bounds[2] - bounds[0], bounds[3] - bounds[1]);
+        final double scale = range > 0 ? (size - 1) / range : 0;
+        final double altitudeRange = bounds[5] - bounds[4];
+
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(color);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+
+        for (final List<GPSCoordinate> segment : segments) {
+            GPSCoordinate previous = null;
+            for (final GPSCoordinate p : segment) {
+                final float alt = altitudeRange > 0 ? (float) ((p.getAltitude() - bounds[4]) / altitudeRange) : 0;
+                paint.setStrokeWidth(1 + alt);
+                final float x = (float) ((p.getLongitude() - bounds[0]) * scale);
+                final float y = (float) (size - 1 - (p.getLatitude() - bounds[1]) * scale);
+                if (previous == null) {
+                    canvas.drawPoint(x, y, paint);
+                } else {
+                    final float previousX = (float) ((previous.getLongitude() - bounds[0]) * scale);
+                    final float previousY = (float) (size - 1 - (previous.getLatitude() - bounds[1]) * scale);
+                    canvas.drawLine(previousX, previousY, x, y, paint);
+                }
+                previous = p;
+            }
+        }
+
+        return bitmap;
+    }
+
+    private static List<List<GPSCoordinate>> readTrack(final File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            final int version = in.readInt();
+            if (version != TRACK_FORMAT_VERSION) {
+                throw new IOException("Unsupported track format version " + version);
+            }
+            final int segmentCount = in.readInt();
+            final List<List<GPSCoordinate>> segments = new ArrayList<>(segmentCount);
+            for (int i = 0; i < segmentCount; i++) {
+                final int pointCount = in.readInt();
+                final List<GPSCoordinate> segment = new ArrayList<>(pointCount);
+                for (int j = 0; j < pointCount; j++) {
+                    final double longitude = in.readDouble();
+                    final double latitude = in.readDouble();
+                    final double altitude = in.readDouble();
+                    segment.add(new GPSCoordinate(longitude, latitude, altitude));
+                }
+                segments.add(segment);
+            }
+            return segments;
+        }
+    }
+
+    private void writeTrack(final File file, final List<List<GPSCoordinate>> segments) throws IOException {
+        ensureCacheDir();
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(TRACK_FORMAT_VERSION);
+            out.writeInt(segments.size());
+            for (final List<GPSCoordinate> segment : segments) {
+                out.writeInt(segment.size());
+                for (final GPSCoordinate p : segment) {
+                    out.writeDouble(p.getLongitude());
+                    out.writeDouble(p.getLatitude());
+                    out.writeDouble(p.getAltitude());
+                }
+            }
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Failed to rename " + tempFile);
+        }
+    }
+
+    private void writeThumbnail(final File file, final Bitmap bitmap) {
+        try {
+            ensureCacheDir();
+        } catch (final IOException e) {
+            LOG.warn("Failed to create the thumbnail cache", e);
+            return;
+        }
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (final IOException e) {
+            LOG.warn("Failed to write thumbnail {}", file, e);
+            return;
+        }
+        if (!tempFile.renameTo(file)) {
+            LOG.warn("Failed to rename {}", tempFile);
+        }
+        trimCacheDir();
+    }
+
+    private void ensureCacheDir() throws IOException {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("Failed to create " + cacheDir);
+        }
+    }
+
+    /**
+     * Deletes the files of a previous track of the summary.
+     */
+    private void deleteStaleFiles(final long summaryId, final String trackKey) {
+        final File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final String summaryPrefix = summaryId + "_";
+        for (final File file : files) {
+            final String name = file.getName();
+            if (name.startsWith(summaryPrefix) && !name.startsWith(trackKey)) {
+                if (!file.delete()) {
+                    LOG.warn("Failed to delete stale {}", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the oldest files once there are more than {@link #MAX_DISK_FILES}, since the files
+     * of deleted summaries are never looked up again.
+     */
+    private void trimCacheDir() {
+        final File[] files = cacheDir.listFiles();
+        if (files == null || files.length <= MAX_DISK_FILES) {
+            return;
+        }
+        final Long[] lastModified = new Long[files.length];
+        final Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(lastModified[a], lastModified[b]));
+        for (int i = 0; i < files.length - MAX_DISK_FILES; i++) {
+            final File file = files[order[i]];
+            if (!file.delete()) {
+                LOG.warn("Failed to delete {}", file);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util.language;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Applies a chain of transliterators in a single pass over the text. Every transliterator in the
+ * chain must map each code point independently of its neighbours, as {@link SimpleTransliterator}
+ * and the flattening to ASCII do. The result of the whole chain is computed once per code point,
+ * the first time it is encountered, and looked up afterwards.
+ */
+public class CompiledTransliterator implements Transliterator {
+    // Marks code points that the chain leaves as they are
+    private static final String UNCHANGED = new String();
+
+    private final List<Transliterator> transliterators;
+
+    // Results for the BMP chars, in pages of 256 chars that are only allocated once used. Not
+    // synchronized, as computing the result for a char twice is harmless.
+    private final String[][] pages = new String[256][];
+    private final Map<Integer, String> supplementary = new ConcurrentHashMap<>();
+
+    public CompiledTransliterator(final List<Transliterator> transliterators) {
+        this.transliterators = new ArrayList<>(transliterators);
+    }
+
+    @Override
+    public String transliterate(final String txt) {
+        if (txt == null || txt.isEmpty()) {
+            return txt;
+        }
+
+        // Only start building a new string once something actually changes
+        StringBuilder messageBuilder = null;
+
+        final int length = txt.length();
+        int i = 0;
+        while (i < length) {
+            final char c = txt.charAt(i);
+            final int charCount;
+            final String replacement;
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(txt.charAt(i + 1))) {
+                charCount = 2;
+                replacement = lookup(Character.toCodePoint(c, txt.charAt(i + 1)));
+            } else {
+                charCount = 1;
+                replacement = lookup(c);
+            }
+
+            if (replacement != UNCHANGED) {
+                if (messageBuilder == null) {
+                    messageBuilder = new StringBuilder(length + 16);
+                    messageBuilder.append(txt, 0, i);
+                }
+                messageBuilder.append(replacement);
+            } else if (messageBuilder != null) {
+                messageBuilder.append(txt, i, i + charCount);
+            }
+
+            i += charCount;
+        }
+
+        return messageBuilder != null ? messageBuilder.toString() : txt;
+    }
+
+    private String lookup(final char c) {
+        String[] page = pages[c >> 8];
+        if (page == null) {
+            page = new String[256];
+            pages[c >> 8] = page;
+        }
+
+        String replacement = page[c & 0xFF];
+        if (replacement == null) {
+            replacement = compute(String.valueOf(c));
+            page[c & 0xFF] = replacement;
+        }
+
+        return replacement;
+    }
+
+    private String lookup(final int codePoint) {
+        String replacement = supplementary.get(codePoint);
+        if (replacement == null) {
+            replacement = compute(new String(Character.toChars(codePoint)));
+            supplementary.put(codePoint, replacement);
+        }
+
+        return replacement;
+    }
+
+    private String compute(final String codePoint) {
+        String txt = codePoint;
+        for (final Transliterator transliterator : transliterators) {
+            txt = transliterator.transliterate(txt);
+        }
+
+        return txt.equals(codePoint) ? UNCHANGED : txt;
+    }
+}
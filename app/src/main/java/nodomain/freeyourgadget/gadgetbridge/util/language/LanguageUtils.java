@@ -19,6 +19,8 @@ package nodomain.freeyourgadget.gadgetbridge.util.language;
 
 import static nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst.PREF_TRANSLITERATION_LANGUAGES;
 
+import android.util.Pair;
+
 import androidx.annotation.Nullable;
 
 import org.slf4j.Logger;
@@ -88,6 +90,12 @@ public class LanguageUtils {
         put("ukranian", new UkranianTransliterator());
     }};
 
+    /**
+     * The compiled transliterators per device address, along with the configuration they were
+     * compiled for.
+     */
+    private static final Map<String, Pair<String, Transliterator>> DEVICE_TRANSLITERATORS = new HashMap<>();
+
     /**
      * Get a {@link Transliterator} for a specific language.
      *
@@ -104,7 +112,8 @@ public class LanguageUtils {
     }
 
     /**
-     * Get the configured transliterator for the provided {@link GBDevice}, if any.
+     * Get the configured transliterator for the provided {@link GBDevice}, if any. The
+     * transliterator is compiled once, and reused until the configuration changes.
      *
      * @param device the device
      * @return the configured transliterator, null if not configured
@@ -119,27 +128,76 @@ public class LanguageUtils {
             return null;
         }
 
-        final List<String> languages = Arrays.asList(transliterateLanguagesPref.split(","));
-        final List<Transliterator> transliterators = new ArrayList<>(languages.size());
+        // For now, assume that if the device does not support unicode emoji, it also doesn't
+        // support utf, so flatten to ASCII. This allows for devices that support unicode
+        // characters to still use transliterators for languages not supported by the device,
+        // and still get emoji
+        // TODO: Maybe this should be configurable, or at least separate from the emoji setting
+        final boolean flattenToAscii = !coordinator.supportsUnicodeEmojis();
+        final String config = transliterateLanguagesPref + (flattenToAscii ? ",flatten_to_ascii" : "");
+
+        synchronized (DEVICE_TRANSLITERATORS) {
+            final Pair<String, Transliterator> compiled = DEVICE_TRANSLITERATORS.get(device.getAddress());
+            if (compiled != null && compiled.first.equals(config)) {
+                return compiled.second;
+            }
+
+            final List<String> languages = Arrays.asList(transliterateLanguagesPref.split(","));
+            final List<Transliterator> transliterators = new ArrayList<>(languages.size() + 1);
+
+            for (String language : languages) {
+                if (!TRANSLITERATORS_MAP.containsKey(language)) {
+                    LOG.warn("Transliterator for {} not found", language);
+                    continue;
+                }
+
+                transliterators.add(TRANSLITERATORS_MAP.get(language));
+            }
+
+            if (flattenToAscii) {
+                transliterators.add(new FlattenToAsciiTransliterator());
+            }
 
-        for (String language : languages) {
-            if (!TRANSLITERATORS_MAP.containsKey(language)) {
-                LOG.warn("Transliterator for {} not found", language);
+            final Transliterator transliterator = compile(transliterators);
+            DEVICE_TRANSLITERATORS.put(device.getAddress(), Pair.create(config, transliterator));
+            return transliterator;
+        }
+    }
+
+    /**
+     * Compile a chain of transliterators, so that every run of transliterators which map each
+     * character on their own is applied in a single pass by a {@link CompiledTransliterator}.
+     * Transliterators that depend on the surrounding characters, such as the Korean and Bengali
+     * ones, are kept as separate passes in between.
+     *
+     * @param transliterators the transliterators, in the order they should be applied
+     * @return a transliterator equivalent to applying the provided ones one after the other
+     */
+    public static Transliterator compile(final List<Transliterator> transliterators) {
+        final List<Transliterator> passes = new ArrayList<>();
+        final List<Transliterator> run = new ArrayList<>();
+
+        for (final Transliterator transliterator : transliterators) {
+            if (transliterator instanceof SimpleTransliterator || transliterator instanceof FlattenToAsciiTransliterator) {
+                run.add(transliterator);
                 continue;
             }
 
-            transliterators.add(TRANSLITERATORS_MAP.get(language));
+            if (!run.isEmpty()) {
+                passes.add(new CompiledTransliterator(run));
+                run.clear();
+            }
+            passes.add(transliterator);
+        }
+
+        if (!run.isEmpty()) {
+            passes.add(new CompiledTransliterator(run));
         }
 
-        if (!coordinator.supportsUnicodeEmojis()) {
-            // For now, assume that if the device does not support unicode emoji, it also doesn't
-            // support utf, so flatten to ASCII. This allows for devices that support unicode
-            // characters to still use transliterators for languages not supported by the device,
-            // and still get emoji
-            // TODO: Maybe this should be configurable, or at least separate from the emoji setting
-            transliterators.add(new FlattenToAsciiTransliterator());
+        if (passes.size() == 1) {
+            return passes.get(0);
         }
 
-        return new MultiTransliterator(transliterators);
+        return new MultiTransliterator(passes);
     }
 }
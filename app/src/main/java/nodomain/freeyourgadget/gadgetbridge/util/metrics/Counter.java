@@ -0,0 +1,63 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing count, such as a number of bytes. Also keeps the time of the first
+ * and last update, to compute the rate.
+ */
+public class Counter {
+    private final AtomicLong count = new AtomicLong();
+    private volatile long firstNanos = 0;
+    private volatile long lastNanos = 0;
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(final long value) {
+        final long now = System.nanoTime();
+        if (count.getAndAdd(value) == 0 && firstNanos == 0) {
+            firstNanos = now;
+        }
+        lastNanos = now;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the average rate between the first and the last update, or 0 if there were not
+     * enough updates
+     */
+    public long getRatePerSecond() {
+        final long nanos = lastNanos - firstNanos;
+        if (firstNanos == 0 || nanos <= 0) {
+            return 0;
+        }
+        return count.get() * 1_000_000_000L / nanos;
+    }
+
+    void reset() {
+        count.set(0);
+        firstNanos = 0;
+        lastNanos = 0;
+    }
+}
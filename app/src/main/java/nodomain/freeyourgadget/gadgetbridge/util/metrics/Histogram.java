@@ -0,0 +1,158 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util.metrics;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values in fixed 1-2-5 buckets, so that recording is constant time
+ * and allocation free. Percentiles are approximated by the upper bound of their bucket.
+ */
+public class Histogram {
+    /**
+     * Upper bounds (inclusive) of the buckets, the last bucket has no upper bound.
+     */
+    static final long[] BUCKET_BOUNDS;
+
+    static {
+        BUCKET_BOUNDS = new long[3 * 10];
+        long decade = 1;
+        for (int i = 0; i < BUCKET_BOUNDS.length; i += 3) {
+            BUCKET_BOUNDS[i] = decade;
+            BUCKET_BOUNDS[i + 1] = 2 * decade;
+            BUCKET_BOUNDS[i + 2] = 5 * decade;
+            decade *= 10;
+        }
+    }
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current;
+        do {
+            current = min.get();
+        } while (value < current && !min.compareAndSet(current, value));
+        do {
+            current = max.get();
+        } while (value > current && !max.compareAndSet(current, value));
+    }
+
+    static int getBucket(final long value) {
+        int low = 0;
+        int high = BUCKET_BOUNDS.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (BUCKET_BOUNDS[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMin() {
+        return count.get() > 0 ? min.get() : 0;
+    }
+
+    public long getMax() {
+        return count.get() > 0 ? max.get() : 0;
+    }
+
+    public long getMean() {
+        final long n = count.get();
+        return n > 0 ? sum.get() / n : 0;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket that contains the percentile, capped to the maximum
+     */
+    public long getPercentile(final double percentile) {
+        final long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(BUCKET_BOUNDS[i], getMax());
+            }
+        }
+        return getMax();
+    }
+
+    void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    JSONObject toJson() throws JSONException {
+        final JSONObject json = new JSONObject();
+        json.put("count", getCount());
+        json.put("min", getMin());
+        json.put("mean", getMean());
+        json.put("p50", getPercentile(50));
+        json.put("p95", getPercentile(95));
+        json.put("max", getMax());
+
+        final JSONArray bucketsJson = new JSONArray();
+        for (int i = 0; i < buckets.length(); i++) {
+            final long bucketCount = buckets.get(i);
+            if (bucketCount == 0) {
+                continue;
+            }
+            final JSONObject bucketJson = new JSONObject();
+            bucketJson.put("le", i < BUCKET_BOUNDS.length ? String.valueOf(BUCKET_BOUNDS[i]) : "inf");
+            bucketJson.put("count", bucketCount);
+            bucketsJson.put(bucketJson);
+        }
+        json.put("buckets", bucketsJson);
+        return json;
+    }
+}
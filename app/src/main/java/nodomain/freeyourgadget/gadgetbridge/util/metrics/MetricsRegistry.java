@@ -0,0 +1,240 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util.metrics;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+/**
+ * Counters, timers, histograms and gauges of a single device, fed by the Bluetooth queue, the GATT
+ * callbacks and the fetch operations, to compare the sync speed of devices and firmware versions.
+ * The metrics are only kept in memory, until the app is restarted.
+ * <p/>
+ * Metrics are created on first use, and their names are dot-separated, eg. "action.ack.write".
+ * Timers are in microseconds.
+ */
+public class MetricsRegistry {
+    private static final ConcurrentMap<String, MetricsRegistry> REGISTRIES = new ConcurrentHashMap<>();
+
+    private final String address;
+    @Nullable
+    private volatile GBDevice gbDevice;
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> gauges = new ConcurrentHashMap<>();
+
+    MetricsRegistry(final String address) {
+        this.address = address;
+    }
+
+    public static MetricsRegistry forDevice(final GBDevice gbDevice) {
+        final MetricsRegistry registry = forDevice(gbDevice.getAddress());
+        registry.gbDevice = gbDevice;
+        return registry;
+    }
+
+    public static MetricsRegistry forDevice(final String address) {
+        MetricsRegistry registry = REGISTRIES.get(address);
+        if (registry == null) {
+            final MetricsRegistry newRegistry = new MetricsRegistry(address);
+            registry = REGISTRIES.putIfAbsent(address, newRegistry);
+            if (registry == null) {
+                registry = newRegistry;
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * @return the registries of all devices, sorted by address
+     */
+    public static List<MetricsRegistry> getAll() {
+        return new ArrayList<>(new TreeMap<>(REGISTRIES).values());
+    }
+
+    public static void resetAll() {
+        for (final MetricsRegistry registry : REGISTRIES.values()) {
+            registry.reset();
+        }
+    }
+
+    /**
+     * @return the metrics of all devices, keyed by address
+     */
+    public static JSONObject dumpJson() throws JSONException {
+        final JSONObject json = new JSONObject();
+        for (final MetricsRegistry registry : getAll()) {
+            json.put(registry.address, registry.toJson());
+        }
+        return json;
+    }
+
+    public Counter counter(final String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            final Counter newCounter = new Counter();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    public Timer timer(final String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            final Timer newTimer = new Timer();
+            timer = timers.putIfAbsent(name, newTimer);
+            if (timer == null) {
+                timer = newTimer;
+            }
+        }
+        return timer;
+    }
+
+    public Histogram histogram(final String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            final Histogram newHistogram = new Histogram();
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Sets the current value of a gauge, such as the negotiated MTU.
+     */
+    public void setGauge(final String name, final long value) {
+        gauges.put(name, value);
+    }
+
+    @Nullable
+    public Long getGauge(final String name) {
+        return gauges.get(name);
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public void reset() {
+        for (final Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (final Timer timer : timers.values()) {
+            timer.reset();
+        }
+        for (final Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        gauges.clear();
+    }
+
+    public JSONObject toJson() throws JSONException {
+        final JSONObject json = new JSONObject();
+        final GBDevice device = gbDevice;
+        if (device != null) {
+            json.put("name", device.getAliasOrName());
+            json.put("type", device.getType().name());
+            json.put("firmware", device.getFirmwareVersion());
+        }
+
+        final JSONObject gaugesJson = new JSONObject();
+        for (final Map.Entry<String, Long> entry : new TreeMap<>(gauges).entrySet()) {
+            gaugesJson.put(entry.getKey(), entry.getValue());
+        }
+        json.put("gauges", gaugesJson);
+
+        final JSONObject countersJson = new JSONObject();
+        for (final Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            final JSONObject counterJson = new JSONObject();
+            counterJson.put("count", entry.getValue().getCount());
+            counterJson.put("perSecond", entry.getValue().getRatePerSecond());
+            countersJson.put(entry.getKey(), counterJson);
+        }
+        json.put("counters", countersJson);
+
+        final JSONObject timersJson = new JSONObject();
+        for (final Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            timersJson.put(entry.getKey(), entry.getValue().toJson());
+        }
+        json.put("timersMicros", timersJson);
+
+        final JSONObject histogramsJson = new JSONObject();
+        for (final Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            histogramsJson.put(entry.getKey(), entry.getValue().toJson());
+        }
+        json.put("histograms", histogramsJson);
+
+        return json;
+    }
+
+    /**
+     * A human readable summary, one metric per line.
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        final GBDevice device = gbDevice;
+        builder.append(device != null ? device.getAliasOrName() + " (" + address + ")" : address).append('\n');
+        for (final Map.Entry<String, Long> entry : new TreeMap<>(gauges).entrySet()) {
+            builder.append(String.format(Locale.ROOT, "%s: %d\n", entry.getKey(), entry.getValue()));
+        }
+        for (final Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            final Counter counter = entry.getValue();
+            builder.append(String.format(Locale.ROOT, "%s: %d (%d/s)\n", entry.getKey(), counter.getCount(), counter.getRatePerSecond()));
+        }
+        for (final Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            final Timer timer = entry.getValue();
+            builder.append(String.format(
+                    Locale.ROOT,
+                    "%s: n=%d, mean=%.1fms, p50=%.1fms, p95=%.1fms, max=%.1fms\n",
+                    entry.getKey(), timer.getCount(), timer.getMean() / 1000f,
+                    timer.getPercentile(50) / 1000f, timer.getPercentile(95) / 1000f, timer.getMax() / 1000f
+            ));
+        }
+        for (final Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            final Histogram histogram = entry.getValue();
+            builder.append(String.format(
+                    Locale.ROOT,
+                    "%s: n=%d, mean=%d, p50=%d, p95=%d, max=%d\n",
+                    entry.getKey(), histogram.getCount(), histogram.getMean(),
+                    histogram.getPercentile(50), histogram.getPercentile(95), histogram.getMax()
+            ));
+        }
+        return builder.toString();
+    }
+}
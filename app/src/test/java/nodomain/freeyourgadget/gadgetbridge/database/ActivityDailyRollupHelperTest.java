@@ -0,0 +1,161 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.xiaomi.XiaomiSleepStageSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivityDailyRollup;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.entities.XiaomiSleepStageSample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ActivityDailyRollupHelperTest extends TestBase {
+
+    private GBDevice dummyGBDevice;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dummyGBDevice = createDummyGDevice("00:00:00:00:20");
+    }
+
+    private MiBandActivitySample createSample(MiBandSampleProvider sampleProvider, int rawKind, int timestamp, int heartRate, int steps, User user, Device device) {
+        MiBandActivitySample sample = sampleProvider.createActivitySample();
+        sample.setProvider(sampleProvider);
+        sample.setRawKind(rawKind);
+        sample.setTimestamp(timestamp);
+        sample.setRawIntensity(10);
+        sample.setHeartRate(heartRate);
+        sample.setSteps(steps);
+        sample.setUserId(user.getId());
+        sample.setDeviceId(device.getId());
+        return sample;
+    }
+
+    @Test
+    public void testRollupMatchesAnalysis() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        List<MiBandActivitySample> samples = Arrays.asList(
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_DEEP_SLEEP, 0, 55, 0, user, device),
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_DEEP_SLEEP, 60, 50, 0, user, device),
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 120, 90, 100, user, device),
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 180, 255, 50, user, device)
+        );
+
+        ActivityDailyRollup rollup = ActivityDailyRollupHelper.createRollup(samples, device.getId(), 0);
+        assertEquals(4, rollup.getSampleCount());
+        assertEquals(150, rollup.getSteps());
+        assertEquals(90, rollup.getDeepSleepSeconds());
+        assertEquals(90, rollup.getActivitySeconds());
+        assertEquals(0, rollup.getLightSleepSeconds());
+        // 255 is not a valid heart rate and must be ignored
+        assertEquals(50, rollup.getHeartRateMin());
+        assertEquals(65, rollup.getHeartRateAvg());
+        assertEquals(90, rollup.getHeartRateMax());
+
+        ActivityAmounts amounts = ActivityDailyRollupHelper.toActivityAmounts(rollup);
+        long steps = 0;
+        long deepSleepSeconds = 0;
+        for (ActivityAmount amount : amounts.getAmounts()) {
+            steps += amount.getTotalSteps();
+            if (amount.getActivityKind() == ActivityKind.TYPE_DEEP_SLEEP) {
+                deepSleepSeconds += amount.getTotalSeconds();
+            }
+        }
+        assertEquals(150, steps);
+        assertEquals(90, deepSleepSeconds);
+    }
+
+    @Test
+    public void testInvalidateOnInsert() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        int day = ActivityDailyRollupHelper.WINDOW_SECONDS;
+        for (int windowStart : new int[]{0, day, 2 * day}) {
+            daoSession.getActivityDailyRollupDao().insert(ActivityDailyRollupHelper.createRollup(
+                    Collections.<MiBandActivitySample>emptyList(), device.getId(), windowStart));
+        }
+        assertEquals(3, daoSession.getActivityDailyRollupDao().count());
+
+        // a sample in the second day must only invalidate that day
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[]{
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, day + 100, 70, 10, user, device)
+        });
+        List<ActivityDailyRollup> remaining = daoSession.getActivityDailyRollupDao().loadAll();
+        assertEquals(2, remaining.size());
+        for (ActivityDailyRollup rollup : remaining) {
+            assertNotEquals(day, rollup.getWindowStart());
+        }
+    }
+
+    @Test
+    public void testInvalidateOnOverlayInsert() {
+        XiaomiSleepStageSampleProvider sleepStageProvider = new XiaomiSleepStageSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        int day = ActivityDailyRollupHelper.WINDOW_SECONDS;
+        for (int windowStart : new int[]{0, day, 2 * day, 3 * day}) {
+            daoSession.getActivityDailyRollupDao().insert(ActivityDailyRollupHelper.createRollup(
+                    Collections.<MiBandActivitySample>emptyList(), device.getId(), windowStart));
+        }
+
+        // a sleep stage lasts until the next one, so it may change the following day as well
+        XiaomiSleepStageSample stageSample = new XiaomiSleepStageSample();
+        stageSample.setTimestamp((day + 100) * 1000L);
+        stageSample.setDeviceId(device.getId());
+        stageSample.setUserId(user.getId());
+        stageSample.setStage(2);
+        sleepStageProvider.addSample(stageSample);
+
+        List<ActivityDailyRollup> remaining = daoSession.getActivityDailyRollupDao().loadAll();
+        assertEquals(2, remaining.size());
+        assertEquals(0, remaining.get(0).getWindowStart());
+        assertEquals(3 * day, remaining.get(1).getWindowStart());
+    }
+
+    @Test
+    public void testPersistRollup() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        int day = ActivityDailyRollupHelper.WINDOW_SECONDS;
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[]{
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, day + 100, 70, 10, user, device),
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, day + 160, 70, 20, user, device)
+        });
+
+        assertTrue(ActivityDailyRollupHelper.persistRollup(daoSession, dummyGBDevice, day));
+        // persisted already
+        assertFalse(ActivityDailyRollupHelper.persistRollup(daoSession, dummyGBDevice, day));
+        // the window of today did not end yet
+        int today = (int) (System.currentTimeMillis() / 1000) - 100;
+        assertFalse(ActivityDailyRollupHelper.persistRollup(daoSession, dummyGBDevice, today));
+
+        List<ActivityDailyRollup> rollups = daoSession.getActivityDailyRollupDao().loadAll();
+        assertEquals(1, rollups.size());
+        assertEquals(day, rollups.get(0).getWindowStart());
+        assertEquals(30, rollups.get(0).getSteps());
+    }
+}
@@ -0,0 +1,135 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivitySampleBucket;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static nodomain.freeyourgadget.gadgetbridge.database.ActivitySampleBucketHelper.RESOLUTION_5_MINUTES;
+import static nodomain.freeyourgadget.gadgetbridge.database.ActivitySampleBucketHelper.RESOLUTION_DAY;
+import static nodomain.freeyourgadget.gadgetbridge.database.ActivitySampleBucketHelper.RESOLUTION_HOUR;
+import static org.junit.Assert.assertEquals;
+
+public class ActivitySampleBucketHelperTest extends TestBase {
+    // aligned to 5 minutes
+    private static final int BASE = 1_700_000_100;
+
+    private GBDevice dummyGBDevice;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dummyGBDevice = createDummyGDevice("00:00:00:00:30");
+    }
+
+    private MiBandActivitySample createSample(MiBandSampleProvider sampleProvider, int rawKind, int timestamp, int heartRate, int steps, User user, Device device) {
+        MiBandActivitySample sample = sampleProvider.createActivitySample();
+        sample.setProvider(sampleProvider);
+        sample.setRawKind(rawKind);
+        sample.setTimestamp(timestamp);
+        sample.setRawIntensity(10);
+        sample.setHeartRate(heartRate);
+        sample.setSteps(steps);
+        sample.setUserId(user.getId());
+        sample.setDeviceId(device.getId());
+        return sample;
+    }
+
+    @Test
+    public void testBucketsOnInsert() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        // one sample per minute for 3 hours, 10 steps each
+        MiBandActivitySample[] samples = new MiBandActivitySample[180];
+        for (int i = 0; i < samples.length; i++) {
+            int rawKind = i < 60 ? MiBandSampleProvider.TYPE_DEEP_SLEEP : MiBandSampleProvider.TYPE_ACTIVITY;
+            samples[i] = createSample(sampleProvider, rawKind, BASE + i * 60, 60 + i % 5, 10, user, device);
+        }
+        sampleProvider.addGBActivitySamples(samples);
+
+        List<ActivitySampleBucket> fiveMinutes = ActivitySampleBucketHelper.getBuckets(daoSession, dummyGBDevice, RESOLUTION_5_MINUTES, BASE, BASE + 3 * 3600);
+        assertEquals(36, fiveMinutes.size());
+        ActivitySampleBucket first = fiveMinutes.get(0);
+        assertEquals(BASE, first.getBucketStart());
+        assertEquals(5, first.getSampleCount());
+        assertEquals(50, first.getStepsSum());
+        assertEquals(10, first.getStepsMax());
+        assertEquals(60, first.getHeartRateMin());
+        assertEquals(64, first.getHeartRateMax());
+        assertEquals(62, ActivitySampleBucketHelper.getHeartRateAvg(first));
+        assertEquals(5, first.getDeepSleepCount());
+        assertEquals(0, first.getActivityCount());
+
+        assertTotals(1800, 60, 120, RESOLUTION_5_MINUTES);
+        assertTotals(1800, 60, 120, RESOLUTION_HOUR);
+        assertTotals(1800, 60, 120, RESOLUTION_DAY);
+
+        // replacing samples must not count them twice
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[]{
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, BASE, 70, 100, user, device)
+        });
+        assertTotals(1890, 59, 121, RESOLUTION_5_MINUTES);
+        assertTotals(1890, 59, 121, RESOLUTION_HOUR);
+        assertTotals(1890, 59, 121, RESOLUTION_DAY);
+    }
+
+    @Test
+    public void testSingleSampleDefersUpdate() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        // realtime samples must not re-compute the buckets for every single sample
+        sampleProvider.addGBActivitySample(createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, BASE, 70, 10, user, device));
+        assertEquals(0, ActivitySampleBucketHelper.getBuckets(daoSession, dummyGBDevice, RESOLUTION_5_MINUTES, BASE, BASE).size());
+
+        ActivitySampleBucketHelper.update(daoSession, device.getId(), sampleProvider, BASE, BASE);
+        List<ActivitySampleBucket> buckets = ActivitySampleBucketHelper.getBuckets(daoSession, dummyGBDevice, RESOLUTION_5_MINUTES, BASE, BASE);
+        assertEquals(1, buckets.size());
+        assertEquals(10, buckets.get(0).getStepsSum());
+    }
+
+    private void assertTotals(int steps, int deepSleep, int activity, int resolution) {
+        List<ActivitySampleBucket> buckets = ActivitySampleBucketHelper.getBuckets(daoSession, dummyGBDevice, resolution, BASE - RESOLUTION_DAY, BASE + RESOLUTION_DAY);
+        int stepsSum = 0;
+        int deepSleepCount = 0;
+        int activityCount = 0;
+        int sampleCount = 0;
+        for (ActivitySampleBucket bucket : buckets) {
+            stepsSum += bucket.getStepsSum();
+            deepSleepCount += bucket.getDeepSleepCount();
+            activityCount += bucket.getActivityCount();
+            sampleCount += bucket.getSampleCount();
+        }
+        assertEquals(steps, stepsSum);
+        assertEquals(deepSleep, deepSleepCount);
+        assertEquals(activity, activityCount);
+        assertEquals(180, sampleCount);
+    }
+
+    @Test
+    public void testResolution() {
+        assertEquals(RESOLUTION_5_MINUTES, ActivitySampleBucketHelper.getResolution(0, RESOLUTION_DAY, 300));
+        assertEquals(RESOLUTION_HOUR, ActivitySampleBucketHelper.getResolution(0, 7 * RESOLUTION_DAY, 300));
+        assertEquals(RESOLUTION_DAY, ActivitySampleBucketHelper.getResolution(0, 365 * RESOLUTION_DAY, 400));
+    }
+
+    @Test
+    public void testBucketStart() {
+        assertEquals(BASE, ActivitySampleBucketHelper.getBucketStart(RESOLUTION_5_MINUTES, BASE + 299));
+        int hour = ActivitySampleBucketHelper.getBucketStart(RESOLUTION_HOUR, BASE);
+        assertEquals(hour, ActivitySampleBucketHelper.getBucketStart(RESOLUTION_HOUR, hour + 3599));
+        assertEquals(hour + 3600, ActivitySampleBucketHelper.getBucketStart(RESOLUTION_HOUR, hour + 3600));
+        int day = ActivitySampleBucketHelper.getBucketStart(RESOLUTION_DAY, BASE);
+        assertEquals(day, ActivitySampleBucketHelper.getBucketStart(RESOLUTION_DAY, ActivitySampleBucketHelper.getNextBucketStart(RESOLUTION_DAY, day) - 1));
+    }
+}
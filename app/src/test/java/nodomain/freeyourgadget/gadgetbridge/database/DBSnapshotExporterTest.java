@@ -0,0 +1,122 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DBSnapshotExporterTest extends TestBase {
+
+    @Test
+    public void testQualify() {
+        assertEquals("CREATE TABLE snapshot.\"DEVICE\" (_id INTEGER PRIMARY KEY)",
+                DBSnapshotExporter.qualify("CREATE TABLE \"DEVICE\" (_id INTEGER PRIMARY KEY)"));
+        assertEquals("CREATE UNIQUE INDEX snapshot.IDX_DEVICE_IDENTIFIER ON \"DEVICE\" (\"IDENTIFIER\" ASC)",
+                DBSnapshotExporter.qualify("CREATE UNIQUE INDEX IDX_DEVICE_IDENTIFIER ON \"DEVICE\" (\"IDENTIFIER\" ASC)"));
+        assertEquals("CREATE INDEX snapshot.IDX_SAMPLE ON \"SAMPLE\" (\"TIMESTAMP\")",
+                DBSnapshotExporter.qualify("CREATE INDEX IDX_SAMPLE ON \"SAMPLE\" (\"TIMESTAMP\")"));
+        assertEquals("CREATE TRIGGER snapshot.T AFTER INSERT ON \"DEVICE\" BEGIN SELECT 1; END",
+                DBSnapshotExporter.qualify("CREATE TRIGGER T AFTER INSERT ON \"DEVICE\" BEGIN SELECT 1; END"));
+        assertEquals("CREATE VIEW snapshot.V AS SELECT * FROM \"DEVICE\"",
+                DBSnapshotExporter.qualify("CREATE VIEW V AS SELECT * FROM \"DEVICE\""));
+    }
+
+    @Test
+    public void testQualifyIgnoresCase() {
+        assertEquals("CREATE TABLE snapshot.device (_id INTEGER)",
+                DBSnapshotExporter.qualify("create table device (_id INTEGER)"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQualifyRejectsUnknownStatements() {
+        DBSnapshotExporter.qualify("CREATE VIRTUAL TABLE device USING fts4(name)");
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:00:00:30");
+        DBHelper.getDevice(dummyGBDevice, daoSession);
+        DBHelper.getUser(daoSession);
+        long deviceCount = daoSession.getDeviceDao().count();
+
+        File exportFile = new File(getContext().getCacheDir(), "snapshot-test.db");
+        exportFile.delete();
+        try {
+            new DBSnapshotExporter(getContext()).export(dbHandler, exportFile);
+            assertTrue(exportFile.length() > 0);
+
+            try (SQLiteDatabase exported = SQLiteDatabase.openDatabase(exportFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY)) {
+                try (Cursor cursor = exported.rawQuery("SELECT COUNT(*) FROM DEVICE WHERE IDENTIFIER = ?", new String[]{"00:00:00:00:30"})) {
+                    assertTrue(cursor.moveToFirst());
+                    assertEquals(1, cursor.getInt(0));
+                }
+                try (Cursor cursor = exported.rawQuery("SELECT COUNT(*) FROM DEVICE", null)) {
+                    assertTrue(cursor.moveToFirst());
+                    assertEquals(deviceCount, cursor.getLong(0));
+                }
+                // the indexes are part of the snapshot as well
+                try (Cursor cursor = exported.rawQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL", null)) {
+                    assertTrue(cursor.moveToFirst());
+                    assertTrue(cursor.getInt(0) > 0);
+                }
+            }
+        } finally {
+            exportFile.delete();
+        }
+    }
+
+    @Test
+    public void testExportIncremental() throws Exception {
+        DBHelper.getDevice(createDummyGDevice("00:00:00:00:31"), daoSession);
+        DBHelper.getUser(daoSession);
+
+        final DBSnapshotExporter exporter = new DBSnapshotExporter(getContext());
+        File exportFile = new File(getContext().getCacheDir(), "snapshot-incremental-test.db");
+        try {
+            // nothing was exported yet, so everything is exported
+            Map<String, String> state = exportIncremental(exporter, exportFile, new HashMap<>());
+            assertFalse(DBSnapshotExporter.isPartialExport(exportFile));
+            assertTrue(countDevices(exportFile) > 0);
+
+            // nothing changed
+            state = exportIncremental(exporter, exportFile, state);
+            assertTrue(DBSnapshotExporter.isPartialExport(exportFile));
+            assertEquals(0, countDevices(exportFile));
+
+            DBHelper.getDevice(createDummyGDevice("00:00:00:00:32"), daoSession);
+            exportIncremental(exporter, exportFile, state);
+            assertTrue(DBSnapshotExporter.isPartialExport(exportFile));
+            assertEquals(daoSession.getDeviceDao().count(), countDevices(exportFile));
+        } finally {
+            exportFile.delete();
+        }
+    }
+
+    private Map<String, String> exportIncremental(DBSnapshotExporter exporter, File exportFile, Map<String, String> previousState) throws Exception {
+        exportFile.delete();
+        try (OutputStream out = new FileOutputStream(exportFile)) {
+            return exporter.exportIncremental(dbHandler, out, previousState);
+        }
+    }
+
+    private long countDevices(File exportFile) {
+        try (SQLiteDatabase exported = SQLiteDatabase.openDatabase(exportFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+             Cursor cursor = exported.rawQuery("SELECT COUNT(*) FROM DEVICE", null)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nodomain.freeyourgadget.gadgetbridge.database.schema.GadgetbridgeUpdate_73;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares one-year range queries on an activity sample table with and without the
+ * (DEVICE_ID, TIMESTAMP) index. The row count is kept small, set it to 5_000_000 for a
+ * realistic benchmark.
+ */
+@Ignore("Benchmark, run it manually")
+public class SampleIndexBenchmarkTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(SampleIndexBenchmarkTest.class);
+
+    private static final int ROWS = 100_000;
+    private static final int DEVICES = 4;
+    private static final int QUERY_DEVICE = 2;
+    private static final int RANGE_SECONDS = 365 * 24 * 60 * 60;
+    private static final int RUNS = 5;
+
+    private static final String TABLE = MiBandActivitySampleDao.TABLENAME;
+
+    @Test
+    public void testDeviceTimestampIndex() {
+        final SQLiteDatabase db = dbHandler.getDatabase();
+        final int lastTimestamp = fillTable(db);
+        final int from = Math.max(0, lastTimestamp - RANGE_SECONDS);
+
+        new GadgetbridgeUpdate_73().downgradeSchema(db);
+        assertFalse(getQueryPlan(db, from, lastTimestamp).contains(GadgetbridgeUpdate_73.getIndexName(TABLE)));
+        final long[] without = runQueries(db, from, lastTimestamp);
+
+        new GadgetbridgeUpdate_73().upgradeSchema(db);
+        assertTrue(getQueryPlan(db, from, lastTimestamp).contains(GadgetbridgeUpdate_73.getIndexName(TABLE)));
+        final long[] with = runQueries(db, from, lastTimestamp);
+
+        // same results, only faster
+        assertEquals(without[0], with[0]);
+        assertEquals(without[1], with[1]);
+
+        LOG.info("{} rows, range query: {}ms without index, {}ms with index", ROWS, without[2], with[2]);
+        LOG.info("{} rows, latest sample: {}ms without index, {}ms with index", ROWS, without[3], with[3]);
+    }
+
+    /**
+     * Inserts one sample per minute, round robin across the devices, so that the samples of a
+     * single device are spread over the whole table like in a real database.
+     *
+     * @return the timestamp of the last sample
+     */
+    private int fillTable(final SQLiteDatabase db) {
+        final SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE
+                + " (TIMESTAMP, DEVICE_ID, USER_ID, RAW_INTENSITY, STEPS, RAW_KIND, HEART_RATE) VALUES (?, ?, 1, 10, ?, 1, 70)");
+        final int start = 1_600_000_000;
+        int timestamp = start;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                timestamp = start + (i / DEVICES) * 60;
+                insert.bindLong(1, timestamp);
+                insert.bindLong(2, 1 + (i % DEVICES));
+                insert.bindLong(3, i % 100);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        return timestamp;
+    }
+
+    private String getQueryPlan(final SQLiteDatabase db, final int from, final int to) {
+        final StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + getRangeQuery(), getRangeArgs(from, to))) {
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+
+    /**
+     * @return the number of samples, the latest timestamp, and the best range and latest
+     * sample query times in ms
+     */
+    private long[] runQueries(final SQLiteDatabase db, final int from, final int to) {
+        final long[] result = new long[]{0, 0, Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            long count = 0;
+            try (Cursor cursor = db.rawQuery(getRangeQuery(), getRangeArgs(from, to))) {
+                while (cursor.moveToNext()) {
+                    count++;
+                }
+            }
+            result[0] = count;
+            result[2] = Math.min(result[2], (System.nanoTime() - start) / 1_000_000);
+
+            start = System.nanoTime();
+            try (Cursor cursor = db.rawQuery("SELECT TIMESTAMP FROM " + TABLE
+                    + " WHERE DEVICE_ID = ? ORDER BY TIMESTAMP DESC LIMIT 1", new String[]{String.valueOf(QUERY_DEVICE)})) {
+                assertTrue(cursor.moveToFirst());
+                result[1] = cursor.getLong(0);
+            }
+            result[3] = Math.min(result[3], (System.nanoTime() - start) / 1_000_000);
+        }
+        return result;
+    }
+
+    private static String getRangeQuery() {
+        return "SELECT * FROM " + TABLE + " WHERE DEVICE_ID = ? AND TIMESTAMP >= ? AND TIMESTAMP <= ? ORDER BY TIMESTAMP ASC";
+    }
+
+    private static String[] getRangeArgs(final int from, final int to) {
+        return new String[]{String.valueOf(QUERY_DEVICE), String.valueOf(from), String.valueOf(to)};
+    }
+}
@@ -2,9 +2,11 @@ package nodomain.freeyourgadget.gadgetbridge.database;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
@@ -12,6 +14,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleBlock;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 
 import static org.junit.Assert.assertEquals;
@@ -170,4 +173,78 @@ public class SampleProviderTest extends TestBase {
         sleepSamples = sampleProvider.getSleepSamples(1500, 2500);
         assertEquals(1, sleepSamples.size());
     }
+
+    @Test
+    public void testForEachSample() {
+        final MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        // inserted out of order on purpose
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[] {
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_DEEP_SLEEP, 1200, 10, 62, 4030, user, device),
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 100, 10, 70, 1000, user, device),
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 200, 20, 80, 1030, user, device),
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_LIGHT_SLEEP, 2000, 10, 60, 4030, user, device),
+        });
+
+        final List<MiBandActivitySample> expected = sampleProvider.getAllActivitySamples(0, 1300);
+        final List<String> visited = new ArrayList<>();
+        final List<MiBandActivitySample> instances = new ArrayList<>();
+        sampleProvider.forEachSample(0, 1300, new SampleVisitor<MiBandActivitySample>() {
+            @Override
+            public void visit(MiBandActivitySample sample) {
+                visited.add(sample.getTimestamp() + ":" + sample.getKind() + ":" + sample.getSteps() + ":" + sample.getHeartRate());
+                instances.add(sample);
+            }
+        });
+
+        assertEquals(3, visited.size());
+        assertEquals(expected.size(), visited.size());
+        assertEquals("100:" + ActivityKind.TYPE_ACTIVITY + ":1000:70", visited.get(0));
+        for (int i = 0; i < expected.size(); i++) {
+            final MiBandActivitySample sample = expected.get(i);
+            assertEquals(sample.getTimestamp() + ":" + sample.getKind() + ":" + sample.getSteps() + ":" + sample.getHeartRate(), visited.get(i));
+        }
+
+        // a single flyweight instance is re-used for all samples
+        assertSame(instances.get(0), instances.get(2));
+    }
+
+    @Test
+    public void testSampleBlock() {
+        final MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[] {
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 100, 10, 70, 1000, user, device),
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 200, 20, 80, 1030, user, device),
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_DEEP_SLEEP, 1200, 10, 62, 4030, user, device),
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_LIGHT_SLEEP, 2000, 10, 60, 4030, user, device),
+        });
+
+        final List<MiBandActivitySample> expected = sampleProvider.getAllActivitySamples(0, 3000);
+        // start with a tiny block, so that it needs to grow
+        final SampleBlock block = new SampleBlock(1);
+        sampleProvider.forEachSample(0, 3000, block);
+
+        assertEquals(4, block.size());
+        assertEquals((long) user.getId(), block.getUserId());
+        assertEquals((long) device.getId(), block.getDeviceId());
+        for (int i = 0; i < expected.size(); i++) {
+            final MiBandActivitySample sample = expected.get(i);
+            assertEquals(sample.getTimestamp(), block.getTimestamp(i));
+            assertEquals(sample.getKind(), block.getKind(i));
+            assertEquals(sample.getRawKind(), block.getRawKind(i));
+            assertEquals(sample.getSteps(), block.getSteps(i));
+            assertEquals(sample.getHeartRate(), block.getHeartRate(i));
+            assertEquals(sample.getIntensity(), block.getIntensity(i), 0.0001f);
+        }
+
+        block.retainRange(150, 1500);
+        assertEquals(2, block.size());
+        assertEquals(200, block.getTimestamp(0));
+        assertEquals(ActivityKind.TYPE_DEEP_SLEEP, block.getKind(1));
+    }
 }
@@ -158,6 +158,51 @@ public class TestHuaweiPacket {
         Assert.assertEquals(expectedTlv, packet.getTlv());
     }
 
+    @Test
+    public void testPartialPacketParse() throws HuaweiPacket.ParseException {
+        byte[] input1 = {0x5a, 0x00, 0x07, 0x00, 0x7f, 0x7f};
+        byte[] input2 = {0x01, 0x02, 0x03, 0x04, 0x40, (byte) 0xb6};
+
+        HuaweiTLV expectedTlv = new HuaweiTLV()
+                .put(0x01, (short) 0x0304);
+
+        HuaweiPacket packet = new HuaweiPacket(paramsProvider);
+        packet = packet.parse(input1);
+        Assert.assertFalse(packet.complete);
+        packet = packet.parse(input2);
+
+        Assert.assertEquals(HuaweiPacket.class, packet.getClass());
+        Assert.assertEquals(0x7f, packet.serviceId);
+        Assert.assertEquals(0x7f, packet.commandId);
+        Assert.assertTrue(packet.complete);
+        Assert.assertEquals(expectedTlv, packet.getTlv());
+    }
+
+    @Test
+    public void testUnencryptedSlicedParse() throws HuaweiPacket.ParseException {
+        byte[] input1 = {(byte) 0x5a, (byte) 0x00, (byte) 0x0b, (byte) 0x01, (byte) 0x00, (byte) 0x01, (byte) 0x02, (byte) 0x01, (byte) 0x04, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x02, (byte) 0xcc, (byte) 0x98};
+        byte[] input2 = {(byte) 0x5a, (byte) 0x00, (byte) 0x0b, (byte) 0x02, (byte) 0x01, (byte) 0x04, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x03, (byte) 0x04, (byte) 0x00, (byte) 0x00, (byte) 0xfa, (byte) 0xd3};
+        byte[] input3 = {(byte) 0x5a, (byte) 0x00, (byte) 0x0a, (byte) 0x03, (byte) 0x02, (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x04, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x37, (byte) 0xca};
+
+        HuaweiTLV expectedTlv = new HuaweiTLV()
+                .put(0x01, 0x00)
+                .put(0x02, 0x00)
+                .put(0x03, 0x00)
+                .put(0x04, 0x00);
+
+        HuaweiPacket packet = new HuaweiPacket(paramsProviderSmallSlice);
+        packet = packet.parse(input1);
+        Assert.assertFalse(packet.complete);
+        packet = packet.parse(input2);
+        Assert.assertFalse(packet.complete);
+        packet = packet.parse(input3);
+
+        Assert.assertEquals(0x01, packet.serviceId);
+        Assert.assertEquals(0x02, packet.commandId);
+        Assert.assertTrue(packet.complete);
+        Assert.assertEquals(expectedTlv, packet.getTlv());
+    }
+
     @Test
     public void testUnknownEncryptedPacketParse() throws HuaweiPacket.ParseException {
         byte[] input = {(byte) 0x5a, (byte) 0x00, (byte) 0x2a, (byte) 0x00, (byte) 0x7f, (byte) 0x7f, (byte) 0x7c, (byte) 0x01, (byte) 0x01, (byte) 0x7d, (byte) 0x10, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x7e, (byte) 0x10, (byte) 0x9e, (byte) 0x40, (byte) 0xe1, (byte) 0xea, (byte) 0x15, (byte) 0xf6, (byte) 0x50, (byte) 0x80, (byte) 0x8c, (byte) 0x45, (byte) 0x19, (byte) 0xd5, (byte) 0x2a, (byte) 0xbb, (byte) 0x29, (byte) 0xb8, (byte) 0xD5, (byte) 0x24};
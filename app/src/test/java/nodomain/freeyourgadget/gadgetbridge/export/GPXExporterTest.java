@@ -2,7 +2,10 @@ package nodomain.freeyourgadget.gadgetbridge.export;
 
 import com.google.gson.internal.bind.util.ISO8601Utils;
 
+import org.junit.Ignore;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
 import java.io.BufferedReader;
@@ -10,11 +13,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
@@ -32,7 +40,13 @@ import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
 import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 public class GPXExporterTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(GPXExporterTest.class);
+
     @Test
     public void shouldCreateValidGpxFromSimulatedData() throws IOException, ParseException, GPXTrackEmptyException, SAXException {
         final List<ActivityPoint> points = readActivityPoints("/GPXExporterTest-SampleTracks.csv");
@@ -63,6 +77,99 @@ public class GPXExporterTest extends TestBase {
         validateGpxFile(tempFile);
     }
 
+    @Test
+    public void shouldUseHeartRateOfPrecedingPoint() throws IOException, GPXTrackEmptyException {
+        final long start = 1_700_000_000_000L;
+        final List<ActivityPoint> points = new ArrayList<>();
+        points.add(createPoint(start, 80));
+        points.add(createPoint(start + 1000, -1)); // 80, from the previous point
+        points.add(createPoint(start + 2000, 90));
+        points.add(createPoint(start + 2000 + 119_000, -1)); // 90, just within 2 minutes
+        points.add(createPoint(start + 2000 + 120_000, -1)); // none, too far away
+
+        final GPXExporter gpxExporter = new GPXExporter();
+        gpxExporter.setCreator("Gadgetbridge Test");
+        final File tempFile = File.createTempFile("gpx-exporter-test-track", ".gpx");
+        tempFile.deleteOnExit();
+        gpxExporter.performExport(createTestTrack(points), tempFile);
+
+        final String gpx = new String(Files.readAllBytes(tempFile.toPath()), StandardCharsets.UTF_8);
+        final String[] trackPoints = gpx.split("<trkpt ");
+        assertEquals(6, trackPoints.length);
+        assertTrue(trackPoints[1].contains(">80</gpxtpx:hr>"));
+        assertTrue(trackPoints[2].contains(">80</gpxtpx:hr>"));
+        assertTrue(trackPoints[3].contains(">90</gpxtpx:hr>"));
+        assertTrue(trackPoints[4].contains(">90</gpxtpx:hr>"));
+        assertFalse(trackPoints[5].contains("gpxtpx:hr"));
+        assertTrue(trackPoints[1].contains("<time>2023-11-14T22:13:20Z</time>"));
+    }
+
+    @Test
+    public void shouldFormatLocationLikeBigDecimal() {
+        final GPXExporter gpxExporter = new GPXExporter();
+        final double[] values = {
+                0, -0.0, 0.0000005, -0.0000005, 0.0000015, 1.2345675, -1.2345675, 179.9999995,
+                -20000, 8848.86, 1e-7, -1e-7, 123456789.1234565, 1e20, Double.MIN_VALUE
+        };
+        for (final double value : values) {
+            assertEquals(String.valueOf(value), formatExact(value), gpxExporter.formatLocation(value));
+        }
+
+        final Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            final double value = (random.nextDouble() - 0.5) * 360;
+            assertEquals(String.valueOf(value), formatExact(value), gpxExporter.formatLocation(value));
+        }
+    }
+
+    private static String formatExact(double value) {
+        return new BigDecimal(value).setScale(GPSCoordinate.GPS_DECIMAL_DEGREES_SCALE, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    /**
+     * Exports synthetic 1Hz tracks, where only every 10th point has a heart rate. Before the
+     * single pass export, the 200k points track took minutes due to the nearest heart rate lookup.
+     */
+    @Ignore("Benchmark, run it manually")
+    @Test
+    public void benchmarkLargeTracks() throws IOException, GPXTrackEmptyException {
+        final int runs = 3;
+        for (final int size : new int[]{50_000, 200_000}) {
+            final ActivityTrack track = createTestTrack(createSyntheticPoints(size));
+            final File tempFile = File.createTempFile("gpx-exporter-benchmark", ".gpx");
+            tempFile.deleteOnExit();
+
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < runs; run++) {
+                final GPXExporter gpxExporter = new GPXExporter();
+                gpxExporter.setCreator("Gadgetbridge Test");
+                final long start = System.nanoTime();
+                gpxExporter.performExport(track, tempFile);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            LOG.info("Exported {} points in {}ms ({} bytes)", size, best / 1_000_000, tempFile.length());
+        }
+    }
+
+    private List<ActivityPoint> createSyntheticPoints(int size) {
+        final List<ActivityPoint> points = new ArrayList<>(size);
+        final long start = 1_700_000_000_000L;
+        for (int i = 0; i < size; i++) {
+            final ActivityPoint point = createPoint(start + i * 1000L, i % 10 == 0 ? 100 + i % 50 : -1);
+            point.setLocation(new GPSCoordinate(11.5 + i * 1e-5, 48.1 + i * 1e-5, 500 + i % 100));
+            points.add(point);
+        }
+        return points;
+    }
+
+    private ActivityPoint createPoint(long time, int heartRate) {
+        final ActivityPoint point = new ActivityPoint();
+        point.setLocation(new GPSCoordinate(11.5, 48.1, 500));
+        point.setTime(new Date(time));
+        point.setHeartRate(heartRate);
+        return point;
+    }
+
     private ActivityTrack createTestTrack(List<ActivityPoint> points) {
         final User user = new User();
         user.setName("Test User");
@@ -7,9 +7,12 @@ import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity;
 import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilter;
+import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterEntry;
+import nodomain.freeyourgadget.gadgetbridge.externalevents.notifications.NotificationFilterIndex;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class NotificationListenerTest extends TestBase {
@@ -108,4 +111,33 @@ public class NotificationListenerTest extends TestBase {
         filter.setNotificationFilterMode(NotificationFilterActivity.NOTIFICATION_FILTER_MODE_NONE);
         assertTrue(mNotificationListener.shouldContinueAfterFilter(body, wordList, filter));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void filterIndex_IsReloadedAfterInvalidate() {
+        NotificationFilter filter = new NotificationFilter();
+        filter.setAppIdentifier("com.example.chat");
+        filter.setNotificationFilterMode(NotificationFilterActivity.NOTIFICATION_FILTER_MODE_BLACKLIST);
+        filter.setNotificationFilterSubMode(NotificationFilterActivity.NOTIFICATION_FILTER_SUBMODE_ANY);
+        long filterId = daoSession.getNotificationFilterDao().insert(filter);
+        for (String word : wordList) {
+            NotificationFilterEntry entry = new NotificationFilterEntry();
+            entry.setNotificationFilterId(filterId);
+            entry.setNotificationFilterContent(word);
+            daoSession.getNotificationFilterEntryDao().insert(entry);
+        }
+        NotificationFilterIndex.invalidate();
+
+        assertNull(NotificationFilterIndex.get("com.example.other"));
+        assertFalse(NotificationFilterIndex.get("com.example.chat").shouldContinue("Hello there"));
+        assertTrue(NotificationFilterIndex.get("com.example.chat").shouldContinue("A text without a meaning"));
+
+        // changes are only picked up after invalidating the index
+        filter.setNotificationFilterMode(NotificationFilterActivity.NOTIFICATION_FILTER_MODE_NONE);
+        daoSession.getNotificationFilterDao().update(filter);
+        assertFalse(NotificationFilterIndex.get("com.example.chat").shouldContinue("Hello there"));
+        NotificationFilterIndex.invalidate();
+        assertTrue(NotificationFilterIndex.get("com.example.chat").shouldContinue("Hello there"));
+
+        NotificationFilterIndex.invalidate();
+    }
+}
@@ -0,0 +1,108 @@
+package nodomain.freeyourgadget.gadgetbridge.service;
+
+import android.os.Looper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.metrics.MetricsRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceCommandExecutorTest extends TestBase {
+    @Test
+    public void testCommandsRunInOrder() throws InterruptedException {
+        final GBDevice device = createDummyGDevice("00:00:00:00:40");
+        final MetricsRegistry metrics = MetricsRegistry.forDevice(device);
+        metrics.reset();
+        final DeviceCommandExecutor executor = new DeviceCommandExecutor(device);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // a slow command holds up the commands for the same device only
+        assertTrue(executor.execute("slow", () -> {
+            assertNotSame(Looper.getMainLooper().getThread(), Thread.currentThread());
+            try {
+                blocked.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException ignored) {
+            }
+            order.add(0);
+        }));
+        for (int i = 1; i <= 10; i++) {
+            final int n = i;
+            executor.execute("fast", () -> order.add(n));
+        }
+        executor.execute("sync", done::countDown);
+        assertEquals(12, executor.getQueueDepth());
+
+        blocked.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i <= 10; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+
+        // a failing command does not stop the executor
+        final CountDownLatch afterFailure = new CountDownLatch(1);
+        executor.execute("failing", () -> {
+            throw new IllegalStateException("expected");
+        });
+        executor.execute("sync", afterFailure::countDown);
+        assertTrue(afterFailure.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, metrics.counter("command.failed").getCount());
+        assertEquals(10, metrics.timer("command.fast").getCount());
+
+        executor.shutdown();
+        assertFalse(executor.execute("fast", () -> {}));
+    }
+
+    @Test
+    public void testCancelPending() throws InterruptedException {
+        final GBDevice device = createDummyGDevice("00:00:00:00:41");
+        final MetricsRegistry metrics = MetricsRegistry.forDevice(device);
+        metrics.reset();
+        final DeviceCommandExecutor executor = new DeviceCommandExecutor(device);
+        final List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+
+        executor.execute("slow", () -> {
+            running.countDown();
+            try {
+                blocked.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException ignored) {
+            }
+            ran.add("slow");
+        });
+        executor.execute("queued", () -> ran.add("queued"));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        // the running command is not interrupted
+        executor.cancelPending();
+        // commands queued afterwards run as usual, after it
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute("after", () -> {
+            ran.add("after");
+            done.countDown();
+        });
+
+        blocked.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("slow", "after"), ran);
+        assertEquals(1, metrics.counter("command.cancelled").getCount());
+
+        executor.shutdown();
+    }
+}
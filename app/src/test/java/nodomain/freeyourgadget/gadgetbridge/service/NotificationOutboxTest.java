@@ -0,0 +1,112 @@
+package nodomain.freeyourgadget.gadgetbridge.service;
+
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.ACTION_NOTIFICATION;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_ACTIONS;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_BODY;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_ID;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_PEBBLE_COLOR;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_TYPE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Intent;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.metrics.MetricsRegistry;
+
+public class NotificationOutboxTest extends TestBase {
+    private static final String ADDRESS = "00:00:00:00:50";
+
+    private static Intent createNotification(final int id, final String body) {
+        return new Intent(ACTION_NOTIFICATION)
+                .putExtra(EXTRA_NOTIFICATION_ID, id)
+                .putExtra(EXTRA_NOTIFICATION_BODY, body)
+                .putExtra(EXTRA_NOTIFICATION_TYPE, NotificationType.GENERIC_SMS)
+                .putExtra(EXTRA_NOTIFICATION_PEBBLE_COLOR, (byte) 3);
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        final File dir = Files.createTempDirectory("outbox").toFile();
+        final NotificationOutbox outbox = new NotificationOutbox(dir, ADDRESS, 10);
+
+        outbox.add(createNotification(1, "first"));
+        outbox.add(createNotification(2, "second"));
+        outbox.add(createNotification(1, "first, updated"));
+        outbox.add(createNotification(3, "third"));
+        assertEquals(3, outbox.size());
+
+        final long deleted = MetricsRegistry.forDevice(ADDRESS).counter("notification.outbox.deleted").getCount();
+        assertTrue(outbox.delete(3));
+        assertFalse(outbox.delete(4));
+        assertEquals(deleted + 1, MetricsRegistry.forDevice(ADDRESS).counter("notification.outbox.deleted").getCount());
+        assertEquals(2, outbox.size());
+        assertEquals(2L, (long) MetricsRegistry.forDevice(ADDRESS).getGauge("notification.outbox"));
+
+        final List<Intent> intents = outbox.poll(10);
+        assertEquals(2, intents.size());
+        assertEquals(2, intents.get(0).getIntExtra(EXTRA_NOTIFICATION_ID, -1));
+        assertEquals("first, updated", intents.get(1).getStringExtra(EXTRA_NOTIFICATION_BODY));
+        assertEquals(0, outbox.size());
+        outbox.flush().get();
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void testMaxSize() throws IOException {
+        final File dir = Files.createTempDirectory("outbox").toFile();
+        final NotificationOutbox outbox = new NotificationOutbox(dir, ADDRESS, 3);
+
+        for (int i = 0; i < 5; i++) {
+            outbox.add(createNotification(i, "body " + i));
+        }
+        assertEquals(3, outbox.size());
+
+        // the oldest were dropped
+        final List<Intent> first = outbox.poll(2);
+        assertEquals(2, first.size());
+        assertEquals(2, first.get(0).getIntExtra(EXTRA_NOTIFICATION_ID, -1));
+        assertEquals(3, first.get(1).getIntExtra(EXTRA_NOTIFICATION_ID, -1));
+        assertEquals(1, outbox.size());
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        final File dir = Files.createTempDirectory("outbox").toFile();
+        final ArrayList<NotificationSpec.Action> actions = new ArrayList<>();
+        final NotificationSpec.Action action = new NotificationSpec.Action();
+        action.title = "Reply";
+        action.type = NotificationSpec.Action.TYPE_WEARABLE_REPLY;
+        actions.add(action);
+
+        final NotificationOutbox first = new NotificationOutbox(dir, ADDRESS, 10);
+        first.add(createNotification(7, "persisted").putExtra(EXTRA_NOTIFICATION_ACTIONS, actions));
+        first.flush().get();
+
+        final NotificationOutbox outbox = new NotificationOutbox(dir, ADDRESS, 10);
+        assertEquals(1, outbox.size());
+        final Intent intent = outbox.poll(1).get(0);
+        assertEquals(ACTION_NOTIFICATION, intent.getAction());
+        assertEquals(7, intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1));
+        assertEquals("persisted", intent.getStringExtra(EXTRA_NOTIFICATION_BODY));
+        assertEquals(NotificationType.GENERIC_SMS, intent.getSerializableExtra(EXTRA_NOTIFICATION_TYPE));
+        assertEquals((byte) 3, intent.getByteExtra(EXTRA_NOTIFICATION_PEBBLE_COLOR, (byte) 0));
+        final ArrayList<?> restoredActions = (ArrayList<?>) intent.getSerializableExtra(EXTRA_NOTIFICATION_ACTIONS);
+        assertEquals(1, restoredActions.size());
+        assertEquals("Reply", ((NotificationSpec.Action) restoredActions.get(0)).title);
+
+        outbox.flush().get();
+        assertEquals(0, new NotificationOutbox(dir, ADDRESS, 10).size());
+    }
+}
@@ -0,0 +1,156 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The expected summary values are the ones the previous implementation, which read the whole
+ * log into a JSON object first, computed for the same logs.
+ */
+public class BangleJSRecorderCSVParserTest {
+    private static final float DELTA = 0.0001f;
+
+    private final ActivityTrack track = new ActivityTrack();
+
+    private BangleJSRecorderCSVParser parse(final String csv) throws IOException {
+        track.startNewSegment();
+        final BangleJSRecorderCSVParser parser = new BangleJSRecorderCSVParser(track);
+        parser.parse(new BufferedReader(new StringReader(csv)));
+        return parser;
+    }
+
+    @Test
+    public void testAllColumns() throws IOException {
+        final BangleJSRecorderCSVParser parser = parse(
+                "Time,Latitude,Longitude,Altitude,Heartrate,Steps,Barometer Altitude\n" +
+                "1700000000,51.500000,7.450000,120,80,0,101.5\n" +
+                "1700000010,51.500300,7.450200,122,95,12,102.25\n" +
+                "1700000020,,,,0,15,103\n" +
+                "1700000030.5,51.500900,7.450500,125,110,,104.75\n" +
+                "1700000030.5,51.501000,7.450600,124,105,8,\n"
+        );
+
+        assertEquals(5, parser.getRowCount());
+        assertEquals(1700000000000L, parser.getStartTime().getTime());
+        assertEquals(1700000030000L, parser.getEndTime().getTime());
+        assertEquals(30.5, parser.getElapsedTime(), DELTA);
+        assertTrue(parser.hasDistance());
+        assertTrue(parser.hasStride());
+        assertTrue(parser.hasGPXReading());
+
+        assertEquals(46.019585f, (float) parser.getTotalDistance(), DELTA);
+        assertEquals(35f, parser.getSteps(), DELTA);
+        assertEquals(97.5f, parser.getHeartRate().getAverage(), DELTA);
+        assertEquals(80f, parser.getHeartRate().getMin(), DELTA);
+        assertEquals(110f, parser.getHeartRate().getMax(), DELTA);
+        assertEquals(3.7935138f, parser.getSpeed().getAverage(), DELTA);
+        assertEquals(2.6296906f, (float) (parser.getTotalDistance() / (0.5 * parser.getSteps())), DELTA);
+        assertEquals(34.42623f, (float) 0.5 * 60 * parser.getSteps() / (float) parser.getElapsedTime(), DELTA);
+        // the GPS altitude is preferred over the barometer altitude
+        assertEquals(122.75f, parser.getAltitude().getAverage(), DELTA);
+        assertEquals(120f, parser.getAltitude().getMin(), DELTA);
+        assertEquals(125f, parser.getAltitude().getMax(), DELTA);
+
+        final List<ActivityPoint> points = track.getSegments().get(0);
+        assertEquals(5, points.size());
+        assertEquals(1700000000000L, track.getBaseTime().getTime());
+        assertEquals(95, points.get(1).getHeartRate());
+        assertEquals(51.5003, points.get(1).getLocation().getLatitude(), DELTA);
+        assertEquals(7.4502, points.get(1).getLocation().getLongitude(), DELTA);
+        assertEquals(122, points.get(1).getLocation().getAltitude(), DELTA);
+        assertEquals(0, points.get(2).getHeartRate());
+        assertNull(points.get(2).getLocation());
+        assertEquals(1700000030000L, points.get(3).getTime().getTime());
+    }
+
+    @Test
+    public void testStepsWithoutGps() throws IOException {
+        final BangleJSRecorderCSVParser parser = parse(
+                "Time,Heartrate,Steps\n" +
+                "1700000000,0,0\n" +
+                "1700000010,72,10\n" +
+                "1700000020,,14\n" +
+                "1700000030,90,0\n" +
+                "1700000040,81,\n"
+        );
+
+        assertEquals(5, parser.getRowCount());
+        assertTrue(parser.hasDistance());
+        assertFalse(parser.hasStride());
+        assertFalse(parser.hasAltitude());
+        assertFalse(parser.hasGPXReading());
+
+        // estimated from the steps
+        assertEquals(34.368f, (float) parser.getTotalDistance(), DELTA);
+        assertEquals(24f, parser.getSteps(), DELTA);
+        assertEquals(0.8592f, parser.getSpeed().getAverage(), DELTA);
+        assertEquals(18f, (float) 0.5 * 60 * parser.getSteps() / (float) parser.getElapsedTime(), DELTA);
+        assertEquals(81f, parser.getHeartRate().getAverage(), DELTA);
+        assertEquals(72f, parser.getHeartRate().getMin(), DELTA);
+        assertEquals(90f, parser.getHeartRate().getMax(), DELTA);
+
+        final List<ActivityPoint> points = track.getSegments().get(0);
+        assertEquals(5, points.size());
+        assertEquals(0, points.get(0).getHeartRate());
+        assertEquals(72, points.get(1).getHeartRate());
+    }
+
+    @Test
+    public void testBarometerOnly() throws IOException {
+        final BangleJSRecorderCSVParser parser = parse(
+                "Time,Barometer Altitude\n" +
+                "1700000000.25,350.5\n" +
+                "1700000060,\n" +
+                "1700000120.75,348\n"
+        );
+
+        assertEquals(3, parser.getRowCount());
+        assertEquals(1700000000000L, parser.getStartTime().getTime());
+        assertEquals(1700000120000L, parser.getEndTime().getTime());
+        assertFalse(parser.hasDistance());
+        assertFalse(parser.hasSteps());
+        assertFalse(parser.hasHeartRate());
+        assertTrue(parser.hasAltitude());
+
+        assertEquals(349.25f, parser.getAltitude().getAverage(), DELTA);
+        assertEquals(348f, parser.getAltitude().getMin(), DELTA);
+        assertEquals(350.5f, parser.getAltitude().getMax(), DELTA);
+        assertEquals(3, track.getSegments().get(0).size());
+    }
+
+    @Test
+    public void testTimeOnly() throws IOException {
+        final BangleJSRecorderCSVParser parser = parse(
+                "Time\n" +
+                "1700000000\n" +
+                "\n" +
+                "1700000005\n"
+        );
+
+        assertEquals(2, parser.getRowCount());
+        assertEquals(5, parser.getElapsedTime(), DELTA);
+        assertFalse(parser.hasDistance());
+        assertFalse(parser.hasSteps());
+        assertFalse(parser.hasHeartRate());
+        assertFalse(parser.hasAltitude());
+        assertFalse(parser.hasGPXReading());
+        assertEquals(2, track.getSegments().get(0).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingTimeColumn() throws IOException {
+        parse("Heartrate,Steps\n80,10\n");
+    }
+}
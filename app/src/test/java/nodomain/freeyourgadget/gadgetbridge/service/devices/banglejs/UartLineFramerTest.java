@@ -0,0 +1,113 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class UartLineFramerTest {
+    private static final Logger LOG = LoggerFactory.getLogger(UartLineFramerTest.class);
+
+    private final UartLineFramer framer = new UartLineFramer();
+    private final List<String> lines = new ArrayList<>();
+
+    private void append(final String data) {
+        framer.append(data.getBytes(StandardCharsets.ISO_8859_1), lines::add);
+    }
+
+    @Test
+    public void testSingleLines() {
+        append("{\"t\":\"info\"}\n");
+        append("second\r\n");
+        append("\n");
+        assertEquals(Arrays.asList("{\"t\":\"info\"}", "second", ""), lines);
+    }
+
+    @Test
+    public void testLineSplitAcrossPackets() {
+        append("{\"t\":");
+        append("\"act\",\"hrm\"");
+        assertEquals(0, lines.size());
+        append(":72}\r");
+        append("\nnext");
+        assertEquals(Arrays.asList("{\"t\":\"act\",\"hrm\":72}"), lines);
+        append("\n");
+        assertEquals(Arrays.asList("{\"t\":\"act\",\"hrm\":72}", "next"), lines);
+    }
+
+    @Test
+    public void testSeveralLinesInOnePacket() {
+        append("a\nb\r\nc");
+        assertEquals(Arrays.asList("a", "b"), lines);
+        append("\n");
+        assertEquals(Arrays.asList("a", "b", "c"), lines);
+    }
+
+    @Test
+    public void testClear() {
+        append("partial");
+        framer.clear();
+        append("line\n");
+        assertEquals(Arrays.asList("line"), lines);
+    }
+
+    @Test
+    public void testLongLine() {
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            final String chunk = "0123456789abcdefé";
+            expected.append(chunk);
+            append(chunk);
+        }
+        append("\n");
+        assertEquals(1, lines.size());
+        assertEquals(expected.toString(), lines.get(0));
+    }
+
+    /**
+     * Compares the framer against the previous approach of concatenating every packet to a
+     * String and cutting lines off its start. Set PACKETS to 200000 for a realistic benchmark.
+     */
+    @Ignore("Benchmark, run it manually")
+    @Test
+    public void benchmarkFraming() {
+        final int PACKETS = 20000;
+        final byte[][] packets = new byte[PACKETS][];
+        for (int i = 0; i < PACKETS; i++) {
+            // 20 byte BLE packets, with a line every ~100 bytes
+            packets[i] = (i % 5 == 4 ? "\"stp\":1234567890}\r\n" : "{\"t\":\"act\",\"hrm\":72,").getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        final int[] count = new int[1];
+        long start = System.currentTimeMillis();
+        for (final byte[] packet : packets) {
+            framer.append(packet, line -> count[0]++);
+        }
+        final long framerTime = System.currentTimeMillis() - start;
+        final int framerLines = count[0];
+
+        count[0] = 0;
+        start = System.currentTimeMillis();
+        String receivedLine = "";
+        for (final byte[] packet : packets) {
+            receivedLine += new String(packet, StandardCharsets.ISO_8859_1);
+            while (receivedLine.contains("\n")) {
+                int p = receivedLine.indexOf("\n");
+                final String line = receivedLine.substring(0, (p > 0) ? (p - 1) : 0);
+                count[0] += line.isEmpty() ? 0 : 1;
+                receivedLine = receivedLine.substring(p + 1);
+            }
+        }
+        final long concatTime = System.currentTimeMillis() - start;
+
+        assertEquals(count[0], framerLines);
+        LOG.info("Framed {} lines: framer {}ms, string concatenation {}ms", framerLines, framerTime, concatTime);
+    }
+}
@@ -27,9 +27,11 @@ import java.util.List;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleSink;
 import nodomain.freeyourgadget.gadgetbridge.devices.huawei.HuaweiPacket;
 import nodomain.freeyourgadget.gadgetbridge.devices.huawei.HuaweiTLV;
 import nodomain.freeyourgadget.gadgetbridge.devices.huawei.packets.Workout;
+import nodomain.freeyourgadget.gadgetbridge.entities.HuaweiActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.btbr.Transaction;
 import nodomain.freeyourgadget.gadgetbridge.service.btbr.TransactionBuilder;
@@ -141,12 +143,12 @@ public class TestDebugRequestParser {
         }
 
         @Override
-        public void addSleepActivity(int timestamp, short duration, byte type) {
+        public void addSleepActivity(SampleSink<HuaweiActivitySample> sink, int timestamp, short duration, byte type) {
 
         }
 
         @Override
-        public void addStepData(int timestamp, short steps, short calories, short distance, byte spo, byte heartrate) {
+        public void addStepData(SampleSink<HuaweiActivitySample> sink, int timestamp, short steps, short calories, short distance, byte spo, byte heartrate) {
 
         }
 
@@ -0,0 +1,193 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble.ble;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ByteRingBufferTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ByteRingBufferTest.class);
+
+    @Test
+    public void testCapacity() {
+        assertEquals(16, new ByteRingBuffer(16).getCapacity());
+        assertEquals(32, new ByteRingBuffer(17).getCapacity());
+        assertEquals(1, new ByteRingBuffer(1).getCapacity());
+    }
+
+    @Test
+    public void testWrapAround() throws IOException {
+        final ByteRingBuffer ringBuffer = new ByteRingBuffer(16);
+        final OutputStream out = ringBuffer.getOutputStream();
+        final InputStream in = ringBuffer.getInputStream();
+
+        int next = 0;
+        for (int i = 0; i < 100; i++) {
+            final byte[] chunk = new byte[1 + i % 16];
+            for (int j = 0; j < chunk.length; j++) {
+                chunk[j] = (byte) (next + j);
+            }
+            out.write(chunk);
+            assertEquals(chunk.length, in.available());
+
+            final byte[] read = new byte[chunk.length];
+            assertEquals(chunk.length, in.read(read, 0, read.length));
+            assertArrayEquals(chunk, read);
+            next += chunk.length;
+        }
+    }
+
+    @Test
+    public void testCloseDrainsBuffer() throws IOException {
+        final ByteRingBuffer ringBuffer = new ByteRingBuffer(16);
+        ringBuffer.getOutputStream().write(new byte[]{1, 2, 3});
+        ringBuffer.close();
+
+        final byte[] read = new byte[8];
+        assertEquals(3, ringBuffer.getInputStream().read(read, 0, read.length));
+        assertEquals(-1, ringBuffer.getInputStream().read(read, 0, read.length));
+        try {
+            ringBuffer.getOutputStream().write(4);
+            fail("write after close");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        final ByteRingBuffer ringBuffer = new ByteRingBuffer(64);
+        final byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+
+        final Thread writer = startWriter(ringBuffer.getOutputStream(), data, 100);
+        Thread.sleep(50);
+        // the writer blocks as soon as the buffer is full
+        assertEquals(64, ringBuffer.available());
+        assertTrue(writer.isAlive());
+
+        final byte[] read = new byte[data.length];
+        int offset = 0;
+        while (offset < read.length) {
+            offset += ringBuffer.getInputStream().read(read, offset, Math.min(50, read.length - offset));
+        }
+        writer.join();
+        assertArrayEquals(data, read);
+    }
+
+    @Test
+    public void testCloseWakesReader() throws Exception {
+        final ByteRingBuffer ringBuffer = new ByteRingBuffer(64);
+        final AtomicReference<Integer> result = new AtomicReference<>();
+        final Thread reader = new Thread(() -> {
+            try {
+                result.set(ringBuffer.getInputStream().read());
+            } catch (final IOException e) {
+                result.set(-2);
+            }
+        });
+        reader.start();
+        Thread.sleep(50);
+        ringBuffer.close();
+        reader.join(1000);
+        assertEquals(Integer.valueOf(-1), result.get());
+    }
+
+    /**
+     * Sends framed Pebble Protocol packets in PPoGATT sized chunks, the way the GATT callbacks
+     * feed the IO thread, and reads them back the way {@code PebbleIoThread} does. The ring
+     * buffer is compared with the piped streams it replaced, and with a loopback socket which
+     * stands in for the classic RFCOMM path. The amount of data is kept small, set packets to
+     * 100_000 for a realistic benchmark.
+     */
+    @Ignore("Benchmark, run it manually")
+    @Test
+    public void benchmarkTransports() throws Exception {
+        final int packets = 2_000;
+        final int payload = 2048;
+        final int chunkSize = 244; // maximum MTU minus ATT and PPoGATT headers
+        final byte[] stream = new byte[packets * (payload + 4)];
+        for (int i = 0; i < packets; i++) {
+            final int offset = i * (payload + 4);
+            stream[offset] = (byte) (payload >> 8);
+            stream[offset + 1] = (byte) payload;
+            stream[offset + 2] = (byte) (i >> 8);
+            stream[offset + 3] = (byte) i;
+        }
+
+        final ByteRingBuffer ringBuffer = new ByteRingBuffer(32768);
+        final long ringBufferTime = transfer(ringBuffer.getOutputStream(), ringBuffer.getInputStream(), stream, chunkSize, packets);
+
+        final PipedInputStream pipedInputStream = new PipedInputStream();
+        final PipedOutputStream pipedOutputStream = new PipedOutputStream(pipedInputStream);
+        final long pipedTime = transfer(pipedOutputStream, pipedInputStream, stream, chunkSize, packets);
+
+        final long socketTime;
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+             Socket server = serverSocket.accept()) {
+            socketTime = transfer(client.getOutputStream(), server.getInputStream(), stream, chunkSize, packets);
+        }
+
+        LOG.info("{} bytes in {} byte chunks: ring buffer {}ms, piped streams {}ms, socket {}ms",
+                stream.length, chunkSize, ringBufferTime / 1000000, pipedTime / 1000000, socketTime / 1000000);
+    }
+
+    private static long transfer(final OutputStream out, final InputStream in, final byte[] stream, final int chunkSize, final int packets) throws Exception {
+        final long start = System.nanoTime();
+        final Thread writer = startWriter(out, stream, chunkSize);
+
+        final byte[] buffer = new byte[8192 + 4];
+        for (int i = 0; i < packets; i++) {
+            readFully(in, buffer, 0, 4);
+            final int length = (buffer[0] & 0xff) << 8 | (buffer[1] & 0xff);
+            assertEquals(i & 0xffff, (buffer[2] & 0xff) << 8 | (buffer[3] & 0xff));
+            readFully(in, buffer, 4, length);
+        }
+        writer.join();
+        return System.nanoTime() - start;
+    }
+
+    private static Thread startWriter(final OutputStream out, final byte[] data, final int chunkSize) {
+        final Thread writer = new Thread(() -> {
+            try {
+                for (int offset = 0; offset < data.length; offset += chunkSize) {
+                    out.write(data, offset, Math.min(chunkSize, data.length - offset));
+                }
+                out.flush();
+            } catch (final IOException e) {
+                LOG.error("write failed", e);
+            }
+        });
+        writer.start();
+        return writer;
+    }
+
+    private static void readFully(final InputStream in, final byte[] buffer, int offset, int count) throws IOException {
+        while (count > 0) {
+            final int read = in.read(buffer, offset, count);
+            if (read == -1) {
+                throw new IOException("unexpected end of stream");
+            }
+            offset += read;
+            count -= read;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.vivomovehr.VivomoveHrSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.VivomoveHrActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.GarminTimeUtils;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FitParserTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(FitParserTest.class);
+
+    private static final int LOCAL_MONITORING = 0;
+    private static final int LOCAL_DEVICE_INFO = 1;
+    private static final int GARMIN_TIMESTAMP = 1_000_000_000;
+
+    @Test
+    public void testParseFitFile() {
+        final byte[] data = new FitFileBuilder()
+                .monitoring(GARMIN_TIMESTAMP, 100, 3, 12, 75)
+                .deviceInfo(GARMIN_TIMESTAMP)
+                .monitoring16(GARMIN_TIMESTAMP + 60, 0xFF)
+                .build();
+
+        final List<FitMessage> messages = new FitParser(FitMessageDefinitions.ALL_DEFINITIONS).parseFitFile(data);
+        assertEquals(3, messages.size());
+
+        final FitMessage monitoring = messages.get(0);
+        assertEquals(FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING, monitoring.definition.globalMessageID);
+        assertEquals(Integer.valueOf(GARMIN_TIMESTAMP), monitoring.getIntegerField("timestamp"));
+        assertEquals(Integer.valueOf(100), monitoring.getIntegerField("cycles"));
+        assertEquals(Integer.valueOf(3), monitoring.getIntegerField("activity_type"));
+        assertEquals(12.0, monitoring.getNumericField("active_calories"), 0);
+        assertEquals(75.0, monitoring.getNumericField("heart_rate"), 0);
+        assertNull(monitoring.getField("timestamp_16"));
+
+        assertEquals("abc", messages.get(1).getStringField("product_name"));
+
+        // invalid values are left out, also for fields with a scale
+        final FitMessage monitoring16 = messages.get(2);
+        assertEquals(Integer.valueOf((GARMIN_TIMESTAMP + 60) & 0xFFFF), monitoring16.getIntegerField("timestamp_16"));
+        assertNull(monitoring16.getField("timestamp"));
+        assertNull(monitoring16.getField("heart_rate"));
+    }
+
+    @Test
+    public void testSkippedMessages() throws IOException {
+        final byte[] data = new FitFileBuilder()
+                .deviceInfo(GARMIN_TIMESTAMP)
+                .monitoring(GARMIN_TIMESTAMP, 100, 3, 12, 75)
+                .deviceInfo(GARMIN_TIMESTAMP)
+                .build();
+
+        final List<Integer> fields = new ArrayList<>();
+        new FitParser(FitMessageDefinitions.ALL_DEFINITIONS).parseFitStream(new ByteArrayInputStream(data), new FitMessageVisitor() {
+            @Override
+            public boolean onMessageStart(FitMessageDefinition definition) {
+                return definition.globalMessageID == FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING;
+            }
+
+            @Override
+            public void onIntField(int fieldNumber, int value) {
+                fields.add(fieldNumber);
+            }
+
+            @Override
+            public void onLongField(int fieldNumber, long value) {
+                fields.add(fieldNumber);
+            }
+
+            @Override
+            public void onFloatField(int fieldNumber, float value) {
+                fields.add(fieldNumber);
+            }
+
+            @Override
+            public void onDoubleField(int fieldNumber, double value) {
+                fields.add(fieldNumber);
+            }
+
+            @Override
+            public void onStringField(int fieldNumber, String value) {
+                fields.add(fieldNumber);
+            }
+
+            @Override
+            public void onBytesField(int fieldNumber, byte[] value) {
+                fields.add(fieldNumber);
+            }
+
+            @Override
+            public void onMessageEnd(FitMessageDefinition definition) {
+                assertEquals(FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING, definition.globalMessageID);
+            }
+        });
+
+        // timestamp, cycles, activity type, active calories, intensity, heart rate
+        assertEquals(6, fields.size());
+    }
+
+    @Test
+    public void testImportMonitoring() throws IOException {
+        final byte[] data = new FitFileBuilder()
+                .monitoring(GARMIN_TIMESTAMP, 100, 1, 12, 75)
+                .monitoring(GARMIN_TIMESTAMP + 60, 150, 1, 5, 80)
+                .monitoring16(GARMIN_TIMESTAMP + 60, 90)
+                .monitoring16(GARMIN_TIMESTAMP + 120, 0xFF)
+                .build();
+
+        final FitImporter importer = new FitImporter();
+        importer.importFitFile(new FitParser(FitMessageDefinitions.ALL_DEFINITIONS), new ByteArrayInputStream(data));
+        final List<VivomoveHrActivitySample> samples = new ArrayList<>();
+        importer.processImportedData(samples::add);
+
+        assertEquals(3, samples.size());
+        assertEquals(GarminTimeUtils.garminTimestampToUnixTime(GARMIN_TIMESTAMP), samples.get(0).getTimestamp());
+        assertEquals(100, samples.get(0).getSteps());
+        assertEquals(12, samples.get(0).getCaloriesBurnt());
+        assertEquals(VivomoveHrSampleProvider.RAW_TYPE_KIND_ACTIVITY | 1, samples.get(0).getRawKind());
+        // heart rate is only imported when the optical sensor is enabled
+        assertEquals(ActivitySample.NOT_MEASURED, samples.get(0).getHeartRate());
+
+        // both events of the same timestamp are merged
+        assertEquals(50, samples.get(1).getSteps());
+        assertEquals(5, samples.get(1).getCaloriesBurnt());
+
+        assertEquals(GarminTimeUtils.garminTimestampToUnixTime(GARMIN_TIMESTAMP + 120), samples.get(2).getTimestamp());
+        assertEquals(ActivitySample.NOT_MEASURED, samples.get(2).getSteps());
+    }
+
+    /**
+     * Compares parsing a large synthetic monitoring file into messages and importing it, with
+     * importing it while it is streamed. The message count is kept small, set it to 5_000_000
+     * for a realistic benchmark.
+     */
+    @Ignore("Benchmark, run it manually")
+    @Test
+    public void benchmarkLargeFile() throws IOException {
+        final int messages = 200_000;
+        final FitFileBuilder builder = new FitFileBuilder();
+        // one sample per minute, the low bits of the timestamps never match the invalid 0xFFFF
+        int cycles = 0;
+        for (int i = 0; i < messages; i++) {
+            if (i % 4 == 0) {
+                cycles += i % 50;
+                builder.monitoring(GARMIN_TIMESTAMP + i * 60, cycles, i % 8, i % 20, 60 + i % 100);
+            } else {
+                builder.monitoring16(GARMIN_TIMESTAMP + i * 60, 60 + i % 100);
+            }
+        }
+        final byte[] data = builder.build();
+
+        long parseFitFile = Long.MAX_VALUE;
+        long parseFitStream = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            final List<FitMessage> parsed = new FitParser(FitMessageDefinitions.ALL_DEFINITIONS).parseFitFile(data);
+            parseFitFile = Math.min(parseFitFile, System.nanoTime() - start);
+            assertEquals(messages, parsed.size());
+
+            start = System.nanoTime();
+            final FitImporter importer = new FitImporter();
+            importer.importFitFile(new FitParser(FitMessageDefinitions.ALL_DEFINITIONS), new ByteArrayInputStream(data));
+            final int[] sampleCount = new int[1];
+            importer.processImportedData(sample -> sampleCount[0]++);
+            parseFitStream = Math.min(parseFitStream, System.nanoTime() - start);
+            assertEquals(messages, sampleCount[0]);
+        }
+
+        LOG.info("{} messages, {} bytes: {}ms to parse into messages, {}ms to import while streaming",
+                messages, data.length, parseFitFile / 1_000_000, parseFitStream / 1_000_000);
+    }
+
+    /**
+     * Writes FIT files with a reduced monitoring message, and a device info message with a
+     * string field.
+     */
+    private static class FitFileBuilder {
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+        FitFileBuilder() {
+            // timestamp, timestamp_16, cycles, activity_type, active_calories, current_activity_type_intensity, heart_rate
+            definition(LOCAL_MONITORING, FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING,
+                    253, 4, 0x86, 26, 2, 0x84, 3, 4, 0x86, 5, 1, 0x00, 19, 2, 0x84, 24, 1, 0x0D, 27, 1, 0x02);
+            // timestamp, product_name
+            definition(LOCAL_DEVICE_INFO, FitMessageDefinitions.FIT_MESSAGE_NUMBER_DEVICE_INFO,
+                    253, 4, 0x86, 27, 8, 0x07);
+        }
+
+        FitFileBuilder monitoring(int timestamp, int cycles, int activityType, int activeCalories, int heartRate) {
+            writeByte(records, LOCAL_MONITORING);
+            writeInt(records, timestamp);
+            writeShort(records, 0xFFFF);
+            writeInt(records, cycles);
+            writeByte(records, activityType);
+            writeShort(records, activeCalories);
+            writeByte(records, 0);
+            writeByte(records, heartRate);
+            return this;
+        }
+
+        FitFileBuilder monitoring16(int timestamp, int heartRate) {
+            writeByte(records, LOCAL_MONITORING);
+            writeInt(records, 0xFFFFFFFF);
+            writeShort(records, timestamp & 0xFFFF);
+            writeInt(records, 0xFFFFFFFF);
+            writeByte(records, 0xFF);
+            writeShort(records, 0xFFFF);
+            writeByte(records, 0xFF);
+            writeByte(records, heartRate);
+            return this;
+        }
+
+        FitFileBuilder deviceInfo(int timestamp) {
+            writeByte(records, LOCAL_DEVICE_INFO);
+            writeInt(records, timestamp);
+            records.write(new byte[]{'a', 'b', 'c', 0, 0, 0, 0, 0}, 0, 8);
+            return this;
+        }
+
+        byte[] build() {
+            final ByteArrayOutputStream file = new ByteArrayOutputStream(records.size() + 16);
+            writeByte(file, 14);
+            writeByte(file, 0x10);
+            writeShort(file, 2057);
+            writeInt(file, records.size());
+            writeInt(file, 0x5449462E);
+            // CRCs are not checked
+            writeShort(file, 0);
+            file.write(records.toByteArray(), 0, records.size());
+            writeShort(file, 0);
+            return file.toByteArray();
+        }
+
+        private void definition(int localMessageType, int globalMessageNumber, int... fields) {
+            writeByte(records, 0x40 | localMessageType);
+            writeByte(records, 0);
+            writeByte(records, 0);
+            writeShort(records, globalMessageNumber);
+            writeByte(records, fields.length / 3);
+            for (int field : fields) {
+                writeByte(records, field);
+            }
+        }
+
+        private static void writeByte(ByteArrayOutputStream out, int value) {
+            out.write(value);
+        }
+
+        private static void writeShort(ByteArrayOutputStream out, int value) {
+            writeByte(out, value);
+            writeByte(out, value >> 8);
+        }
+
+        private static void writeInt(ByteArrayOutputStream out, int value) {
+            writeShort(out, value);
+            writeShort(out, value >> 16);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 import java.util.ArrayList;
 import java.util.List;
 
+import nodomain.freeyourgadget.gadgetbridge.entities.CalendarSyncState;
 import nodomain.freeyourgadget.gadgetbridge.entities.CalendarSyncStateDao;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.CalendarReceiver;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
@@ -56,4 +57,33 @@ public class CalendarEventTest extends TestBase {
         assertEquals(2, calendarSyncStateDao.count());
     }
 
+    @Test
+    public void testSyncUpdateAndDelete() {
+        List<CalendarEvent> eventList = new ArrayList<>();
+        eventList.add(new CalendarEvent(BEGIN, END, ID_1, null, "something", null, CALNAME_1, CALACCOUNTNAME_1, COLOR_1, false));
+        eventList.add(new CalendarEvent(BEGIN, END, ID_2, null, "something", null, CALNAME_1, CALACCOUNTNAME_1, COLOR_1, false));
+
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:01:00:04");
+        dummyGBDevice.setState(GBDevice.State.INITIALIZED);
+        CalendarReceiver testCR = new CalendarReceiver(dummyGBDevice);
+        testCR.syncCalendar(eventList);
+
+        CalendarSyncStateDao calendarSyncStateDao = daoSession.getCalendarSyncStateDao();
+        assertEquals(2, calendarSyncStateDao.count());
+
+        // change the first event, remove the second one
+        CalendarEvent changed = new CalendarEvent(BEGIN, END, ID_1, null, "something else", null, CALNAME_1, CALACCOUNTNAME_1, COLOR_1, false);
+        eventList.clear();
+        eventList.add(changed);
+        testCR.syncCalendar(eventList);
+
+        List<CalendarSyncState> syncStates = calendarSyncStateDao.queryBuilder().list();
+        assertEquals(1, syncStates.size());
+        assertEquals(ID_1, syncStates.get(0).getCalendarEntryId());
+        assertEquals(changed.hashCode(), syncStates.get(0).getHash());
+
+        testCR.syncCalendar(new ArrayList<>());
+        assertEquals(0, calendarSyncStateDao.count());
+    }
+
 }
@@ -7,8 +7,14 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -140,6 +146,124 @@ public class GBZipFileTest extends TestBase {
         Assert.assertFalse(zipFile.fileExists("file4"));
     }
 
+    @Test
+    public void testZipFromChannel() throws IOException, ZipFileException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ZipOutputStream zipWriteStream = new ZipOutputStream(baos);
+
+        writeFileToZip(TEST_FILE_CONTENTS_1, "file1", zipWriteStream);
+        writeFileToZip(TEST_FILE_CONTENTS_2, "folder1/file2", zipWriteStream);
+        zipWriteStream.close();
+
+        final File file = File.createTempFile("gbzipfile", ".zip");
+        file.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(baos.toByteArray());
+        }
+
+        try (GBZipFile zipFile = new GBZipFile(new RandomAccessFile(file, "r").getChannel())) {
+            Assert.assertEquals(Arrays.asList("file1", "folder1/file2"), Arrays.asList(zipFile.getEntryNames().toArray()));
+            Assert.assertEquals(TEST_FILE_CONTENTS_2, new String(zipFile.getFileFromZip("folder1/file2")));
+            Assert.assertEquals(TEST_FILE_CONTENTS_1, new String(zipFile.getFileFromZip("file1")));
+            Assert.assertTrue(zipFile.fileExists("file1"));
+            Assert.assertFalse(zipFile.fileExists("file3"));
+
+            try (InputStream is = zipFile.getInputStream("folder1/file2")) {
+                Assert.assertEquals(TEST_FILE_CONTENTS_2, new String(GBZipFile.readAllBytes(is)));
+            }
+        }
+    }
+
+    @Test
+    public void testZipStreamEntries() throws IOException, ZipFileException {
+        final byte[] stored = TEST_FILE_CONTENTS_1.getBytes(StandardCharsets.UTF_8);
+        final byte[] deflated = new byte[256 * 1024];
+        for (int i = 0; i < deflated.length; i++) {
+            deflated[i] = (byte) (i % 251 ^ i >> 10);
+        }
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ZipOutputStream zipWriteStream = new ZipOutputStream(baos);
+
+        final ZipEntry storedEntry = new ZipEntry("stored.json");
+        final CRC32 crc = new CRC32();
+        crc.update(stored);
+        storedEntry.setMethod(ZipEntry.STORED);
+        storedEntry.setSize(stored.length);
+        storedEntry.setCrc(crc.getValue());
+        zipWriteStream.putNextEntry(storedEntry);
+        zipWriteStream.write(stored);
+        zipWriteStream.closeEntry();
+
+        zipWriteStream.putNextEntry(new ZipEntry("deflated.bin"));
+        zipWriteStream.write(deflated);
+        zipWriteStream.closeEntry();
+        zipWriteStream.close();
+
+        final GBZipFile zipFile = new GBZipFile(baos.toByteArray());
+        Assert.assertEquals(deflated.length, zipFile.getFileSize("deflated.bin"));
+        Assert.assertEquals(stored.length, zipFile.getFileSize("stored.json"));
+        Assert.assertArrayEquals(deflated, zipFile.getFileFromZip("deflated.bin"));
+        Assert.assertArrayEquals(stored, zipFile.getFileFromZip("stored.json"));
+
+        try (InputStream is = zipFile.getInputStream("deflated.bin")) {
+            Assert.assertArrayEquals(deflated, GBZipFile.readAllBytes(is));
+        }
+        try (InputStream is = zipFile.getInputStream("stored.json")) {
+            Assert.assertArrayEquals(stored, GBZipFile.readAllBytes(is));
+        }
+    }
+
+    @Test
+    public void testZipStreamCorruptedEntry() throws IOException, ZipFileException {
+        final byte[] contents = TEST_FILE_CONTENTS_2.getBytes(StandardCharsets.UTF_8);
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ZipOutputStream zipWriteStream = new ZipOutputStream(baos);
+        final ZipEntry storedEntry = new ZipEntry("stored.json");
+        final CRC32 crc = new CRC32();
+        crc.update(contents);
+        storedEntry.setMethod(ZipEntry.STORED);
+        storedEntry.setSize(contents.length);
+        storedEntry.setCrc(crc.getValue());
+        zipWriteStream.putNextEntry(storedEntry);
+        zipWriteStream.write(contents);
+        zipWriteStream.closeEntry();
+        zipWriteStream.close();
+
+        // flip a byte of the stored data, the central directory stays intact
+        final byte[] archive = baos.toByteArray();
+        final int dataOffset = new String(archive, StandardCharsets.ISO_8859_1).indexOf(TEST_FILE_CONTENTS_2);
+        Assert.assertTrue(dataOffset > 0);
+        archive[dataOffset + 10] ^= 0x01;
+
+        final GBZipFile zipFile = new GBZipFile(archive);
+        try {
+            zipFile.getFileFromZip("stored.json");
+            Assert.fail("corrupted entry was read");
+        } catch (final ZipFileException e) {
+            // expected
+        }
+        try (InputStream is = zipFile.getInputStream("stored.json")) {
+            GBZipFile.readAllBytes(is);
+            Assert.fail("corrupted entry was streamed");
+        } catch (final IOException e) {
+            Assert.assertTrue(e.getMessage().contains("CRC mismatch"));
+        }
+    }
+
+    @Test(expected = ZipFileException.class)
+    public void testZipFileNotFound()throws IOException, ZipFileException {
+        final GBZipFile zipFile = new GBZipFile(createZipArchive(TEST_FILE_NAME, TEST_FILE_CONTENTS_1));
+        zipFile.getFileFromZip("file4");
+    }
+
+    @Test(expected = ZipFileException.class)
+    public void testNotAZipFile() throws ZipFileException {
+        final GBZipFile zipFile = new GBZipFile(TEST_FILE_CONTENTS_2.getBytes(StandardCharsets.UTF_8));
+        zipFile.fileExists(TEST_FILE_NAME);
+    }
+
     /**
      * Create a ZIP archive with a single text file.
      * The archive will not be saved to a file, it is kept in memory.
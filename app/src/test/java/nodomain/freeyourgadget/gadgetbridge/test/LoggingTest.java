@@ -9,6 +9,7 @@ import androidx.annotation.NonNull;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.Logging;
 import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.Hex;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -78,5 +79,22 @@ public class LoggingTest extends TestBase {
 
         tempOut = Logging.formatBytes(new byte[] {0xa, 1, (byte) 255});
         assertEquals("0x0a 0x01 0xff", tempOut);
+
+        assertEquals("", Logging.formatBytes(new byte[0]));
+        assertEquals("(null)", Logging.formatBytes(null));
+    }
+
+    @Test
+    public void testHex() {
+        byte[] bytes = new byte[] {0xa, 1, (byte) 255, 0x10};
+        assertEquals("0A01FF10", Hex.of(bytes).toString());
+        assertEquals("01FF", Hex.of(bytes, 1, 2).toString());
+        assertEquals("(null)", Hex.of(null).toString());
+        assertEquals("0A01FF10", Hex.capped(bytes).toString());
+        assertEquals("0A01... (4 bytes)", Hex.capped(bytes, 2).toString());
+
+        // formatted when written, not when passed to the logger
+        bytes[0] = 0x0b;
+        assertEquals("0B01FF10", Hex.of(bytes).toString());
     }
 }
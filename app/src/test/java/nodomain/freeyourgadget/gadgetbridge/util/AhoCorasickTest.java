@@ -0,0 +1,49 @@
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class AhoCorasickTest {
+    @Test
+    public void testOverlappingWords() {
+        final AhoCorasick matcher = new AhoCorasick(Arrays.asList("he", "she", "his", "hers"));
+        assertEquals(4, matcher.size());
+
+        assertTrue(matcher.containsAny("ushers"));
+        assertFalse(matcher.containsAny("usurp"));
+        assertFalse(matcher.containsAll("ushers"));
+        assertTrue(matcher.containsAll("ushers and his"));
+        // the words are found through the fail links
+        assertTrue(matcher.containsAll("hishershe"));
+        assertFalse(matcher.containsAll("hishe"));
+    }
+
+    @Test
+    public void testCaseSensitiveAndUnicode() {
+        final AhoCorasick matcher = new AhoCorasick(Arrays.asList("Привет", "😀"));
+        assertFalse(matcher.containsAny("привет"));
+        assertTrue(matcher.containsAny("Привет мир"));
+        assertTrue(matcher.containsAll("😀 Привет"));
+    }
+
+    @Test
+    public void testNoWords() {
+        final AhoCorasick matcher = new AhoCorasick(Collections.emptyList());
+        assertFalse(matcher.containsAny("anything"));
+        assertTrue(matcher.containsAll("anything"));
+    }
+
+    @Test
+    public void testEmptyWord() {
+        final AhoCorasick matcher = new AhoCorasick(Arrays.asList("", "word"));
+        assertTrue(matcher.containsAny(""));
+        assertFalse(matcher.containsAll("other"));
+        assertTrue(matcher.containsAll("a word"));
+    }
+}
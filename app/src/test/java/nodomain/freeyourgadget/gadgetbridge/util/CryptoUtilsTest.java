@@ -0,0 +1,186 @@
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class CryptoUtilsTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(CryptoUtilsTest.class);
+
+    private final Random random = new Random(42);
+
+    private byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testEcbMatchesNewCipher() throws Exception {
+        final byte[] key1 = randomBytes(16);
+        final byte[] key2 = randomBytes(16);
+        final byte[] data = randomBytes(64);
+
+        final Cipher reference = Cipher.getInstance("AES/ECB/NoPadding");
+        reference.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key2, "AES"));
+        final byte[] expected = reference.doFinal(data);
+
+        // the cached cipher must be re-initialized with the key of every call
+        CryptoUtils.encryptAES(data, key1);
+        assertArrayEquals(expected, CryptoUtils.encryptAES(data, key2));
+        CryptoUtils.decryptAES(expected, key1);
+        assertArrayEquals(data, CryptoUtils.decryptAES(expected, key2));
+    }
+
+    @Test
+    public void testEcbContext() throws Exception {
+        final byte[] key = randomBytes(16);
+        final byte[] data = randomBytes(48);
+        final byte[] expected = CryptoUtils.encryptAES(data, key);
+
+        final CryptoUtils.AesEcbContext context = new CryptoUtils.AesEcbContext(key);
+        assertArrayEquals(expected, context.encrypt(data));
+        assertArrayEquals(expected, context.encrypt(data));
+        assertArrayEquals(data, context.decrypt(expected));
+
+        // in place, at an offset
+        final byte[] buffer = new byte[data.length + 4];
+        System.arraycopy(data, 0, buffer, 2, data.length);
+        context.encrypt(buffer, 2, data.length, buffer, 2);
+        assertArrayEquals(expected, Arrays.copyOfRange(buffer, 2, 2 + data.length));
+        context.decrypt(buffer, 2, data.length, buffer, 2);
+        assertArrayEquals(data, Arrays.copyOfRange(buffer, 2, 2 + data.length));
+    }
+
+    @Test(expected = javax.crypto.IllegalBlockSizeException.class)
+    public void testEcbContextInvalidLength() throws Exception {
+        final CryptoUtils.AesEcbContext context = new CryptoUtils.AesEcbContext(randomBytes(16));
+        try {
+            context.encrypt(new byte[15]);
+        } finally {
+            // a failure must not break the following calls
+            context.encrypt(new byte[16]);
+        }
+    }
+
+    @Test
+    public void testCbcMatchesNewCipher() throws Exception {
+        final byte[] key = randomBytes(16);
+        final byte[] iv = randomBytes(16);
+        final byte[] data = randomBytes(100);
+
+        final Cipher reference = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        reference.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        final byte[] expected = reference.doFinal(data);
+
+        assertArrayEquals(expected, CryptoUtils.encryptAES_CBC_Pad(data, key, iv));
+        assertArrayEquals(data, CryptoUtils.decryptAES_CBC_Pad(expected, key, iv));
+        CryptoUtils.encryptAES_CBC_Pad(data, randomBytes(16), randomBytes(16));
+        assertArrayEquals(expected, CryptoUtils.encryptAES_CBC_Pad(data, key, iv));
+    }
+
+    @Test
+    public void testGcmMatchesNewCipher() throws Exception {
+        final byte[] key = randomBytes(16);
+        final byte[] iv = randomBytes(12);
+        final byte[] aad = randomBytes(8);
+        final byte[] data = randomBytes(100);
+
+        final Cipher reference = Cipher.getInstance("AES/GCM/NoPadding");
+        reference.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+        reference.updateAAD(aad);
+        final byte[] expected = reference.doFinal(data);
+
+        assertArrayEquals(expected, CryptoUtils.encryptAES_GCM_NoPad(data, key, iv, aad));
+        // encrypting again with the same key and iv worked with a new cipher per call
+        assertArrayEquals(expected, CryptoUtils.encryptAES_GCM_NoPad(data, key, iv, aad));
+        assertArrayEquals(data, CryptoUtils.decryptAES_GCM_NoPad(expected, key, iv, aad));
+    }
+
+    @Test
+    public void testHmacMatchesNewMac() throws Exception {
+        final byte[] key = randomBytes(32);
+        final byte[] data = randomBytes(100);
+
+        final Mac reference = Mac.getInstance("HmacSHA256");
+        reference.init(new SecretKeySpec(key, "HmacSHA256"));
+        final byte[] expected = reference.doFinal(data);
+
+        assertArrayEquals(expected, CryptoUtils.calcHmacSha256(key, data));
+        CryptoUtils.calcHmacSha256(randomBytes(32), data);
+        assertArrayEquals(expected, CryptoUtils.calcHmacSha256(key, data));
+    }
+
+    @Ignore("Benchmark, run it manually")
+    @Test
+    public void benchmarkSmallPayloads() throws Exception {
+        final int iterations = 20_000;
+        final byte[] key = randomBytes(16);
+        final byte[] iv = randomBytes(16);
+        final byte[] nonce = randomBytes(12);
+        final byte[] payload = randomBytes(64);
+        final CryptoUtils.AesEcbContext context = new CryptoUtils.AesEcbContext(key);
+
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                final Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+                cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"));
+                cipher.doFinal(payload);
+            }
+            final long ecbUncached = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                CryptoUtils.decryptAES(payload, key);
+            }
+            final long ecbCached = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                context.decrypt(payload, 0, payload.length, payload, 0);
+            }
+            final long ecbContext = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                CryptoUtils.encryptAES_CBC_Pad(payload, key, iv);
+            }
+            final long cbc = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                nonce[0] = (byte) i;
+                CryptoUtils.encryptAES_GCM_NoPad(payload, key, nonce, null);
+            }
+            final long gcm = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                CryptoUtils.calcHmacSha256(key, payload);
+            }
+            final long hmac = System.nanoTime() - start;
+
+            LOG.info(
+                    "{} x {} bytes: ECB uncached {}ms, cached {}ms, context {}ms, CBC {}ms, GCM {}ms, HMAC {}ms",
+                    iterations, payload.length,
+                    ecbUncached / 1_000_000, ecbCached / 1_000_000, ecbContext / 1_000_000,
+                    cbc / 1_000_000, gcm / 1_000_000, hmac / 1_000_000
+            );
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import android.net.Uri;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FirmwareSourceTest extends TestBase {
+    private static byte[] createBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testChecksums() {
+        // larger than the scratch buffer, so that the checksums are computed in several chunks
+        final byte[] bytes = createBytes(200_000);
+        final FirmwareSource source = FirmwareSource.fromBytes(bytes);
+        assertEquals(bytes.length, source.size());
+        assertEquals(CheckSums.getCRC32(bytes), source.getCrc32());
+        assertEquals(CheckSums.getCRC16(bytes), source.getCrc16());
+
+        final FirmwareSource empty = FirmwareSource.fromBytes(new byte[0]);
+        assertEquals(CheckSums.getCRC32(new byte[0]), empty.getCrc32());
+        assertEquals(CheckSums.getCRC16(new byte[0]), empty.getCrc16());
+    }
+
+    @Test
+    public void testPackets() {
+        final byte[] bytes = createBytes(1000);
+        final FirmwareSource source = FirmwareSource.fromBytes(bytes);
+
+        assertArrayEquals(Arrays.copyOfRange(bytes, 990, 1000), source.getBytes(990, 10));
+
+        final byte[] packet = new byte[11];
+        source.read(100, packet, 1, 10);
+        assertEquals(0, packet[0]);
+        assertArrayEquals(Arrays.copyOfRange(bytes, 100, 110), Arrays.copyOfRange(packet, 1, 11));
+
+        final ByteBuffer slice = source.slice(500, 20);
+        assertEquals(20, slice.remaining());
+        assertEquals(bytes[500], slice.get(0));
+        assertEquals(bytes[519], slice.get(19));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        FirmwareSource.fromBytes(new byte[10]).getBytes(5, 6);
+    }
+
+    @Test
+    public void testFromFile() throws IOException {
+        final byte[] bytes = createBytes(100_000);
+        final File file = File.createTempFile("firmware", ".bin");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+
+        final FirmwareSource source = FirmwareSource.fromFile(file);
+        assertEquals(bytes.length, source.size());
+        assertEquals(CheckSums.getCRC32(bytes), source.getCrc32());
+        assertArrayEquals(Arrays.copyOfRange(bytes, 4096, 4096 + 244), source.getBytes(4096, 244));
+
+        // sources mapping a file they do not own must not delete it
+        source.close();
+        assertEquals(bytes.length, file.length());
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void testFromUriMaxSize() throws IOException {
+        final File file = File.createTempFile("firmware", ".bin");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(createBytes(1000));
+        }
+
+        final FirmwareSource source = FirmwareSource.fromUri(Uri.fromFile(file), getContext(), 1000);
+        assertEquals(1000, source.size());
+        source.close();
+
+        try {
+            FirmwareSource.fromUri(Uri.fromFile(file), getContext(), 999);
+            fail("files larger than the limit must be rejected");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package nodomain.freeyourgadget.gadgetbridge.util.gpx;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GpxThumbnailCacheTest extends TestBase {
+    @Test
+    public void testSimplifyStraightLine() {
+        final List<GPSCoordinate> points = new ArrayList<>();
+        for (int i = 0; i <= 100; i++) {
+            points.add(new GPSCoordinate(i * 0.001, i * 0.002, 0));
+        }
+        final List<GPSCoordinate> simplified = GpxThumbnailCache.simplify(points, 1e-9);
+        assertEquals(2, simplified.size());
+        assertEquals(points.get(0), simplified.get(0));
+        assertEquals(points.get(100), simplified.get(1));
+    }
+
+    @Test
+    public void testSimplifyRoundTrip() {
+        // a square that starts and ends at the same place
+        final List<GPSCoordinate> points = new ArrayList<>();
+        for (int i = 0; i < 10; i++) points.add(new GPSCoordinate(i * 0.1, 0, 0));
+        for (int i = 0; i < 10; i++) points.add(new GPSCoordinate(1, i * 0.1, 0));
+        for (int i = 0; i < 10; i++) points.add(new GPSCoordinate(1 - i * 0.1, 1, 0));
+        for (int i = 0; i <= 10; i++) points.add(new GPSCoordinate(0, 1 - i * 0.1, 0));
+
+        final List<GPSCoordinate> simplified = GpxThumbnailCache.simplify(points, 0.01);
+        assertEquals(5, simplified.size());
+        assertEquals(new GPSCoordinate(1, 0, 0), simplified.get(1));
+        assertEquals(new GPSCoordinate(1, 1, 0), simplified.get(2));
+        assertEquals(new GPSCoordinate(0, 1, 0), simplified.get(3));
+    }
+
+    @Test
+    public void testSimplifyMaxPoints() {
+        final List<GPSCoordinate> points = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            points.add(new GPSCoordinate(i * 1e-5, Math.sin(i / 100.0) * 0.01, 0));
+        }
+        final List<List<GPSCoordinate>> simplified = GpxThumbnailCache.simplify(Collections.singletonList(points), GpxThumbnailCache.MAX_POINTS);
+        assertEquals(1, simplified.size());
+        assertTrue(simplified.get(0).size() <= GpxThumbnailCache.MAX_POINTS);
+        assertTrue(simplified.get(0).size() > 2);
+    }
+
+    @Test
+    public void testTrackIsReadFromCache() throws IOException {
+        final File cacheDir = Files.createTempDirectory("gpx-thumbnails").toFile();
+        final File gpxFile = new File(cacheDir.getParentFile(), cacheDir.getName() + ".gpx");
+        gpxFile.deleteOnExit();
+        try (InputStream in = getClass().getResourceAsStream("/gpx-parser-test-multiple-segments.gpx");
+             OutputStream out = new FileOutputStream(gpxFile)) {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        final long lastModified = gpxFile.lastModified();
+
+        final List<List<GPSCoordinate>> track = new GpxThumbnailCache(cacheDir).getSimplifiedTrack(1, gpxFile);
+        assertNotNull(track);
+        assertEquals(2, track.size());
+        assertEquals(2, track.get(0).size());
+        assertEquals(-8.2695876, track.get(0).get(0).getLongitude(), 0);
+        assertEquals(205.0, track.get(1).get(0).getAltitude(), 0);
+
+        // the file is not parsed again while it has the same modification time
+        try (OutputStream out = new FileOutputStream(gpxFile)) {
+            out.write("not a gpx file".getBytes());
+        }
+        assertTrue(gpxFile.setLastModified(lastModified));
+        final GpxThumbnailCache newCache = new GpxThumbnailCache(cacheDir);
+        assertEquals(track, newCache.getSimplifiedTrack(1, gpxFile));
+
+        assertTrue(gpxFile.setLastModified(lastModified + 10_000));
+        assertNull(newCache.getSimplifiedTrack(1, gpxFile));
+    }
+}
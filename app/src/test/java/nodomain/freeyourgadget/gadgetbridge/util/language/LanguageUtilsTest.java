@@ -2,9 +2,14 @@ package nodomain.freeyourgadget.gadgetbridge.util.language;
 
 import android.content.SharedPreferences;
 
+import org.junit.Ignore;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
@@ -16,12 +21,35 @@ import nodomain.freeyourgadget.gadgetbridge.util.language.impl.FlattenToAsciiTra
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst.PREF_TRANSLITERATION_LANGUAGES;
 
 /**
  * Tests LanguageUtils
  */
 public class LanguageUtilsTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(LanguageUtilsTest.class);
+
+    private static final String[] ALL_LANGUAGES = {
+            "extended_ascii", "common_symbols", "scandinavian", "german", "french", "russian", "hebrew", "greek",
+            "ukranian", "arabic", "persian", "lithuanian", "latvian", "polish", "estonian", "icelandic", "czech",
+            "turkish", "hungarian", "bengali", "korean", "georgian", "croatian"
+    };
+
+    private static final String[] NOTIFICATIONS = {
+            "Hi! Are we still meeting at 18:30? \uD83D\uDE42",
+            "Žluťoučký kůň úpěl »ďábelské« „ódy“ – 300\u00A0Kč",
+            "Привет! Как дела? Позвони мне, когда освободишься.",
+            "Γεια σου! Θα είμαι εκεί σε δέκα λεπτά.",
+            "בדיקה עברית: הפגישה נדחתה למחר",
+            "نص حكيم له سر قاطع وذو شأن عظيم مكتوب على ثوب أخضر",
+            "\"웬 초콜릿? 제가 원했던 건 뻥튀기 쬐끔과 의류예요.\" \"얘야, 왜 또 불평?\"",
+            "আমি সব দেখেশুনে ক্ষেপে গিয়ে করি বাঙলায় চিৎকার!",
+            "Grüße aus München! Das Paket wurde zugestellt © DHL™",
+            "Zażółć gęślą jaźń, ą č ę ė į š ų ū ž",
+            "ა ბ ტ თ ჟ ყ წ ჭ ჰ, Ðe Þorn, ﬁne ﬂowers, x² + y³ °C",
+            "\uD83D\uDE02\uD83D\uDE02 Çok güzel! Şimdi geliyorum \u2764\uFE0F \uD835\uDC00\uD83C\uDF89",
+    };
 
     private GBDevice dummyGBDevice;
 
@@ -248,6 +276,85 @@ public class LanguageUtilsTest extends TestBase {
         assertEquals("300 Kc", multiTransliterator.transliterate("300\u00A0Kč"));
     }
 
+    @Test
+    public void testCompiledTransliterator() {
+        final List<Transliterator> transliterators = new ArrayList<>();
+        for (final String language : ALL_LANGUAGES) {
+            transliterators.add(LanguageUtils.getTransliterator(language));
+        }
+        transliterators.add(new FlattenToAsciiTransliterator());
+
+        final Transliterator chained = new MultiTransliterator(transliterators);
+        final Transliterator compiled = LanguageUtils.compile(transliterators);
+        for (final String notification : NOTIFICATIONS) {
+            assertEquals(chained.transliterate(notification), compiled.transliterate(notification));
+            // a second time, now that the code points were seen before
+            assertEquals(chained.transliterate(notification), compiled.transliterate(notification));
+        }
+
+        final Transliterator compiledWithoutFlatten = LanguageUtils.compile(transliterators.subList(0, transliterators.size() - 1));
+        final Transliterator chainedWithoutFlatten = new MultiTransliterator(transliterators.subList(0, transliterators.size() - 1));
+        for (final String notification : NOTIFICATIONS) {
+            assertEquals(chainedWithoutFlatten.transliterate(notification), compiledWithoutFlatten.transliterate(notification));
+        }
+
+        // unchanged text is returned as it is, lone surrogates are flattened like any other char
+        final Transliterator czech = LanguageUtils.compile(Arrays.asList(
+                new CzechTransliterator(),
+                new FlattenToAsciiTransliterator()
+        ));
+        final String ascii = "Nothing to do here";
+        assertSame(ascii, czech.transliterate(ascii));
+        assertEquals("Kc a?b?", czech.transliterate("Kč a\uD83Db\uDE00"));
+        assertEquals("", czech.transliterate(""));
+        assertNull(czech.transliterate(null));
+    }
+
+    /**
+     * Compares transliterating a corpus of notifications by applying each transliterator in turn
+     * against the compiled transliterator. Set ROUNDS to 10000 for a realistic benchmark.
+     */
+    @Ignore("Benchmark, run it manually")
+    @Test
+    public void benchmarkTransliteration() {
+        final int ROUNDS = 200;
+
+        final List<Transliterator> transliterators = new ArrayList<>();
+        for (final String language : ALL_LANGUAGES) {
+            transliterators.add(LanguageUtils.getTransliterator(language));
+        }
+        transliterators.add(new FlattenToAsciiTransliterator());
+        final Transliterator chained = new MultiTransliterator(transliterators);
+
+        long start = System.currentTimeMillis();
+        final Transliterator compiled = LanguageUtils.compile(transliterators);
+        final long compileTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        int chainedLength = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            for (final String notification : NOTIFICATIONS) {
+                chainedLength += chained.transliterate(notification).length();
+            }
+        }
+        final long chainedTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        int compiledLength = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            for (final String notification : NOTIFICATIONS) {
+                compiledLength += compiled.transliterate(notification).length();
+            }
+        }
+        final long compiledTime = System.currentTimeMillis() - start;
+
+        assertEquals(chainedLength, compiledLength);
+        LOG.info(
+                "Transliterated {} notifications: chained {}ms, compiled {}ms (compiling took {}ms)",
+                ROUNDS * NOTIFICATIONS.length, chainedTime, compiledTime, compileTime
+        );
+    }
+
     @Test
     public void testTransliterateOption() throws Exception {
         enableTransliteration(false);
@@ -256,6 +363,7 @@ public class LanguageUtilsTest extends TestBase {
 
         enableTransliteration(true);
         assertNotNull("Transliteration option fail! Expected 'On', but result is 'Off'", getTransliteration());
+        assertSame("Transliterator was compiled again for the same configuration", getTransliteration(), getTransliteration());
     }
 
     private void enableTransliteration(boolean enable) {
@@ -0,0 +1,54 @@
+package nodomain.freeyourgadget.gadgetbridge.util.metrics;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest extends TestBase {
+    @Test
+    public void testHistogram() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50, histogram.getMean());
+        assertEquals(50, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(95));
+
+        assertEquals(0, Histogram.getBucket(0));
+        assertEquals(0, Histogram.getBucket(1));
+        assertEquals(1, Histogram.getBucket(2));
+        assertEquals(2, Histogram.getBucket(3));
+        assertEquals(Histogram.BUCKET_BOUNDS.length, Histogram.getBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRegistry() throws Exception {
+        final MetricsRegistry registry = MetricsRegistry.forDevice("00:00:00:00:00:42");
+        assertSame(registry, MetricsRegistry.forDevice("00:00:00:00:00:42"));
+        assertSame(registry.counter("notification.bytes"), registry.counter("notification.bytes"));
+
+        registry.counter("notification.bytes").add(20);
+        registry.counter("notification.bytes").add(22);
+        registry.timer("action.ack.write").recordNanos(7_500_000);
+        registry.setGauge("mtu", 247);
+
+        final JSONObject json = MetricsRegistry.dumpJson().getJSONObject("00:00:00:00:00:42");
+        assertEquals(247, json.getJSONObject("gauges").getLong("mtu"));
+        assertEquals(42, json.getJSONObject("counters").getJSONObject("notification.bytes").getLong("count"));
+        assertEquals(7500, json.getJSONObject("timersMicros").getJSONObject("action.ack.write").getLong("max"));
+        assertTrue(registry.toString().contains("mtu: 247"));
+
+        registry.reset();
+        assertEquals(0, registry.counter("notification.bytes").getCount());
+        assertEquals(0, registry.timer("action.ack.write").getCount());
+    }
+}